@@ -35,4 +35,22 @@ DROP procedure TigOfflineUsers;
 -- QUERY END:
 -- QUERY START:
 DROP procedure TigUserLoginPlainPw;
--- QUERY END:
\ No newline at end of file
+-- QUERY END:
+
+-- QUERY START:
+CREATE procedure Tig_OfflineMessages_GetExpiredMessagesBatch("before" timestamp, "limit" int)
+PARAMETER STYLE JAVA
+LANGUAGE JAVA
+READS SQL DATA
+DYNAMIC RESULT SETS 1
+EXTERNAL NAME 'tigase.db.derby.MsgRepositoryStoredProcedures.getExpiredMessagesBatch';
+-- QUERY END:
+
+-- QUERY START:
+CREATE procedure Tig_OfflineMessages_DeleteExpiredMessagesBatch("msgIds" varchar(32672))
+PARAMETER STYLE JAVA
+LANGUAGE JAVA
+MODIFIES SQL DATA
+DYNAMIC RESULT SETS 1
+EXTERNAL NAME 'tigase.db.derby.MsgRepositoryStoredProcedures.deleteExpiredMessagesBatch';
+-- QUERY END:
@@ -67,3 +67,45 @@ end //
 -- QUERY END:
 
 delimiter ;
+
+-- QUERY START:
+drop procedure if exists Tig_OfflineMessages_GetExpiredMessagesBatch;
+-- QUERY END:
+
+-- QUERY START:
+drop procedure if exists Tig_OfflineMessages_DeleteExpiredMessagesBatch;
+-- QUERY END:
+
+delimiter //
+
+-- QUERY START:
+-- Oldest messages which expired before passed time, ordered by expiration time and id
+create procedure Tig_OfflineMessages_GetExpiredMessagesBatch(_before timestamp(6), _limit int)
+begin
+    select msg_id, expired, message
+    from tig_offline_messages
+    where expired is not null
+        and expired <= _before
+    order by expired asc, msg_id asc
+    limit _limit;
+end //
+-- QUERY END:
+
+-- QUERY START:
+-- Removes expired messages with ids passed as comma separated list, ids returned by Tig_OfflineMessages_GetExpiredMessagesBatch
+create procedure Tig_OfflineMessages_DeleteExpiredMessagesBatch(_msg_ids text)
+begin
+    if _msg_ids regexp '^[0-9]+(,[0-9]+)*$' then
+        set @_delete_expired_batch = concat('delete from tig_offline_messages where expired is not null and msg_id in (',
+            _msg_ids, ')');
+        prepare _delete_expired_batch_stmt from @_delete_expired_batch;
+        execute _delete_expired_batch_stmt;
+        select row_count() as deleted_rows;
+        deallocate prepare _delete_expired_batch_stmt;
+    else
+        select 0 as deleted_rows;
+    end if;
+end //
+-- QUERY END:
+
+delimiter ;
@@ -60,4 +60,37 @@ begin
     return;
 end;
 $$ LANGUAGE 'plpgsql';
--- QUERY END:
\ No newline at end of file
+-- QUERY END:
+
+-- QUERY START:
+-- Oldest messages which expired before passed time, ordered by expiration time and id
+create or replace function Tig_OfflineMessages_GetExpiredMessagesBatch(_before timestamp with time zone, _limit int) returns table(
+    "msg_id" bigint, "expired" timestamp with time zone, "message" text
+) as $$
+begin
+    return query select om.msg_id, om.expired, om.message
+        from tig_offline_messages om
+        where om.expired is not null
+            and om.expired <= _before
+        order by om.expired asc, om.msg_id asc
+        limit _limit;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
+
+-- QUERY START:
+-- Removes expired messages with ids passed as comma separated list, ids returned by Tig_OfflineMessages_GetExpiredMessagesBatch
+create or replace function Tig_OfflineMessages_DeleteExpiredMessagesBatch(_msg_ids text) returns bigint as $$
+declare _deleted bigint;
+begin
+    with deleted as (
+        delete from tig_offline_messages
+        where expired is not null
+            and msg_id = any(string_to_array(_msg_ids, ',')::bigint[])
+        returning msg_id
+    )
+    select count(msg_id) into _deleted from deleted;
+    return _deleted;
+end;
+$$ LANGUAGE 'plpgsql';
+-- QUERY END:
@@ -88,4 +88,49 @@ begin
         where user_id = @_user_id;
 end
 -- QUERY END:
-GO
\ No newline at end of file
+GO
+
+-- QUERY START:
+if exists (select 1 from sys.objects where type = 'P' and name = 'Tig_OfflineMessages_GetExpiredMessagesBatch')
+    drop procedure [dbo].[Tig_OfflineMessages_GetExpiredMessagesBatch];
+-- QUERY END:
+GO
+
+-- QUERY START:
+-- Oldest messages which expired before passed time, ordered by expiration time and id
+create procedure [dbo].[Tig_OfflineMessages_GetExpiredMessagesBatch]
+    @_before datetime,
+    @_limit int
+as
+begin
+    select top (@_limit) om.msg_id, om.expired, om.message
+        from tig_offline_messages om
+        where om.expired is not null
+            and om.expired <= @_before
+        order by om.expired asc, om.msg_id asc;
+end
+-- QUERY END:
+GO
+
+-- QUERY START:
+if exists (select 1 from sys.objects where type = 'P' and name = 'Tig_OfflineMessages_DeleteExpiredMessagesBatch')
+    drop procedure [dbo].[Tig_OfflineMessages_DeleteExpiredMessagesBatch];
+-- QUERY END:
+GO
+
+-- QUERY START:
+-- Removes expired messages with ids passed as comma separated list, ids returned by Tig_OfflineMessages_GetExpiredMessagesBatch
+create procedure [dbo].[Tig_OfflineMessages_DeleteExpiredMessagesBatch]
+    @_msg_ids varchar(max)
+as
+begin
+    set nocount on;
+    declare @_ids xml = cast('<i>' + replace(@_msg_ids, ',', '</i><i>') + '</i>' as xml);
+    delete from tig_offline_messages
+        where expired is not null
+            and msg_id in (select i.id.value('.', 'bigint') from @_ids.nodes('/i') as i(id));
+    select @@ROWCOUNT as affected_rows;
+    set nocount off;
+end
+-- QUERY END:
+GO
@@ -55,7 +55,7 @@ public abstract class DefaultClusteringStrategyAbstract<E extends ConnectionReco
 	private static final String ERROR_FORWARDING_KEY = "error-forwarding";
 
 	private static final Logger log = Logger.getLogger(DefaultClusteringStrategyAbstract.class.getName());
-	private static final String PACKET_FORWARD_CMD = "packet-forward-sm-cmd";
+	protected static final String PACKET_FORWARD_CMD = "packet-forward-sm-cmd";
 	@Inject
 	protected ClusterControllerIfc cluster = null;
 	protected String comp = "sess-man";
@@ -164,6 +164,22 @@ public abstract class DefaultClusteringStrategyAbstract<E extends ConnectionReco
 	@Override
 	public boolean processPacket(Packet packet, XMPPResourceConnection conn) {
 		List<JID> toNodes = getNodesForPacketForward(sm.getComponentId(), null, packet);
+
+		return forwardPacket(packet, conn, toNodes, null);
+	}
+
+	/**
+	 * Method sends the packet to the selected cluster nodes using packet forward command.
+	 *
+	 * @param packet to be sent to cluster nodes
+	 * @param conn user's local session, if any
+	 * @param toNodes list of cluster nodes to which the packet should be sent
+	 * @param params additional parameters of the forward command, may be <code>null</code>
+	 *
+	 * @return true if the packet was sent to at least one cluster node.
+	 */
+	protected boolean forwardPacket(Packet packet, XMPPResourceConnection conn, List<JID> toNodes,
+									Map<String, String> params) {
 		boolean result = (toNodes != null) && (toNodes.size() > 0);
 
 		if (result) {
@@ -173,8 +189,11 @@ public abstract class DefaultClusteringStrategyAbstract<E extends ConnectionReco
 
 			Map<String, String> data = null;
 
-			if (conn != null || packet.getPacketFrom() != null || packet.getStableId() != null) {
+			if (conn != null || packet.getPacketFrom() != null || packet.getStableId() != null || params != null) {
 				data = new LinkedHashMap<String, String>();
+				if (params != null) {
+					data.putAll(params);
+				}
 				if (conn != null) {
 					data.put(SESSION_FOUND_KEY, sm.getComponentId().toString());
 				}
@@ -0,0 +1,629 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.CommandListenerAbstract;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.stats.StatisticsList;
+import tigase.util.routing.RendezvousHashing;
+import tigase.xml.Element;
+import tigase.xmpp.NoConnectionIdException;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static tigase.cluster.api.SessionManagerClusteredIfc.SESSION_FOUND_KEY;
+
+/**
+ * Clustering strategy which keeps a partitioned directory of user sessions.
+ * <br>
+ * Connection records of each user are stored on two cluster nodes (owner and replica) selected using rendezvous
+ * hashing of the user's bare JID, so every node is able to find the directory node for a user without any
+ * communication and only records of users assigned to the node have to be moved when cluster nodes connect or
+ * disconnect.
+ * <br>
+ * Packet to a user without local information about the user's sessions is sent to the directory node, which delivers
+ * it directly to the cluster nodes with the user's sessions (or back to the first node if user is offline) and sends
+ * the list of user's sessions to the first node. This list is kept in a near-cache, so following packets are sent
+ * directly to the proper cluster nodes. Near-cache entries are invalidated by the directory node when the user's
+ * sessions change and expire after <code>near-cache-ttl</code>.
+ * <br>
+ * Contrary to the <code>DefaultClusteringStrategy</code>, which sends packets from node to node until the user's
+ * session is found, number of hops needed to deliver a packet does not depend on the size of the cluster.
+ */
+public class SessionDirectoryClusteringStrategy<E extends ConnectionRecordIfc>
+		extends DefaultClusteringStrategy<E> {
+
+	private static final String DIRECTORY_INVALIDATE_CMD = "session-dir-invalidate-sm-cmd";
+	private static final String DIRECTORY_LOOKUP_KEY = "session-dir-lookup";
+	private static final String DIRECTORY_RESULT_CMD = "session-dir-result-sm-cmd";
+	private static final String DIRECTORY_UPDATE_CMD = "session-dir-update-sm-cmd";
+	private static final String JID_ELEMENT = "jid";
+	private static final Logger log = Logger.getLogger(SessionDirectoryClusteringStrategy.class.getName());
+	private static final String OPERATION_ADD = "add";
+	private static final String OPERATION_KEY = "operation";
+	private static final String OPERATION_REMOVE = "remove";
+	private static final int REPLICAS = 2;
+	private static final int SYNC_BATCH_SIZE = 1000;
+	private static final String USER_ID_KEY = "userId";
+
+	private final ConcurrentHashMap<BareJID, DirectoryEntry> directory = new ConcurrentHashMap<>();
+	private final LongAdder directoryLookups = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+	private final LongAdder localHits = new LongAdder();
+	private final ConcurrentHashMap<JID, E> localRecords = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<BareJID, NearCacheEntry> nearCache = new ConcurrentHashMap<>();
+	private final LongAdder nearCacheHits = new LongAdder();
+	private final LongAdder nearCacheMisses = new LongAdder();
+	private final ConcurrentHashMap<JID, Long> nodeHashes = new ConcurrentHashMap<>();
+	private final LongAdder staleForwards = new LongAdder();
+	private List<JID> directoryNodes = Collections.emptyList();
+	@ConfigField(desc = "Maximal number of users in near-cache of sessions on other cluster nodes", alias = "near-cache-size")
+	private int nearCacheSize = 100000;
+	@ConfigField(desc = "Time for which sessions of users on other cluster nodes are cached", alias = "near-cache-ttl")
+	private Duration nearCacheTtl = Duration.ofMinutes(1);
+
+	public SessionDirectoryClusteringStrategy() {
+		super();
+		addCommandListener(new DirectoryUpdateCommand(DIRECTORY_UPDATE_CMD));
+		addCommandListener(new DirectoryResultCommand(DIRECTORY_RESULT_CMD));
+		addCommandListener(new DirectoryInvalidateCommand(DIRECTORY_INVALIDATE_CMD));
+	}
+
+	/**
+	 * Removes expired near-cache entries and directory entries of offline users which are no longer watched.
+	 */
+	@Override
+	public void everyMinute() {
+		super.everyMinute();
+		long now = System.currentTimeMillis();
+		nearCache.values().removeIf(entry -> entry.expires <= now);
+		for (BareJID userId : directory.keySet()) {
+			directory.computeIfPresent(userId, (key, entry) -> {
+				if (entry.watchedUntil <= now) {
+					entry.watchers.clear();
+				}
+				return entry.isUnused() ? null : entry;
+			});
+		}
+	}
+
+	@Override
+	public String getInfo() {
+		return "session directory strategy";
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		super.getStatistics(compName, list);
+		list.add(comp, prefix + "Directory users", directory.size(), Level.FINE);
+		list.add(comp, prefix + "Directory lookups", directoryLookups.sum(), Level.FINE);
+		list.add(comp, prefix + "Directory local hits", localHits.sum(), Level.FINER);
+		list.add(comp, prefix + "Near-cache size", nearCache.size(), Level.FINE);
+		list.add(comp, prefix + "Near-cache hits", nearCacheHits.sum(), Level.FINE);
+		list.add(comp, prefix + "Near-cache misses", nearCacheMisses.sum(), Level.FINE);
+		list.add(comp, prefix + "Near-cache invalidations", invalidations.sum(), Level.FINER);
+		list.add(comp, prefix + "Stale forwards", staleForwards.sum(), Level.FINER);
+	}
+
+	@Override
+	public void handleLocalResourceBind(XMPPResourceConnection conn) {
+		super.handleLocalResourceBind(conn);
+		try {
+			localSessionAdded(createConnectionRecord(conn));
+		} catch (NotAuthorizedException | NoConnectionIdException ex) {
+			log.log(Level.FINE, "Could not register session in directory: " + conn, ex);
+		}
+	}
+
+	@Override
+	public void handleLocalUserChangedConnId(BareJID userId, XMPPResourceConnection conn, JID oldConnId,
+											 JID newConnId) {
+		super.handleLocalUserChangedConnId(userId, conn, oldConnId, newConnId);
+		E old = localRecords.get(oldConnId);
+		if (old != null) {
+			localSessionRemoved(old);
+			E rec = getConnectionRecordInstance();
+			rec.setRecordFields(old.getNode(), old.getUserJid(), old.getSessionId(), newConnId);
+			localSessionAdded(rec);
+		}
+	}
+
+	@Override
+	public void handleLocalUserLogout(BareJID userId, XMPPResourceConnection conn) {
+		super.handleLocalUserLogout(userId, conn);
+		try {
+			E rec = localRecords.get(conn.getConnectionId());
+			if (rec != null) {
+				localSessionRemoved(rec);
+			}
+		} catch (NoConnectionIdException ex) {
+			log.log(Level.FINE, "Could not remove session from directory: " + conn, ex);
+		}
+	}
+
+	@Override
+	public void nodeConnected(JID node) {
+		super.nodeConnected(node);
+		rebalance(null);
+	}
+
+	@Override
+	public void nodeDisconnected(JID node) {
+		super.nodeDisconnected(node);
+		rebalance(node);
+	}
+
+	@Override
+	public boolean processPacket(Packet packet, XMPPResourceConnection conn) {
+		BareJID userId = getDirectoryUserId(packet);
+		if (userId == null) {
+			return super.processPacket(packet, conn);
+		}
+
+		List<JID> nodes = getNodesForUser(userId, packet.getStanzaTo());
+		if (nodes != null) {
+			return forwardPacket(packet, conn, nodes, null);
+		}
+
+		// no information about user's sessions, directory node will deliver the packet
+		JID directoryNode = null;
+		for (JID node : getDirectoryNodes(userId, getDirectoryNodes())) {
+			if (!sm.getComponentId().equals(node)) {
+				directoryNode = node;
+				break;
+			}
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Sending packet {0} to directory node {1}", new Object[]{packet, directoryNode});
+		}
+		return directoryNode != null &&
+				forwardPacket(packet, conn, Collections.singletonList(directoryNode),
+							  Collections.singletonMap(DIRECTORY_LOOKUP_KEY, userId.toString()));
+	}
+
+	@Override
+	public boolean sendToNextNode(JID fromNode, Set<JID> visitedNodes, Map<String, String> data, Packet packet) {
+		BareJID userId = getDirectoryUserId(packet);
+		if (userId == null) {
+			return super.sendToNextNode(fromNode, visitedNodes, data, packet);
+		}
+
+		JID local = sm.getComponentId();
+		String lookup = data == null ? null : data.remove(DIRECTORY_LOOKUP_KEY);
+		if (lookup != null) {
+			return sendToSessionNodes(fromNode, visitedNodes, data, packet, userId);
+		}
+		if (local.equals(fromNode)) {
+			// packet returned to this node as there was no session on the node selected using near-cache
+			nearCache.computeIfPresent(userId, (key, entry) -> entry.records.isEmpty() ? entry : null);
+			return false;
+		}
+		if (local.toString().equals(data == null ? null : data.get(SESSION_FOUND_KEY))) {
+			return false;
+		}
+
+		// near-cache of the first node was not up to date, packet needs to be processed there as for offline user
+		staleForwards.increment();
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "No session for packet {0}, returning it to the first node {1}",
+					new Object[]{packet, fromNode});
+		}
+		cluster.sendToNodes(PACKET_FORWARD_CMD, data, packet.getElement(), fromNode, visitedNodes, fromNode);
+		return true;
+	}
+
+	/**
+	 * Returns cluster nodes which keep connection records of the user, starting from the owner.
+	 */
+	protected List<JID> getDirectoryNodes(BareJID userId, List<JID> nodes) {
+		JID[] top = new JID[REPLICAS];
+		int count = RendezvousHashing.top(RendezvousHashing.hash(userId.toString()), nodes,
+										  node -> nodeHashes.computeIfAbsent(node, n -> RendezvousHashing.hash(
+												  n.toString())), node -> true, top);
+		return Arrays.asList(top).subList(0, count);
+	}
+
+	void localSessionAdded(E rec) {
+		localRecords.put(rec.getConnectionId(), rec);
+		updateDirectory(OPERATION_ADD, Collections.singletonList(rec));
+	}
+
+	void localSessionRemoved(E rec) {
+		if (localRecords.remove(rec.getConnectionId()) != null) {
+			updateDirectory(OPERATION_REMOVE, Collections.singletonList(rec));
+		}
+	}
+
+	private E createConnectionRecord(XMPPResourceConnection conn)
+			throws NotAuthorizedException, NoConnectionIdException {
+		E rec = getConnectionRecordInstance();
+		rec.setRecordFields(sm.getComponentId(), conn.getJID(), conn.getSessionId(), conn.getConnectionId());
+		return rec;
+	}
+
+	private List<JID> getDirectoryNodes() {
+		List<JID> connected = getNodesConnected();
+		List<JID> nodes = new ArrayList<>(connected.size() + 1);
+		nodes.addAll(connected);
+		if (!nodes.contains(sm.getComponentId())) {
+			nodes.add(sm.getComponentId());
+		}
+		return nodes;
+	}
+
+	/**
+	 * Returns bare JID of the user if the packet should be delivered using the session directory.
+	 */
+	private BareJID getDirectoryUserId(Packet packet) {
+		if (!isSuitableForForward(packet) || isIqResponseToNode(packet)) {
+			return null;
+		}
+		return packet.getStanzaTo().getBareJID();
+	}
+
+	/**
+	 * Returns cluster nodes (other than local) with user's sessions to which packet should be sent using local
+	 * directory or near-cache, or <code>null</code> if sessions of the user are not known.
+	 */
+	private List<JID> getNodesForUser(BareJID userId, JID to) {
+		DirectoryEntry entry = directory.get(userId);
+		if (entry != null || getDirectoryNodes(userId, getDirectoryNodes()).contains(sm.getComponentId())) {
+			localHits.increment();
+			return selectNodes(entry == null ? Collections.emptyList() : entry.records, to, null);
+		}
+		NearCacheEntry cached = nearCache.get(userId);
+		if (cached != null && cached.expires > System.currentTimeMillis()) {
+			nearCacheHits.increment();
+			return selectNodes(cached.records, to, null);
+		}
+		nearCacheMisses.increment();
+		return null;
+	}
+
+	private void rebalance(JID disconnected) {
+		nearCache.clear();
+		List<JID> oldNodes = directoryNodes;
+		List<JID> newNodes = getDirectoryNodes();
+		directoryNodes = newNodes;
+		JID local = sm.getComponentId();
+		Map<JID, Queue<Element>> sync = new HashMap<>();
+
+		for (BareJID userId : directory.keySet()) {
+			DirectoryEntry entry = directory.computeIfPresent(userId, (key, e) -> {
+				if (disconnected != null) {
+					e.removeNode(disconnected);
+				}
+				e.watchers.clear();
+				return e.isUnused() ? null : e;
+			});
+			if (entry == null) {
+				continue;
+			}
+			List<JID> holders = getDirectoryNodes(userId, newNodes);
+			List<JID> oldHolders = getDirectoryNodes(userId, oldNodes);
+			for (JID holder : holders) {
+				if (!holder.equals(local) && !oldHolders.contains(holder)) {
+					for (E rec : entry.records) {
+						sync.computeIfAbsent(holder, node -> new ArrayDeque<>()).offer(rec.toElement());
+					}
+				}
+			}
+			if (!holders.contains(local)) {
+				directory.remove(userId, entry);
+			}
+		}
+		for (E rec : localRecords.values()) {
+			BareJID userId = rec.getUserJid().getBareJID();
+			List<JID> oldHolders = getDirectoryNodes(userId, oldNodes);
+			for (JID holder : getDirectoryNodes(userId, newNodes)) {
+				if (!holder.equals(local) && !oldHolders.contains(holder)) {
+					sync.computeIfAbsent(holder, node -> new ArrayDeque<>()).offer(rec.toElement());
+				}
+			}
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Cluster nodes changed to {0}, synchronizing directory with nodes: {1}",
+					new Object[]{newNodes, sync.keySet()});
+		}
+		for (Map.Entry<JID, Queue<Element>> e : sync.entrySet()) {
+			sendUpdate(e.getKey(), OPERATION_ADD, e.getValue());
+		}
+	}
+
+	/**
+	 * Selects nodes with sessions for the packet. If packet is addressed to the full JID and there is a session for
+	 * this resource, only the node with this session is returned.
+	 */
+	private List<JID> selectNodes(List<E> records, JID to, Set<JID> excluded) {
+		JID local = sm.getComponentId();
+		List<JID> result = new ArrayList<>(records.size());
+		if (to.getResource() != null) {
+			for (E rec : records) {
+				if (to.equals(rec.getUserJid())) {
+					if (!local.equals(rec.getNode()) && (excluded == null || !excluded.contains(rec.getNode()))) {
+						result.add(rec.getNode());
+					}
+					return result;
+				}
+			}
+		}
+		for (E rec : records) {
+			JID node = rec.getNode();
+			if (!local.equals(node) && (excluded == null || !excluded.contains(node)) && !result.contains(node)) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	private void sendInvalidate(Set<JID> watchers, BareJID userId) {
+		if (watchers.isEmpty()) {
+			return;
+		}
+		Queue<Element> packets = new ArrayDeque<>(1);
+		packets.offer(new Element(JID_ELEMENT, userId.toString()));
+		cluster.sendToNodes(DIRECTORY_INVALIDATE_CMD, packets, sm.getComponentId(), null,
+							watchers.toArray(new JID[watchers.size()]));
+	}
+
+	/**
+	 * Delivers the packet to nodes with sessions of the user as a directory node and sends records of user's sessions
+	 * to the first node.
+	 */
+	private boolean sendToSessionNodes(JID fromNode, Set<JID> visitedNodes, Map<String, String> data, Packet packet,
+									   BareJID userId) {
+		if (!getDirectoryNodes(userId, getDirectoryNodes()).contains(sm.getComponentId())) {
+			// cluster nodes changed and this node is no longer a directory node for the user
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Not a directory node for packet {0}, falling back to default strategy",
+						new Object[]{packet});
+			}
+			return super.sendToNextNode(fromNode, visitedNodes, data, packet);
+		}
+
+		directoryLookups.increment();
+		long watchedUntil = System.currentTimeMillis() + nearCacheTtl.toMillis();
+		DirectoryEntry entry = directory.compute(userId, (key, e) -> {
+			if (e == null) {
+				e = new DirectoryEntry();
+			}
+			e.watchers.add(fromNode);
+			e.watchedUntil = watchedUntil;
+			return e;
+		});
+		List<E> records = entry.records;
+
+		Queue<Element> result = new ArrayDeque<>(records.size());
+		for (E rec : records) {
+			result.offer(rec.toElement());
+		}
+		cluster.sendToNodes(DIRECTORY_RESULT_CMD, Collections.singletonMap(USER_ID_KEY, userId.toString()), result,
+							sm.getComponentId(), null, fromNode);
+
+		List<JID> nodes = selectNodes(records, packet.getStanzaTo(), visitedNodes);
+		if (nodes.isEmpty()) {
+			boolean sessionFound = sm.getComponentId().toString().equals(data.get(SESSION_FOUND_KEY));
+			for (E rec : records) {
+				sessionFound |= fromNode.equals(rec.getNode());
+			}
+			if (sessionFound) {
+				return false;
+			}
+			// user is offline, packet needs to be processed by the first node
+			nodes = Collections.singletonList(fromNode);
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Directory sending packet {0} to nodes {1}", new Object[]{packet, nodes});
+		}
+		cluster.sendToNodes(PACKET_FORWARD_CMD, data, packet.getElement(), fromNode, visitedNodes,
+							nodes.toArray(new JID[nodes.size()]));
+		return true;
+	}
+
+	private void sendUpdate(JID node, String operation, Queue<Element> records) {
+		Map<String, String> params = Collections.singletonMap(OPERATION_KEY, operation);
+		while (!records.isEmpty()) {
+			Queue<Element> batch = new ArrayDeque<>(Math.min(records.size(), SYNC_BATCH_SIZE));
+			while (batch.size() < SYNC_BATCH_SIZE && !records.isEmpty()) {
+				batch.offer(records.poll());
+			}
+			cluster.sendToNodes(DIRECTORY_UPDATE_CMD, params, batch, sm.getComponentId(), null, node);
+		}
+	}
+
+	/**
+	 * Applies change of the connection record to the local directory and notifies nodes which cached sessions of the
+	 * user.
+	 */
+	private void applyUpdate(String operation, E rec) {
+		BareJID userId = rec.getUserJid().getBareJID();
+		Set<JID> watchers = new HashSet<>();
+		directory.compute(userId, (key, entry) -> {
+			if (entry == null) {
+				if (OPERATION_REMOVE.equals(operation)) {
+					return null;
+				}
+				entry = new DirectoryEntry();
+			}
+			boolean changed = OPERATION_ADD.equals(operation) ? entry.add(rec) : entry.remove(rec);
+			if (changed && !entry.watchers.isEmpty()) {
+				watchers.addAll(entry.watchers);
+				entry.watchers.clear();
+			}
+			return entry.isUnused() ? null : entry;
+		});
+		sendInvalidate(watchers, userId);
+	}
+
+	private void updateDirectory(String operation, List<E> records) {
+		JID local = sm.getComponentId();
+		List<JID> nodes = getDirectoryNodes();
+		Map<JID, Queue<Element>> updates = new HashMap<>();
+		for (E rec : records) {
+			for (JID node : getDirectoryNodes(rec.getUserJid().getBareJID(), nodes)) {
+				if (local.equals(node)) {
+					applyUpdate(operation, rec);
+				} else {
+					updates.computeIfAbsent(node, n -> new ArrayDeque<>()).offer(rec.toElement());
+				}
+			}
+		}
+		for (Map.Entry<JID, Queue<Element>> e : updates.entrySet()) {
+			sendUpdate(e.getKey(), operation, e.getValue());
+		}
+	}
+
+	private List<E> parseRecords(Queue<Element> packets) {
+		List<E> records = new ArrayList<>(packets == null ? 0 : packets.size());
+		if (packets != null) {
+			for (Element elem : packets) {
+				E rec = getConnectionRecordInstance();
+				rec.setElement(elem);
+				records.add(rec);
+			}
+		}
+		return records;
+	}
+
+	private class NearCacheEntry {
+
+		private final long expires;
+		private final List<E> records;
+
+		NearCacheEntry(List<E> records, long expires) {
+			this.records = records;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Connection records of a user. Instances are modified only within <code>compute</code> methods of the
+	 * directory, records list is replaced on each change so it may be read without locking.
+	 */
+	private class DirectoryEntry {
+
+		private final Set<JID> watchers = new HashSet<>();
+		private volatile List<E> records = Collections.emptyList();
+		private long watchedUntil;
+
+		boolean add(E rec) {
+			List<E> tmp = new ArrayList<>(records.size() + 1);
+			for (E r : records) {
+				if (!r.getConnectionId().equals(rec.getConnectionId())) {
+					tmp.add(r);
+				}
+			}
+			tmp.add(rec);
+			records = tmp;
+			return true;
+		}
+
+		boolean isUnused() {
+			return records.isEmpty() && watchers.isEmpty();
+		}
+
+		boolean remove(E rec) {
+			List<E> tmp = new ArrayList<>(records.size());
+			for (E r : records) {
+				if (!r.getConnectionId().equals(rec.getConnectionId())) {
+					tmp.add(r);
+				}
+			}
+			boolean changed = tmp.size() != records.size();
+			records = tmp;
+			return changed;
+		}
+
+		void removeNode(JID node) {
+			List<E> tmp = new ArrayList<>(records.size());
+			for (E r : records) {
+				if (!node.equals(r.getNode())) {
+					tmp.add(r);
+				}
+			}
+			records = tmp;
+		}
+	}
+
+	private class DirectoryInvalidateCommand
+			extends CommandListenerAbstract {
+
+		public DirectoryInvalidateCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			if (packets != null) {
+				for (Element elem : packets) {
+					invalidations.increment();
+					nearCache.remove(BareJID.bareJIDInstanceNS(elem.getCData()));
+				}
+			}
+		}
+	}
+
+	private class DirectoryResultCommand
+			extends CommandListenerAbstract {
+
+		public DirectoryResultCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			if (nearCache.size() >= nearCacheSize) {
+				return;
+			}
+			BareJID userId = BareJID.bareJIDInstanceNS(data.get(USER_ID_KEY));
+			nearCache.put(userId, new NearCacheEntry(parseRecords(packets),
+													 System.currentTimeMillis() + nearCacheTtl.toMillis()));
+		}
+	}
+
+	private class DirectoryUpdateCommand
+			extends CommandListenerAbstract {
+
+		public DirectoryUpdateCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			String operation = data.get(OPERATION_KEY);
+			for (E rec : parseRecords(packets)) {
+				applyUpdate(operation, rec);
+			}
+		}
+	}
+}
@@ -19,30 +19,103 @@ package tigase.component.responses;
 
 import tigase.kernel.beans.Bean;
 import tigase.server.Packet;
+import tigase.stats.ComponentStatisticsProvider;
+import tigase.stats.StatisticsList;
 import tigase.xmpp.jid.JID;
 
-import java.util.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Keeps callbacks for responses to {@code <iq/>} stanzas sent by the component.
+ * <br>
+ * Callbacks are kept in a concurrent map, so modules may send requests and process responses from many threads
+ * without external synchronization. Timeouts are tracked by a timing wheel with {@link #TICK} resolution, so
+ * {@link #checkTimeouts()} (called every second) visits only entries which deadline falls into elapsed ticks instead
+ * of scanning all pending entries.
+ */
 @Bean(name = "responseManager", active = true)
-public class ResponseManager {
+public class ResponseManager
+		implements ComponentStatisticsProvider {
 
 	public static final long DEFAULT_TIMEOUT = 1000 * 60;
+
+	public static final long TICK = 1000;
+
+	private static final int WHEEL_SIZE = 512;
+
 	protected final Logger log = Logger.getLogger(this.getClass().getName());
-	private final Map<String, Entry> handlers = new HashMap<String, Entry>();
+	private final Map<String, Entry> handlers = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong idCounter = new AtomicLong();
+	// prefix makes ids unique between instances and restarts of the component
+	private final String idPrefix = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + "-";
+	private final LongAdder latency = new LongAdder();
+	private final LongAccumulator maxLatency = new LongAccumulator(Long::max, 0);
+	private final LongAdder responses = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final ReentrantLock wheelLock = new ReentrantLock();
+	private final ConcurrentLinkedQueue<Entry>[] wheel;
+	private volatile long currentTick = System.currentTimeMillis() / TICK;
+
+	@SuppressWarnings("unchecked")
+	public ResponseManager() {
+		wheel = new ConcurrentLinkedQueue[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
 
+	/**
+	 * Calls {@link AsyncCallback#onTimeout()} for expired entries. Only one thread advances the timing wheel at a
+	 * time, concurrent calls return immediately.
+	 */
 	public void checkTimeouts() {
-		long now = (new Date()).getTime();
-		Iterator<java.util.Map.Entry<String, Entry>> it = this.getHandlers().entrySet().iterator();
-		while (it.hasNext()) {
-			java.util.Map.Entry<String, Entry> e = it.next();
-			if (e.getValue().timestamp + e.getValue().timeout < now) {
-				it.remove();
-				e.getValue().callback.onTimeout();
+		if (!wheelLock.tryLock()) {
+			return;
+		}
+		try {
+			final long now = System.currentTimeMillis();
+			final long nowTick = now / TICK;
+			long tick = currentTick;
+			// after a long pause every bucket has to be visited only once
+			long from = Math.max(tick + 1, nowTick - WHEEL_SIZE + 1);
+			for (long t = from; t <= nowTick; t++) {
+				expire(wheel[(int) (t % WHEEL_SIZE)], now);
+			}
+			if (nowTick > tick) {
+				currentTick = nowTick;
 			}
+		} finally {
+			wheelLock.unlock();
 		}
 	}
 
+	@Override
+	public void everyHour() {
+	}
+
+	@Override
+	public void everyMinute() {
+	}
+
+	@Override
+	public void everySecond() {
+		checkTimeouts();
+	}
+
+	public int getPendingCount() {
+		return handlers.size();
+	}
+
 	/**
 	 * Returns handler for response of sent {@code  <iq/>} stanza.
 	 *
@@ -73,12 +146,35 @@ public class ResponseManager {
 			return null;
 		}
 
-		this.getHandlers().remove(id);
+		// entry could expire in the meantime
+		if (!this.getHandlers().remove(id, entry)) {
+			return null;
+		}
+		recordLatency(System.nanoTime() - entry.nanoTime);
 
 		Runnable r = new DefaultResponseHandler(element, entry);
 		return r;
 	}
 
+	public long getResponsesCount() {
+		return responses.sum();
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		long count = responses.sum();
+		list.add(compName, "Pending IQ responses", handlers.size(), Level.FINE);
+		list.add(compName, "Received IQ responses", count, Level.FINER);
+		list.add(compName, "Timed out IQ responses", timeouts.sum(), Level.FINE);
+		list.add(compName, "Average IQ response time [ms]", count == 0 ? 0 : latency.sum() / count / 1000000,
+				 Level.FINER);
+		list.add(compName, "Maximal IQ response time [ms]", maxLatency.get() / 1000000, Level.FINER);
+	}
+
+	public long getTimeoutsCount() {
+		return timeouts.sum();
+	}
+
 	/**
 	 * Register callback for response of sent {@code <iq/>} stanza.
 	 *
@@ -95,13 +191,18 @@ public class ResponseManager {
 		JID to = stanza.getStanzaTo();
 		String id = stanza.getElement().getAttributeStaticStr("id");
 		if (id == null) {
-			id = UUID.randomUUID().toString();
+			id = nextId();
 			stanza.getElement().setAttribute("id", id);
 		}
 
 		if (callback != null) {
-			Entry entry = new Entry(to, (new Date()).getTime(), timeout == null ? DEFAULT_TIMEOUT : timeout, callback);
-			this.getHandlers().put(id, entry);
+			Entry entry = new Entry(id, to, System.currentTimeMillis(), timeout == null ? DEFAULT_TIMEOUT : timeout,
+									callback);
+			Entry old = this.getHandlers().put(id, entry);
+			if (old != null && log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Replaced callback for response with already used id: {0}", id);
+			}
+			schedule(entry);
 		}
 
 		return id;
@@ -111,6 +212,44 @@ public class ResponseManager {
 		return handlers;
 	}
 
+	protected String nextId() {
+		return idPrefix + Long.toString(idCounter.incrementAndGet(), 36);
+	}
+
+	private void expire(ConcurrentLinkedQueue<Entry> bucket, long now) {
+		Iterator<Entry> it = bucket.iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.getTimestamp() + entry.getTimeout() <= now) {
+				it.remove();
+				// entry may already be removed when response was received
+				if (getHandlers().remove(entry.id, entry)) {
+					timeouts.increment();
+					try {
+						entry.callback.onTimeout();
+					} catch (Exception ex) {
+						log.log(Level.WARNING, "Exception while processing timeout of response " + entry.id, ex);
+					}
+				}
+			} else if (getHandlers().get(entry.id) != entry) {
+				it.remove();
+			}
+		}
+	}
+
+	private void recordLatency(long nanos) {
+		responses.increment();
+		latency.add(nanos);
+		maxLatency.accumulate(nanos);
+	}
+
+	private void schedule(Entry entry) {
+		long tick = (entry.getTimestamp() + entry.getTimeout()) / TICK;
+		// bucket of the current tick may be already processed, entry will be expired during next tick
+		tick = Math.max(tick, currentTick + 1);
+		wheel[(int) (tick % WHEEL_SIZE)].offer(entry);
+	}
+
 	private boolean verify(final Packet response, final Entry entry) {
 		final JID jid = response.getStanzaFrom();
 
@@ -126,14 +265,23 @@ public class ResponseManager {
 
 		private final AsyncCallback callback;
 
+		private final String id;
+
 		private final JID jid;
 
+		private final long nanoTime = System.nanoTime();
+
 		private final long timeout;
 
 		private final long timestamp;
 
 		public Entry(JID jid, long timestamp, long timeout, AsyncCallback callback) {
+			this(null, jid, timestamp, timeout, callback);
+		}
+
+		public Entry(String id, JID jid, long timestamp, long timeout, AsyncCallback callback) {
 			super();
+			this.id = id;
 			this.jid = jid;
 			this.timestamp = timestamp;
 			this.timeout = timeout;
@@ -144,6 +292,10 @@ public class ResponseManager {
 			return callback;
 		}
 
+		String getId() {
+			return id;
+		}
+
 		JID getJid() {
 			return jid;
 		}
@@ -157,4 +309,4 @@ public class ResponseManager {
 		}
 
 	}
-}
\ No newline at end of file
+}
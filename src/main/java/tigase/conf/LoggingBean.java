@@ -21,6 +21,7 @@ import tigase.kernel.beans.config.ConfigField;
 import tigase.kernel.beans.config.ConfigurationChangedAware;
 import tigase.server.Packet;
 import tigase.server.monitor.MonitorRuntime;
+import tigase.util.log.AsyncLogHandler;
 import tigase.util.log.LogFormatter;
 
 import java.io.ByteArrayInputStream;
@@ -165,6 +166,21 @@ public class LoggingBean
 			props.putIfAbsent("pattern", "logs/tigase.log");
 			return props;
 		});
+
+		handlers.compute(AsyncLogHandler.class.getCanonicalName(), (cls, props) -> {
+			if (props == null) {
+				props = new HashMap<>();
+			}
+			props.putIfAbsent("level", Level.ALL);
+			props.putIfAbsent("append", true);
+			props.putIfAbsent("count", 5);
+			props.putIfAbsent("limit", 10000000);
+			props.putIfAbsent("formatter", LogFormatter.class.getCanonicalName());
+			props.putIfAbsent("pattern", "logs/tigase.log");
+			props.putIfAbsent("queueSize", 16384);
+			props.putIfAbsent("overflow", AsyncLogHandler.OverflowPolicy.DROP.name());
+			return props;
+		});
 		this.handlers = handlers;
 	}
 
@@ -22,6 +22,7 @@ import tigase.xml.Element;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.JID;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
@@ -40,6 +41,16 @@ public interface MsgRepositoryIfc<T extends DataSource>
 
 	void setCondition(ReentrantLock lock, Condition condition);
 
+	/**
+	 * Removes messages which expired before passed time from the repository, oldest first.
+	 *
+	 * @param before time of expiration
+	 * @param limit max number of messages to remove
+	 *
+	 * @return removed messages or empty list if there are no more expired messages
+	 */
+	List<Element> removeExpiredMessages(Date before, int limit);
+
 	Queue<Element> loadMessagesToJID(List<String> db_ids, XMPPResourceConnection session,
 													 boolean delete, MsgRepository.OfflineMessagesProcessor proc)
 			throws UserNotFoundException;
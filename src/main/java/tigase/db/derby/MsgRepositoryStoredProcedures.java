@@ -101,6 +101,36 @@ public class MsgRepositoryStoredProcedures {
 		}
 	}
 
+	public static void deleteExpiredMessagesBatch(String msgIds, ResultSet[] data) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			String[] ids = msgIds.split(",");
+			StringBuilder sb = new StringBuilder("delete from tig_offline_messages" +
+														 " where expired is not null and msg_id in (");
+			for (int i = 0; i < ids.length; i++) {
+				sb.append(i == 0 ? "?" : ",?");
+			}
+			sb.append(")");
+
+			PreparedStatement stmt = conn.prepareStatement(sb.toString());
+			for (int i = 0; i < ids.length; i++) {
+				stmt.setLong(i + 1, Long.parseLong(ids[i]));
+			}
+
+			int affectedRows = stmt.executeUpdate();
+
+			Statement stmt1 = conn.createStatement();
+			data[0] = stmt1.executeQuery("select " + affectedRows + " from sysibm.sysdummy1");
+		} catch (NumberFormatException e) {
+			throw new SQLException(e);
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void deleteMessages(String receiver, ResultSet[] data) throws SQLException {
 		Connection conn = DriverManager.getConnection("jdbc:default:connection");
 
@@ -172,6 +202,25 @@ public class MsgRepositoryStoredProcedures {
 		}
 	}
 
+	public static void getExpiredMessagesBatch(Timestamp before, int limit, ResultSet[] data) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:default:connection");
+
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+		try {
+			PreparedStatement stmt = conn.prepareStatement(
+					"select om.msg_id, om.expired, om.message" + " from tig_offline_messages om" +
+							" where om.expired is not null and om.expired <= ?" +
+							" order by om.expired asc, om.msg_id asc");
+			stmt.setTimestamp(1, before);
+			stmt.setMaxRows(limit);
+
+			data[0] = stmt.executeQuery();
+		} finally {
+			conn.close();
+		}
+	}
+
 	public static void getExpiredMessagesBefore(Timestamp before, ResultSet[] data) throws SQLException {
 		Connection conn = DriverManager.getConnection("jdbc:default:connection");
 
@@ -0,0 +1,104 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import tigase.component.exceptions.RepositoryException;
+import tigase.db.DBInitException;
+import tigase.db.DataSource;
+import tigase.db.Repository;
+import tigase.util.Version;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Data source for embedded, file-backed repository. Supported URI format is:
+ * <pre>
+ * embedded://path/to/file.db?autoCreateUser=true&amp;compactionThreshold=67108864
+ * </pre>
+ * where <code>compactionThreshold</code> is the minimal number of bytes of garbage in the data file which triggers its
+ * compaction.
+ */
+@Repository.Meta(supportedUris = {"embedded://.*"})
+public class EmbeddedDataSource
+		implements DataSource {
+
+	public static final String COMPACTION_THRESHOLD_KEY = "compactionThreshold";
+	private static final long DEF_COMPACTION_THRESHOLD = 64 * 1024 * 1024;
+	private static final String SCHEME = "embedded://";
+	private static final Logger log = Logger.getLogger(EmbeddedDataSource.class.getCanonicalName());
+
+	private String resource_uri;
+	private MappedStore store;
+
+	@Override
+	public Optional<Version> getSchemaVersion(String component) {
+		return Optional.empty();
+	}
+
+	@Override
+	public String getResourceUri() {
+		return resource_uri;
+	}
+
+	@Override
+	public void initialize(String resource_uri) throws RepositoryException {
+		initRepository(resource_uri, new HashMap<>());
+	}
+
+	@Override
+	@Deprecated
+	public void initRepository(String resource_uri, Map<String, String> params) throws DBInitException {
+		this.resource_uri = resource_uri;
+
+		log.log(Level.FINEST, "Initializing repository, uri: {0}, params: {1}", new Object[]{resource_uri, params});
+
+		String file_name = resource_uri.startsWith(SCHEME) ? resource_uri.substring(SCHEME.length()) : resource_uri;
+		long compactionThreshold = DEF_COMPACTION_THRESHOLD;
+		int idx = file_name.indexOf("?");
+		if (idx > 0) {
+			for (String param : file_name.substring(idx + 1).split("&")) {
+				String[] kv = param.split("=", 2);
+				if (kv.length == 2 && COMPACTION_THRESHOLD_KEY.equals(kv[0])) {
+					compactionThreshold = Long.parseLong(kv[1]);
+				}
+			}
+			file_name = file_name.substring(0, idx);
+		}
+
+		try {
+			Path file = Paths.get(file_name).toAbsolutePath();
+			if (store != null) {
+				store.close();
+			}
+			store = new MappedStore(file, compactionThreshold);
+		} catch (IOException | NumberFormatException ex) {
+			throw new DBInitException("Could not open embedded repository " + resource_uri, ex);
+		}
+	}
+
+	public MappedStore getStore() {
+		return store;
+	}
+}
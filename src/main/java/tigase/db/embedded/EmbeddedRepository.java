@@ -0,0 +1,338 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import tigase.db.*;
+import tigase.xmpp.jid.BareJID;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class <code>EmbeddedRepository</code> is an embedded, file-backed implementation of <code>UserRepository</code> and
+ * <code>AuthRepository</code>. It keeps the same <code>subnode/key</code> data model as <code>XMLRepository</code> but
+ * it is not synchronized, so it may be used by many threads at the same time and with large number of users.
+ * <br>
+ * Data is stored using {@link MappedStore}.
+ */
+@Repository.Meta(supportedUris = {"embedded://.*"})
+public class EmbeddedRepository
+		implements DataSourceAware<EmbeddedDataSource>, AuthRepository, UserRepository {
+
+	private static final String USER_STR = "User: ";
+	private static final String NOT_FOUND_STR = " has not been found in repository.";
+	private static final Logger log = Logger.getLogger(EmbeddedRepository.class.getName());
+	private AuthRepository auth = null;
+	private boolean autoCreateUser = false;
+	private String resourceUri = null;
+	private MappedStore store = null;
+
+	@Override
+	public void addDataList(BareJID user, final String subnode, final String key, final String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Adding data list, user: {0}, subnode: {1}, key: {2}, list: {3}",
+					new Object[]{user, subnode, key, Arrays.asList(list)});
+		}
+		try {
+			store.addData(user, subnode, key, list);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			addDataList(user, subnode, key, list);
+		} catch (IOException e) {
+			throw new TigaseDBException("Problem adding data list to repository", e);
+		}
+	}
+
+	@Override
+	public void addUser(BareJID user) throws UserExistsException, TigaseDBException {
+		try {
+			if (!store.addUser(user)) {
+				throw new UserExistsException(USER_STR + user + " already exists.");
+			}
+		} catch (IOException e) {
+			throw new TigaseDBException("Error adding user to repository: ", e);
+		}
+	}
+
+	@Override
+	public void addUser(BareJID user, final String password) throws UserExistsException, TigaseDBException {
+		auth.addUser(user, password);
+	}
+
+	@Override
+	public String getData(BareJID user, final String subnode, final String key, final String def)
+			throws UserNotFoundException, TigaseDBException {
+		String[] values = getDataList(user, subnode, key);
+		return (values == null || values.length == 0 || values[0] == null) ? def : values[0];
+	}
+
+	@Override
+	public String getData(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		return getData(user, subnode, key, null);
+	}
+
+	@Override
+	public String getData(BareJID user, final String key) throws UserNotFoundException, TigaseDBException {
+		return getData(user, null, key, null);
+	}
+
+	@Override
+	public Map<String, String> getDataMap(BareJID user, String subnode) throws TigaseDBException {
+		try {
+			return store.getDataMap(user, subnode);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			return getDataMap(user, subnode);
+		}
+	}
+
+	@Override
+	public String[] getDataList(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		try {
+			return store.getData(user, subnode, key);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			return null;
+		}
+	}
+
+	@Override
+	public String[] getKeys(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		try {
+			return store.getKeys(user, subnode);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			return null;
+		}
+	}
+
+	@Override
+	public String[] getKeys(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getKeys(user, null);
+	}
+
+	@Override
+	public String getResourceUri() {
+		return resourceUri;
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		try {
+			return store.getSubnodes(user, subnode);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			return null;
+		}
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getSubnodes(user, null);
+	}
+
+	@Override
+	public long getUserUID(BareJID user) throws TigaseDBException {
+		return Math.abs(user.hashCode());
+	}
+
+	@Override
+	public List<BareJID> getUsers() {
+		return store.getUsers();
+	}
+
+	@Override
+	public long getUsersCount() {
+		return store.getUsersCount();
+	}
+
+	@Override
+	public long getUsersCount(String domain) {
+		long res = 0;
+
+		for (BareJID jid : store.getUsers()) {
+			if (jid.getDomain().equals(domain)) {
+				++res;
+			}
+		}
+
+		return res;
+	}
+
+	@Override
+	public void logout(BareJID user) throws UserNotFoundException, TigaseDBException {
+		auth.logout(user);
+	}
+
+	@Override
+	public void loggedIn(BareJID user) throws TigaseDBException {
+		auth.loggedIn(user);
+	}
+
+	@Override
+	public boolean otherAuth(final Map<String, Object> props)
+			throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return auth.otherAuth(props);
+	}
+
+	@Override
+	public void queryAuth(Map<String, Object> authProps) {
+		auth.queryAuth(authProps);
+	}
+
+	@Override
+	public void removeData(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		try {
+			store.removeData(user, subnode, key);
+		} catch (UserNotFoundException e) {
+			if (!autoCreateUser) {
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new TigaseDBException("Error removing data from repository", e);
+		}
+	}
+
+	@Override
+	public void removeData(BareJID user, final String key) throws UserNotFoundException, TigaseDBException {
+		removeData(user, null, key);
+	}
+
+	@Override
+	public void removeSubnode(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		if (subnode == null) {
+			return;
+		}
+		try {
+			store.removeSubnode(user, subnode);
+		} catch (UserNotFoundException e) {
+			if (!autoCreateUser) {
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new TigaseDBException("Error removing subnode from repository", e);
+		}
+	}
+
+	@Override
+	public void removeUser(BareJID user) throws UserNotFoundException, TigaseDBException {
+		try {
+			if (!store.removeUser(user)) {
+				throw new UserNotFoundException(USER_STR + user + NOT_FOUND_STR);
+			}
+		} catch (IOException e) {
+			throw new TigaseDBException("Error removing user from repository", e);
+		}
+	}
+
+	@Override
+	public void setData(BareJID user, final String subnode, final String key, final String value)
+			throws UserNotFoundException, TigaseDBException {
+		setDataList(user, subnode, key, new String[]{value});
+	}
+
+	@Override
+	public void setData(BareJID user, final String key, final String value)
+			throws UserNotFoundException, TigaseDBException {
+		setData(user, null, key, value);
+	}
+
+	@Override
+	public void setDataList(BareJID user, final String subnode, final String key, final String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		try {
+			store.setData(user, subnode, key, list);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			setDataList(user, subnode, key, list);
+		} catch (IOException e) {
+			throw new TigaseDBException("Error setting data in repository", e);
+		}
+	}
+
+	@Override
+	public void updatePassword(BareJID user, final String password) throws TigaseDBException {
+		auth.updatePassword(user, password);
+	}
+
+	@Override
+	public boolean userExists(BareJID user) {
+		return store.userExists(user);
+	}
+
+	@Override
+	public String getPassword(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return auth.getPassword(user);
+	}
+
+	@Override
+	public boolean isMechanismSupported(String domain, String mechanism) {
+		return auth.isMechanismSupported(domain, mechanism);
+	}
+
+	@Override
+	public boolean isUserDisabled(BareJID user) throws UserNotFoundException, TigaseDBException {
+		final String disabled = getData(user, "disabled");
+		return disabled != null && Boolean.parseBoolean(disabled);
+	}
+
+	@Override
+	public void setUserDisabled(BareJID user, Boolean value) throws UserNotFoundException, TigaseDBException {
+		setData(user, "disabled", value.toString());
+	}
+
+	@Override
+	public void setAccountStatus(BareJID user, AccountStatus status) throws TigaseDBException {
+		setData(user, "accountStatus", status.toString());
+	}
+
+	@Override
+	public AccountStatus getAccountStatus(BareJID user) throws TigaseDBException {
+		final String accountStatus = getData(user, "accountStatus");
+		return accountStatus != null ? AccountStatus.valueOf(accountStatus) : AccountStatus.active;
+	}
+
+	@Override
+	public void setDataSource(EmbeddedDataSource dataSource) {
+		resourceUri = dataSource.getResourceUri();
+		if (resourceUri.contains("autoCreateUser=true")) {
+			autoCreateUser = true;
+		}
+		store = dataSource.getStore();
+		auth = new AuthRepositoryImpl(this);
+	}
+
+	private void createUserIfAllowed(BareJID user, UserNotFoundException e) throws TigaseDBException {
+		if (!autoCreateUser) {
+			throw new UserNotFoundException(USER_STR + user + NOT_FOUND_STR, e);
+		}
+		try {
+			store.addUser(user);
+		} catch (IOException ex) {
+			throw new TigaseDBException("Error adding user to repository: ", ex);
+		}
+	}
+}
@@ -0,0 +1,613 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import tigase.db.UserNotFoundException;
+import tigase.xmpp.jid.BareJID;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Storage engine of {@link EmbeddedRepository}. Every modification is appended as a record to a memory-mapped data
+ * file, while a concurrent in-memory index keeps position of the latest record for every <code>user/subnode/key</code>.
+ * Reads are lock-free and decode values directly from the mapped file, writes are serialized by a single lock.
+ * <br>
+ * Records overwritten or removed by later modifications are garbage, which is reclaimed by {@link #compact()}. Compaction
+ * is started automatically when garbage exceeds <code>compactionThreshold</code> bytes and there is more garbage than
+ * live data. It rewrites live records to a new file and atomically replaces the old one.
+ * <br>
+ * Every record is protected by a CRC32 checksum, so a record partially written during a crash is detected and
+ * discarded (together with anything after it) when the file is loaded again.
+ */
+public class MappedStore {
+
+	private static final byte ADD_USER = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int MAGIC = 0x54494731;
+	private static final int MIN_FILE_SIZE = 1024 * 1024;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final byte REMOVE_DATA = 4;
+	private static final byte REMOVE_SUBNODE = 5;
+	private static final byte REMOVE_USER = 2;
+	private static final byte SET_DATA = 3;
+	private static final Logger log = Logger.getLogger(MappedStore.class.getName());
+
+	private final long compactionThreshold;
+	private final CRC32 crc = new CRC32();
+	private final Path file;
+	private final Object writeLock = new Object();
+	private FileChannel channel;
+	private volatile boolean compactionRunning = false;
+	private long garbageBytes = 0;
+	// index modified by writers, differs from index visible to readers only during compaction
+	private ConcurrentHashMap<BareJID, UserIndex> index;
+	private int lastValuesOffset = -1;
+	private int position = HEADER_SIZE;
+	private volatile State state;
+	private MappedByteBuffer writeBuffer;
+
+	private static String normalizeNode(String subnode) {
+		if (subnode == null) {
+			return "";
+		}
+		int start = 0;
+		int end = subnode.length();
+		while (start < end && subnode.charAt(start) == '/') {
+			start++;
+		}
+		while (end > start && subnode.charAt(end - 1) == '/') {
+			end--;
+		}
+		return subnode.substring(start, end);
+	}
+
+	private static boolean isInNode(String node, String parent) {
+		return parent.isEmpty() || node.equals(parent) ||
+				(node.startsWith(parent) && node.charAt(parent.length()) == '/');
+	}
+
+	private static long entry(int offset, int size) {
+		return (((long) offset) << 32) | (size & 0xFFFFFFFFL);
+	}
+
+	private static int entryOffset(long entry) {
+		return (int) (entry >>> 32);
+	}
+
+	private static int entrySize(long entry) {
+		return (int) entry;
+	}
+
+	public MappedStore(Path file, long compactionThreshold) throws IOException {
+		this.file = file;
+		this.compactionThreshold = compactionThreshold;
+		open();
+	}
+
+	public boolean addUser(BareJID user) throws IOException {
+		synchronized (writeLock) {
+			if (index.containsKey(user)) {
+				return false;
+			}
+			append(ADD_USER, user, null, null, null);
+			index.put(user, new UserIndex());
+			return true;
+		}
+	}
+
+	public boolean removeUser(BareJID user) throws IOException {
+		synchronized (writeLock) {
+			UserIndex userIndex = index.get(user);
+			if (userIndex == null) {
+				return false;
+			}
+			int size = append(REMOVE_USER, user, null, null, null);
+			index.remove(user);
+			garbageBytes += size + userIndex.size;
+			checkCompaction();
+			return true;
+		}
+	}
+
+	public boolean userExists(BareJID user) {
+		return state.users.containsKey(user);
+	}
+
+	public List<BareJID> getUsers() {
+		return new ArrayList<>(state.users.keySet());
+	}
+
+	public int getUsersCount() {
+		return state.users.size();
+	}
+
+	public String[] getData(BareJID user, String subnode, String key) throws UserNotFoundException {
+		while (true) {
+			State current = state;
+			Map<String, Long> node = getUserIndex(current.users, user).nodes.get(normalizeNode(subnode));
+			Long entry = node == null ? null : node.get(key);
+			if (entry == null) {
+				return null;
+			}
+			State latest = state;
+			if (latest.users == current.users) {
+				return readValues(latest.buffer, entryOffset(entry));
+			}
+			// compaction finished in the meantime and offsets changed, we need to retry
+		}
+	}
+
+	public Map<String, String> getDataMap(BareJID user, String subnode) throws UserNotFoundException {
+		while (true) {
+			State current = state;
+			Map<String, Long> node = getUserIndex(current.users, user).nodes.get(normalizeNode(subnode));
+			if (node == null) {
+				return Collections.emptyMap();
+			}
+			Map<String, Long> entries = new HashMap<>(node);
+			State latest = state;
+			if (latest.users == current.users) {
+				Map<String, String> result = new HashMap<>();
+				for (Map.Entry<String, Long> e : entries.entrySet()) {
+					String[] values = readValues(latest.buffer, entryOffset(e.getValue()));
+					result.put(e.getKey(), values.length == 0 ? null : values[0]);
+				}
+				return result;
+			}
+		}
+	}
+
+	public String[] getKeys(BareJID user, String subnode) throws UserNotFoundException {
+		Map<String, Long> node = getUserIndex(state.users, user).nodes.get(normalizeNode(subnode));
+		if (node == null || node.isEmpty()) {
+			return null;
+		}
+		return node.keySet().toArray(new String[0]);
+	}
+
+	public String[] getSubnodes(BareJID user, String subnode) throws UserNotFoundException {
+		String parent = normalizeNode(subnode);
+		Set<String> result = new LinkedHashSet<>();
+		for (String node : getUserIndex(state.users, user).nodes.keySet()) {
+			if (node.isEmpty() || node.equals(parent) || !isInNode(node, parent)) {
+				continue;
+			}
+			String rest = parent.isEmpty() ? node : node.substring(parent.length() + 1);
+			int idx = rest.indexOf('/');
+			result.add(idx < 0 ? rest : rest.substring(0, idx));
+		}
+		return result.isEmpty() ? null : result.toArray(new String[0]);
+	}
+
+	public void setData(BareJID user, String subnode, String key, String[] values)
+			throws UserNotFoundException, IOException {
+		synchronized (writeLock) {
+			UserIndex userIndex = getUserIndex(index, user);
+			String node = normalizeNode(subnode);
+			int size = append(SET_DATA, user, node, key, values);
+			putEntry(userIndex, node, key, lastValuesOffset, size);
+			checkCompaction();
+		}
+	}
+
+	public void addData(BareJID user, String subnode, String key, String[] values)
+			throws UserNotFoundException, IOException {
+		synchronized (writeLock) {
+			String[] old = getData(user, subnode, key);
+			if (old == null) {
+				setData(user, subnode, key, values);
+			} else {
+				String[] all = Arrays.copyOf(old, old.length + values.length);
+				System.arraycopy(values, 0, all, old.length, values.length);
+				setData(user, subnode, key, all);
+			}
+		}
+	}
+
+	public void removeData(BareJID user, String subnode, String key) throws UserNotFoundException, IOException {
+		synchronized (writeLock) {
+			UserIndex userIndex = getUserIndex(index, user);
+			String node = normalizeNode(subnode);
+			Map<String, Long> entries = userIndex.nodes.get(node);
+			if (entries == null || !entries.containsKey(key)) {
+				return;
+			}
+			int size = append(REMOVE_DATA, user, node, key, null);
+			Long old = entries.remove(key);
+			userIndex.size -= entrySize(old);
+			garbageBytes += size + entrySize(old);
+			checkCompaction();
+		}
+	}
+
+	public void removeSubnode(BareJID user, String subnode) throws UserNotFoundException, IOException {
+		synchronized (writeLock) {
+			UserIndex userIndex = getUserIndex(index, user);
+			String parent = normalizeNode(subnode);
+			int size = append(REMOVE_SUBNODE, user, parent, null, null);
+			garbageBytes += size + userIndex.removeNodes(parent);
+			checkCompaction();
+		}
+	}
+
+	/**
+	 * Rewrites all live records to a new data file and replaces the old file with it.
+	 */
+	public void compact() throws IOException {
+		synchronized (writeLock) {
+			long start = System.currentTimeMillis();
+			int oldSize = position;
+			State current = state;
+			FileChannel oldChannel = channel;
+			Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+			FileChannel newChannel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+													  StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				long size = Math.max(MIN_FILE_SIZE, ((long) position - garbageBytes) * 2);
+				channel = newChannel;
+				writeBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(size, Integer.MAX_VALUE));
+				index = new ConcurrentHashMap<>();
+				position = HEADER_SIZE;
+				garbageBytes = 0;
+				writeHeader(writeBuffer);
+				// readers still use old state, new one is published after index is completely rebuilt
+				for (Map.Entry<BareJID, UserIndex> u : current.users.entrySet()) {
+					BareJID user = u.getKey();
+					UserIndex userIndex = new UserIndex();
+					append(ADD_USER, user, null, null, null);
+					index.put(user, userIndex);
+					for (Map.Entry<String, Map<String, Long>> n : u.getValue().nodes.entrySet()) {
+						userIndex.nodes.computeIfAbsent(n.getKey(), k -> new ConcurrentHashMap<>());
+						for (Map.Entry<String, Long> k : n.getValue().entrySet()) {
+							String[] values = readValues(current.buffer, entryOffset(k.getValue()));
+							int recordSize = append(SET_DATA, user, n.getKey(), k.getKey(), values);
+							putEntry(userIndex, n.getKey(), k.getKey(), lastValuesOffset, recordSize);
+						}
+					}
+				}
+				writeBuffer.force();
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException | RuntimeException ex) {
+				// restoring previous state, nothing was changed in the old file
+				channel = oldChannel;
+				writeBuffer = current.buffer;
+				index = current.users;
+				position = oldSize;
+				newChannel.close();
+				Files.deleteIfExists(tmp);
+				throw ex;
+			}
+			state = new State(writeBuffer, index);
+			oldChannel.close();
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Compacted {0} from {1} to {2} bytes in {3}ms",
+						new Object[]{file, oldSize, position, System.currentTimeMillis() - start});
+			}
+		}
+	}
+
+	public void force() {
+		synchronized (writeLock) {
+			writeBuffer.force();
+		}
+	}
+
+	public void close() throws IOException {
+		synchronized (writeLock) {
+			writeBuffer.force();
+			channel.close();
+		}
+	}
+
+	public long getGarbageBytes() {
+		return garbageBytes;
+	}
+
+	public int getFileSize() {
+		return position;
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+								   StandardOpenOption.WRITE);
+		long size = channel.size();
+		writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, MIN_FILE_SIZE));
+		index = new ConcurrentHashMap<>();
+		if (size < HEADER_SIZE || writeBuffer.getInt(0) == 0) {
+			writeHeader(writeBuffer);
+		} else if (writeBuffer.getInt(0) != MAGIC) {
+			channel.close();
+			throw new IOException("File " + file + " is not a valid data file");
+		} else {
+			load(writeBuffer);
+		}
+		state = new State(writeBuffer, index);
+	}
+
+	private void writeHeader(ByteBuffer buffer) {
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, 1);
+	}
+
+	private void load(MappedByteBuffer buffer) {
+		ByteBuffer buf = buffer.duplicate();
+		int pos = HEADER_SIZE;
+		int records = 0;
+		while (pos + RECORD_HEADER_SIZE < buf.capacity()) {
+			int length = buf.getInt(pos);
+			int checksum = buf.getInt(pos + 4);
+			if (length <= 0 || pos + RECORD_HEADER_SIZE + length > buf.capacity()) {
+				break;
+			}
+			buf.limit(pos + RECORD_HEADER_SIZE + length).position(pos + RECORD_HEADER_SIZE);
+			crc.reset();
+			crc.update(buf);
+			buf.limit(buf.capacity());
+			if ((int) crc.getValue() != checksum) {
+				log.log(Level.WARNING, "Invalid checksum of record at {0} in {1}, skipping rest of the file",
+						new Object[]{pos, file});
+				break;
+			}
+			buf.position(pos + RECORD_HEADER_SIZE);
+			replay(buf, pos, RECORD_HEADER_SIZE + length);
+			pos += RECORD_HEADER_SIZE + length;
+			records++;
+		}
+		position = pos;
+		log.log(Level.CONFIG, "Loaded {0} records of {1} users from {2}",
+				new Object[]{records, index.size(), file});
+	}
+
+	private void replay(ByteBuffer buf, int recordOffset, int size) {
+		byte type = buf.get();
+		BareJID user = BareJID.bareJIDInstanceNS(readString(buf));
+		UserIndex userIndex = index.get(user);
+		switch (type) {
+			case ADD_USER:
+				if (userIndex == null) {
+					index.put(user, new UserIndex());
+				} else {
+					garbageBytes += size;
+				}
+				break;
+			case REMOVE_USER:
+				if (userIndex != null) {
+					index.remove(user);
+					garbageBytes += userIndex.size;
+				}
+				garbageBytes += size;
+				break;
+			case SET_DATA: {
+				String node = readString(buf);
+				String key = readString(buf);
+				if (userIndex == null) {
+					garbageBytes += size;
+				} else {
+					putEntry(userIndex, node, key, buf.position(), size);
+				}
+				break;
+			}
+			case REMOVE_DATA: {
+				String node = readString(buf);
+				String key = readString(buf);
+				Map<String, Long> entries = userIndex == null ? null : userIndex.nodes.get(node);
+				Long old = entries == null ? null : entries.remove(key);
+				if (old != null) {
+					userIndex.size -= entrySize(old);
+					garbageBytes += entrySize(old);
+				}
+				garbageBytes += size;
+				break;
+			}
+			case REMOVE_SUBNODE: {
+				String node = readString(buf);
+				if (userIndex != null) {
+					garbageBytes += userIndex.removeNodes(node);
+				}
+				garbageBytes += size;
+				break;
+			}
+			default:
+				log.log(Level.WARNING, "Unknown record type {0} at {1} in {2}",
+						new Object[]{type, recordOffset, file});
+		}
+	}
+
+	private int append(byte type, BareJID user, String node, String key, String[] values) throws IOException {
+		byte[] userBytes = user.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] nodeBytes = node == null ? null : node.getBytes(StandardCharsets.UTF_8);
+		byte[] keyBytes = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+		byte[][] valuesBytes = null;
+		int length = 1 + 4 + userBytes.length;
+		if (type == SET_DATA || type == REMOVE_DATA || type == REMOVE_SUBNODE) {
+			length += 4 + nodeBytes.length;
+		}
+		if (type == SET_DATA || type == REMOVE_DATA) {
+			length += 4 + keyBytes.length;
+		}
+		if (type == SET_DATA) {
+			valuesBytes = new byte[values.length][];
+			length += 4;
+			for (int i = 0; i < values.length; i++) {
+				valuesBytes[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+				length += 4 + (valuesBytes[i] == null ? 0 : valuesBytes[i].length);
+			}
+		}
+
+		ensureCapacity(RECORD_HEADER_SIZE + length);
+		ByteBuffer buf = writeBuffer.duplicate();
+		int start = position;
+		buf.position(start + RECORD_HEADER_SIZE);
+		buf.put(type);
+		writeBytes(buf, userBytes);
+		if (type == SET_DATA || type == REMOVE_DATA || type == REMOVE_SUBNODE) {
+			writeBytes(buf, nodeBytes);
+		}
+		if (type == SET_DATA || type == REMOVE_DATA) {
+			writeBytes(buf, keyBytes);
+		}
+		if (type == SET_DATA) {
+			lastValuesOffset = buf.position();
+			buf.putInt(valuesBytes.length);
+			for (byte[] value : valuesBytes) {
+				writeBytes(buf, value);
+			}
+		}
+		buf.limit(buf.position()).position(start + RECORD_HEADER_SIZE);
+		crc.reset();
+		crc.update(buf);
+		buf.limit(buf.capacity());
+		position = start + RECORD_HEADER_SIZE + length;
+		// marking end of data, there may be leftovers of a broken record after it
+		buf.putLong(position, 0);
+		// checksum and length are written last, so incomplete record will be ignored on load
+		buf.putInt(start + 4, (int) crc.getValue());
+		buf.putInt(start, length);
+		return RECORD_HEADER_SIZE + length;
+	}
+
+	private void ensureCapacity(int size) throws IOException {
+		// keeping space for the header of next record, which must be 0 to mark end of data
+		long required = (long) position + size + RECORD_HEADER_SIZE;
+		if (required <= writeBuffer.capacity()) {
+			return;
+		}
+		long newSize = Math.max(required, Math.min((long) writeBuffer.capacity() * 2, Integer.MAX_VALUE));
+		if (newSize > Integer.MAX_VALUE) {
+			throw new IOException("Data file " + file + " reached maximal size, compaction is required");
+		}
+		writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+		// during compaction new file is not visible to readers yet
+		if (state != null && state.users == index) {
+			state = new State(writeBuffer, index);
+		}
+	}
+
+	private void checkCompaction() {
+		if (compactionRunning || garbageBytes < compactionThreshold || garbageBytes < position - garbageBytes) {
+			return;
+		}
+		compactionRunning = true;
+		Thread thread = new Thread(() -> {
+			try {
+				compact();
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Compaction of " + file + " failed", ex);
+			} finally {
+				compactionRunning = false;
+			}
+		}, "embedded-repository-compaction");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private UserIndex getUserIndex(Map<BareJID, UserIndex> users, BareJID user) throws UserNotFoundException {
+		UserIndex userIndex = users.get(user);
+		if (userIndex == null) {
+			throw new UserNotFoundException("User does not exist: " + user);
+		}
+		return userIndex;
+	}
+
+	private void putEntry(UserIndex userIndex, String node, String key, int valuesOffset, int size) {
+		Long old = userIndex.nodes.computeIfAbsent(node, n -> new ConcurrentHashMap<>())
+				.put(key, entry(valuesOffset, size));
+		userIndex.size += size;
+		if (old != null) {
+			userIndex.size -= entrySize(old);
+			garbageBytes += entrySize(old);
+		}
+	}
+
+	private String[] readValues(ByteBuffer buffer, int offset) {
+		ByteBuffer buf = buffer.duplicate();
+		buf.position(offset);
+		int count = buf.getInt();
+		String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = readString(buf);
+		}
+		return values;
+	}
+
+	private String readString(ByteBuffer buf) {
+		int len = buf.getInt();
+		if (len < 0) {
+			return null;
+		}
+		byte[] data = new byte[len];
+		buf.get(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	private void writeBytes(ByteBuffer buf, byte[] data) {
+		if (data == null) {
+			buf.putInt(-1);
+		} else {
+			buf.putInt(data.length);
+			buf.put(data);
+		}
+	}
+
+	private static class State {
+
+		private final MappedByteBuffer buffer;
+		private final ConcurrentHashMap<BareJID, UserIndex> users;
+
+		private State(MappedByteBuffer buffer, ConcurrentHashMap<BareJID, UserIndex> users) {
+			this.buffer = buffer;
+			this.users = users;
+		}
+	}
+
+	private static class UserIndex {
+
+		private final ConcurrentHashMap<String, Map<String, Long>> nodes = new ConcurrentHashMap<>();
+		// number of bytes of live records of this user, modified only under write lock
+		private long size = 0;
+
+		private long removeNodes(String parent) {
+			long removed = 0;
+			Iterator<Map.Entry<String, Map<String, Long>>> it = nodes.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Map<String, Long>> e = it.next();
+				if (isInNode(e.getKey(), parent)) {
+					for (Long entry : e.getValue().values()) {
+						removed += entrySize(entry);
+					}
+					it.remove();
+				}
+			}
+			size -= removed;
+			return removed;
+		}
+	}
+}
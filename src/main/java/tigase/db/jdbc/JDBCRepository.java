@@ -19,11 +19,13 @@ package tigase.db.jdbc;
 
 import tigase.db.*;
 import tigase.db.util.RepositoryVersionAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.util.cache.SimpleCache;
 import tigase.xmpp.jid.BareJID;
 
 import java.io.StringReader;
 import java.sql.*;
+import java.time.Duration;
 import java.util.*;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -98,10 +100,18 @@ public class JDBCRepository
 	private IRepoCache<String, Object> cache = null;
 	private DataRepository data_repo = null;
 	private String get_users_query = null;
+	@ConfigField(desc = "Delay and batch writes of user data", alias = "write-behind")
+	private boolean writeBehind = false;
+	@ConfigField(desc = "Maximal number of pending writes before flush", alias = "write-behind-batch-size")
+	private int writeBehindBatchSize = 100;
+	@ConfigField(desc = "Maximal delay of pending writes", alias = "write-behind-flush-interval")
+	private Duration writeBehindFlushInterval = Duration.ofSeconds(1);
+	private WriteBehindQueue<DataKey, String> writeBehindQueue = null;
 
 	@Override
 	public void addDataList(BareJID user_id, final String subnode, final String key, final String[] list)
 			throws UserNotFoundException, TigaseDBException {
+		flushPendingData(user_id, subnode);
 		try {
 			addDataList(null, user_id, subnode, key, list);
 		} catch (SQLException ex) {
@@ -126,6 +136,12 @@ public class JDBCRepository
 	@Override
 	public String getData(BareJID user_id, final String subnode, final String key, final String def)
 			throws UserNotFoundException, TigaseDBException {
+		if (writeBehindQueue != null) {
+			String pending = writeBehindQueue.get(new DataKey(user_id, subnode, key));
+			if (pending != null) {
+				return pending;
+			}
+		}
 
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
@@ -182,6 +198,7 @@ public class JDBCRepository
 	@Override
 	public Map<String, String> getDataMap(BareJID user_id, String subnode)
 			throws TigaseDBException {
+		flushPendingData(user_id, subnode);
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
 			
@@ -246,6 +263,12 @@ public class JDBCRepository
 		// if (cache_res != null) {
 		// return cache_res;
 		// } // end of if (result != null)
+		if (writeBehindQueue != null) {
+			String pending = writeBehindQueue.get(new DataKey(user_id, subnode, key));
+			if (pending != null) {
+				return new String[]{pending};
+			}
+		}
 
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
@@ -292,7 +315,7 @@ public class JDBCRepository
 
 	@Override
 	public String[] getKeys(BareJID user_id, final String subnode) throws UserNotFoundException, TigaseDBException {
-
+		flushPendingData(user_id, subnode);
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
 
@@ -334,6 +357,7 @@ public class JDBCRepository
 
 	@Override
 	public String[] getSubnodes(BareJID user_id, final String subnode) throws UserNotFoundException, TigaseDBException {
+		flushPendingData(user_id, null);
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
 			if (nid > 0) {
@@ -482,6 +506,14 @@ public class JDBCRepository
 			} else {
 				cache = new RepoCache(10000, 60 * 1000);
 			}
+			if (writeBehindQueue != null) {
+				writeBehindQueue.stop();
+				writeBehindQueue = null;
+			}
+			if (writeBehind) {
+				writeBehindQueue = new WriteBehindQueue<>("user-repository", this::writeData, writeBehindBatchSize,
+														  writeBehindFlushInterval.toMillis());
+			}
 			data_repo.initPreparedStatement(GET_USER_DB_UID_QUERY, GET_USER_DB_UID_QUERY);
 			data_repo.initPreparedStatement(GET_USERS_COUNT_QUERY, GET_USERS_COUNT_QUERY);
 			if (connection_str.startsWith("jdbc:postgresql")) {
@@ -555,6 +587,9 @@ public class JDBCRepository
 	@Override
 	public void removeData(BareJID user_id, final String subnode, final String key)
 			throws UserNotFoundException, TigaseDBException {
+		if (writeBehindQueue != null) {
+			writeBehindQueue.remove(new DataKey(user_id, subnode, key));
+		}
 		removeData(null, user_id, subnode, key);
 	}
 
@@ -570,6 +605,9 @@ public class JDBCRepository
 		if (subnode == null) {
 			return;
 		}    // end of if (subnode == null)
+		if (writeBehindQueue != null) {
+			writeBehindQueue.removeIf(dataKey -> dataKey.isInSubnode(user_id, subnode));
+		}
 		try {
 			String[] subnodes = getSubnodes(user_id, subnode);
 			if (subnodes != null && subnodes.length > 0) {
@@ -603,6 +641,9 @@ public class JDBCRepository
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Removing user: {0}", user_id);
 		}
+		if (writeBehindQueue != null) {
+			writeBehindQueue.removeIf(dataKey -> dataKey.user.equals(user_id));
+		}
 		try {
 			stmt = data_repo.createStatement(user_id);
 
@@ -638,6 +679,11 @@ public class JDBCRepository
 	@Override
 	public void setData(BareJID user_id, final String subnode, final String key, final String value)
 			throws UserNotFoundException, TigaseDBException {
+		if (writeBehindQueue != null) {
+			writeBehindQueue.put(new DataKey(user_id, subnode, key), value);
+			return;
+		}
+
 		long uid = -2;
 		long nid = -2;
 		DataRepository repo = data_repo.takeRepoHandle(user_id);
@@ -667,21 +713,7 @@ public class JDBCRepository
 
 				PreparedStatement update_pairs_sp = repo.getPreparedStatement(user_id, UPDATE_PAIRS_QUERY);
 
-				update_pairs_sp.setLong(1, nid);
-				update_pairs_sp.setLong(2, uid);
-				update_pairs_sp.setString(3, key);
-				switch (data_repo.getDatabaseType()) {
-					case derby:
-						// When commit() is called on the connection all CLOB instances are freed so each next request
-						// to them may throw NPE!!! Instead, if we set character stream, then CLOB is created inside
-						// executeUpdate() by DerbyDB, which is inside block which is synchronized on the internal
-						// connection instance.
-
-						update_pairs_sp.setCharacterStream(4, new StringReader(value));
-						break;
-					default:
-						update_pairs_sp.setString(4, value);
-				}
+				setUpdatePairsParams(update_pairs_sp, nid, uid, key, value);
 				update_pairs_sp.executeUpdate();
 			} catch (SQLException e) {
 				log.log(Level.WARNING,
@@ -701,6 +733,10 @@ public class JDBCRepository
 	public void setDataList(BareJID user_id, final String subnode, final String key, final String[] list)
 			throws UserNotFoundException, TigaseDBException {
 
+		if (writeBehindQueue != null) {
+			writeBehindQueue.remove(new DataKey(user_id, subnode, key));
+		}
+
 		// Transactions may not yet work properly but at least let's make sure
 		// both calls below are executed exclusively on the same DB connection
 		DataRepository repo = data_repo.takeRepoHandle(user_id);
@@ -788,6 +824,77 @@ public class JDBCRepository
 	}
 
 	// ~--- methods --------------------------------------------------------------
+	private void flushPendingData(BareJID user_id, String subnode) {
+		if (writeBehindQueue != null) {
+			writeBehindQueue.flush(dataKey -> dataKey.user.equals(user_id) &&
+					(subnode == null || dataKey.isInSubnode(user_id, subnode)));
+		}
+	}
+
+	private void setUpdatePairsParams(PreparedStatement update_pairs_sp, long nid, long uid, String key, String value)
+			throws SQLException {
+		update_pairs_sp.setLong(1, nid);
+		update_pairs_sp.setLong(2, uid);
+		update_pairs_sp.setString(3, key);
+		switch (data_repo.getDatabaseType()) {
+			case derby:
+				// When commit() is called on the connection all CLOB instances are freed so each next request
+				// to them may throw NPE!!! Instead, if we set character stream, then CLOB is created inside
+				// executeUpdate() by DerbyDB, which is inside block which is synchronized on the internal
+				// connection instance.
+
+				update_pairs_sp.setCharacterStream(4, new StringReader(value));
+				break;
+			default:
+				update_pairs_sp.setString(4, value);
+		}
+	}
+
+	private void writeData(Map<DataKey, String> batch) throws SQLException {
+		DataRepository repo = data_repo.takeRepoHandle(null);
+
+		synchronized (repo) {
+			try {
+				PreparedStatement update_pairs_sp = repo.getPreparedStatement(null, UPDATE_PAIRS_QUERY);
+				int batched = 0;
+				for (Map.Entry<DataKey, String> e : batch.entrySet()) {
+					DataKey dataKey = e.getKey();
+					long nid = -2;
+					long uid = -2;
+					try {
+						uid = getUserUID(repo, dataKey.user, autoCreateUser);
+						nid = getNodeNID(repo, uid, dataKey.subnode);
+						if (nid < 0) {
+							try {
+								nid = createNodePath(repo, dataKey.user, dataKey.subnode);
+							} catch (SQLException ex) {
+								// node could be created by other cluster node in the meantime
+								nid = getNodeNID(repo, uid, dataKey.subnode);
+							}
+						}
+					} catch (UserNotFoundException ex) {
+						log.log(Level.WARNING, "Skipping pending write for not existing user, user_id: " + dataKey.user +
+								", subnode: " + dataKey.subnode + ", key: " + dataKey.key);
+						continue;
+					}
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "Writing pending data, user_id: {0}, subnode: {1}, key: {2}, " +
+								"uid: {3}, nid: {4}, value: {5}", new Object[]{dataKey.user, dataKey.subnode,
+																			   dataKey.key, uid, nid, e.getValue()});
+					}
+					setUpdatePairsParams(update_pairs_sp, nid, uid, dataKey.key, e.getValue());
+					update_pairs_sp.addBatch();
+					batched++;
+				}
+				if (batched > 0) {
+					update_pairs_sp.executeBatch();
+				}
+			} finally {
+				data_repo.releaseRepoHandle(repo);
+			}
+		}
+	}
+
 	private void addDataList(DataRepository repo, BareJID user_id, final String subnode, final String key,
 							 final String[] list) throws UserNotFoundException, SQLException, UserNotFoundException {
 		long uid = -2;
@@ -1196,6 +1303,41 @@ public class JDBCRepository
 		return result;
 	}
 
+	private static final class DataKey {
+
+		private final String key;
+		private final String subnode;
+		private final BareJID user;
+
+		private DataKey(BareJID user, String subnode, String key) {
+			this.user = user;
+			this.subnode = subnode;
+			this.key = key;
+		}
+
+		private boolean isInSubnode(BareJID user_id, String node) {
+			return user.equals(user_id) && subnode != null &&
+					(subnode.equals(node) || subnode.startsWith(node + "/"));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof DataKey)) {
+				return false;
+			}
+			DataKey dataKey = (DataKey) o;
+			return user.equals(dataKey.user) && Objects.equals(subnode, dataKey.subnode) && key.equals(dataKey.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(user, subnode, key);
+		}
+	}
+
 	public interface IRepoCache<K,V> {
 
 		V get(Object key);
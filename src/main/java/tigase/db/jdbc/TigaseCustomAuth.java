@@ -35,6 +35,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Duration;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -267,6 +268,13 @@ public class TigaseCustomAuth
 	private String userlogout_query = null;
 	@ConfigField(desc = "Counts users", alias = DEF_USERS_COUNT_KEY)
 	private String userscount_query = DEF_USERS_COUNT_QUERY;
+	@ConfigField(desc = "Delay and batch updates of last login timestamps", alias = "write-behind")
+	private boolean writeBehind = false;
+	@ConfigField(desc = "Maximal number of pending writes before flush", alias = "write-behind-batch-size")
+	private int writeBehindBatchSize = 100;
+	@ConfigField(desc = "Maximal delay of pending writes", alias = "write-behind-flush-interval")
+	private Duration writeBehindFlushInterval = Duration.ofSeconds(1);
+	private WriteBehindQueue<BareJID, Boolean> writeBehindQueue = null;
 
 	@Override
 	public void addUser(BareJID user, final String password) throws TigaseDBException {
@@ -637,6 +645,10 @@ public class TigaseCustomAuth
 		if (updatelastlogin_query == null) {
 			return;
 		}
+		if (writeBehindQueue != null) {
+			writeBehindQueue.put(user, Boolean.TRUE);
+			return;
+		}
 
 		try {
 			PreparedStatement ps = data_repo.getPreparedStatement(user, updatelastlogin_query);
@@ -918,6 +930,15 @@ public class TigaseCustomAuth
 
 			this.data_repo = data_repo;
 
+			if (writeBehindQueue != null) {
+				writeBehindQueue.stop();
+				writeBehindQueue = null;
+			}
+			if (writeBehind && updatelastlogin_query != null) {
+				writeBehindQueue = new WriteBehindQueue<>("last-login", this::updateLastLogin, writeBehindBatchSize,
+														  writeBehindFlushInterval.toMillis());
+			}
+
 			if (initdb_query != null) {
 				initDb();
 			}
@@ -927,6 +948,18 @@ public class TigaseCustomAuth
 		}
 	}
 
+	private void updateLastLogin(Map<BareJID, Boolean> users) throws SQLException {
+		PreparedStatement ps = data_repo.getPreparedStatement(null, updatelastlogin_query);
+
+		synchronized (ps) {
+			for (BareJID user : users.keySet()) {
+				ps.setString(1, user.toString());
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		}
+	}
+
 	@Override
 	public void updateCredential(BareJID user, String credentialId, String password)
 			throws TigaseDBException {
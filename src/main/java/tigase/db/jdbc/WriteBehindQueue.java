@@ -0,0 +1,267 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import tigase.sys.ShutdownHook;
+import tigase.sys.TigaseRuntime;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for repository writes for which caller does not wait for a result. Writes are kept in a map
+ * keyed by the location they update, so repeated writes to the same location are coalesced and only the latest value
+ * is stored. Pending writes are passed to {@link BatchWriter} in batches when number of pending entries reaches
+ * <code>batchSize</code> or every <code>flushInterval</code> milliseconds, whichever comes first.
+ * <br>
+ * Entries are removed from the buffer only after they were written, so {@link #get(Object)} may be used as an overlay
+ * over the database to provide read-your-writes semantics. Entries of a batch which failed to be written are kept and
+ * retried by the next flush, an entry is dropped (and reported) only after it failed <code>maxAttempts</code> times.
+ * Remaining entries are written when the server is shut down.
+ *
+ * @param <K> type of key identifying location of the write
+ * @param <V> type of written value
+ */
+public class WriteBehindQueue<K, V>
+		implements ShutdownHook {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	public static final int DEF_MAX_ATTEMPTS = 5;
+
+	private final ConcurrentHashMap<K, Integer> attempts = new ConcurrentHashMap<>();
+	private final int batchSize;
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final ScheduledExecutorService executor;
+	private final LongAdder failed = new LongAdder();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private final Object flushLock = new Object();
+	private final LongAdder flushed = new LongAdder();
+	private final int maxAttempts;
+	private final String name;
+	private final ConcurrentHashMap<K, V> pending = new ConcurrentHashMap<>();
+	private final LongAdder queued = new LongAdder();
+	private final BatchWriter<K, V> writer;
+
+	public WriteBehindQueue(String name, BatchWriter<K, V> writer, int batchSize, long flushInterval) {
+		this(name, writer, batchSize, flushInterval, DEF_MAX_ATTEMPTS);
+	}
+
+	public WriteBehindQueue(String name, BatchWriter<K, V> writer, int batchSize, long flushInterval,
+							int maxAttempts) {
+		this.name = name;
+		this.writer = writer;
+		this.batchSize = Math.max(1, batchSize);
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, name + "-write-behind");
+			t.setDaemon(true);
+			return t;
+		});
+		this.executor.scheduleWithFixedDelay(this::flushScheduled, flushInterval, flushInterval,
+											 TimeUnit.MILLISECONDS);
+		TigaseRuntime.getTigaseRuntime().addShutdownHook(this);
+	}
+
+	/**
+	 * Queues write of the value to the location identified by the key replacing any pending write to the same
+	 * location.
+	 */
+	public void put(K key, V value) {
+		queued.increment();
+		if (pending.put(key, value) != null) {
+			coalesced.increment();
+		}
+		if (pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+			executor.execute(this::flushScheduled);
+		}
+	}
+
+	/**
+	 * Returns value of a pending write to the location or <code>null</code> if there is no such write.
+	 */
+	public V get(K key) {
+		return pending.get(key);
+	}
+
+	/**
+	 * Drops pending write to the location, ie. if the location is about to be removed from the database. Waits for
+	 * a batch being written at the moment, so a value taken by that batch is not written after the caller removes the
+	 * location from the database.
+	 */
+	public V remove(K key) {
+		synchronized (flushLock) {
+			attempts.remove(key);
+			return pending.remove(key);
+		}
+	}
+
+	/**
+	 * Drops all pending writes to locations matching the filter. Waits for a batch being written at the moment, the
+	 * same way as {@link #remove(Object)}.
+	 */
+	public void removeIf(Predicate<K> filter) {
+		synchronized (flushLock) {
+			attempts.keySet().removeIf(filter);
+			pending.keySet().removeIf(filter);
+		}
+	}
+
+	/**
+	 * Synchronously writes pending entries matching the filter. Should be used before executing queries which are
+	 * not able to use {@link #get(Object)} as an overlay.
+	 */
+	public void flush(Predicate<K> filter) {
+		synchronized (flushLock) {
+			Map<K, V> batch = new HashMap<>();
+			for (Map.Entry<K, V> e : pending.entrySet()) {
+				if (filter.test(e.getKey())) {
+					batch.put(e.getKey(), e.getValue());
+				}
+			}
+			write(batch);
+		}
+	}
+
+	/**
+	 * Synchronously writes all pending entries.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			Map<K, V> batch = new HashMap<>();
+			Iterator<Map.Entry<K, V>> it = pending.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<K, V> e = it.next();
+				batch.put(e.getKey(), e.getValue());
+				if (batch.size() >= batchSize || !it.hasNext()) {
+					write(batch);
+					batch = new HashMap<>();
+				}
+			}
+		}
+	}
+
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * Returns number of entries dropped after they failed to be written <code>maxAttempts</code> times.
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	public long getFlushedCount() {
+		return flushed.sum();
+	}
+
+	@Override
+	public String getName() {
+		return name + "-write-behind";
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	public long getQueuedCount() {
+		return queued.sum();
+	}
+
+	@Override
+	public String shutdown() {
+		executor.shutdown();
+		int size = pending.size();
+		flush();
+		return "== " + getName() + " flushed " + size + " pending writes\n";
+	}
+
+	/**
+	 * Stops background flushing and writes all pending entries.
+	 */
+	public void stop() {
+		TigaseRuntime.getTigaseRuntime().removeShutdownHook(this);
+		executor.shutdown();
+		flush();
+	}
+
+	private void flushScheduled() {
+		flushScheduled.set(false);
+		try {
+			flush();
+		} catch (Throwable ex) {
+			log.log(Level.WARNING, getName() + ", unexpected error while flushing pending writes", ex);
+		}
+	}
+
+	private void write(Map<K, V> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			writer.write(batch);
+		} catch (Exception ex) {
+			failed.add(batch.size());
+			log.log(Level.WARNING, getName() + ", failed to write batch of " + batch.size() +
+					" entries, will retry with next flush", ex);
+			// entries are kept in the buffer, unless they failed too many times
+			for (Map.Entry<K, V> e : batch.entrySet()) {
+				Integer count = attempts.merge(e.getKey(), 1, Integer::sum);
+				if (count >= maxAttempts && pending.remove(e.getKey(), e.getValue())) {
+					attempts.remove(e.getKey());
+					dropped.increment();
+					log.log(Level.SEVERE, "{0}, dropped write to {1} after {2} failed attempts: {3}",
+							new Object[]{getName(), e.getKey(), count, e.getValue()});
+				}
+			}
+			return;
+		}
+		flushed.add(batch.size());
+		for (Map.Entry<K, V> e : batch.entrySet()) {
+			attempts.remove(e.getKey());
+			// removing only if value was not replaced in the meantime, newer value will be written by next flush
+			pending.remove(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Interface implemented by the repository to write batch of pending entries to the database.
+	 */
+	@FunctionalInterface
+	public interface BatchWriter<K, V> {
+
+		void write(Map<K, V> batch) throws Exception;
+
+	}
+}
@@ -21,6 +21,7 @@ import tigase.xml.Element;
 import tigase.xmpp.impl.PresenceCapabilitiesManager;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,6 +40,8 @@ public class ServiceEntity {
 
 	private static Logger log = Logger.getLogger(ServiceEntity.class.getName());
 
+	private static final AtomicLong discoVersion = new AtomicLong();
+
 	private boolean adminOnly = false;
 	private Function<String, Element> extensionSupplier;
 	private Set<String> features = null;
@@ -48,6 +51,23 @@ public class ServiceEntity {
 	private String name = null;
 	private String node = null;
 
+	/**
+	 * Returns counter which is increased every time any service discovery information published by the server may have
+	 * changed. Caches of disco#info results are valid only as long as this value does not change.
+	 *
+	 * @return current version of service discovery information
+	 */
+	public static long getDiscoVersion() {
+		return discoVersion.get();
+	}
+
+	/**
+	 * Marks service discovery information as changed, ie. after component or processor was registered or removed.
+	 */
+	public static void discoChanged() {
+		discoVersion.incrementAndGet();
+	}
+
 	public ServiceEntity(String jid, String node, String name) {
 		this(jid, node, name, null);
 	}
@@ -80,6 +100,7 @@ public class ServiceEntity {
 			this.features = new LinkedHashSet<String>();
 		}
 		Collections.addAll(this.features, features);
+		discoChanged();
 	}
 
 	public void addIdentities(ServiceIdentity... identities) {
@@ -87,6 +108,7 @@ public class ServiceEntity {
 			this.identities = new ArrayList<ServiceIdentity>();
 		}
 		Collections.addAll(this.identities, identities);
+		discoChanged();
 	}
 
 	public void addItems(ServiceEntity... items) {
@@ -106,6 +128,7 @@ public class ServiceEntity {
 			}
 			this.items.add(item);
 		}
+		discoChanged();
 	}
 
 	/**
@@ -186,6 +209,7 @@ public class ServiceEntity {
 		for (ServiceEntity item : items) {
 			this.items.remove(item);
 		}
+		discoChanged();
 	}
 
 	@Override
@@ -386,10 +410,12 @@ public class ServiceEntity {
 
 	public void setAdminOnly(boolean adminOnly) {
 		this.adminOnly = adminOnly;
+		discoChanged();
 	}
 
 	public void setDescription(String description) {
 		this.name = description;
+		discoChanged();
 	}
 
 	public void setFeatures(String... features) {
@@ -400,6 +426,7 @@ public class ServiceEntity {
 	public void setIdentities(ServiceIdentity... identities) {
 		this.identities = new ArrayList<ServiceIdentity>();
 		Collections.addAll(this.identities, identities);
+		discoChanged();
 	}
 }
 
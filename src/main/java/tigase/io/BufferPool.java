@@ -0,0 +1,129 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import tigase.stats.StatisticsList;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of byte buffers shared by all connections. Buffers are borrowed only for the time of a single operation (ie.
+ * wrapping or unwrapping of TLS data) and returned just after it, so idle connections do not keep any of them.
+ * <br>
+ * Capacity of buffers is rounded up to full kilobytes and each capacity has its own list of free buffers. Number of
+ * free buffers kept by the pool is limited, buffers returned when the pool is full are left to the garbage collector.
+ */
+public class BufferPool {
+
+	private static final Logger log = Logger.getLogger(BufferPool.class.getName());
+
+	private static final String TLS_BUFFER_POOL_DIRECT_KEY = "tls-buffer-pool-direct";
+
+	private static final String TLS_BUFFER_POOL_SIZE_KEY = "tls-buffer-pool-size";
+
+	/**
+	 * Pool of network and application buffers used by {@link TLSIO} and {@link JcaTLSWrapper}.
+	 */
+	public static final BufferPool TLS = new BufferPool("TLS", Boolean.getBoolean(TLS_BUFFER_POOL_DIRECT_KEY),
+														Integer.getInteger(TLS_BUFFER_POOL_SIZE_KEY, 4096));
+
+	private static final int GRANULARITY = 1024;
+
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder borrowed = new LongAdder();
+	private final LongAdder detached = new LongAdder();
+	private final boolean direct;
+	private final LongAdder dropped = new LongAdder();
+	private final ConcurrentMap<Integer, Deque<ByteBuffer>> free = new ConcurrentHashMap<>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+	private final int maxFree;
+	private final String name;
+	private final LongAdder returned = new LongAdder();
+
+	public BufferPool(String name, boolean direct, int maxFree) {
+		this.name = name;
+		this.direct = direct;
+		this.maxFree = maxFree;
+		log.log(Level.CONFIG, "{0} buffer pool using {1} buffers, keeping up to {2} free buffers",
+				new Object[]{name, direct ? "direct" : "heap", maxFree});
+	}
+
+	/**
+	 * Returns cleared buffer with capacity not smaller than requested size.
+	 */
+	public ByteBuffer borrow(int size) {
+		final int capacity = ((Math.max(size, 1) + GRANULARITY - 1) / GRANULARITY) * GRANULARITY;
+		borrowed.increment();
+		ByteBuffer buffer = free.computeIfAbsent(capacity, c -> new ConcurrentLinkedDeque<>()).pollFirst();
+		if (buffer == null) {
+			allocated.increment();
+			return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+		freeCount.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Returns buffer to the pool. Buffer cannot be used by the caller after this call.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		returned.increment();
+		Deque<ByteBuffer> buffers = buffer.isDirect() == direct ? free.get(buffer.capacity()) : null;
+		if (buffers == null || freeCount.incrementAndGet() > maxFree) {
+			if (buffers != null) {
+				freeCount.decrementAndGet();
+			}
+			dropped.increment();
+			return;
+		}
+		buffer.clear();
+		buffers.offerFirst(buffer);
+	}
+
+	/**
+	 * Records that borrowed buffer will not be returned as it is still referenced, ie. queued by the socket with data
+	 * which could not be sent yet.
+	 */
+	public void detach(ByteBuffer buffer) {
+		if (buffer != null) {
+			detached.increment();
+		}
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		long borrowedCount = borrowed.sum();
+		list.add(compName, name + " buffers borrowed", borrowedCount, Level.FINER);
+		list.add(compName, name + " buffers allocated", allocated.sum(), Level.FINE);
+		list.add(compName, name + " buffers in use", borrowedCount - returned.sum() - detached.sum(), Level.FINE);
+		list.add(compName, name + " buffers free", freeCount.get(), Level.FINE);
+		list.add(compName, name + " buffers dropped", dropped.sum(), Level.FINER);
+		list.add(compName, name + " buffers detached", detached.sum(), Level.FINER);
+	}
+
+}
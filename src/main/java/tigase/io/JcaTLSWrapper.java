@@ -23,10 +23,14 @@ import tigase.cert.CertificateUtil;
 import javax.net.ssl.*;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
 import java.security.cert.Certificate;
 import java.util.Arrays;
 import java.util.StringJoiner;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,8 +46,14 @@ public class JcaTLSWrapper
 
 	private static final Logger log = Logger.getLogger(JcaTLSWrapper.class.getName());
 
+	private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
 	private int appBuffSize = 0;
 	private String debugId = null;
+	private Executor handshakeExecutor = null;
+	private long handshakeStartTime = System.currentTimeMillis();
+	private TLSHandshakeStatistics handshakeStatistics = null;
+	private volatile boolean taskPending = false;
 
 	// private String protocol = null;
 	private TLSEventHandler eventHandler = null;
@@ -68,6 +78,23 @@ public class JcaTLSWrapper
 	public JcaTLSWrapper(SSLContext sslc, TLSEventHandler eventHandler, String remote_hostname, int port,
 						 final boolean clientMode, final boolean wantClientAuth, final boolean needClientAuth,
 						 String[] enabledCiphers, String[] enabledProtocols) {
+		this(sslc, eventHandler, remote_hostname, port, clientMode, wantClientAuth, needClientAuth, enabledCiphers,
+			 enabledProtocols, null, null);
+	}
+
+	/**
+	 * Creates a new <code>TLSWrapper</code> instance which executes delegated handshake tasks using passed executor
+	 * instead of the thread processing connection data.
+	 *
+	 * @param handshakeExecutor executor for delegated handshake tasks or <code>null</code> to execute them inline
+	 * @param handshakeStatistics statistics to update or <code>null</code>
+	 */
+	public JcaTLSWrapper(SSLContext sslc, TLSEventHandler eventHandler, String remote_hostname, int port,
+						 final boolean clientMode, final boolean wantClientAuth, final boolean needClientAuth,
+						 String[] enabledCiphers, String[] enabledProtocols, Executor handshakeExecutor,
+						 TLSHandshakeStatistics handshakeStatistics) {
+		this.handshakeExecutor = handshakeExecutor;
+		this.handshakeStatistics = handshakeStatistics;
 		if (clientMode && remote_hostname != null) {
 			tlsEngine = sslc.createSSLEngine(remote_hostname, port);
 		} else {
@@ -180,6 +207,10 @@ public class JcaTLSWrapper
 	public TLSStatus getStatus() {
 		TLSStatus status = null;
 
+		if (taskPending) {
+			return TLSStatus.NEED_TASK;
+		}
+
 		if ((tlsEngineResult != null) && (tlsEngineResult.getStatus() == Status.BUFFER_UNDERFLOW)) {
 			status = TLSStatus.UNDERFLOW;
 
@@ -228,6 +259,11 @@ public class JcaTLSWrapper
 		return tlsEngine.getNeedClientAuth();
 	}
 
+	@Override
+	public boolean isTaskPending() {
+		return taskPending;
+	}
+
 	@Override
 	public void setDebugId(String id) {
 		debugId = id;
@@ -247,9 +283,7 @@ public class JcaTLSWrapper
 		}
 
 		if (tlsEngineResult.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-			if (eventHandler != null) {
-				eventHandler.handshakeCompleted(this);
-			}
+			handshakeFinished();
 		}
 
 		if (tlsEngineResult.getStatus() == Status.BUFFER_OVERFLOW) {
@@ -283,9 +317,7 @@ public class JcaTLSWrapper
 		}
 
 		if (tlsEngineResult.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-			if (eventHandler != null) {
-				eventHandler.handshakeCompleted(this);
-			}
+			handshakeFinished();
 		}
 
 		if (tlsEngineResult.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
@@ -298,15 +330,84 @@ public class JcaTLSWrapper
 	}
 
 	private void doTasks() {
+		final long scheduledAt = System.nanoTime();
+
+		if (handshakeExecutor == null) {
+			runTasks(scheduledAt);
+			return;
+		}
+
+		taskPending = true;
+		if (eventHandler != null) {
+			eventHandler.handshakeTasksScheduled(this);
+		}
+		try {
+			handshakeExecutor.execute(() -> {
+				try {
+					runTasks(scheduledAt);
+				} catch (Throwable ex) {
+					log.log(Level.WARNING, "Delegated TLS handshake task failed [" + debugId + "]", ex);
+				} finally {
+					taskPending = false;
+					if (eventHandler != null) {
+						eventHandler.handshakeTasksCompleted(this);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			// handshake executor queue is full, let's do the work here as before
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Handshake executor busy, running tasks inline [{0}]", debugId);
+			}
+			if (handshakeStatistics != null) {
+				handshakeStatistics.handshakeRejected();
+			}
+			try {
+				runTasks(scheduledAt);
+			} finally {
+				taskPending = false;
+				// handshakeTasksScheduled() was already called, so handler has to be notified
+				if (eventHandler != null) {
+					eventHandler.handshakeTasksCompleted(this);
+				}
+			}
+		}
+	}
+
+	private void runTasks(long scheduledAt) {
+		final long queueTime = System.nanoTime() - scheduledAt;
+		final long cpuStart = getCurrentThreadCpuTime();
 		Runnable runnable = null;
 
 		while ((runnable = tlsEngine.getDelegatedTask()) != null) {
 			runnable.run();
 		} // end of while ((runnable = engine.getDelegatedTask()) != 0)
+
+		if (handshakeStatistics != null) {
+			handshakeStatistics.handshakeProcessed(queueTime,
+												   cpuStart < 0 ? -1 : getCurrentThreadCpuTime() - cpuStart);
+		}
+	}
+
+	private static long getCurrentThreadCpuTime() {
+		return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1;
+	}
+
+	private void handshakeFinished() {
+		if (handshakeStatistics != null) {
+			// session resumed from the cache was created before this handshake started
+			SSLSession session = tlsEngine.getSession();
+			handshakeStatistics.handshakeCompleted(session != null && session.getCreationTime() < handshakeStartTime);
+		}
+		handshakeStartTime = System.currentTimeMillis();
+		if (eventHandler != null) {
+			eventHandler.handshakeCompleted(this);
+		}
 	}
 
 	/**
-	 * Method <code>resizeApplicationBuffer</code> is used to perform buffer resizing
+	 * Method <code>resizeApplicationBuffer</code> is used to perform buffer resizing, previous buffer is returned to
+	 * the buffer pool
 	 */
 	private ByteBuffer resizeApplicationBuffer(ByteBuffer net, ByteBuffer app) {
 
@@ -324,12 +425,13 @@ public class JcaTLSWrapper
 			log.log(Level.FINER, "Resizing tlsInput to {1} bytes [{0}]", new Object[]{debugId, newSize});
 		}
 
-		ByteBuffer bb = ByteBuffer.allocate(newSize);
+		ByteBuffer bb = BufferPool.TLS.borrow(newSize);
 
 		// bb.clear();
 		bb.order(app.order());
 		app.flip();
 		bb.put(app);
+		BufferPool.TLS.release(app);
 
 		return bb;
 
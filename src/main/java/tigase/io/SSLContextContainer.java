@@ -31,11 +31,13 @@ import tigase.server.Command;
 import tigase.server.ConnectionManager;
 import tigase.server.DataForm;
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
 import tigase.vhosts.*;
 import tigase.xml.Element;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import java.io.IOException;
 import java.nio.ByteOrder;
@@ -45,6 +47,10 @@ import java.security.cert.CertificateException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -139,6 +145,16 @@ public class SSLContextContainer
 	private SSLContextContainerIfc parent;
 	@ConfigField(desc = "TLS/SSL", alias = "tls-jdk-nss-bug-workaround-active")
 	private boolean tlsJdkNssBugWorkaround = false;
+	@ConfigField(desc = "Number of threads executing TLS handshake tasks (0 - execute on socket threads)", alias = "tls-handshake-threads")
+	private int handshakeThreads = 0;
+	@ConfigField(desc = "Maximal number of TLS handshakes waiting for handshake thread", alias = "tls-handshake-queue-size")
+	private int handshakeQueueSize = 1000;
+	private volatile ThreadPoolExecutor handshakeExecutor = null;
+	private final TLSHandshakeStatistics handshakeStatistics = new TLSHandshakeStatistics();
+	@ConfigField(desc = "Maximal number of cached TLS sessions which may be resumed (0 - no limit)", alias = "tls-session-cache-size")
+	private int sessionCacheSize = 20480;
+	@ConfigField(desc = "Time in seconds for which cached TLS session may be resumed", alias = "tls-session-timeout")
+	private int sessionTimeout = 86400;
 
 	private static String getKey(SSLContextContainer.HARDENED_MODE mode, boolean client) {
 		return mode + (client ? "_client" : "");
@@ -205,10 +221,39 @@ public class SSLContextContainer
 		SSLContext sslContext = getSSLContext(protocol, local_hostname, clientMode, x509TrustManagers);
 		TLSWrapper wrapper = new JcaTLSWrapper(sslContext, eventHandler, remote_hostname, port, clientMode,
 											   wantClientAuth, needClientAuth, getEnabledCiphers(local_hostname),
-											   getEnabledProtocols(local_hostname, clientMode));
+											   getEnabledProtocols(local_hostname, clientMode),
+											   getHandshakeExecutor(), handshakeStatistics);
 		return new TLSIO(socketIO, wrapper, byteOrder);
 	}
 
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		handshakeStatistics.getStatistics(compName, list);
+		ThreadPoolExecutor executor = handshakeExecutor;
+		list.add(compName, "TLS handshakes waiting for thread", executor == null ? 0 : executor.getQueue().size(),
+				 Level.FINE);
+	}
+
+	public void setHandshakeThreads(int handshakeThreads) {
+		this.handshakeThreads = handshakeThreads;
+		shutdownHandshakeExecutor();
+	}
+
+	public void setHandshakeQueueSize(int handshakeQueueSize) {
+		this.handshakeQueueSize = handshakeQueueSize;
+		shutdownHandshakeExecutor();
+	}
+
+	public void setSessionCacheSize(int sessionCacheSize) {
+		this.sessionCacheSize = sessionCacheSize;
+		sslContexts.values().forEach(this::configureSessionContexts);
+	}
+
+	public void setSessionTimeout(int sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+		sslContexts.values().forEach(this::configureSessionContexts);
+	}
+
 	@Override
 	public String[] getEnabledCiphers(String domain) {
 		if (enabledCiphers != null && enabledCiphers.length != 0) {
@@ -279,6 +324,7 @@ public class SSLContextContainer
 
 			if (holder == null || !holder.isValid(tms)) {
 				holder = createContextHolder(protocol, hostname, alias, clientMode, tms);
+				configureSessionContexts(holder);
 				if (clientMode) {
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, "Using SSLHolder: " + holder);
@@ -288,6 +334,7 @@ public class SSLContextContainer
 
 				if (!validateDomainCertificate(holder, alias)) {
 					holder = createContextHolder(protocol, hostname, alias, clientMode, tms);
+					configureSessionContexts(holder);
 				}
 
 				sslContexts.put(alias, holder);
@@ -402,6 +449,52 @@ public class SSLContextContainer
 	@Override
 	public void stop() {
 		eventBus.unregisterAll(this);
+		shutdownHandshakeExecutor();
+	}
+
+	private void configureSessionContexts(SSLHolder holder) {
+		SSLContext sslContext = holder.getSSLContext();
+		for (SSLSessionContext sessionContext : new SSLSessionContext[]{sslContext.getServerSessionContext(),
+																		 sslContext.getClientSessionContext()}) {
+			if (sessionContext != null) {
+				sessionContext.setSessionCacheSize(sessionCacheSize);
+				sessionContext.setSessionTimeout(sessionTimeout);
+			}
+		}
+	}
+
+	private ThreadPoolExecutor getHandshakeExecutor() {
+		if (handshakeThreads <= 0) {
+			return null;
+		}
+		ThreadPoolExecutor executor = handshakeExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				executor = handshakeExecutor;
+				if (executor == null) {
+					AtomicInteger counter = new AtomicInteger();
+					executor = new ThreadPoolExecutor(handshakeThreads, handshakeThreads, 0L, TimeUnit.MILLISECONDS,
+													  new LinkedBlockingQueue<>(Math.max(1, handshakeQueueSize)),
+													  r -> {
+														  Thread t = new Thread(r, "tls-handshake-" +
+																  counter.incrementAndGet());
+														  t.setDaemon(true);
+														  return t;
+													  });
+					handshakeExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	private synchronized void shutdownHandshakeExecutor() {
+		ThreadPoolExecutor executor = handshakeExecutor;
+		handshakeExecutor = null;
+		if (executor != null) {
+			// tasks already queued will still be executed
+			executor.shutdown();
+		}
 	}
 
 	private HARDENED_MODE getHardenedMode(String domain) {
@@ -19,6 +19,7 @@ package tigase.io;
 
 import tigase.annotations.TigaseDeprecated;
 import tigase.server.Lifecycle;
+import tigase.stats.StatisticsList;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -231,6 +232,12 @@ public interface SSLContextContainerIfc
 
 	String[] getEnabledCiphers(String domain);
 
+	/**
+	 * Adds statistics of TLS connections created by this container, ie. of TLS handshakes.
+	 */
+	default void getStatistics(String compName, StatisticsList list) {
+	}
+
 	String[] getEnabledProtocols(String domain, boolean client);
 
 	@Deprecated
@@ -28,6 +28,20 @@ public interface TLSEventHandler {
 
 	void handshakeCompleted(TLSWrapper wrapper);
 
+	/**
+	 * Called when delegated handshake tasks of the wrapper were passed to the handshake executor. Until
+	 * {@link #handshakeTasksCompleted(TLSWrapper)} is called connection data cannot be processed.
+	 */
+	default void handshakeTasksScheduled(TLSWrapper wrapper) {
+	}
+
+	/**
+	 * Called from the handshake executor thread when delegated handshake tasks of the wrapper were executed and the
+	 * handshake may be continued.
+	 */
+	default void handshakeTasksCompleted(TLSWrapper wrapper) {
+	}
+
 	int getSocketInputSize();
 }
 
@@ -0,0 +1,95 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import tigase.stats.StatisticsList;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Statistics of TLS handshakes of connections using the same {@link SSLContextContainerIfc}. Counts full and resumed
+ * (abbreviated) handshakes and time spent by connections in the handshake in the handshake threads pool: time waiting
+ * in the pool queue and CPU time used to process the handshake.
+ */
+public class TLSHandshakeStatistics {
+
+	private final LongAdder cpuTime = new LongAdder();
+	private final LongAdder fullHandshakes = new LongAdder();
+	private final LongAccumulator maxQueueTime = new LongAccumulator(Long::max, 0);
+	private final LongAdder processed = new LongAdder();
+	private final LongAdder queueTime = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder resumedHandshakes = new LongAdder();
+
+	/**
+	 * Records completed handshake.
+	 *
+	 * @param resumed <code>true</code> if previously negotiated session was resumed
+	 */
+	public void handshakeCompleted(boolean resumed) {
+		if (resumed) {
+			resumedHandshakes.increment();
+		} else {
+			fullHandshakes.increment();
+		}
+	}
+
+	/**
+	 * Records single processing of data of connection in the handshake.
+	 *
+	 * @param queueTime time in nanoseconds between scheduling and start of the processing
+	 * @param cpuTime CPU time in nanoseconds used by the processing or <code>-1</code> if it is not known
+	 */
+	public void handshakeProcessed(long queueTime, long cpuTime) {
+		processed.increment();
+		this.queueTime.add(queueTime);
+		maxQueueTime.accumulate(queueTime);
+		if (cpuTime > 0) {
+			this.cpuTime.add(cpuTime);
+		}
+	}
+
+	/**
+	 * Records processing of the handshake on the I/O thread, as the handshake threads pool queue was full.
+	 */
+	public void handshakeRejected() {
+		rejected.increment();
+	}
+
+	public long getFullHandshakes() {
+		return fullHandshakes.sum();
+	}
+
+	public long getResumedHandshakes() {
+		return resumedHandshakes.sum();
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		long count = processed.sum();
+		list.add(compName, "TLS full handshakes", fullHandshakes.sum(), Level.FINE);
+		list.add(compName, "TLS resumed handshakes", resumedHandshakes.sum(), Level.FINE);
+		list.add(compName, "TLS handshake processing rounds", count, Level.FINER);
+		list.add(compName, "TLS handshake rounds processed inline", rejected.sum(), Level.FINE);
+		list.add(compName, "Average TLS handshake queue time [ms]", count == 0 ? 0 : queueTime.sum() / count / 1000000,
+				 Level.FINE);
+		list.add(compName, "Maximal TLS handshake queue time [ms]", maxQueueTime.get() / 1000000, Level.FINER);
+		list.add(compName, "TLS handshake CPU time [ms]", cpuTime.sum() / 1000000, Level.FINE);
+	}
+}
@@ -46,10 +46,44 @@ public class TLSIO
 
 	private static final Logger log = Logger.getLogger(TLSIO.class.getName());
 
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/**
+	 * Decoded data are returned in a heap buffer reused by the reading thread, so that a read does not allocate a new
+	 * one. As with the buffer returned by {@link SocketIO}, data have to be consumed before the next read.
+	 */
+	private static final ThreadLocal<ByteBuffer> decodedBuffers = new ThreadLocal<>();
+
+	private final BufferPool bufferPool = BufferPool.TLS;
+
+	/**
+	 * <code>discardDecoded</code> is set while handshake data are read to send application data, decoded data are
+	 * dropped then and the reused buffer still holding data returned by the previous read is not overwritten.
+	 */
+	private boolean discardDecoded = false;
+
 	private IOInterface io = null;
 
 	/**
-	 * <code>tlsInput</code> buffer keeps data decoded from tlsWrapper.
+	 * <code>pendingInput</code> keeps network data which could not be decoded while delegated handshake tasks were
+	 * running, so they need to be decoded even if no new data arrive. Data are copied to a buffer borrowed from the
+	 * buffer pool, so they do not depend on the buffer passed to the next {@link #read(ByteBuffer)} call.
+	 */
+	private ByteBuffer pendingInput = null;
+
+	/**
+	 * <code>pendingOutput</code> keeps data which application wanted to send while delegated handshake tasks were
+	 * running. It is checked by {@link #waitingToSend()} from other threads.
+	 */
+	private volatile ByteBuffer pendingOutput = null;
+
+	private int replayedBytes = 0;
+
+	private final ByteOrder order;
+
+	/**
+	 * <code>tlsInput</code> buffer keeps data decoded from tlsWrapper. It is borrowed from the buffer pool only for
+	 * the time of decoding.
 	 */
 	private ByteBuffer tlsInput = null;
 
@@ -74,8 +108,7 @@ public class TLSIO
 		io = ioi;
 		tlsWrapper = wrapper;
 		tlsWrapper.setDebugId(toString());
-		tlsInput = ByteBuffer.allocate(tlsWrapper.getAppBuffSize());
-		tlsInput.order(order);
+		this.order = order;
 
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "TLS Socket created: {0}", io.toString());
@@ -86,13 +119,13 @@ public class TLSIO
 				log.finer("TLS - client mode, starting handshaking now...");
 			}
 
-			write(ByteBuffer.allocate(0));
+			write(EMPTY);
 		} // end of if (tlsWrapper.isClientMode())
 	}
 
 	@Override
 	public int bytesRead() {
-		return io.bytesRead();
+		return replayedBytes > 0 ? replayedBytes : io.bytesRead();
 	}
 
 	@Override
@@ -166,28 +199,56 @@ public class TLSIO
 		// log.finer("input.limit()=" + buff.limit());
 		// log.finer("input.position()=" + buff.position());
 		// }
+		replayedBytes = 0;
 		ByteBuffer tmpBuffer = io.read(buff);
 
-		if (io.bytesRead() > 0) {
-			if (log.isLoggable(Level.FINER)) {
-				log.log(Level.FINER, "Read bytes: {0}, {1}", new Object[]{io.bytesRead(), toString()});
+		if (pendingInput == null) {
+			if (io.bytesRead() > 0) {
+				if (log.isLoggable(Level.FINER)) {
+					log.log(Level.FINER, "Read bytes: {0}, {1}", new Object[]{io.bytesRead(), toString()});
+				}
+
+				return decodeData(tmpBuffer);
 			}
 
-			return decodeData(tmpBuffer);
-		} else {
-			if (tlsInput.capacity() > tlsWrapper.getAppBuffSize() && tlsInput.capacity() == tlsInput.remaining()) {
-				if (log.isLoggable(Level.FINE)) {
-					log.log(Level.FINE, "Resizing tlsInput to {0} bytes, capacity: {1}, remaining: {2}; IO: {3}",
-							new Object[]{tlsWrapper.getAppBuffSize(), tlsInput.capacity(), tlsInput.remaining(), toString()});
-				}
-				ByteBuffer bb = ByteBuffer.allocate(tlsWrapper.getAppBuffSize());
+			return null;
+		}
 
-				bb.order(tlsInput.order());
+		if (io.bytesRead() > 0) {
+			// new data are kept after data which could not be decoded yet
+			holdInput(tmpBuffer);
+			tmpBuffer.clear();
+		}
+		if (tlsWrapper.getStatus() == TLSStatus.NEED_TASK) {
+			return null;
+		}
+
+		// handshake tasks are completed, decoding data which arrived while they were running
+		ByteBuffer input = pendingInput;
 
-				tlsInput = bb;
+		pendingInput = null;
+		input.flip();
+		replayedBytes = input.remaining();
+		if (log.isLoggable(Level.FINER)) {
+			log.log(Level.FINER, "Decoding pending bytes: {0}, {1}", new Object[]{replayedBytes, toString()});
+		}
+		ByteBuffer result = null;
+
+		try {
+			result = decodeData(input);
+			if (input.position() > 0) {
+				// not complete TLS record was compacted, it is kept until the rest of it arrives
+				input.flip();
+				holdInput(input);
 			}
-			return null;
-		} // end of else
+		} catch (BufferUnderflowException ex) {
+			// nothing could be decoded, pendingInput grows as needed so there is no need for a bigger buffer
+			holdInput(input);
+		} finally {
+			bufferPool.release(input);
+		}
+
+		return result;
 	}
 
 	@Override
@@ -200,6 +261,8 @@ public class TLSIO
 
 		io.stop();
 		tlsWrapper.close();
+		bufferPool.release(pendingInput);
+		pendingInput = null;
 	}
 
 	@Override
@@ -209,18 +272,29 @@ public class TLSIO
 
 	@Override
 	public boolean waitingToSend() {
-		return io.waitingToSend();
+		if (io.waitingToSend()) {
+			return true;
+		}
+		// after delegated handshake tasks are completed handshake data may need to be sent
+		TLSStatus stat = tlsWrapper.getStatus();
+		return (pendingOutput != null && stat != TLSStatus.NEED_TASK) || stat == TLSStatus.NEED_WRITE;
 	}
 
 	@Override
 	public int waitingToSendSize() {
-		return io.waitingToSendSize();
+		return io.waitingToSendSize() + (pendingOutput == null ? 0 : pendingOutput.remaining());
 	}
 
 	@Override
 	public int write(ByteBuffer buff) throws IOException {
 		TLSStatus stat = tlsWrapper.getStatus();
 
+		if (stat == TLSStatus.NEED_TASK) {
+			// nothing can be wrapped until delegated handshake tasks are completed
+			holdOutput(buff);
+			return io.write(null);
+		}
+
 		// The loop below falls into infinite loop for some reason.
 		// Let's try to detect it here and recover.
 		// Looks like for some reason tlsWrapper.getStatus() sometimes starts to
@@ -233,7 +307,7 @@ public class TLSIO
 		while (((stat == TLSStatus.NEED_WRITE) || (stat == TLSStatus.NEED_READ)) && (++loop_cnt < max_loop_runs)) {
 			switch (stat) {
 				case NEED_WRITE:
-					writeBuff(ByteBuffer.allocate(0), loop_cnt);
+					writeBuff(EMPTY, loop_cnt);
 
 					break;
 
@@ -254,7 +328,7 @@ public class TLSIO
 					// I wonder if some real data can be read from the socket here (and we
 					// would
 					// loose the data) or this is just TLS stuff here.....
-					ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+					readHandshakeData();
 
 					break;
 
@@ -298,8 +372,19 @@ public class TLSIO
 
 		int result = -1;
 
+		if (pendingOutput != null) {
+			ByteBuffer held = pendingOutput;
+
+			pendingOutput = null;
+			writeBuff(held, loop_cnt);
+			holdOutput(held);
+		}
+
 		if (buff == null) {
 			result = io.write(null);
+		} else if (pendingOutput != null) {
+			holdOutput(buff);
+			result = io.write(null);
 		} else {
 			if (log.isLoggable(Level.FINER)) {
 				log.log(Level.FINER, "TLS - Writing data, remaining: {0}, loop_cnt: {1}, TLSIO: {2}, tlsWrapper: {3}",
@@ -307,6 +392,7 @@ public class TLSIO
 			}
 
 			result = writeBuff(buff, loop_cnt);
+			holdOutput(buff);
 		}
 
 		// if (isRemoteAddress("81.142.228.219")) {
@@ -327,7 +413,101 @@ public class TLSIO
 		decodeData(ByteBuffer.wrap(data));
 	}
 
+	/**
+	 * Copies remaining network data to <code>pendingInput</code>, after data which are already there.
+	 */
+	private void holdInput(ByteBuffer data) {
+		if (!data.hasRemaining()) {
+			return;
+		}
+		if (pendingInput == null) {
+			pendingInput = bufferPool.borrow(Math.max(data.remaining(), tlsWrapper.getNetBuffSize()));
+		} else if (pendingInput.remaining() < data.remaining()) {
+			ByteBuffer bb = bufferPool.borrow(pendingInput.position() + data.remaining());
+
+			pendingInput.flip();
+			bb.put(pendingInput);
+			bufferPool.release(pendingInput);
+			pendingInput = bb;
+		}
+		pendingInput.put(data);
+	}
+
+	private void holdOutput(ByteBuffer buff) {
+		if (buff == null || !buff.hasRemaining()) {
+			return;
+		}
+		if (pendingOutput == null) {
+			pendingOutput = ByteBuffer.allocate(buff.remaining());
+		} else {
+			ByteBuffer bb = ByteBuffer.allocate(pendingOutput.remaining() + buff.remaining());
+
+			bb.put(pendingOutput);
+			pendingOutput = bb;
+		}
+		pendingOutput.put(buff);
+		pendingOutput.flip();
+	}
+
+	/**
+	 * Reads and decodes handshake data. Application data are not expected at this point and are dropped.
+	 */
+	private void readHandshakeData() throws IOException {
+		ByteBuffer rbuff = bufferPool.borrow(tlsWrapper.getNetBuffSize());
+
+		discardDecoded = true;
+		try {
+			read(rbuff);
+		} finally {
+			discardDecoded = false;
+			// not decoded data are copied to pendingInput, so the buffer is not used after the read
+			bufferPool.release(rbuff);
+		}
+	}
+
 	private ByteBuffer decodeData(ByteBuffer input) throws IOException {
+		if (tlsInput != null) {
+			// handshake data read while decoding, using the same buffer
+			decodeDataToTlsInput(input);
+			return tlsInput;
+		}
+
+		tlsInput = bufferPool.borrow(tlsWrapper.getAppBuffSize());
+		tlsInput.order(order);
+		try {
+			decodeDataToTlsInput(input);
+
+			if (!tlsInput.hasRemaining() || discardDecoded) {
+				return EMPTY;
+			}
+
+			// only decoded data are copied so that the pooled buffer can be returned
+			ByteBuffer result = decodedBuffer(tlsInput.remaining());
+
+			result.put(tlsInput);
+			result.flip();
+
+			return result;
+		} finally {
+			bufferPool.release(tlsInput);
+			tlsInput = null;
+		}
+	}
+
+	private ByteBuffer decodedBuffer(int size) {
+		ByteBuffer result = decodedBuffers.get();
+
+		if (result == null || result.capacity() < size) {
+			result = ByteBuffer.allocate(Math.max(size, tlsWrapper.getAppBuffSize()));
+			decodedBuffers.set(result);
+		}
+		result.clear();
+		result.order(order);
+
+		return result;
+	}
+
+	private void decodeDataToTlsInput(ByteBuffer input) throws IOException {
 		TLSStatus stat = null;
 		boolean continueLoop = true;
 
@@ -367,7 +547,7 @@ public class TLSIO
 			// }// end of if (input.hasRemaining())
 			switch (tlsWrapper.getStatus()) {
 				case NEED_WRITE:
-					writeBuff(ByteBuffer.allocate(0), 0);
+					writeBuff(EMPTY, 0);
 
 					break;
 
@@ -401,6 +581,16 @@ public class TLSIO
 
 					break;
 
+				case NEED_TASK:
+
+					// Delegated handshake tasks are running on another thread, keeping
+					// not decoded data until they are completed
+					holdInput(input);
+					input.clear();
+					continueLoop = false;
+
+					break;
+
 				case CLOSED:
 
 					// if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
@@ -429,8 +619,6 @@ public class TLSIO
 		}
 
 		tlsInput.flip();
-
-		return tlsInput;
 	}
 
 	private int writeBuff(ByteBuffer buff, int loop_cnt) throws IOException {
@@ -455,33 +643,44 @@ public class TLSIO
 				// I wonder if some real data can be read from the socket here (and we
 				// would
 				// loose the data) or this is just TLS stuff here.....
-				ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+				readHandshakeData();
 				if ((!TLS_WAIT_FOR_HANDSHAKE_NOT_READY) && loop_cnt > 2 && tlsWrapper.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP &&
 						tlsWrapper.getStatus() == TLSStatus.NEED_READ) {
 					throw new IOException("TLS handshake not established!");
 				}
 			}
 
-			ByteBuffer tlsOutput = ByteBuffer.allocate(tlsWrapper.getNetBuffSize());
+			ByteBuffer tlsOutput = bufferPool.borrow(tlsWrapper.getNetBuffSize());
+			boolean queued = false;
+
+			try {
+				tlsWrapper.wrap(buff, tlsOutput);
 
-			// Not sure if this is really needed, I guess not...
-			tlsOutput.clear();
-			tlsWrapper.wrap(buff, tlsOutput);
+				if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
+					throw new EOFException("Socket has been closed.");
+				} // end of if (tlsWrapper.getStatus() == TLSStatus.CLOSED)
 
-			if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
-				throw new EOFException("Socket has been closed.");
-			} // end of if (tlsWrapper.getStatus() == TLSStatus.CLOSED)
+				tlsOutput.flip();
+				wr = io.write(tlsOutput);
+				result += wr;
 
-			tlsOutput.flip();
-			wr = io.write(tlsOutput);
-			result += wr;
+				// data which could not be sent yet are queued by the socket in this buffer
+				queued = tlsOutput.hasRemaining();
+			} finally {
+				if (queued) {
+					bufferPool.detach(tlsOutput);
+				} else {
+					bufferPool.release(tlsOutput);
+				}
+			}
 
 			if (log.isLoggable(Level.FINER)) {
 				log.log(Level.FINER, "TLS - Writing data, remaining: {0}, run {1} of {2}, TLSIO: {3}, tlsWrapper: {4}",
 						new Object[]{buff.remaining(), loop_cnt, max_loop_runs, toString(), String.valueOf(tlsWrapper)});
 			}
 
-		} while (buff.hasRemaining() && (++loop_cnt < max_loop_runs));
+		} while (buff.hasRemaining() && tlsWrapper.getStatus() != TLSStatus.NEED_TASK &&
+				(++loop_cnt < max_loop_runs));
 
 		if (loop_cnt > (max_loop_runs / 2)) {
 			log.log(Level.INFO,
@@ -498,7 +697,7 @@ public class TLSIO
 						new Object[]{buff.remaining(), buff.capacity(), loop_cnt, max_loop_runs, toString(), String.valueOf(tlsWrapper)});
 			}
 
-			writeBuff(ByteBuffer.allocate(0), ++loop_cnt);
+			writeBuff(EMPTY, ++loop_cnt);
 		} // end of if ()
 
 		return result;
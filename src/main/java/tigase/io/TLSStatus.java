@@ -30,6 +30,11 @@ public enum TLSStatus {
 	NEED_READ,
 	UNDERFLOW,
 	CLOSED,
+	/**
+	 * Delegated handshake tasks are being executed by the handshake executor, data cannot be wrapped or unwrapped
+	 * until they are completed.
+	 */
+	NEED_TASK,
 	OK;
 
 } // TLSStatus
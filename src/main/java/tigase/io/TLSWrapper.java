@@ -53,6 +53,13 @@ public interface TLSWrapper {
 
 	boolean isNeedClientAuth();
 
+	/**
+	 * Checks if delegated handshake tasks are still executed by the handshake executor.
+	 */
+	default boolean isTaskPending() {
+		return false;
+	}
+
 	void setDebugId(String id);
 
 	ByteBuffer unwrap(ByteBuffer net, ByteBuffer app) throws SSLException;
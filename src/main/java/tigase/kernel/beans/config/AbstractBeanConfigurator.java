@@ -19,6 +19,7 @@ package tigase.kernel.beans.config;
 
 import tigase.conf.AbstractConfigBuilder;
 import tigase.db.util.SchemaManager;
+import tigase.disco.ServiceEntity;
 import tigase.kernel.BeanUtils;
 import tigase.kernel.KernelException;
 import tigase.kernel.TypesConverter;
@@ -442,6 +443,11 @@ public abstract class AbstractBeanConfigurator
 			((ConfigurationChangedAware) bean).beanConfigurationChanged(
 					Collections.unmodifiableCollection(changedFields));
 		}
+
+		if (!changedFields.isEmpty()) {
+			// features and identities of components and processors may depend on their configuration
+			ServiceEntity.discoChanged();
+		}
 	}
 
 	@Override
@@ -0,0 +1,200 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import tigase.sys.TigaseRuntime;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adapts rate of accepting new connections to the current load of the server.
+ * <br>
+ * Load is reported by registered load signals as a utilization where <code>0</code> means idle and <code>1</code>
+ * means fully loaded (ie. CPU usage or filling of the queue). The highest of reported values (smoothed over time) is
+ * used to calculate an admission factor, by which configured new connections throttling of each port is multiplied.
+ * Below the low watermark all connections are admitted at the configured rate, above the high watermark only
+ * the minimal fraction of the configured rate is admitted and between watermarks the factor decreases linearly.
+ */
+public class AdmissionControl {
+
+	public static final String CPU_SIGNAL = "cpu";
+
+	public static final String HIGH_WATERMARK_PROP_KEY = "net-admission-high-watermark";
+
+	public static final double HIGH_WATERMARK_PROP_VAL = 0.9;
+
+	public static final String LOW_WATERMARK_PROP_KEY = "net-admission-low-watermark";
+
+	public static final double LOW_WATERMARK_PROP_VAL = 0.6;
+
+	public static final String MIN_FACTOR_PROP_KEY = "net-admission-min-factor";
+
+	public static final double MIN_FACTOR_PROP_VAL = 0.05;
+
+	private static final Logger log = Logger.getLogger(AdmissionControl.class.getName());
+	// weight of the latest sample in the smoothed load
+	private static final double SMOOTHING = 0.5;
+	private static AdmissionControl instance = null;
+
+	private final double highWatermark;
+	private final double lowWatermark;
+	private final double minFactor;
+	private final Map<String, DoubleSupplier> signals = new ConcurrentHashMap<>();
+	private volatile double factor = 1;
+	private volatile double load = 0;
+
+	/**
+	 * Returns instance used for all ports of the server.
+	 */
+	public static synchronized AdmissionControl getInstance() {
+		if (instance == null) {
+			instance = new AdmissionControl();
+		}
+		return instance;
+	}
+
+	/**
+	 * Calculates admission factor for the passed load.
+	 */
+	public static double calculateFactor(double load, double lowWatermark, double highWatermark, double minFactor) {
+		if (load <= lowWatermark) {
+			return 1;
+		}
+		if (load >= highWatermark) {
+			return minFactor;
+		}
+		return 1 - (1 - minFactor) * (load - lowWatermark) / (highWatermark - lowWatermark);
+	}
+
+	private static double getDoubleProperty(String key, double def) {
+		String value = System.getProperty(key);
+		if (value == null) {
+			return def;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException ex) {
+			log.log(Level.WARNING, "Invalid value {0} of property {1}, using default {2}",
+					new Object[]{value, key, def});
+			return def;
+		}
+	}
+
+	private AdmissionControl() {
+		this(getDoubleProperty(LOW_WATERMARK_PROP_KEY, LOW_WATERMARK_PROP_VAL),
+			 getDoubleProperty(HIGH_WATERMARK_PROP_KEY, HIGH_WATERMARK_PROP_VAL),
+			 getDoubleProperty(MIN_FACTOR_PROP_KEY, MIN_FACTOR_PROP_VAL));
+		addLoadSignal(CPU_SIGNAL, new CpuUsageSignal());
+	}
+
+	public AdmissionControl(double lowWatermark, double highWatermark, double minFactor) {
+		if (lowWatermark >= highWatermark) {
+			throw new IllegalArgumentException(
+					"Low watermark " + lowWatermark + " must be lower than high watermark " + highWatermark);
+		}
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.minFactor = minFactor;
+	}
+
+	/**
+	 * Registers source of load information.
+	 *
+	 * @param name name of the signal
+	 * @param signal supplier of the utilization, where <code>1</code> means fully loaded
+	 */
+	public void addLoadSignal(String name, DoubleSupplier signal) {
+		signals.put(name, signal);
+	}
+
+	public void removeLoadSignal(String name) {
+		signals.remove(name);
+	}
+
+	/**
+	 * Returns fraction of configured new connections throttling which should be admitted now.
+	 */
+	public double getFactor() {
+		return factor;
+	}
+
+	public double getLoad() {
+		return load;
+	}
+
+	/**
+	 * Samples all load signals and recalculates admission factor. Called periodically.
+	 *
+	 * @return new value of the admission factor
+	 */
+	public double update() {
+		double current = 0;
+		for (Map.Entry<String, DoubleSupplier> e : signals.entrySet()) {
+			try {
+				double value = e.getValue().getAsDouble();
+				if (value > current) {
+					current = value;
+				}
+			} catch (Exception ex) {
+				log.log(Level.FINE, "Could not read load signal " + e.getKey(), ex);
+			}
+		}
+		double smoothed = load * (1 - SMOOTHING) + current * SMOOTHING;
+		double newFactor = calculateFactor(smoothed, lowWatermark, highWatermark, minFactor);
+		if (newFactor != factor && log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Load {0}, admission factor changed from {1} to {2}",
+					new Object[]{smoothed, factor, newFactor});
+		}
+		load = smoothed;
+		factor = newFactor;
+		return newFactor;
+	}
+
+	/**
+	 * CPU usage of the process since the previous reading. It keeps its own sampling window, as
+	 * {@link TigaseRuntime#getCPUUsage()} moves the window used by statistics.
+	 */
+	private static class CpuUsageSignal
+			implements DoubleSupplier {
+
+		private long prevCpuTime = -1;
+		private long prevUptime = -1;
+		private double usage = 0;
+
+		@Override
+		public synchronized double getAsDouble() {
+			TigaseRuntime runtime = TigaseRuntime.getTigaseRuntime();
+			long uptime = runtime.getUptime();
+			long elapsed = uptime - prevUptime;
+			if (prevUptime < 0 || elapsed > 500) {
+				long cpuTime = runtime.getProcessCPUTime();
+				if (prevUptime >= 0) {
+					// CPU time is in nanoseconds, uptime in milliseconds
+					usage = Math.min(1, (cpuTime - prevCpuTime) / (elapsed * 1000000D * runtime.getCPUsNumber()));
+				}
+				prevUptime = uptime;
+				prevCpuTime = cpuTime;
+			}
+			return usage;
+		}
+	}
+}
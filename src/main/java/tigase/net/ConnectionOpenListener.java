@@ -18,6 +18,7 @@
 package tigase.net;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 /**
@@ -69,6 +70,19 @@ public interface ConnectionOpenListener {
 		return ConnectionOpenThread.def_5222_throttling;
 	}
 
+	/**
+	 * Called when new connection is rejected due to throttling, just before the socket is closed. Returned data (ie.
+	 * stream error redirecting client to other host) is written to the socket without waiting, so it should be
+	 * small.
+	 *
+	 * @param sc rejected socket channel
+	 *
+	 * @return data to send to the socket or <code>null</code>
+	 */
+	default ByteBuffer getRejectResponse(SocketChannel sc) {
+		return null;
+	}
+
 	default void release() {}
 }    // ConnectionOpenListener
 
@@ -21,10 +21,14 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,11 +36,20 @@ import java.util.logging.Logger;
  * Describe class ConnectionOpenThread here.
  * <br>
  * Created: Wed Jan 25 23:51:28 2006
+ * <br>
+ * New connections are accepted by a number of acceptor threads, each with its own selector. If the platform supports
+ * <code>SO_REUSEPORT</code> a separate listening socket is bound for each acceptor, so the kernel distributes incoming
+ * connections between them, otherwise listening sockets are assigned to acceptors in round-robin manner. Rate of
+ * accepted connections is limited per port by a token bucket refilled at the configured throttling rate multiplied
+ * by the factor calculated by {@link AdmissionControl}.
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
 */
-public class ConnectionOpenThread
-		implements Runnable {
+public class ConnectionOpenThread {
+
+	public static final String ACCEPTOR_THREADS_PROP_KEY = "net-acceptor-threads";
+
+	public static final String REUSE_PORT_PROP_KEY = "net-acceptor-reuse-port";
 
 	public static final long def_5222_throttling = 200;
 
@@ -48,319 +61,507 @@ public class ConnectionOpenThread
 	private static final Logger log = Logger.getLogger(ConnectionOpenThread.class.getName());
 	public static Map<Integer, PortThrottlingData> throttling = new ConcurrentHashMap<Integer, PortThrottlingData>(10);
 	private static ConnectionOpenThread acceptThread = null;
-
-	protected long accept_counter = 0;
-	private Selector selector = null;
-	private boolean stopping = false;
+	private static Boolean reusePortSupported = null;
+
+	protected final LongAdder accept_counter = new LongAdder();
+	private final Set<ConnectionOpenListener> acceptListeners = ConcurrentHashMap.newKeySet();
+	private final Acceptor[] acceptors;
+	private final AdmissionControl admissionControl = AdmissionControl.getInstance();
+	private final AtomicInteger nextAcceptor = new AtomicInteger();
+	private volatile boolean stopping = false;
 	private Timer timer = null;
-	private ConcurrentLinkedQueue<Task> waiting = new ConcurrentLinkedQueue<>();
-
-	public static ConnectionOpenThread getInstance() {
 
-		// Long new_throttling = Long.getLong("new-connections-throttling");
-//  if (new_throttling != null) {
-//    throttling = new_throttling;
-//    log.log(Level.WARNING, "New connections throttling set to: {0}", throttling);
-//  }
+	public static synchronized ConnectionOpenThread getInstance() {
 		if (acceptThread == null) {
-			acceptThread = new ConnectionOpenThread();
+			int cpus = Runtime.getRuntime().availableProcessors();
+			acceptThread = new ConnectionOpenThread(
+					Math.max(1, Integer.getInteger(ACCEPTOR_THREADS_PROP_KEY, Math.max(1, Math.min(4, cpus / 4)))));
 
-			Thread thrd = new Thread(acceptThread);
+			for (int i = 0; i < acceptThread.acceptors.length; i++) {
+				Thread thrd = new Thread(acceptThread.acceptors[i]);
 
-			thrd.setName("ConnectionOpenThread");
-			thrd.start();
+				thrd.setName("ConnectionOpenThread-" + i);
+				thrd.start();
+			}
 			if (log.isLoggable(Level.FINER)) {
-				log.finer("ConnectionOpenThread started.");
+				log.log(Level.FINER, "ConnectionOpenThread started with {0} acceptors.", acceptThread.acceptors.length);
 			}
 		}    // end of if (acceptThread == null)
 
 		return acceptThread;
 	}
 
-	private ConnectionOpenThread() {
+	private static synchronized boolean isReusePortSupported() {
+		if (reusePortSupported == null) {
+			reusePortSupported = false;
+			if (Boolean.parseBoolean(System.getProperty(REUSE_PORT_PROP_KEY, "false"))) {
+				try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+					reusePortSupported = ssc.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+				} catch (IOException ex) {
+					log.log(Level.FINE, "Could not check support for SO_REUSEPORT", ex);
+				}
+			}
+		}
+		return reusePortSupported;
+	}
+
+	private ConnectionOpenThread(int acceptorsNo) {
+		acceptors = new Acceptor[acceptorsNo];
+		for (int i = 0; i < acceptors.length; i++) {
+			acceptors[i] = new Acceptor();
+		}
 		timer = new Timer("Connections open timer", true);
 		timer.scheduleAtFixedRate(new TimerTask() {
 			@Override
 			public void run() {
+				admissionControl.update();
 				for (PortThrottlingData portData : throttling.values()) {
-					portData.lastSecondConnections = 0;
+					portData.nextSecond();
 				}
 			}
 		}, 1000, 1000);
-		try {
-			selector = Selector.open();
-		} catch (Exception e) {
-			log.log(Level.SEVERE, "Server I/O error, can''t continue my work.", e);
-			stopping = true;
-		}    // end of try-catch
 	}
 
 	public void addConnectionOpenListener(ConnectionOpenListener al) {
-		waiting.offer(new Task(al, Task.Action.Add));
-		selector.wakeup();
+		if (al.getConnectionType() == ConnectionType.accept) {
+			acceptListeners.add(al);
+		}
+		nextAcceptor().offer(new Task(al, Task.Action.Add, null));
 	}
 
 	public void removeConnectionOpenListener(ConnectionOpenListener al) {
-		waiting.offer(new Task(al, Task.Action.Remove));
-		selector.wakeup();
+		acceptListeners.remove(al);
+		for (Acceptor acceptor : acceptors) {
+			acceptor.offer(new Task(al, Task.Action.Remove, null));
+		}
 	}
 
-	@Override
-	public void run() {
-		while (!stopping) {
-			try {
-				int select = selector.select();
+	public int getAcceptorsCount() {
+		return acceptors.length;
+	}
 
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "Selected: " + select + " from selector: " + selector);
-				}
+	public AdmissionControl getAdmissionControl() {
+		return admissionControl;
+	}
 
-				for (Iterator i = selector.selectedKeys().iterator(); i.hasNext(); ) {
-					SelectionKey sk = (SelectionKey) i.next();
+	public PortThrottlingData getPortThrottlingData(int port) {
+		return throttling.get(port);
+	}
 
-					i.remove();
+	public void stop() {
+		stopping = true;
+		timer.cancel();
+		for (Acceptor acceptor : acceptors) {
+			acceptor.selector.wakeup();
+		}
+	}
 
-					SocketChannel sc = null;
-					boolean throttled = false;
-					int port_no = 0;
+	private Acceptor nextAcceptor() {
+		return acceptors[Math.floorMod(nextAcceptor.getAndIncrement(), acceptors.length)];
+	}
 
-					if ((sk.readyOps() & SelectionKey.OP_ACCEPT) != 0) {
-						ServerSocketChannel nextReady = (ServerSocketChannel) sk.channel();
+	private static class Task {
 
-						port_no = nextReady.socket().getLocalPort();
-						sc = nextReady.accept();
-						if (log.isLoggable(Level.FINEST)) {
-							log.finest("OP_ACCEPT");
-						}
+		private final SelectableChannel channel;
+		private final ConnectionOpenListener openListener;
+		private final Action action;
 
-						PortThrottlingData port_throttling = throttling.get(port_no);
+		private Task(ConnectionOpenListener openListener, Action action, SelectableChannel channel) {
+			this.action = action;
+			this.openListener = openListener;
+			this.channel = channel;
+		}
 
-						if (port_throttling != null) {
-							++port_throttling.lastSecondConnections;
-							if (port_throttling.lastSecondConnections > port_throttling.throttling) {
-								if (log.isLoggable(Level.INFO)) {
-									log.log(Level.INFO, "New connections throttling level {0} exceeded limit of {1}, closing: {2}",
-											new Object[]{port_throttling.lastSecondConnections, port_throttling.throttling, sc});
-								}
-								sc.close();
-								sc = null;
-								throttled = true;
-							}
-						} else {
+		private enum Action {
+			Add,
+			Register,
+			Remove
+		}
+	}
 
-							// Hm, this should not happen actually
-							log.log(Level.WARNING, "Throttling not configured for port: {0}", port_no);
-						}
-					}    // end of if (sk.readyOps() & SelectionKey.OP_ACCEPT)
-					if ((sk.readyOps() & SelectionKey.OP_CONNECT) != 0) {
-						sk.cancel();
-						sc = (SocketChannel) sk.channel();
-						if (log.isLoggable(Level.FINEST)) {
-							log.finest("OP_CONNECT");
-						}
-					}    // end of if (sk.readyOps() & SelectionKey.OP_ACCEPT)
-					if (sc != null) {
+	/**
+	 * Keeps new connections throttling state of a single port. Tokens are refilled continuously, so up to one second
+	 * worth of connections may be accepted in a burst.
+	 */
+	public static class PortThrottlingData {
+
+		private final long throttling;
+		private long accepted = 0;
+		private long lastRefill;
+		private long lastSecondAccepted = 0;
+		private long lastSecondRejected = 0;
+		private long prevAccepted = 0;
+		private long prevRejected = 0;
+		private long rejected = 0;
+		private double tokens;
+
+		public PortThrottlingData(long throttling_prop) {
+			throttling = throttling_prop;
+			tokens = throttling_prop;
+			lastRefill = System.nanoTime();
+		}
 
-						// We have to catch exception here as sometimes socket is closed
-						// or connection is broken before we start configuring it here
-						// then whatever we do on the socket it throws an exception
-						try {
-							sc.configureBlocking(false);
-							sc.socket().setSoLinger(false, 0);
-							sc.socket().setReuseAddress(true);
-							if (log.isLoggable(Level.FINER)) {
-								log.log(Level.FINER, "Registered new client socket: {0}", sc);
-							}
+		public synchronized long getAccepted() {
+			return accepted;
+		}
 
-							ConnectionOpenListener al = (ConnectionOpenListener) sk.attachment();
+		public synchronized long getLastSecondAccepted() {
+			return lastSecondAccepted;
+		}
 
-							sc.socket().setTrafficClass(al.getTrafficClass());
-							sc.socket().setReceiveBufferSize(al.getReceiveBufferSize());
-							al.accept(sc);
-						} catch (java.net.SocketException e) {
-							log.log(Level.INFO, "Socket closed instantly after it had been opened?", e);
+		public synchronized long getLastSecondRejected() {
+			return lastSecondRejected;
+		}
 
-							ConnectionOpenListener al = (ConnectionOpenListener) sk.attachment();
+		public synchronized long getRejected() {
+			return rejected;
+		}
 
-							al.accept(sc);
-						}
-					} else {
-						log.log(Level.INFO,
-								"Can not obtain socket channel from selection key, throttling activated = {0}, for port: {1}",
-								new Object[]{throttled, port_no});
-					}    // end of if (sc != null) else
-					++accept_counter;
-				}
-				processWaiting();
-			} catch (IOException e) {
-				log.log(Level.SEVERE, "Server I/O error.", e);
+		public long getThrottling() {
+			return throttling;
+		}
+
+		/**
+		 * Checks if new connection may be accepted.
+		 *
+		 * @param now current value of {@link System#nanoTime()}
+		 * @param factor admission factor by which configured throttling is multiplied
+		 *
+		 * @return <code>true</code> if connection should be accepted
+		 */
+		public synchronized boolean tryAcquire(long now, double factor) {
+			double rate = throttling * factor;
+			double capacity = Math.max(1, rate);
+			long elapsed = now - lastRefill;
+			if (elapsed > 0) {
+				tokens = Math.min(capacity, tokens + elapsed * rate / 1_000_000_000d);
+				lastRefill = now;
+			} else {
+				tokens = Math.min(capacity, tokens);
+			}
+			if (tokens >= 1) {
+				tokens -= 1;
+				++accepted;
+				return true;
+			}
+			++rejected;
+			return false;
+		}
 
-				// stopping = true;
-			}        // end of catch
-			catch (Exception e) {
-				log.log(Level.SEVERE, "Other service exception.", e);
+		@Override
+		public synchronized String toString() {
+			return "throttling: " + throttling + ", accepted: " + accepted + ", rejected: " + rejected;
+		}
 
-				// stopping = true;
-			}        // end of catch
+		synchronized void nextSecond() {
+			lastSecondAccepted = accepted - prevAccepted;
+			lastSecondRejected = rejected - prevRejected;
+			prevAccepted = accepted;
+			prevRejected = rejected;
 		}
 	}
 
-	public void start() {
-		Thread t = new Thread(this);
+	private class Acceptor
+			implements Runnable {
 
-		t.setName("ConnectionOpenThread");
-		t.start();
-	}
+		private final ConcurrentLinkedQueue<Task> waiting = new ConcurrentLinkedQueue<>();
+		private Selector selector = null;
 
-	public void stop() {
-		stopping = true;
-		selector.wakeup();
-	}
+		private Acceptor() {
+			try {
+				selector = Selector.open();
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Server I/O error, can''t continue my work.", e);
+				stopping = true;
+			}    // end of try-catch
+		}
 
-	private void processWaiting() throws IOException {
-		Task task = null;
+		@Override
+		public void run() {
+			while (!stopping) {
+				try {
+					int select = selector.select();
 
-		while ((task = waiting.poll()) != null) {
-			ConnectionOpenListener al = task.openListener;
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "Selected: " + select + " from selector: " + selector);
+					}
 
-			switch (task.action) {
-				case Add:
-					try {
-						addPort(al);
-					} catch (Exception e) {
-						if (((e instanceof SocketException && e.getMessage() != null &&
-								e.getMessage().contains("Network is unreachable")) ||
-								(e instanceof NoRouteToHostException && e.getMessage() != null &&
-										e.getMessage().equals("No route to host"))) &&
-								al.getConnectionType() == ConnectionType.connect && al.getIfcs() != null &&
-								Arrays.stream(al.getIfcs()).filter(ifc -> ifc.contains(":")).findFirst().isPresent()) {
-							log.log(Level.FINEST, "Error: creating IPv6 connection (" + e + ") for: " + al);
-						} else {
-							log.log(Level.WARNING, "Error: creating connection for: " + al, e);
-
-							// check for existing bindings
-							for (SelectionKey key : selector.keys()) {
-								ConnectionOpenListener al1 = (ConnectionOpenListener) key.attachment();
-								if (al != null) {
-									if (al.getPort() == al1.getPort()) {
-										log.log(Level.FINEST, "port " + al.getPort() + " still bound!!");
+					for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+						SelectionKey sk = i.next();
+
+						i.remove();
+
+						SocketChannel sc = null;
+						boolean throttled = false;
+						int port_no = 0;
+
+						if ((sk.readyOps() & SelectionKey.OP_ACCEPT) != 0) {
+							ServerSocketChannel nextReady = (ServerSocketChannel) sk.channel();
+
+							port_no = nextReady.socket().getLocalPort();
+							sc = nextReady.accept();
+							if (log.isLoggable(Level.FINEST)) {
+								log.finest("OP_ACCEPT");
+							}
+							if (sc == null) {
+								// connection was already taken or reset by the client
+								continue;
+							}
+
+							PortThrottlingData port_throttling = throttling.get(port_no);
+
+							if (port_throttling != null) {
+								if (!port_throttling.tryAcquire(System.nanoTime(), admissionControl.getFactor())) {
+									if (log.isLoggable(Level.FINE)) {
+										log.log(Level.FINE,
+												"New connections throttling limit of {0} (admission factor {1}) " +
+														"exceeded, closing: {2}",
+												new Object[]{port_throttling.getThrottling(),
+															 admissionControl.getFactor(), sc});
 									}
+									reject(sc, (ConnectionOpenListener) sk.attachment());
+									sc = null;
+									throttled = true;
 								}
+							} else {
+
+								// Hm, this should not happen actually
+								log.log(Level.WARNING, "Throttling not configured for port: {0}", port_no);
 							}
-						}
-						al.accept(null);
-					}    // end of try-catch
-					break;
-				case Remove:
-					for (SelectionKey key : selector.keys()) {
+						}    // end of if (sk.readyOps() & SelectionKey.OP_ACCEPT)
+						if ((sk.readyOps() & SelectionKey.OP_CONNECT) != 0) {
+							sk.cancel();
+							sc = (SocketChannel) sk.channel();
+							if (log.isLoggable(Level.FINEST)) {
+								log.finest("OP_CONNECT");
+							}
+						}    // end of if (sk.readyOps() & SelectionKey.OP_ACCEPT)
+						if (sc != null) {
 
-						if (al == key.attachment()) {
+							// We have to catch exception here as sometimes socket is closed
+							// or connection is broken before we start configuring it here
+							// then whatever we do on the socket it throws an exception
 							try {
-								SelectableChannel channel = key.channel();
-								if (log.isLoggable(Level.FINEST)) {
-									log.log(Level.FINEST, "removing binding for port:" + al.getPort());
+								sc.configureBlocking(false);
+								sc.socket().setSoLinger(false, 0);
+								sc.socket().setReuseAddress(true);
+								if (log.isLoggable(Level.FINER)) {
+									log.log(Level.FINER, "Registered new client socket: {0}", sc);
 								}
-								channel.close();
-								key.cancel();
-								selector.selectNow();
-							} catch (Exception e) {
-								log.log(Level.WARNING, "Exception during removing connection listener.", e);
-							}
 
-							break;
-						}
+								ConnectionOpenListener al = (ConnectionOpenListener) sk.attachment();
+
+								sc.socket().setTrafficClass(al.getTrafficClass());
+								sc.socket().setReceiveBufferSize(al.getReceiveBufferSize());
+								al.accept(sc);
+							} catch (java.net.SocketException e) {
+								log.log(Level.INFO, "Socket closed instantly after it had been opened?", e);
+
+								ConnectionOpenListener al = (ConnectionOpenListener) sk.attachment();
+
+								al.accept(sc);
+							}
+						} else if (!throttled) {
+							log.log(Level.INFO, "Can not obtain socket channel from selection key for port: {0}",
+									port_no);
+						}    // end of if (sc != null) else
+						accept_counter.increment();
 					}
-					break;
+					processWaiting();
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Server I/O error.", e);
+
+					// stopping = true;
+				}        // end of catch
+				catch (Exception e) {
+					log.log(Level.SEVERE, "Other service exception.", e);
+
+					// stopping = true;
+				}        // end of catch
 			}
 		}
-	}
-	
-	private void addISA(InetSocketAddress isa, ConnectionOpenListener al) throws IOException {
-		switch (al.getConnectionType()) {
-			case accept:
-				long port_throttling = al.getNewConnectionsThrottling();
 
-				throttling.put(isa.getPort(), new PortThrottlingData(port_throttling));
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST,
-							"Setting up throttling for the port {0} to {1} connections per second. isa: {2}",
-							new Object[]{isa.getPort(), port_throttling, isa});
+		private void offer(Task task) {
+			waiting.offer(task);
+			selector.wakeup();
+		}
+
+		private void reject(SocketChannel sc, ConnectionOpenListener al) {
+			try {
+				ByteBuffer response = al.getRejectResponse(sc);
+				if (response != null) {
+					sc.configureBlocking(false);
+					sc.write(response);
 				}
+			} catch (Exception e) {
 				if (log.isLoggable(Level.FINEST)) {
-					log.finest("Setting up 'accept' channel...");
+					log.log(Level.FINEST, "Could not send response to rejected connection: " + sc, e);
 				}
-
-				ServerSocketChannel ssc = ServerSocketChannel.open();
-
-				ssc.socket().setReceiveBufferSize(al.getReceiveBufferSize());
-				ssc.configureBlocking(false);
-				ssc.bind(isa, (int) (port_throttling));
-				ssc.register(selector, SelectionKey.OP_ACCEPT, al);
-
-				break;
-
-			case connect:
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "Setting up ''connect'' channel for: {0}/{1}",
-							new Object[]{isa.getAddress(), isa.getPort()});
+			} finally {
+				try {
+					sc.close();
+				} catch (IOException e) {
+					log.log(Level.FINEST, "Could not close rejected connection", e);
 				}
+			}
+		}
 
-				SocketChannel sc = SocketChannel.open();
+		private void processWaiting() throws IOException {
+			Task task = null;
 
-				sc.socket().setReceiveBufferSize(al.getReceiveBufferSize());
-				sc.socket().setTrafficClass(al.getTrafficClass());
-				sc.configureBlocking(false);
-				sc.connect(isa);
-				sc.register(selector, SelectionKey.OP_CONNECT, al);
+			while ((task = waiting.poll()) != null) {
+				ConnectionOpenListener al = task.openListener;
 
-				break;
+				switch (task.action) {
+					case Add:
+						try {
+							addPort(al);
+						} catch (Exception e) {
+							if (((e instanceof SocketException && e.getMessage() != null &&
+									e.getMessage().contains("Network is unreachable")) ||
+									(e instanceof NoRouteToHostException && e.getMessage() != null &&
+											e.getMessage().equals("No route to host"))) &&
+									al.getConnectionType() == ConnectionType.connect && al.getIfcs() != null &&
+									Arrays.stream(al.getIfcs()).filter(ifc -> ifc.contains(":")).findFirst().isPresent()) {
+								log.log(Level.FINEST, "Error: creating IPv6 connection (" + e + ") for: " + al);
+							} else {
+								log.log(Level.WARNING, "Error: creating connection for: " + al, e);
+
+								// check for existing bindings
+								for (SelectionKey key : selector.keys()) {
+									ConnectionOpenListener al1 = (ConnectionOpenListener) key.attachment();
+									if (al != null) {
+										if (al.getPort() == al1.getPort()) {
+											log.log(Level.FINEST, "port " + al.getPort() + " still bound!!");
+										}
+									}
+								}
+							}
+							al.accept(null);
+						}    // end of try-catch
+						break;
+					case Register:
+						try {
+							if (acceptListeners.contains(al)) {
+								task.channel.register(selector, SelectionKey.OP_ACCEPT, al);
+							} else {
+								// listener was removed before channel was registered
+								task.channel.close();
+							}
+						} catch (Exception e) {
+							log.log(Level.WARNING, "Exception during registering channel for: " + al, e);
+						}
+						break;
+					case Remove:
+						boolean removed = false;
+						for (SelectionKey key : selector.keys()) {
+
+							if (al == key.attachment()) {
+								try {
+									SelectableChannel channel = key.channel();
+									if (log.isLoggable(Level.FINEST)) {
+										log.log(Level.FINEST, "removing binding for port:" + al.getPort());
+									}
+									channel.close();
+									key.cancel();
+									removed = true;
+								} catch (Exception e) {
+									log.log(Level.WARNING, "Exception during removing connection listener.", e);
+								}
+							}
+						}
+						if (removed) {
+							selector.selectNow();
+						}
+						break;
+				}
+			}
+		}
 
-			default:
-				log.log(Level.WARNING, "Unknown connection type: {0}", al.getConnectionType());
+		private void addISA(InetSocketAddress isa, ConnectionOpenListener al) throws IOException {
+			switch (al.getConnectionType()) {
+				case accept:
+					long port_throttling = al.getNewConnectionsThrottling();
 
-				break;
-		}    // end of switch (al.getConnectionType())
-	}
+					throttling.put(isa.getPort(), new PortThrottlingData(port_throttling));
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST,
+								"Setting up throttling for the port {0} to {1} connections per second. isa: {2}",
+								new Object[]{isa.getPort(), port_throttling, isa});
+					}
+					if (log.isLoggable(Level.FINEST)) {
+						log.finest("Setting up 'accept' channel...");
+					}
 
-	private void addPort(ConnectionOpenListener al) throws IOException {
-		if ((al.getConnectionType() == ConnectionType.connect) && (al.getRemoteAddress() != null)) {
-			addISA(al.getRemoteAddress(), al);
-		} else if ((al.getIfcs() == null) || (al.getIfcs().length == 0) || al.getIfcs()[0].equals("ifc") ||
-				al.getIfcs()[0].equals("*")) {
-			addISA(new InetSocketAddress(al.getPort()), al);
-		} else {
-			for (String ifc : al.getIfcs()) {
-				addISA(new InetSocketAddress(ifc, al.getPort()), al);
-			}    // end of for ()
-		}      // end of if (ip == null || ip.equals("")) else
-	}
+					boolean reusePort = acceptors.length > 1 && isReusePortSupported();
+					List<ServerSocketChannel> channels = new ArrayList<>();
 
-	private static class Task {
+					try {
+						for (int i = 0; i < (reusePort ? acceptors.length : 1); i++) {
+							ServerSocketChannel ssc = ServerSocketChannel.open();
+
+							channels.add(ssc);
+							ssc.socket().setReceiveBufferSize(al.getReceiveBufferSize());
+							ssc.configureBlocking(false);
+							if (reusePort) {
+								ssc.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+							}
+							ssc.bind(isa, (int) (port_throttling));
+						}
+					} catch (IOException e) {
+						for (ServerSocketChannel ssc : channels) {
+							try {
+								ssc.close();
+							} catch (IOException ex) {
+								log.log(Level.FINEST, "Could not close channel", ex);
+							}
+						}
+						throw e;
+					}
+					if (reusePort) {
+						for (int i = 0; i < acceptors.length; i++) {
+							acceptors[i].offer(new Task(al, Task.Action.Register, channels.get(i)));
+						}
+					} else {
+						channels.get(0).register(selector, SelectionKey.OP_ACCEPT, al);
+					}
 
-		private final ConnectionOpenListener openListener;
-		private final Action action;
+					break;
 
-		private Task(ConnectionOpenListener openListener, Action action) {
-			this.action = action;
-			this.openListener = openListener;
-		}
+				case connect:
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "Setting up ''connect'' channel for: {0}/{1}",
+								new Object[]{isa.getAddress(), isa.getPort()});
+					}
 
-		private enum Action {
-			Add,
-			Remove
-		}
-	}
+					SocketChannel sc = SocketChannel.open();
 
-	private class PortThrottlingData {
+					sc.socket().setReceiveBufferSize(al.getReceiveBufferSize());
+					sc.socket().setTrafficClass(al.getTrafficClass());
+					sc.configureBlocking(false);
+					sc.connect(isa);
+					sc.register(selector, SelectionKey.OP_CONNECT, al);
 
-			protected long lastSecondConnections = 0;
+					break;
 
-			protected long throttling;
+				default:
+					log.log(Level.WARNING, "Unknown connection type: {0}", al.getConnectionType());
 
+					break;
+			}    // end of switch (al.getConnectionType())
+		}
 
-		private PortThrottlingData(long throttling_prop) {
-			throttling = throttling_prop;
+		private void addPort(ConnectionOpenListener al) throws IOException {
+			if ((al.getConnectionType() == ConnectionType.connect) && (al.getRemoteAddress() != null)) {
+				addISA(al.getRemoteAddress(), al);
+			} else if ((al.getIfcs() == null) || (al.getIfcs().length == 0) || al.getIfcs()[0].equals("ifc") ||
+					al.getIfcs()[0].equals("*")) {
+				addISA(new InetSocketAddress(al.getPort()), al);
+			} else {
+				for (String ifc : al.getIfcs()) {
+					addISA(new InetSocketAddress(ifc, al.getPort()), al);
+				}    // end of for ()
+			}      // end of if (ip == null || ip.equals("")) else
 		}
 	}
 }    // ConnectionOpenThread
-
@@ -42,6 +42,7 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -89,6 +90,11 @@ public abstract class IOService<RefObject>
 
 	private static final Logger log = Logger.getLogger(IOService.class.getName());
 	private static final long MAX_ALLOWED_EMPTY_CALLS = 1000;
+	// states of delegated TLS handshake tasks, see handshakeTasksParked()
+	private static final int TASKS_NONE = 0;
+	private static final int TASKS_SCHEDULED = 1;
+	private static final int TASKS_PARKED = 2;
+	private static final int TASKS_COMPLETED = 3;
 
 	private final ReentrantLock readInProgress = new ReentrantLock();
 	private final ReentrantLock writeInProgress = new ReentrantLock();
@@ -135,6 +141,7 @@ public abstract class IOService<RefObject>
 	private SSLContextContainerIfc sslContextContainer;
 	private boolean stopping = false;
 	private byte[] tlsUniqueId;
+	private final AtomicInteger handshakeTasksState = new AtomicInteger(TASKS_NONE);
 	private long[] wrData = new long[60];
 
 	private TrustManager[] x509TrustManagers;
@@ -220,7 +227,35 @@ public abstract class IOService<RefObject>
 			}
 		}
 
-		return readLock && socketServiceReady ? this : null;
+		return readLock && socketServiceReady && !handshakeTasksParked() ? this : null;
+	}
+
+	/**
+	 * Checks if the service is waiting for delegated TLS handshake tasks, so it must not be added back to the selector
+	 * by the caller of {@link #call()}. The service is then submitted for processing exactly once, either here, if
+	 * tasks completed while socket data were processed, or by {@link #handshakeTasksCompleted(TLSWrapper)}.
+	 */
+	private boolean handshakeTasksParked() {
+		while (true) {
+			switch (handshakeTasksState.get()) {
+				case TASKS_SCHEDULED:
+					if (handshakeTasksState.compareAndSet(TASKS_SCHEDULED, TASKS_PARKED)) {
+						return true;
+					}
+					break;
+				case TASKS_PARKED:
+					return true;
+				case TASKS_COMPLETED:
+					if (handshakeTasksState.compareAndSet(TASKS_COMPLETED, TASKS_NONE)) {
+						// data kept while tasks were running need to be decoded without waiting for new data
+						SocketThread.resumeSocketService(this);
+						return true;
+					}
+					break;
+				default:
+					return false;
+			}
+		}
 	}
 
 	@Override
@@ -339,6 +374,24 @@ public abstract class IOService<RefObject>
 		serviceListener.tlsHandshakeCompleted(this);
 	}
 
+	@Override
+	public void handshakeTasksScheduled(TLSWrapper wrapper) {
+		// tasks scheduled while processing socket data are handled when the processing ends, otherwise
+		// the service is resumed by handshakeTasksCompleted()
+		handshakeTasksState.set(readInProgress.isHeldByCurrentThread() ? TASKS_SCHEDULED : TASKS_PARKED);
+	}
+
+	@Override
+	public void handshakeTasksCompleted(TLSWrapper wrapper) {
+		if (handshakeTasksState.getAndSet(TASKS_COMPLETED) == TASKS_PARKED &&
+				handshakeTasksState.compareAndSet(TASKS_COMPLETED, TASKS_NONE)) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "TLS handshake tasks completed, resuming processing [{0}]", this);
+			}
+			SocketThread.resumeSocketService(this);
+		}
+	}
+
 	public abstract void processWaitingPackets() throws IOException;
 
 	public void startSSL(boolean clientMode, boolean wantClientAuth, boolean needClientAuth) throws IOException {
@@ -126,6 +126,14 @@ public class SocketThread
 	}
 
 
+	/**
+	 * Submits service for processing without waiting for network data, ie. when delegated TLS handshake tasks were
+	 * completed and the handshake should be continued.
+	 */
+	public static void resumeSocketService(IOService<?> s) {
+		completionService.submit(s);
+	}
+
 	public static void removeSocketService(IOService<Object> s) {
 		s.setSocketServiceReady(false);
 		socketReadThread[s.hashCode() % socketReadThread.length].removeSocketServicePriv(s);
@@ -28,6 +28,7 @@ import tigase.sys.TigaseRuntime;
 import tigase.util.Algorithms;
 import tigase.util.routing.PatternComparator;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.util.tracer.FlightRecorder;
 import tigase.util.workqueue.PriorityQueueAbstract;
 import tigase.util.workqueue.PriorityQueueRelaxed;
 import tigase.xmpp.jid.JID;
@@ -173,8 +174,6 @@ public abstract class AbstractMessageReceiver
 	@ConfigField(desc = "Priority queue class", alias = "priority-queue-implementation")
 	private Class<? extends PriorityQueueAbstract> priorityQueueClass = PriorityQueueRelaxed.class;
 	// ~--- fields ---------------------------------------------------------------
-	// private static final TigaseTracer tracer =
-	// TigaseTracer.getTracer("abstract");
 	@ConfigField(desc = "Number of threads processing incoming packages", alias = "processing-in-threads")
 	private int processingInThreads = processingInThreads();
 	@ConfigField(desc = "Number of threads processing outgoing packages", alias = "processing-out-threads")
@@ -597,6 +596,25 @@ public abstract class AbstractMessageReceiver
 		return sb.toString();
 	}
 
+	/**
+	 * Returns number of packets waiting for processing in all incoming queues.
+	 */
+	public int getInQueueSize() {
+		int in_queue_size = 0;
+
+		for (PriorityQueueAbstract<Packet> queue : in_queues) {
+			in_queue_size += queue.totalSize();
+		}
+		return in_queue_size;
+	}
+
+	/**
+	 * Returns maximal number of packets which may wait for processing in all incoming queues.
+	 */
+	public int getMaxInQueueSize() {
+		return maxInQueueSize * processingInThreads();
+	}
+
 	/**
 	 * Concurrency control method. Returns preferable number of threads set for this component.
 	 *
@@ -614,6 +632,16 @@ public abstract class AbstractMessageReceiver
 	public int processingOutThreads() {
 		return 1;
 	}
+
+	/**
+	 * Returns <code>true</code> if packets passing through queues of this component should be recorded by {@link
+	 * FlightRecorder}. Threads of components which do not record packets do not keep recorder buffers.
+	 *
+	 * @return <code>true</code> if packets should be recorded.
+	 */
+	public boolean isFlightRecorded() {
+		return false;
+	}
 	/**
 	 * By default this method just copies the given packet between queue. This method operates on packets which have
 	 * been already processed somehow by the component so usually the default action is the best one, however some
@@ -761,12 +789,7 @@ public abstract class AbstractMessageReceiver
 			}
 		}
 
-		int in_queue_size = 0;
-
-		for (PriorityQueueAbstract<Packet> total_size : in_queues) {
-			in_queue_size += total_size.totalSize();
-		}
-
+		int in_queue_size = getInQueueSize();
 		int out_queue_size = 0;
 
 		for (PriorityQueueAbstract<Packet> total_size : out_queues) {
@@ -775,7 +798,7 @@ public abstract class AbstractMessageReceiver
 		list.add(getName(), "Total In queues wait", in_queue_size, Level.INFO);
 		list.add(getName(), "Total Out queues wait", out_queue_size, Level.INFO);
 		list.add(getName(), "Total queues wait", (in_queue_size + out_queue_size), Level.INFO);
-		list.add(getName(), StatisticType.MAX_QUEUE_SIZE.getDescription(), (maxInQueueSize * processingInThreads()),
+		list.add(getName(), StatisticType.MAX_QUEUE_SIZE.getDescription(), getMaxInQueueSize(),
 				 Level.FINEST);
 		list.add(getName(), StatisticType.IN_QUEUE_OVERFLOW.getDescription(), statReceivedPacketsEr, Level.INFO);
 		list.add(getName(), StatisticType.OUT_QUEUE_OVERFLOW.getDescription(), statSentPacketsEr, Level.INFO);
@@ -971,6 +994,24 @@ public abstract class AbstractMessageReceiver
 		return result;
 	}
 
+	/**
+	 * Delivers packet directly to the input queue of the local component instead of putting it to the output queue.
+	 * Outgoing packet filters of this component are applied before the packet is passed to the receiver.
+	 *
+	 * @param packet is an output packet addressed to the receiver.
+	 * @param receiver is the destination component which accepted the packet for direct delivery.
+	 *
+	 * @return a <code>boolean</code> value of <code>false</code> if the receiver failed to queue the packet.
+	 */
+	protected boolean addOutPacketDirect(Packet packet, DirectDeliveryReceiver receiver) {
+		++statSentPacketsOk;
+		if ((packet = filterPacket(packet, outgoing_filters.getFilters())) != null) {
+			return receiver.addPacket(packet);
+		}
+
+		return true;
+	}
+
 	protected boolean addOutPackets(Queue<Packet> packets) {
 		Packet p = null;
 		boolean result = true;
@@ -1321,6 +1362,7 @@ public abstract class AbstractMessageReceiver
 			extends Thread {
 
 		private String compName = null;
+		private boolean flightRecorded = false;
 		private long packetCounter = 0;
 		private PriorityQueueAbstract<Packet> queue;
 		private boolean threadStopped = false;
@@ -1330,6 +1372,7 @@ public abstract class AbstractMessageReceiver
 			this.queue = q;
 			this.type = type;
 			compName = AbstractMessageReceiver.this.getName();
+			flightRecorded = AbstractMessageReceiver.this.isFlightRecorded();
 		}
 
 		@Override
@@ -1358,8 +1401,9 @@ public abstract class AbstractMessageReceiver
 						case IN_QUEUE:
 							long startPPT = System.currentTimeMillis();
 
-							// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
-							// packet.getFrom(), getName(), type.name(), null, packet);
+							if (flightRecorded) {
+								FlightRecorder.record(FlightRecorder.Stage.IN_QUEUE, compName, packet.getFrom(), packet);
+							}
 							PacketReceiverTaskIfc task = null;
 
 							if (packet.getTo() != null) {
@@ -1411,8 +1455,9 @@ public abstract class AbstractMessageReceiver
 
 						case OUT_QUEUE:
 
-							// tracer.trace(null, packet.getElemTo(), packet.getElemFrom(),
-							// packet.getTo(), getName(), type.name(), null, packet);
+							if (flightRecorded) {
+								FlightRecorder.record(FlightRecorder.Stage.OUT_QUEUE, compName, packet.getTo(), packet);
+							}
 							if ((packet = filterPacket(packet, outgoing_filters.getFilters())) != null) {
 								processOutPacket(packet);
 							}
@@ -1431,6 +1476,7 @@ public abstract class AbstractMessageReceiver
 				} catch (Exception e) {
 					if (!threadStopped) {
 						log.log(Level.SEVERE, "[" + getName() + "] Exception during packet processing: " + packet, e);
+						FlightRecorder.dumpOnError();
 					} else {
 						//log.log(Level.FINEST, "[" + getName() + "] Stopping processing thread");
 					}
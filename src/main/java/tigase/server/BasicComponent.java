@@ -821,6 +821,7 @@ public class BasicComponent
 				.filter(e -> (!e.getValue().contains(CmdAcl.ADMIN)) || e.getValue().size() > 1)
 				.findAny()
 				.isPresent();
+		ServiceEntity.discoChanged();
 	}
 
 	public void setScriptsBaseDir(String scriptsBaseDir) {
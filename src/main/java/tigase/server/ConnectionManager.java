@@ -43,6 +43,7 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -347,6 +348,11 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 	}
 
+	@Override
+	public boolean isFlightRecorded() {
+		return true;
+	}
+
 	@Override
 	public int processingInThreads() {
 		return Runtime.getRuntime().availableProcessors() * 4;
@@ -653,6 +659,25 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		list.add(getName(), "Watchdog runs", watchdogRuns, Level.FINER);
 		list.add(getName(), "Watchdog tests", watchdogTests, Level.FINE);
 		list.add(getName(), "Watchdog stopped", watchdogStopped, Level.FINE);
+		synchronized (pending_open) {
+			for (ConnectionListenerImpl cli : pending_open) {
+				int port = cli.getPort();
+				ConnectionOpenThread.PortThrottlingData portData = connectThread.getPortThrottlingData(port);
+
+				if (portData != null) {
+					list.add(getName(), "Port " + port + " accepted last second", portData.getLastSecondAccepted(),
+							 Level.FINE);
+					list.add(getName(), "Port " + port + " rejected last second", portData.getLastSecondRejected(),
+							 Level.FINE);
+					list.add(getName(), "Port " + port + " accepted", portData.getAccepted(), Level.FINER);
+					list.add(getName(), "Port " + port + " rejected", portData.getRejected(), Level.FINER);
+				}
+			}
+		}
+		AdmissionControl admissionControl = connectThread.getAdmissionControl();
+		list.add(getName(), "Admission load", (float) admissionControl.getLoad(), Level.FINE);
+		list.add(getName(), "Admission factor", (float) admissionControl.getFactor(), Level.FINE);
+		sslContextContainer.getStatistics(getName(), list);
 		for (XMPPIOProcessor proc : processors) {
 			proc.getStatistics(list);
 		}
@@ -944,6 +969,19 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	protected void socketAccepted(IO serv, SocketType type) {
 	}
 
+	/**
+	 * Returns data which should be sent to the connection rejected due to new connections throttling before the
+	 * connection is closed. It is called by the acceptor thread so it should not block.
+	 *
+	 * @param port_props configuration of the port on which connection was accepted
+	 * @param sc rejected connection
+	 *
+	 * @return data to send or <code>null</code> if connection should be closed silently
+	 */
+	protected ByteBuffer getRejectResponse(Map<String, Object> port_props, SocketChannel sc) {
+		return null;
+	}
+
 	protected void releaseListener(ConnectionOpenListener toStop) {
 		toStop.release();
 		pending_open.remove(toStop);
@@ -1329,6 +1367,11 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 												  ConnectionOpenThread.def_5222_throttling);
 		}
 
+		@Override
+		public ByteBuffer getRejectResponse(SocketChannel sc) {
+			return ConnectionManager.this.getRejectResponse(port_props, sc);
+		}
+
 		@Override
 		public void release() {
 			port_props.remove(MAX_RECONNECTS_PROP_KEY);
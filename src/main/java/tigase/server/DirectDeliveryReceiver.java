@@ -0,0 +1,42 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+/**
+ * Component which may receive packets from other components of the same node directly, ie. connection manager
+ * receiving packets from the session manager for local user connections. Packets delivered this way are put to the
+ * input queue of the receiving component by {@link #addPacket(Packet)} in the thread of the sending component, so
+ * they are not passed through the output queue of the sender and <code>MessageRouter</code>. Packets for one
+ * destination are processed by the same input queue thread as packets routed to it, in the order in which they were
+ * added.
+ */
+public interface DirectDeliveryReceiver
+		extends MessageReceiver {
+
+	/**
+	 * Checks if the packet may be delivered directly. Packets for which <code>false</code> is returned have to be
+	 * routed as usual. To keep packets for a destination in order the result should depend only on the destination,
+	 * not on the type of a packet.
+	 *
+	 * @param packet packet to deliver
+	 *
+	 * @return <code>true</code> if packet may be passed to {@link #addPacket(Packet)}
+	 */
+	boolean isDirectDeliveryAllowed(Packet packet);
+
+}
@@ -93,6 +93,10 @@ public class Message
 		super(elem, stanzaFrom, stanzaTo);
 	}
 
+	public Message(SharedPayload payload, JID stanzaTo) {
+		super(payload, stanzaTo);
+	}
+
 	@Override
 	protected String[] getElNameErrorPath() {
 		return MESSAGE_ERROR_PATH;
@@ -18,7 +18,9 @@
 package tigase.server;
 
 import tigase.conf.*;
+import tigase.disco.ServiceEntity;
 import tigase.disco.XMPPService;
+import tigase.io.BufferPool;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.RegistrarBean;
@@ -30,8 +32,11 @@ import tigase.stats.StatisticsList;
 import tigase.sys.NMTScope;
 import tigase.sys.NativeMemoryTracking;
 import tigase.sys.TigaseRuntime;
+import tigase.util.log.AsyncLogHandler;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.util.tracer.FlightRecorderDumpCommand;
 import tigase.util.updater.UpdatesChecker;
+import tigase.vhosts.VHostItem;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.PacketErrorTypeException;
@@ -49,6 +54,8 @@ import java.text.NumberFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -102,6 +109,9 @@ public class MessageRouter
 	@Inject
 	private UpdatesChecker updates_checker = null;
 	private Map<String, XMPPService> xmppServices = new ConcurrentHashMap<>();
+	private final Map<String, DiscoInfoCacheEntry> discoInfoCache = new ConcurrentHashMap<>();
+	private final LongAdder discoInfoCacheHits = new LongAdder();
+	private final LongAdder discoInfoCacheMisses = new LongAdder();
 
 	@ConfigField(desc = "Enabled detailed memory usage statistics from NMT in metrics", alias = "detailed-memory-statistics")
 	private boolean detailedMemoryStatistics = false;
@@ -169,6 +179,7 @@ public class MessageRouter
 		components_byId.put(component.getComponentId(), component);
 		if (component instanceof XMPPService) {
 			xmppServices.put(component.getName(), (XMPPService) component);
+			ServiceEntity.discoChanged();
 		}
 		for (ComponentRegistrator registr : registrators.values()) {
 			if (registr != component) {
@@ -497,6 +508,7 @@ public class MessageRouter
 		components_byId.remove(component.getComponentId());
 		if (component instanceof XMPPService) {
 			xmppServices.remove(component.getName());
+			ServiceEntity.discoChanged();
 		}
 	}
 
@@ -644,6 +656,14 @@ public class MessageRouter
 			list.add(getName(), JVM_STATS_BUFFER_POOLS + bufferMXBean.getName() + "/Count", bufferMXBean.getCount(),
 					 statLevel);
 		}
+		BufferPool.TLS.getStatistics(getName(), list);
+		list.add(getName(), "Disco info cache hits", discoInfoCacheHits.sum(), Level.FINE);
+		list.add(getName(), "Disco info cache misses", discoInfoCacheMisses.sum(), Level.FINE);
+		for (Handler handler : Logger.getLogger("").getHandlers()) {
+			if (handler instanceof AsyncLogHandler) {
+				((AsyncLogHandler) handler).getStatistics(getName(), list);
+			}
+		}
 
 		if (detailedMemoryStatistics) {
 			// Native Memory Tracking statistics - require NMT to be enabled with -XX:NativeMemoryTracking=summary JVM option
@@ -683,6 +703,10 @@ public class MessageRouter
 	@Override
 	public Optional<Element> getServiceEntityCaps(JID fromJid) {
 		if (fromJid != null) {
+			final DiscoInfoCacheEntry entry = getDiscoInfoCacheEntry(fromJid.getDomain(), fromJid);
+			if (entry != null) {
+				return Optional.of(entry.caps.clone());
+			}
 			final Element discoInfo = getDiscoInfo(JID.jidInstanceNS(fromJid.getDomain()), fromJid, null);
 			final String caps = PresenceCapabilitiesManager.generateVerificationStringFromDiscoInfo(discoInfo);
 			final String capsNode = CAPS_NODE + "#" + caps;
@@ -697,6 +721,49 @@ public class MessageRouter
 	}
 
 	public Element getDiscoInfo(JID toJid, JID fromJid, String node) {
+		if (node == null && toJid.getLocalpart() == null && toJid.getResource() == null) {
+			final DiscoInfoCacheEntry entry = getDiscoInfoCacheEntry(toJid.getDomain(), fromJid);
+			if (entry != null) {
+				return entry.discoInfo.clone();
+			}
+		}
+		return buildDiscoInfo(toJid, fromJid, node);
+	}
+
+	/**
+	 * Returns cached disco#info and entity capabilities of the local domain as seen by <code>fromJid</code>. Entry is
+	 * rebuilt only if service discovery information or vhost item of the domain changed since it was cached.
+	 *
+	 * @param domain local domain
+	 * @param fromJid requester
+	 *
+	 * @return cache entry or <code>null</code> if domain is not a local domain
+	 */
+	private DiscoInfoCacheEntry getDiscoInfoCacheEntry(String domain, JID fromJid) {
+		if (fromJid == null || !isLocalDomain(domain)) {
+			return null;
+		}
+		final boolean admin = isAdmin(fromJid) || isNonAdminCommands();
+		final String key = admin ? domain + "/admin" : domain;
+		final long version = ServiceEntity.getDiscoVersion();
+		final VHostItem vhost = getVHostItem(domain);
+		DiscoInfoCacheEntry entry = discoInfoCache.get(key);
+		if (entry == null || entry.version != version || entry.vhost != vhost) {
+			final Element discoInfo = buildDiscoInfo(JID.jidInstanceNS(domain), fromJid, null);
+			final String caps = PresenceCapabilitiesManager.generateVerificationStringFromDiscoInfo(discoInfo);
+			String[] features = PresenceCapabilitiesManager.getFeaturesFromDiscoInfo(discoInfo);
+			PresenceCapabilitiesManager.setNodeFeatures(CAPS_NODE + "#" + caps, features);
+
+			entry = new DiscoInfoCacheEntry(version, vhost, discoInfo, PresenceCapabilitiesManager.getCapsElement(caps));
+			discoInfoCache.put(key, entry);
+			discoInfoCacheMisses.increment();
+		} else {
+			discoInfoCacheHits.increment();
+		}
+		return entry;
+	}
+
+	private Element buildDiscoInfo(JID toJid, JID fromJid, String node) {
 		Element discoInfoResult = new Element("query");
 		discoInfoResult.setXMLNS("http://jabber.org/protocol/disco#info");
 		if (isLocalDomain(toJid.toString()) && (node == null)) {
@@ -758,6 +825,8 @@ public class MessageRouter
 		super.reloadScripts();
 		CommandIfc cmd = new SetLoggingCommand(kernel);
 		scriptCommands.put(cmd.getCommandId(), cmd);
+		cmd = new FlightRecorderDumpCommand();
+		scriptCommands.put(cmd.getCommandId(), cmd);
 	}
 
 	private void processDiscoQuery(final Packet packet, final Queue<Packet> results) {
@@ -953,5 +1022,19 @@ public class MessageRouter
 //  .toString()))) {
 		return result;
 	}
-}
 
+	private static class DiscoInfoCacheEntry {
+
+		private final Element caps;
+		private final Element discoInfo;
+		private final long version;
+		private final VHostItem vhost;
+
+		private DiscoInfoCacheEntry(long version, VHostItem vhost, Element discoInfo, Element caps) {
+			this.version = version;
+			this.vhost = vhost;
+			this.discoInfo = discoInfo;
+			this.caps = caps;
+		}
+	}
+}
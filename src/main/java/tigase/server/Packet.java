@@ -22,7 +22,6 @@ import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -99,9 +98,12 @@ public class Packet {
 	private String packetToStringSecure = null;
 	private Permissions permissions = Permissions.NONE;
 	private Priority priority = Priority.NORMAL;
-	private Set<String> processorsIds = new LinkedHashSet<String>(4, 0.9f);
+	// bitset of indexes of processors from PacketProcessorIds, allocated on first use and guarded by this packet
+	private long[] processorsIds = null;
 	private boolean routed;
-	private LinkedHashSet<String> skippedProcessorsIds = new LinkedHashSet<String>(4, 0.9f);
+	// stanza shared with other packets, elem is replaced by a copy before it is modified
+	private SharedPayload sharedPayload = null;
+	private long[] skippedProcessorsIds = null;
 	private JID stanzaFrom = null;
 	private String stanzaId = null;
 	private JID stanzaTo = null;
@@ -177,6 +179,28 @@ public class Packet {
 		return result;
 	}
 
+	/**
+	 * The method returns <code>Packet</code> instance with a stanza shared with other packets. Stanza is not copied
+	 * unless it is requested by {@link #getElement()}, so this method should be used when the same stanza is sent to
+	 * many recipients. Only <code>Message</code> and <code>Presence</code> stanzas are shared, for other stanzas
+	 * a copy is created immediately.
+	 *
+	 * @param payload is the shared stanza
+	 * @param stanzaTo is the stanza destination address
+	 *
+	 * @return a <code>Packet</code> instance, more specifically instance of one of the following classes:
+	 * <code>Iq</code>, <code>Message</code> or <code>Presence</code>.
+	 */
+	public static Packet packetInstance(SharedPayload payload, JID stanzaTo) {
+		if (payload.getElemName() == Message.ELEM_NAME) {
+			return new Message(payload, stanzaTo);
+		}
+		if (payload.getElemName() == Presence.ELEM_NAME) {
+			return new Presence(payload, stanzaTo);
+		}
+		return packetInstance(payload.createElement(stanzaTo), payload.getStanzaFrom(), stanzaTo);
+	}
+
 	/**
 	 * The method returns <code>Packet</code> instance. More specifically it returns instance of one of the following
 	 * classes: <code>Iq</code>, <code>Message</code> or <code>Presence</code>. It takes stanza XML element as an
@@ -266,6 +290,21 @@ public class Packet {
 		initVars(stanzaFrom, stanzaTo);
 	}
 
+	/**
+	 * A constructor creating the <code>Packet</code> instance with a shared stanza. This is not part of the public API,
+	 * please use <code>packetInstance(...)</code> instead.
+	 *
+	 * @param payload is the shared stanza.
+	 * @param stanzaTo is a destination JID address of the stanza.
+	 */
+	protected Packet(final SharedPayload payload, JID stanzaTo) {
+		setElem(payload.getElement());
+		this.sharedPayload = payload;
+		this.stanzaFrom = payload.getStanzaFrom();
+		this.stanzaTo = stanzaTo;
+		this.stanzaId = elem.getAttributeStaticStr(ID_ATT);
+	}
+
 	/**
 	 * <code>copyElementOnly</code> method creates a copy of the packet with stanza information copied only. The
 	 * <code>Packet</code> specific information stays blank (NULL): (packetFrom, packetTo, etc...).<br> This method
@@ -275,8 +314,13 @@ public class Packet {
 	 * @return a new copy of the packet with packet specific fields set to NULL.
 	 */
 	public Packet copyElementOnly() {
-		Element res_elem = elem.clone();
-		Packet result = packetInstance(res_elem, getStanzaFrom(), getStanzaTo());
+		Packet result;
+
+		if (sharedPayload != null) {
+			result = packetInstance(sharedPayload, getStanzaTo());
+		} else {
+			result = packetInstance(elem.clone(), getStanzaFrom(), getStanzaTo());
+		}
 
 		result.setPriority(priority);
 
@@ -373,6 +417,9 @@ public class Packet {
 	 * @return an attribute value or NULL if there is no such attribute.
 	 */
 	public String getAttributeStaticStr(String key) {
+		if (sharedPayload != null && TO_ATT.equals(key)) {
+			return stanzaTo == null ? null : stanzaTo.toString();
+		}
 		return elem.getAttributeStaticStr(key);
 	}
 
@@ -465,14 +512,31 @@ public class Packet {
 	}
 
 	/**
-	 * Method returns the stanza XML element in DOM format.
+	 * Method returns the stanza XML element in DOM format. If the stanza is shared with other packets, it is copied
+	 * first, so it is better to use other methods of this class to access the stanza data when possible.
 	 *
 	 * @return the stanza XML element in DOM format.
 	 */
 	public Element getElement() {
+		if (sharedPayload != null) {
+			unshare();
+		}
 		return elem;
 	}
 
+	/**
+	 * Method returns serialized stanza XML element. Stanza shared with other packets is not copied nor serialized
+	 * again.
+	 *
+	 * @return serialized stanza XML element.
+	 */
+	public String getElementAsString() {
+		if (sharedPayload != null) {
+			return sharedPayload.toString(stanzaTo);
+		}
+		return elem.toString();
+	}
+
 	/**
 	 * Method parses the stanza and returns the error condition if there is any.
 	 *
@@ -592,19 +656,21 @@ public class Packet {
 	 * packets which hasn't been processed by any processor, hence a default action is applied to the packet if
 	 * possible.
 	 *
-	 * @return a <code>Set</code> of stanza processor IDs which handled the packet.
+	 * @return a <code>Set</code> of stanza processor IDs which handled the packet. Returned set is a copy, changes to
+	 * it are not reflected in the packet.
 	 */
-	public Set<String> getProcessorsIds() {
-		return processorsIds;
+	public synchronized Set<String> getProcessorsIds() {
+		return PacketProcessorIds.toSet(processorsIds);
 	}
 
 	/**
 	 * Method returns a set of all processor IDs which skipped processing packets.
 	 *
-	 * @return a <code>Set</code> of stanza processor IDs which skipped the packet.
+	 * @return a <code>Set</code> of stanza processor IDs which skipped the packet. Returned set is a copy, changes to
+	 * it are not reflected in the packet.
 	 */
-	public Set<String> getSkippedProcessorsIds() {
-		return skippedProcessorsIds;
+	public synchronized Set<String> getSkippedProcessorsIds() {
+		return PacketProcessorIds.toSet(skippedProcessorsIds);
 	}
 
 	/**
@@ -690,7 +756,7 @@ public class Packet {
 	 * @param xmlns a valid XMLNS string for the element.
 	 */
 	public void setXMLNS(String xmlns) {
-		elem.setXMLNS(xmlns);
+		getElement().setXMLNS(xmlns);
 		packetToString = null;
 		packetToStringSecure = null;
 	}
@@ -709,6 +775,9 @@ public class Packet {
 	 */
 	public void initVars(JID stanzaFrom, JID stanzaTo) {
 		if (this.stanzaFrom != stanzaFrom) {
+			if (sharedPayload != null) {
+				unshare();
+			}
 			this.stanzaFrom = stanzaFrom;
 			if (stanzaFrom == null) {
 				elem.removeAttribute(FROM_ATT);
@@ -718,10 +787,13 @@ public class Packet {
 		}
 		if (this.stanzaTo != stanzaTo) {
 			this.stanzaTo = stanzaTo;
-			if (stanzaTo == null) {
-				elem.removeAttribute(TO_ATT);
-			} else {
-				elem.setAttribute(TO_ATT, stanzaTo.toString());
+			// destination address is not part of the shared stanza
+			if (sharedPayload == null) {
+				if (stanzaTo == null) {
+					elem.removeAttribute(TO_ATT);
+				} else {
+					elem.setAttribute(TO_ATT, stanzaTo.toString());
+				}
 			}
 		}
 		stanzaId = elem.getAttributeStaticStr(ID_ATT);
@@ -741,6 +813,10 @@ public class Packet {
 	 * @throws TigaseStringprepException if the stringprep error occurs during the stanza JIDs parsing.
 	 */
 	public void initVars() throws TigaseStringprepException {
+		if (sharedPayload != null) {
+			unshare();
+		}
+
 		String tmp = elem.getAttributeStaticStr(TO_ATT);
 
 		if (tmp != null) {
@@ -847,7 +923,17 @@ public class Packet {
 	 * @param id is a <code>String</code> instance of the packet processer identifier.
 	 */
 	public void notProcessedBy(String id) {
-		skippedProcessorsIds.add(id);
+		notProcessedBy(PacketProcessorIds.getIndex(id));
+	}
+
+	/**
+	 * The method marks that the packet has NOT been processed by a packet processor with a given index.
+	 *
+	 * @param index is an index of the packet processor identifier returned by {@link
+	 * PacketProcessorIds#register(String)}.
+	 */
+	public synchronized void notProcessedBy(int index) {
+		skippedProcessorsIds = PacketProcessorIds.set(skippedProcessorsIds, index);
 	}
 
 	/**
@@ -963,7 +1049,7 @@ public class Packet {
 									  new String[]{getTo().toString(), getFrom().toString(), priority.toString(),
 												   permissions.toString()});
 
-		routedp.addChild(elem);
+		routedp.addChild(getElement());
 
 		return packetInstance(routedp, getFrom(), getTo());
 	}
@@ -974,7 +1060,18 @@ public class Packet {
 	 * @param id is a <code>String</code> instance of the packet processer identifier.
 	 */
 	public void processedBy(String id) {
-		processorsIds.add(id);
+		processedBy(PacketProcessorIds.getIndex(id));
+	}
+
+	/**
+	 * The method marks that the packet has been processed by a packet processor with a given index. It may be called
+	 * concurrently by processors running in different threads.
+	 *
+	 * @param index is an index of the packet processor identifier returned by {@link
+	 * PacketProcessorIds#register(String)}.
+	 */
+	public synchronized void processedBy(int index) {
+		processorsIds = PacketProcessorIds.set(processorsIds, index);
 	}
 
 	/**
@@ -1009,7 +1106,7 @@ public class Packet {
 	 * @return a new {@link Packet} instance.
 	 */
 	public Packet swapFromTo() {
-		Element el = elem.clone();
+		Element el = cloneElement();
 		Packet packet = packetInstance(el, getStanzaFrom(), getStanzaTo());
 
 		packet.setPacketTo(getFrom());
@@ -1026,7 +1123,7 @@ public class Packet {
 	 * @return a new <code>Packet</code> instance.
 	 */
 	public Packet swapStanzaFromTo() {
-		Element copy = elem.clone();
+		Element copy = cloneElement();
 		Packet result = packetInstance(copy, getStanzaTo(), getStanzaFrom());
 
 		result.setPriority(priority);
@@ -1043,7 +1140,7 @@ public class Packet {
 	 * @return a new <code>Packet</code> instance.
 	 */
 	public Packet swapStanzaFromTo(final StanzaType type) {
-		Element copy = elem.clone();
+		Element copy = cloneElement();
 
 		copy.setAttribute(TYPE_ATT, type.toString());
 
@@ -1066,9 +1163,10 @@ public class Packet {
 	 */
 	public String toStringFull() {
 		if (packetToString == null) {
-			String elemData = elemToString(elem);
+			Element el = getElementForDebug();
+			String elemData = elemToString(el);
 
-			packetToString = calcToString(elemData);
+			packetToString = calcToString(el, elemData);
 		}
 
 		return "from=" + packetFrom + ", to=" + packetTo + packetToString;
@@ -1117,9 +1215,10 @@ public class Packet {
 			return toStringFull();
 		} else {
 			if (packetToStringSecure == null) {
-				String elemData = elemToStringSecure(elem);
+				Element el = getElementForDebug();
+				String elemData = elemToStringSecure(el);
 
-				packetToStringSecure = calcToString(elemData);
+				packetToStringSecure = calcToString(el, elemData);
 			}
 
 			return "from=" + packetFrom + ", to=" + packetTo + packetToStringSecure;
@@ -1153,8 +1252,8 @@ public class Packet {
 	 * @return a <code>boolean</code> value of <code>true</code> of the packet was processed by any processor and
 	 * <code>false</code> otherwise.
 	 */
-	public boolean wasProcessed() {
-		return processorsIds.size() > 0;
+	public synchronized boolean wasProcessed() {
+		return !PacketProcessorIds.isEmpty(processorsIds);
 	}
 
 	/**
@@ -1163,8 +1262,8 @@ public class Packet {
 	 *
 	 * @return <code>true</code> if packet was skipped by any processor.
 	 */
-	public boolean wasSkipped() {
-		return skippedProcessorsIds.size() > 0;
+	public synchronized boolean wasSkipped() {
+		return !PacketProcessorIds.isEmpty(skippedProcessorsIds);
 	}
 
 	/**
@@ -1176,7 +1275,21 @@ public class Packet {
 	 * specified ID and <code>false</code> otherwise.
 	 */
 	public boolean wasProcessedBy(String id) {
-		return processorsIds.contains(id);
+		int index = PacketProcessorIds.indexOf(id);
+		return index >= 0 && wasProcessedBy(index);
+	}
+
+	/**
+	 * The method checks whether the packet has been processed by a packet processor with the specified index.
+	 *
+	 * @param index is an index of the packet processor identifier returned by {@link
+	 * PacketProcessorIds#register(String)}.
+	 *
+	 * @return a <code>boolean</code> value of <code>true</code> of the packet was processed by a processor with
+	 * specified index and <code>false</code> otherwise.
+	 */
+	public synchronized boolean wasProcessedBy(int index) {
+		return PacketProcessorIds.isSet(processorsIds, index);
 	}
 
 	/**
@@ -1193,15 +1306,36 @@ public class Packet {
 	 * Common method for creating debugging string representation of {@code Packet} objects pre-processed either by
 	 * regular or secure {@code toString()} {@link Element} methods
 	 *
+	 * @param el the Element
 	 * @param elemData string representation of the Element
 	 *
 	 * @return debug string representation with additional data.
 	 */
-	private String calcToString(String elemData) {
-		return ", DATA=" + elemData + ", SIZE=" + elem.toString().length() + ", XMLNS=" + elem.getXMLNS() +
+	private String calcToString(Element el, String elemData) {
+		return ", DATA=" + elemData + ", SIZE=" + el.toString().length() + ", XMLNS=" + el.getXMLNS() +
 				", PRIORITY=" + priority + ", PERMISSION=" + permissions + ", TYPE=" + type + ", STABLE_ID=" + stableId;
 	}
 
+	private Element cloneElement() {
+		if (sharedPayload != null) {
+			return sharedPayload.createElement(stanzaTo);
+		}
+		return elem.clone();
+	}
+
+	// shared stanza is not copied just to be logged
+	private Element getElementForDebug() {
+		if (sharedPayload != null) {
+			return sharedPayload.createElement(stanzaTo);
+		}
+		return elem;
+	}
+
+	private void unshare() {
+		elem = sharedPayload.createElement(stanzaTo);
+		sharedPayload = null;
+	}
+
 	private void setElem(Element elem) {
 		if (elem == null) {
 			throw new NullPointerException();
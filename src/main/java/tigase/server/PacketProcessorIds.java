@@ -0,0 +1,158 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of identifiers of packet processors which mark packets with {@link Packet#processedBy(String)}. Each
+ * identifier gets a small integer index, so packets keep processors which handled them as a bitset instead of a set
+ * of strings.
+ * <br>
+ * Identifiers of plugins are registered by the session manager when plugins are loaded, other identifiers are
+ * registered on first use. Registered identifiers are never removed, so number of them is limited to
+ * {@link #MAX_IDS}. All identifiers over the limit share the last index, so for them
+ * {@link Packet#wasProcessedBy(String)} returns <code>true</code> if any of them processed the packet.
+ */
+public final class PacketProcessorIds {
+
+	/**
+	 * Maximal number of indexes, the last one is shared by all identifiers registered over the limit.
+	 */
+	public static final int MAX_IDS = 1024;
+	private static final int OVERFLOW_INDEX = MAX_IDS - 1;
+	private static final String OVERFLOW_ID = "other-processors";
+	private static final Logger log = Logger.getLogger(PacketProcessorIds.class.getName());
+	private static final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<>();
+	private static volatile String[] ids = new String[0];
+	private static boolean overflowLogged = false;
+
+	/**
+	 * Returns identifier registered with the passed index.
+	 */
+	public static String getId(int index) {
+		String[] ids = PacketProcessorIds.ids;
+		return index < ids.length ? ids[index] : OVERFLOW_ID;
+	}
+
+	/**
+	 * Returns index of the processor identifier, registering the identifier if it was not registered yet.
+	 */
+	public static int getIndex(String id) {
+		Integer index = indexes.get(id);
+		if (index != null) {
+			return index;
+		}
+		return ids.length < OVERFLOW_INDEX ? register(id) : OVERFLOW_INDEX;
+	}
+
+	/**
+	 * Returns index of the processor identifier or <code>-1</code> if the identifier is not registered.
+	 */
+	public static int indexOf(String id) {
+		Integer index = indexes.get(id);
+		if (index != null) {
+			return index;
+		}
+		return ids.length < OVERFLOW_INDEX ? -1 : OVERFLOW_INDEX;
+	}
+
+	/**
+	 * Registers processor identifier.
+	 *
+	 * @return index assigned to the identifier
+	 */
+	public static synchronized int register(String id) {
+		Integer index = indexes.get(id);
+		if (index == null) {
+			if (ids.length >= OVERFLOW_INDEX) {
+				if (!overflowLogged) {
+					overflowLogged = true;
+					log.log(Level.WARNING,
+							"Too many packet processor identifiers, {0} and next ones will share single index", id);
+				}
+				return OVERFLOW_INDEX;
+			}
+			String[] newIds = Arrays.copyOf(ids, ids.length + 1);
+			index = ids.length;
+			newIds[index] = id;
+			// array needs to be published before the index
+			ids = newIds;
+			indexes.put(id, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Sets bit of the index in the bitset, allocating or growing the bitset if needed.
+	 *
+	 * @return passed bitset or a new one if it was <code>null</code> or too small
+	 */
+	static long[] set(long[] bits, int index) {
+		int word = index >>> 6;
+		if (bits == null) {
+			bits = new long[word + 1];
+		} else if (bits.length <= word) {
+			bits = Arrays.copyOf(bits, word + 1);
+		}
+		bits[word] |= 1L << index;
+		return bits;
+	}
+
+	static boolean isSet(long[] bits, int index) {
+		int word = index >>> 6;
+		return bits != null && word < bits.length && (bits[word] & (1L << index)) != 0;
+	}
+
+	static boolean isEmpty(long[] bits) {
+		if (bits != null) {
+			for (long word : bits) {
+				if (word != 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates set of identifiers of processors marked in the bitset.
+	 */
+	static Set<String> toSet(long[] bits) {
+		Set<String> result = new LinkedHashSet<>(4, 0.9f);
+		if (bits != null) {
+			for (int word = 0; word < bits.length; word++) {
+				long value = bits[word];
+				while (value != 0) {
+					int bit = Long.numberOfTrailingZeros(value);
+					result.add(getId((word << 6) + bit));
+					value &= value - 1;
+				}
+			}
+		}
+		return result;
+	}
+
+	private PacketProcessorIds() {
+	}
+}
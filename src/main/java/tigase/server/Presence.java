@@ -44,6 +44,10 @@ public class Presence
 		super(elem, stanzaFrom, stanzaTo);
 	}
 
+	public Presence(SharedPayload payload, JID stanzaTo) {
+		super(payload, stanzaTo);
+	}
+
 	@Override
 	protected String[] getElNameErrorPath() {
 		return PRESENCE_ERROR_PATH;
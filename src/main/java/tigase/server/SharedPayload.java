@@ -0,0 +1,107 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
+import tigase.xmpp.jid.JID;
+
+/**
+ * Stanza shared by many packets which differ only by the destination address, ie. presence broadcasted to all buddies
+ * of the user. Packets created by {@link Packet#packetInstance(SharedPayload, JID)} do not copy the stanza until it is
+ * requested for modification by {@link Packet#getElement()}.
+ * <br>
+ * Stanza is copied (without <code>to</code> attribute) when the instance is created and is never modified later, so
+ * a single instance may be used by packets processed by different threads. Stanza is serialized only once and
+ * destination address of each packet is inserted into the serialized form when it is written to the connection.
+ */
+public final class SharedPayload {
+
+	private final Element element;
+	private final int toAttrPos;
+	private final JID stanzaFrom;
+	private volatile String serialized = null;
+
+	/**
+	 * Creates shared payload from a copy of the passed stanza.
+	 *
+	 * @param stanza stanza to share, <code>to</code> attribute is ignored
+	 *
+	 * @throws TigaseStringprepException if stanza source address is not valid
+	 */
+	public SharedPayload(Element stanza) throws TigaseStringprepException {
+		element = stanza.clone();
+		element.removeAttribute(Packet.TO_ATT);
+		// 'to' attribute is inserted just after element name
+		toAttrPos = element.getName().length() + 1;
+		String from = element.getAttributeStaticStr(Packet.FROM_ATT);
+		stanzaFrom = from == null ? null : JID.jidInstance(from);
+	}
+
+	/**
+	 * Creates a copy of the stanza addressed to the passed JID.
+	 */
+	public Element createElement(JID stanzaTo) {
+		Element result = element.clone();
+		if (stanzaTo != null) {
+			result.setAttribute(Packet.TO_ATT, stanzaTo.toString());
+		}
+		return result;
+	}
+
+	public String getElemName() {
+		return element.getName();
+	}
+
+	/**
+	 * Returns shared stanza without <code>to</code> attribute. Returned element <strong>must not be
+	 * modified</strong>.
+	 */
+	public Element getElement() {
+		return element;
+	}
+
+	public JID getStanzaFrom() {
+		return stanzaFrom;
+	}
+
+	/**
+	 * Returns serialized stanza addressed to the passed JID.
+	 */
+	public String toString(JID stanzaTo) {
+		String data = serialized;
+		if (data == null) {
+			data = element.toString();
+			serialized = data;
+		}
+		if (stanzaTo == null) {
+			return data;
+		}
+
+		String to = XMLUtils.escape(stanzaTo.toString());
+		StringBuilder sb = new StringBuilder(data.length() + to.length() + 6);
+		sb.append(data, 0, toAttrPos).append(" to=\"").append(to).append('"').append(data, toAttrPos, data.length());
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toString(null);
+	}
+}
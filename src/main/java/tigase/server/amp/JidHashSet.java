@@ -0,0 +1,163 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.amp;
+
+import tigase.util.routing.RendezvousHashing;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+/**
+ * Compact set of JIDs meant for millions of entries, ie. recipients of a server wide broadcast.
+ * <br>
+ * Instead of JID instances only 64-bit hashes of their string forms are kept in open addressing tables of primitive
+ * longs, so an entry takes from 11 to 22 bytes depending on fill of the table. Set is split into shards with separate
+ * locks, to avoid contention between threads processing presences of different users. As hashes are compared instead
+ * of JIDs, two different JIDs may be treated as the same one, but with 64-bit hashes probability of any collision
+ * among 10 million entries is below 3 in a million.
+ */
+public class JidHashSet {
+
+	private static final int SHARDS_BITS = 6;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Shard[] shards = new Shard[1 << SHARDS_BITS];
+
+	/**
+	 * Returns 64-bit hash of the string, which is stable between JVM instances.
+	 */
+	public static long hash(String value) {
+		// FNV-1a over UTF-16 characters followed by a finalizer to spread bits
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h = RendezvousHashing.mix(h);
+		// 0 marks an empty slot
+		return h == 0 ? 1 : h;
+	}
+
+	public JidHashSet() {
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard();
+		}
+	}
+
+	/**
+	 * Adds JID to the set.
+	 *
+	 * @return <code>true</code> if JID was not in the set
+	 */
+	public boolean add(BareJID jid) {
+		return add(hash(jid.toString()));
+	}
+
+	/**
+	 * Adds JID (including its resource) to the set.
+	 *
+	 * @return <code>true</code> if JID was not in the set
+	 */
+	public boolean add(JID jid) {
+		return add(hash(jid.toString()));
+	}
+
+	public boolean contains(BareJID jid) {
+		return contains(hash(jid.toString()));
+	}
+
+	public boolean contains(JID jid) {
+		return contains(hash(jid.toString()));
+	}
+
+	public int size() {
+		int size = 0;
+		for (Shard shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	private boolean add(long hash) {
+		return shard(hash).add(hash);
+	}
+
+	private boolean contains(long hash) {
+		return shard(hash).contains(hash);
+	}
+
+	private Shard shard(long hash) {
+		// upper bits select a shard, lower bits select a slot within it
+		return shards[(int) (hash >>> (64 - SHARDS_BITS))];
+	}
+
+	private static final class Shard {
+
+		private long[] keys = new long[INITIAL_CAPACITY];
+		private int size = 0;
+
+		private synchronized boolean add(long hash) {
+			int mask = keys.length - 1;
+			int idx = (int) hash & mask;
+			while (keys[idx] != 0) {
+				if (keys[idx] == hash) {
+					return false;
+				}
+				idx = (idx + 1) & mask;
+			}
+			keys[idx] = hash;
+			// keep load factor below 0.75
+			if (++size * 4 > keys.length * 3) {
+				resize();
+			}
+			return true;
+		}
+
+		private synchronized boolean contains(long hash) {
+			int mask = keys.length - 1;
+			int idx = (int) hash & mask;
+			long key;
+			while ((key = keys[idx]) != 0) {
+				if (key == hash) {
+					return true;
+				}
+				idx = (idx + 1) & mask;
+			}
+			return false;
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+		private void resize() {
+			long[] old = keys;
+			long[] table = new long[old.length * 2];
+			int mask = table.length - 1;
+			for (long key : old) {
+				if (key != 0) {
+					int idx = (int) key & mask;
+					while (table[idx] != 0) {
+						idx = (idx + 1) & mask;
+					}
+					table[idx] = key;
+				}
+			}
+			keys = table;
+		}
+	}
+}
@@ -27,17 +27,16 @@ import tigase.server.amp.AmpComponent;
 import tigase.server.amp.AmpFeatureIfc;
 import tigase.server.amp.db.MsgBroadcastRepository;
 import tigase.server.amp.db.MsgBroadcastRepositoryIfc;
+import tigase.util.common.XMPPDateTime;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,18 +52,9 @@ public class Broadcast
 
 	private static final Logger log = Logger.getLogger(Broadcast.class.getName());
 	private static final String name = "broadcast";
-	private final SimpleDateFormat formatter;
-	private final SimpleDateFormat formatter2;
 	private MsgBroadcastRepositoryIfc repo = null;
 	private ActionResultsHandlerIfc resultsHandler;
 
-	{
-		formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-		formatter2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-		formatter2.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
-
 	public boolean preprocess(Packet packet) {
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "processing packet = {0}", packet.toString());
@@ -102,15 +92,7 @@ public class Broadcast
 					Date expire = null;
 					try {
 						if (value != null) {
-							if (value.contains(".")) {
-								synchronized (formatter) {
-									expire = formatter.parse(value);
-								}
-							} else {
-								synchronized (formatter2) {
-									expire = formatter2.parse(value);
-								}
-							}
+							expire = XMPPDateTime.parse(value);
 
 							packet.getElement().removeAttribute(TO_CONN_ID);
 							packet.getElement().removeAttribute(TO_RES);
@@ -193,9 +175,7 @@ public class Broadcast
 
 	public void sendBroadcastMessage(JID jid, MsgBroadcastRepository.BroadcastMsg msg)
 			throws TigaseStringprepException {
-		Element msgEl = msg.msg.clone();
-		msgEl.setAttribute("to", jid.toString());
-		Packet p = Packet.packetInstance(msgEl);
+		Packet p = Packet.packetInstance(msg.getPayload(), jid);
 		resultsHandler.addOutPacket(p);
 	}
 
@@ -24,17 +24,21 @@ import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
 import tigase.server.amp.ActionAbstract;
 import tigase.server.amp.AmpComponent;
 import tigase.server.amp.cond.ExpireAt;
+import tigase.util.common.XMPPDateTime;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,22 +55,20 @@ public class Store
 	private static final Logger log = Logger.getLogger(Store.class.getName());
 	private static final String name = "store";
 
-	private final SimpleDateFormat formatter;
-	private final SimpleDateFormat formatter2;
 	// ~--- fields ---------------------------------------------------------------
+	@ConfigField(desc = "Number of expired messages removed at once", alias = "expired-batch-size")
+	private int expiredBatchSize = 1000;
+	// In seconds
+	@ConfigField(desc = "Interval between checks for expired messages", alias = "expired-check-interval")
+	private long expiredCheckInterval = 10;
 	private Thread expiredProcessor = null;
+	@ConfigField(desc = "Number of threads sending notifications about expired messages", alias = "expired-threads")
+	private int expiredThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
 	@Inject
 	private NonAuthUserRepositoryImpl nonAuthUserRepo;
 	@Inject
 	private MsgRepositoryIfc repo = null;
 
-	{
-		formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-		formatter2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-		formatter2.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
-
 	@Override
 	public boolean execute(Packet packet, Element rule) {
 		if (repo != null) {
@@ -85,24 +87,14 @@ public class Store
 				try {
 					String value = rule.getAttributeStaticStr("value");
 					if (value != null) {
-						if (value.contains(".")) {
-							synchronized (formatter) {
-								expired = formatter.parse(value);
-							}
-						} else {
-							synchronized (formatter2) {
-								expired = formatter2.parse(value);
-							}
-						}
+						expired = XMPPDateTime.parse(value);
 					}
 				} catch (Exception e) {
 					log.log(Level.INFO, "Incorrect expire-at value: " + rule.getAttributeStaticStr("value"), e);
 					expired = null;
 				}
 			}
-			synchronized (formatter) {
-				stamp = formatter.format(new Date());
-			}
+			stamp = XMPPDateTime.format(System.currentTimeMillis());
 			removeTigasePayload(packet);
 			try {
 				Element elem = packet.getElement();
@@ -133,28 +125,29 @@ public class Store
 			expiredProcessor = new Thread("expired-processor") {
 				@Override
 				public void run() {
+					ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, expiredThreads), r -> {
+						Thread thread = new Thread(r, "expired-notifier");
+						thread.setDaemon(true);
+						return thread;
+					});
 					try {
 						Thread.sleep(90 * 1000);
-						while (true) {
-							Element elem = repo.getMessageExpired(0, true);
-
-							if (elem != null) {
-								elem.addAttribute(OFFLINE, "1");
-								elem.addAttribute(EXPIRED, "1");
-								try {
-									resultsHandler.addOutPacket(Packet.packetInstance(elem));
-								} catch (TigaseStringprepException ex) {
-									log.info("Stringprep error for offline message loaded from DB: " + elem);
-								}
+						while (!isInterrupted()) {
+							List<Element> expired = repo.removeExpiredMessages(new Date(), expiredBatchSize);
+
+							if (!expired.isEmpty()) {
+								processExpired(executor, expired);
 							}
-							if (Thread.interrupted()) {
-								log.info("stopping expired-processor");
-								expiredProcessor = null;
-								return;
+							// full batch means there may be more expired messages waiting
+							if (expired.size() < expiredBatchSize) {
+								Thread.sleep(expiredCheckInterval * 1000);
 							}
 						}
 					} catch (InterruptedException e) {
-						log.log(Level.WARNING, "Could not initialize expired processor", e);
+						log.info("stopping expired-processor");
+					} finally {
+						executor.shutdownNow();
+						expiredProcessor = null;
 					}
 				}
 			};
@@ -171,6 +164,38 @@ public class Store
 		}
 	}
 
+	/**
+	 * Sends notifications about removed expired messages using many threads and waits until all of them are sent, so
+	 * next batch is not loaded before the previous one is handled.
+	 */
+	private void processExpired(ExecutorService executor, List<Element> expired) throws InterruptedException {
+		int threads = Math.max(1, expiredThreads);
+		int chunk = (expired.size() + threads - 1) / threads;
+		List<Callable<Void>> tasks = new ArrayList<>(threads);
+
+		for (int from = 0; from < expired.size(); from += chunk) {
+			List<Element> part = expired.subList(from, Math.min(from + chunk, expired.size()));
+
+			tasks.add(() -> {
+				for (Element elem : part) {
+					processExpired(elem);
+				}
+				return null;
+			});
+		}
+		executor.invokeAll(tasks);
+	}
+
+	private void processExpired(Element elem) {
+		elem.addAttribute(OFFLINE, "1");
+		elem.addAttribute(EXPIRED, "1");
+		try {
+			resultsHandler.addOutPacket(Packet.packetInstance(elem));
+		} catch (TigaseStringprepException ex) {
+			log.info("Stringprep error for offline message loaded from DB: " + elem);
+		}
+	}
+
 	// ~--- get methods ----------------------------------------------------------
 	private Element getExpireAtRule(Packet packet) {
 		Element amp = packet.getElement().getChild("amp", AMP_XMLNS);
@@ -19,12 +19,11 @@ package tigase.server.amp.cond;
 
 import tigase.server.Packet;
 import tigase.server.amp.ConditionIfc;
+import tigase.util.common.XMPPDateTime;
 import tigase.xml.Element;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.TimeZone;
 import java.util.logging.Logger;
 
 /**
@@ -38,15 +37,6 @@ public class ExpireAt
 	public static final String NAME = "expire-at";
 	private static Logger log = Logger.getLogger(ExpireAt.class.getName());
 
-	private final SimpleDateFormat formatter;
-	private final SimpleDateFormat formatter2;
-
-	{
-		formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-		formatter2 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-		formatter2.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
 	@Override
 	public String getName() {
 		return NAME;
@@ -58,17 +48,7 @@ public class ExpireAt
 
 		if (value != null) {
 			try {
-				Date val_date = null;
-
-				if (value.contains(".")) {
-					synchronized (formatter) {
-						val_date = formatter.parse(value);
-					}
-				} else {
-					synchronized (formatter2) {
-						val_date = formatter2.parse(value);
-					}
-				}
+				Date val_date = XMPPDateTime.parse(value);
 
 				return val_date.before(new Date());
 			} catch (ParseException ex) {
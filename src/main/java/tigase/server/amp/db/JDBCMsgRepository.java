@@ -32,6 +32,7 @@ import tigase.xmpp.jid.JID;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,6 +49,8 @@ public class JDBCMsgRepository
 		extends MsgRepository<Long, DataRepository>
 		implements RepositoryVersionAware {
 
+	// limits length of the list of ids passed to the DB, so it fits into a varchar parameter
+	private static final int MAX_EXPIRED_IDS_PER_DELETE = 1000;
 	private static final Logger log = Logger.getLogger(JDBCMsgRepository.class.getName());
 	protected DataRepository data_repo = null;
 	@ConfigField(desc = "Query to add message", alias = "add-message-query")
@@ -60,10 +63,14 @@ public class JDBCMsgRepository
 	private String MSGS_DELETE_MESSAGES = "{ call Tig_OfflineMessages_DeleteMessages(?) }";
 	@ConfigField(desc = "Query to delete messages by ids", alias = "delete-messages-by-ids-query")
 	private String MSGS_DELETE_MESSAGES_BY_IDS = "{ call Tig_OfflineMessages_DeleteMessagesByIds(?,?,?,?,?) }";
+	@ConfigField(desc = "Query to delete batch of expired messages", alias = "delete-expired-messages-batch-query")
+	private String MSGS_DELETE_EXPIRED_MESSAGES_BATCH = "{ call Tig_OfflineMessages_DeleteExpiredMessagesBatch(?) }";
 	@ConfigField(desc = "Query to select expired messages", alias = "get-expired-messages-query")
 	private String MSGS_GET_EXPIRED_MESSAGES = "{ call Tig_OfflineMessages_GetExpiredMessages(?) }";
 	@ConfigField(desc = "Query to select expired messages before passed time", alias = "get-expired-messages-before-query")
 	private String MSGS_GET_EXPIRED_MESSAGES_BEFORE = "{ call Tig_OfflineMessages_GetExpiredMessagesBefore(?) }";
+	@ConfigField(desc = "Query to select batch of messages expired before passed time", alias = "get-expired-messages-batch-query")
+	private String MSGS_GET_EXPIRED_MESSAGES_BATCH = "{ call Tig_OfflineMessages_GetExpiredMessagesBatch(?,?) }";
 	@ConfigField(desc = "Query to load messages", alias = "get-messages-query")
 	private String MSGS_GET_MESSAGES = "{ call Tig_OfflineMessages_GetMessages(?) }";
 	@ConfigField(desc = "Query to load messages by ids", alias = "get-messages-by-ids-query")
@@ -76,6 +83,8 @@ public class JDBCMsgRepository
 	@ConfigField(desc = "Query to list messages", alias = "list-messages-query")
 	private String MSGS_LIST_MESSAGES = "{ call Tig_OfflineMessages_ListMessages(?) }";
 	private boolean initialized = false;
+	// ids of expired messages which could not be parsed, skipped by batch removal
+	private final Set<Long> unparsableExpired = ConcurrentHashMap.newKeySet();
 
 	@Override
 	public void setDataSource(DataRepository data_repo) {
@@ -90,6 +99,8 @@ public class JDBCMsgRepository
 			data_repo.initPreparedStatement(MSGS_DELETE_MESSAGES_BY_IDS, MSGS_DELETE_MESSAGES_BY_IDS);
 			data_repo.initPreparedStatement(MSGS_GET_EXPIRED_MESSAGES, MSGS_GET_EXPIRED_MESSAGES);
 			data_repo.initPreparedStatement(MSGS_GET_EXPIRED_MESSAGES_BEFORE, MSGS_GET_EXPIRED_MESSAGES_BEFORE);
+			data_repo.initPreparedStatement(MSGS_GET_EXPIRED_MESSAGES_BATCH, MSGS_GET_EXPIRED_MESSAGES_BATCH);
+			data_repo.initPreparedStatement(MSGS_DELETE_EXPIRED_MESSAGES_BATCH, MSGS_DELETE_EXPIRED_MESSAGES_BATCH);
 		} catch (SQLException ex) {
 			log.log(Level.WARNING, "MsgRepository not initialized due to exception",
 					ExceptionUtilities.getExceptionRootCause(ex, true));
@@ -418,7 +429,7 @@ public class JDBCMsgRepository
 				}
 			}
 
-			if (expired != null) {
+			if (expired != null && !batchExpiry) {
 				if (expired.getTime() < earliestOffline) {
 					earliestOffline = expired.getTime();
 				}
@@ -479,6 +490,92 @@ public class JDBCMsgRepository
 		return result;
 	}
 
+	/**
+	 * Selects batch of the oldest expired messages and removes exactly the selected messages with a single statement.
+	 * Messages which could not be parsed are not removed, they are logged once and skipped by following batches.
+	 */
+	@Override
+	public List<Element> removeExpiredMessages(Date before, int limit) {
+		if (!batchExpiry) {
+			batchExpiry = true;
+			expiredQueue.clear();
+		}
+
+		List<Long> msgIds = new ArrayList<>();
+		List<Element> msgs = new ArrayList<>();
+		Set<Long> unparsable = new HashSet<>();
+		int selectLimit = limit + unparsableExpired.size();
+		int selected = 0;
+
+		try {
+			ResultSet rs = null;
+			PreparedStatement select_batch_st = data_repo.getPreparedStatement(null, MSGS_GET_EXPIRED_MESSAGES_BATCH);
+
+			synchronized (select_batch_st) {
+				try {
+					data_repo.setTimestamp(select_batch_st, 1, new Timestamp(before.getTime()));
+					select_batch_st.setInt(2, selectLimit);
+					rs = select_batch_st.executeQuery();
+
+					DomBuilderHandler domHandler = new DomBuilderHandler();
+
+					while (rs.next()) {
+						++selected;
+						long msgId = rs.getLong(1);
+
+						if (unparsableExpired.contains(msgId)) {
+							unparsable.add(msgId);
+							continue;
+						}
+
+						String msg_str = rs.getString(3);
+
+						parser.parse(domHandler, msg_str.toCharArray(), 0, msg_str.length());
+
+						Element msg = domHandler.getParsedElements().poll();
+
+						if (msg == null) {
+							unparsable.add(msgId);
+							log.log(Level.WARNING, "Expired message {0} could not be parsed, skipping it and leaving " +
+									"it in DB: {1}", new Object[]{msgId, msg_str});
+						} else {
+							msgIds.add(msgId);
+							msgs.add(msg);
+						}
+					}
+				} finally {
+					data_repo.release(null, rs);
+				}
+			}
+		} catch (SQLException e) {
+			log.log(Level.WARNING, "Problem getting expired messages from db: ", e);
+			return Collections.emptyList();
+		}
+
+		// all expired messages were selected, so skipped messages which were not selected are already removed
+		if (selected < selectLimit) {
+			unparsableExpired.clear();
+		}
+		unparsableExpired.addAll(unparsable);
+
+		List<Element> result = new ArrayList<>(msgs.size());
+
+		for (int from = 0; from < msgIds.size(); from += MAX_EXPIRED_IDS_PER_DELETE) {
+			int to = Math.min(msgIds.size(), from + MAX_EXPIRED_IDS_PER_DELETE);
+
+			try {
+				deleteExpiredMessages(msgIds.subList(from, to));
+			} catch (SQLException e) {
+				// messages were not removed, they will be returned again by the next call
+				log.log(Level.WARNING, "Problem removing expired messages from DB: ", e);
+				break;
+			}
+			result.addAll(msgs.subList(from, to));
+		}
+
+		return result;
+	}
+
 	@Override
 	protected void deleteMessage(Long msg_id) {
 		try {
@@ -493,6 +590,33 @@ public class JDBCMsgRepository
 		}
 	}
 
+	private void deleteExpiredMessages(List<Long> msgIds) throws SQLException {
+		StringBuilder ids = new StringBuilder();
+
+		for (Long msgId : msgIds) {
+			if (ids.length() > 0) {
+				ids.append(',');
+			}
+			ids.append(msgId);
+		}
+
+		PreparedStatement delete_batch_st = data_repo.getPreparedStatement(null, MSGS_DELETE_EXPIRED_MESSAGES_BATCH);
+		ResultSet rs = null;
+
+		synchronized (delete_batch_st) {
+			try {
+				delete_batch_st.setString(1, ids.toString());
+				rs = delete_batch_st.executeQuery();
+				if (rs.next() && log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Removed {0} of {1} expired messages",
+							new Object[]{rs.getInt(1), msgIds.size()});
+				}
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+	}
+
 	@Override
 	protected void loadExpiredQueue(int min_elements) {
 		try {
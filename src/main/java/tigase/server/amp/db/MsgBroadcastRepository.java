@@ -23,8 +23,10 @@ import tigase.db.DataSourceAware;
 import tigase.db.DataSourceHelper;
 import tigase.db.beans.MDRepositoryBeanWithStatistics;
 import tigase.kernel.beans.Bean;
+import tigase.server.SharedPayload;
 import tigase.server.amp.AmpComponent;
-import tigase.server.amp.JidResourceMap;
+import tigase.server.amp.JidHashSet;
+import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
@@ -161,27 +163,47 @@ public abstract class MsgBroadcastRepository<T, S extends DataSource>
 	public class BroadcastMsg<T>
 			extends MsgRepository.MsgDBItem<T> {
 
-		private JidResourceMap<Boolean> recipients = new JidResourceMap<Boolean>();
+		// bare JIDs of users which should receive the message
+		private final JidHashSet recipients = new JidHashSet();
+		// full JIDs of sessions which already received the message
+		private final JidHashSet delivered = new JidHashSet();
+		private volatile SharedPayload payload = null;
 
 		public BroadcastMsg(T db_id, Element msg, Date expired) {
 			super(db_id, msg, expired);
 		}
 
 		public boolean needToSend(JID jid) {
-			return recipients.containsKey(jid.getBareJID()) &&
-					(jid.getResource() == null || !recipients.containsKey(jid));
+			return recipients.contains(jid.getBareJID()) && (jid.getResource() == null || !delivered.contains(jid));
 		}
 
 		public void markAsSent(JID jid) {
-			recipients.put(jid, Boolean.TRUE);
+			recipients.add(jid.getBareJID());
+			if (jid.getResource() != null) {
+				delivered.add(jid);
+			}
 		}
 
-		protected boolean addRecipient(BareJID jid) {
-			if (recipients.containsKey(jid)) {
-				return false;
+		/**
+		 * Returns message prepared for delivery to many recipients. Message is copied once and packets created from
+		 * it share the copy until a processor requests the stanza for modification.
+		 */
+		public SharedPayload getPayload() throws TigaseStringprepException {
+			SharedPayload result = payload;
+			if (result == null) {
+				synchronized (this) {
+					result = payload;
+					if (result == null) {
+						result = new SharedPayload(msg);
+						payload = result;
+					}
+				}
 			}
-			recipients.put(JID.jidInstance(jid), Boolean.TRUE);
-			return true;
+			return result;
+		}
+
+		protected boolean addRecipient(BareJID jid) {
+			return recipients.add(jid);
 		}
 
 	}
@@ -36,6 +36,7 @@ import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -90,6 +91,8 @@ public abstract class MsgRepository<T, S extends DataSource>
 		}
 
 	}
+	// set once expired messages are removed in batches, expiredQueue is not used then
+	protected volatile boolean batchExpiry = false;
 	protected long earliestOffline = Long.MAX_VALUE;
 	protected SimpleParser parser = SingletonFactory.getParserInstance();
 	private Condition expiredMessagesCondition;
@@ -201,6 +204,21 @@ public abstract class MsgRepository<T, S extends DataSource>
 		return item.msg;
 	}
 
+	/**
+	 * Removes expired messages one by one using the queue of expired messages. Implementations should override it to
+	 * select and remove whole batch at once.
+	 */
+	@Override
+	public List<Element> removeExpiredMessages(Date before, int limit) {
+		List<Element> result = new ArrayList<>();
+		Element msg;
+
+		while (result.size() < limit && (msg = getMessageExpired(before.getTime(), true)) != null) {
+			result.add(msg);
+		}
+		return result;
+	}
+
 	@Override
 	public void setCondition(ReentrantLock lock, Condition condition) {
 		this.expiredMessagesLock = lock;
@@ -306,6 +324,19 @@ public abstract class MsgRepository<T, S extends DataSource>
 			return null;
 		}
 
+		@Override
+		public List<Element> removeExpiredMessages(Date before, int limit) {
+			List<Element> result = new ArrayList<>();
+
+			for (MsgRepositoryIfc repo : getRepositories().values()) {
+				result.addAll(repo.removeExpiredMessages(before, limit - result.size()));
+				if (result.size() >= limit) {
+					break;
+				}
+			}
+			return result;
+		}
+
 		@Override
 		public Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete)
 				throws UserNotFoundException {
@@ -40,6 +40,8 @@ import javax.script.Bindings;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
@@ -472,6 +474,12 @@ public class BoshConnectionManager
 		super.initialize();
 	}
 
+	@Override
+	public boolean isDirectDeliveryAllowed(Packet packet) {
+		// packets for BOSH sessions are always routed, direct delivery is used only for c2s and ws2s connections
+		return false;
+	}
+
 	@Override
 	public boolean isCloseConnections() {
 		return closeConnections;
@@ -815,6 +823,12 @@ public class BoshConnectionManager
 
 	}
 
+	@Override
+	protected ByteBuffer getRejectResponse(Map<String, Object> port_props, SocketChannel sc) {
+		// redirect cannot be sent without HTTP request
+		return null;
+	}
+
 	@Override
 	protected BoshIOService getXMPPIOServiceInstance() {
 		return new BoshIOService(this);
@@ -20,9 +20,9 @@ package tigase.server.bosh;
 import tigase.server.Iq;
 import tigase.server.Message;
 import tigase.server.Packet;
+import tigase.util.common.XMPPDateTime;
 import tigase.xml.Element;
 
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -44,7 +44,6 @@ public class BoshSessionCache {
 
 	public static final String ROSTER_ID = "bosh-roster";
 	private static final Logger log = Logger.getLogger("tigase.server.bosh.BoshSessionCache");
-	private static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
 	/**
 	 * Cached time of the first message to/from some jid to speedup message caching processing
@@ -228,11 +227,7 @@ public class BoshSessionCache {
 	}
 
 	private Element createMessageHistory(String jid) {
-		String sdf_string = null;
-
-		synchronized (sdf) {
-			sdf_string = sdf.format(new Date());
-		}
+		String sdf_string = XMPPDateTime.format(System.currentTimeMillis());
 
 		return new Element("iq", new Element[]{new Element("chat", new String[]{"xmlns", "with", "start"},
 														   new String[]{"urn:xmpp:tmp:archive", jid, sdf_string})},
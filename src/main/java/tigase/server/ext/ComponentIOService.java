@@ -18,11 +18,16 @@
 package tigase.server.ext;
 
 import tigase.net.ConnectionType;
+import tigase.server.ConnectionManager;
+import tigase.server.Packet;
 import tigase.util.cache.SizedCache;
+import tigase.util.routing.RendezvousHashing;
 import tigase.xmpp.XMPPIOService;
 import tigase.xmpp.jid.JID;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created: Jun 14, 2010 12:05:41 PM
@@ -36,6 +41,17 @@ public class ComponentIOService
 	private static final long MAX_CACHE_TIME = 100000;
 
 	private boolean authenticated = false;
+	private volatile long identityHash = 0;
+	private long highWatermarkBytes = Long.MAX_VALUE;
+	private int highWatermarkStanzas = Integer.MAX_VALUE;
+	private long lowWatermarkBytes = Long.MAX_VALUE;
+	private int lowWatermarkStanzas = Integer.MAX_VALUE;
+	private final AtomicInteger outstandingStanzas = new AtomicInteger();
+	private final AtomicBoolean saturated = new AtomicBoolean(false);
+	// total bytes sent by the socket when all written data were flushed last time
+	private volatile long sentBytesBase = 0;
+	// characters passed to the socket since all written data were flushed last time
+	private volatile long writtenChars = 0;
 	private SizedCache<JID, JID> recentJIDs = new SizedCache<JID, JID>(MAX_RECENT_JIDS);
 	private String routings = null;
 
@@ -55,6 +71,30 @@ public class ComponentIOService
 		routings = r;
 	}
 
+	/**
+	 * Returns identity of the connection which does not change when the component reconnects and which is the same on
+	 * all cluster nodes: remote address, configured port and direction of the connection. Several instances of the
+	 * component connecting from the same address are told apart by the instance number.
+	 *
+	 * @param instance number of the instance, the lowest one not used by other connections with the same identity
+	 */
+	public String getIdentity(int instance) {
+		String identity = getRemoteAddress() + ":" + getSessionData().get(ConnectionManager.PORT_KEY) + ":" +
+				connectionType();
+		return instance == 0 ? identity : identity + "#" + instance;
+	}
+
+	/**
+	 * Returns hash of the identity of the connection used by load balancers to assign packets to connections.
+	 */
+	public long getIdentityHash() {
+		return identityHash;
+	}
+
+	public void setIdentity(String identity) {
+		identityHash = RendezvousHashing.hash(identity);
+	}
+
 	public void addRecentJID(JID jid) {
 		// We only save recent JIDs on the external component side
 		if (connectionType() == ConnectionType.connect) {
@@ -66,4 +106,66 @@ public class ComponentIOService
 		return jid != null && recentJIDs.get(jid) != null;
 	}
 
+	/**
+	 * Returns number of stanzas added to this connection which were not yet passed to the socket.
+	 */
+	public int getOutstandingStanzas() {
+		return outstandingStanzas.get();
+	}
+
+	/**
+	 * Returns estimated number of bytes passed to the socket which were not yet written to the network. Estimation is
+	 * based on number of characters of stanzas and it is reset every time the socket has no more data to send.
+	 */
+	public long getOutstandingBytes() {
+		long written = writtenChars;
+		if (written == 0) {
+			return 0;
+		}
+		return Math.max(0, written - (getTotalBytesSent() - sentBytesBase));
+	}
+
+	/**
+	 * Checks whether number of outstanding stanzas or bytes reached the high watermark. Once saturated, the connection
+	 * stays saturated until both values drop to the low watermarks, so it does not flap on every packet.
+	 * <br>
+	 * State is changed only from the state on which the check was based, so a thread working with outdated values
+	 * cannot revert a change made by other thread.
+	 */
+	public boolean isSaturated() {
+		int stanzas = outstandingStanzas.get();
+		if (saturated.get()) {
+			if (stanzas <= lowWatermarkStanzas && getOutstandingBytes() <= lowWatermarkBytes) {
+				saturated.compareAndSet(true, false);
+			}
+		} else if (stanzas >= highWatermarkStanzas || getOutstandingBytes() >= highWatermarkBytes) {
+			saturated.compareAndSet(false, true);
+		}
+		return saturated.get();
+	}
+
+	public void setWatermarks(int highStanzas, int lowStanzas, long highBytes, long lowBytes) {
+		this.highWatermarkStanzas = highStanzas;
+		this.lowWatermarkStanzas = Math.min(lowStanzas, highStanzas);
+		this.highWatermarkBytes = highBytes;
+		this.lowWatermarkBytes = Math.min(lowBytes, highBytes);
+	}
+
+	@Override
+	protected void packetQueued(Packet packet) {
+		outstandingStanzas.incrementAndGet();
+	}
+
+	@Override
+	protected void packetWritten(Packet packet, int length) {
+		outstandingStanzas.decrementAndGet();
+		// called with write lock held, so there is only one thread updating counters
+		if (waitingToSend()) {
+			writtenChars += length;
+		} else {
+			writtenChars = 0;
+			sentBytesBase = getTotalBytesSent();
+		}
+	}
+
 }
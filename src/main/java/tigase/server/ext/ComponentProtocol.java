@@ -32,6 +32,7 @@ import tigase.server.ext.handlers.*;
 import tigase.server.ext.lb.LoadBalancerIfc;
 import tigase.stats.StatisticsList;
 import tigase.util.common.TimerTask;
+import tigase.util.routing.RendezvousHashing;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
@@ -42,6 +43,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -73,10 +75,25 @@ public class ComponentProtocol
 
 	public static final String MAX_AUTH_ATTEMPTS_PROP_KEY = "max-auth-attempts";
 
+	public static final String OUT_BYTES_HIGH_WATERMARK_PROP_KEY = "out-bytes-high-watermark";
+
+	public static final String OUT_BYTES_LOW_WATERMARK_PROP_KEY = "out-bytes-low-watermark";
+
+	public static final String OUT_STANZAS_HIGH_WATERMARK_PROP_KEY = "out-stanzas-high-watermark";
+
+	public static final String OUT_STANZAS_LOW_WATERMARK_PROP_KEY = "out-stanzas-low-watermark";
+
 	public static final String PACK_ROUTED_KEY = "pack-routed";
 
 	public static final String RETURN_SERVICE_DISCO_KEY = "service-disco";
 	public static final boolean RETURN_SERVICE_DISCO_VAL = true;
+
+	public static final String SATURATION_REJECT_PROP_KEY = "saturation-reject";
+
+	public static final String SATURATION_WAIT_PROP_KEY = "saturation-wait";
+
+	private static final long SATURATION_CHECK_INTERVAL = 10;
+
 	private static final Logger log = Logger.getLogger(ComponentProtocol.class.getName());
 
 	// In seconds
@@ -98,6 +115,18 @@ public class ComponentProtocol
 	private String identity_type = IDENTITY_TYPE_VAL;
 	@ConfigField(desc = "Max number of authentication attempts", alias = MAX_AUTH_ATTEMPTS_PROP_KEY)
 	private int maxAuthenticationAttempts = 1;
+	@ConfigField(desc = "Outstanding bytes above which connection is saturated",
+				 alias = OUT_BYTES_HIGH_WATERMARK_PROP_KEY)
+	private long outBytesHighWatermark = 4 * 1024 * 1024;
+	@ConfigField(desc = "Outstanding bytes below which connection is no longer saturated",
+				 alias = OUT_BYTES_LOW_WATERMARK_PROP_KEY)
+	private long outBytesLowWatermark = 1024 * 1024;
+	@ConfigField(desc = "Outstanding stanzas above which connection is saturated",
+				 alias = OUT_STANZAS_HIGH_WATERMARK_PROP_KEY)
+	private int outStanzasHighWatermark = 10000;
+	@ConfigField(desc = "Outstanding stanzas below which connection is no longer saturated",
+				 alias = OUT_STANZAS_LOW_WATERMARK_PROP_KEY)
+	private int outStanzasLowWatermark = 2500;
 	/**
 	 * List of processors which should handle all traffic incoming from the network. In most cases if not all, these
 	 * processors handle just protocol traffic, all the rest traffic should be passed on to MR.
@@ -105,6 +134,13 @@ public class ComponentProtocol
 	private Map<String, ExtProcessor> processors = new LinkedHashMap<String, ExtProcessor>(10);
 	@Inject
 	private ComponentRepository<CompRepoItem> repo = null;
+	@ConfigField(desc = "Reject packets when all connections are saturated", alias = SATURATION_REJECT_PROP_KEY)
+	private boolean saturationReject = false;
+	private final LongAdder saturationRejects = new LongAdder();
+	// In milliseconds
+	@ConfigField(desc = "Maximal time to wait for a saturated connection to drain", alias = SATURATION_WAIT_PROP_KEY)
+	private long saturationWait = 1000;
+	private final LongAdder saturationWaits = new LongAdder();
 	private Map<String, StreamOpenHandler> streamOpenHandlers = new LinkedHashMap<String, StreamOpenHandler>();
 	private UnknownXMLNSStreamOpenHandler unknownXMLNSHandler = new UnknownXMLNSStreamOpenHandler();
 
@@ -254,6 +290,29 @@ public class ComponentProtocol
 			size += conns.size();
 		}
 		list.add(getName(), "Number of external component connections", size, Level.FINER);
+
+		int saturated = 0;
+		long outstandingBytes = 0;
+		long outstandingStanzas = 0;
+
+		for (CopyOnWriteArrayList<ComponentConnection> conns : connections.values()) {
+			for (ComponentConnection conn : conns) {
+				ComponentIOService serv = conn.getService();
+
+				if (serv != null && serv.isConnected()) {
+					outstandingBytes += serv.getOutstandingBytes();
+					outstandingStanzas += serv.getOutstandingStanzas();
+					if (serv.isSaturated()) {
+						++saturated;
+					}
+				}
+			}
+		}
+		list.add(getName(), "Saturated connections", saturated, Level.FINE);
+		list.add(getName(), "Outstanding bytes", outstandingBytes, Level.FINER);
+		list.add(getName(), "Outstanding stanzas", outstandingStanzas, Level.FINER);
+		list.add(getName(), "Saturation rejects", saturationRejects.sum(), Level.FINE);
+		list.add(getName(), "Saturation waits", saturationWaits.sum(), Level.FINE);
 	}
 
 	@Override
@@ -299,6 +358,30 @@ public class ComponentProtocol
 	//	this.kernel.getParent().in
 	}
 
+	/**
+	 * Writes packet to the connection selected for it. Saturated connection is selected only if all connections for
+	 * the packet are saturated. In such case processing of the packet waits up to <code>saturation-wait</code>
+	 * milliseconds for any of them to drain, so the input queue of the component fills up and slows down senders
+	 * instead of the data piling up in the connection. If <code>saturation-reject</code> is enabled, the packet is
+	 * rejected with <code>resource-constraint</code> error instead.
+	 */
+	@Override
+	public void processPacket(Packet packet) {
+		ComponentIOService serv = getXMPPIOService(packet);
+
+		if (serv == null) {
+			return;
+		}
+		if (serv.isSaturated()) {
+			if (saturationReject) {
+				rejectPacket(packet, serv);
+				return;
+			}
+			serv = waitForConnection(packet, serv);
+		}
+		writePacketToSocket(serv, packet);
+	}
+
 	@Override
 	public Queue<Packet> processSocketData(ComponentIOService serv) {
 		Queue<Packet> packets = serv.getReceivedPackets();
@@ -641,6 +724,7 @@ public class ComponentProtocol
 		}
 
 		ComponentIOService result = null;
+		ComponentIOService selected = null;
 		String hostname = p.getStanzaTo().getDomain();
 		CopyOnWriteArrayList<ComponentConnection> conns = connections.get(hostname);
 
@@ -662,7 +746,8 @@ public class ComponentProtocol
 			for (ComponentConnection componentConnection : conns) {
 				ComponentIOService serv = componentConnection.getService();
 
-				if ((serv != null) && serv.isConnected() && serv.isRecentJID(p.getStanzaTo())) {
+				if ((serv != null) && serv.isConnected() && serv.isRecentJID(p.getStanzaTo()) &&
+						!serv.isSaturated()) {
 					result = serv;
 
 					break;
@@ -679,7 +764,12 @@ public class ComponentProtocol
 
 				LoadBalancerIfc lb = cmp_repo_item.getLoadBalancer();
 
-				result = lb.selectConnection(p, conns);
+				selected = lb.selectConnection(p, conns);
+
+				// load balancers may select a saturated connection, any connection which is not saturated is preferred
+				if (selected != null && !selected.isSaturated()) {
+					result = selected;
+				}
 			}
 
 			// The above algorithm did not work for some reason. Now trying
@@ -695,17 +785,22 @@ public class ComponentProtocol
 
 					if (serv != null) {
 						if (serv.isConnected()) {
-							result = serv;
+							if (result == null || result.isSaturated()) {
+								result = serv;
+							}
 						} else {
 							log.info("Service is not connected for connection for hostname: " + hostname);
 						}
 					} else {
 						log.info("Service is null for connection for hostname: " + hostname);
 					}
-					if (result != null) {
+					if (result != null && !result.isSaturated()) {
 						break;
 					}
 				}
+				if (selected != null && (result == null || result.isSaturated())) {
+					result = selected;
+				}
 			}
 		} else {
 			log.info("No ext connection for hostname: " + hostname);
@@ -719,7 +814,11 @@ public class ComponentProtocol
 
 	@Override
 	protected ComponentIOService getXMPPIOServiceInstance() {
-		return new ComponentIOService();
+		ComponentIOService serv = new ComponentIOService();
+
+		serv.setWatermarks(outStanzasHighWatermark, outStanzasLowWatermark, outBytesHighWatermark,
+						   outBytesLowWatermark);
+		return serv;
 	}
 
 	@Override
@@ -727,6 +826,47 @@ public class ComponentProtocol
 		return true;
 	}
 
+	private void rejectPacket(Packet packet, ComponentIOService serv) {
+		saturationRejects.increment();
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Connection is saturated, rejecting packet: {0} [{1}]", new Object[]{packet, serv});
+		}
+		try {
+			addOutPacket(Authorization.RESOURCE_CONSTRAINT.getResponseMessage(packet,
+																			  "Component is overloaded, try again later.",
+																			  true));
+		} catch (PacketErrorTypeException ex) {
+			log.log(Level.FINE, "Dropping error packet for saturated connection: {0}", packet);
+		}
+	}
+
+	/**
+	 * Waits until a connection which is not saturated is available for the packet or until <code>saturation-wait</code>
+	 * passes.
+	 *
+	 * @return connection to which the packet should be written
+	 */
+	private ComponentIOService waitForConnection(Packet packet, ComponentIOService serv) {
+		saturationWaits.increment();
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "All connections are saturated, waiting with packet: {0} [{1}]",
+					new Object[]{packet, serv});
+		}
+		long deadline = System.currentTimeMillis() + saturationWait;
+		try {
+			while (serv.isSaturated() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(SATURATION_CHECK_INTERVAL);
+				ComponentIOService next = getXMPPIOService(packet);
+				if (next != null) {
+					serv = next;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return serv;
+	}
+
 	private void updateServiceDiscoForConnection(String hostname, ComponentIOService serv) {
 
 		// Cut off the first, component part
@@ -742,6 +882,9 @@ public class ComponentProtocol
 	}
 
 	private synchronized void addComponentConnection(String hostname, ComponentIOService s) {
+		if (s.getRefObject() == null) {
+			assignIdentity(s);
+		}
 		ComponentConnection conn = new ComponentConnection(hostname, s);
 		List<ComponentConnection> refObject = s.getRefObject();
 
@@ -790,6 +933,27 @@ public class ComponentProtocol
 		}
 	}
 
+	/**
+	 * Assigns the connection a stable identity, so load balancers keep assigning the same keys to a component instance
+	 * after it reconnects.
+	 */
+	private void assignIdentity(ComponentIOService s) {
+		Set<Long> used = new HashSet<>();
+		for (CopyOnWriteArrayList<ComponentConnection> conns : connections.values()) {
+			for (ComponentConnection conn : conns) {
+				ComponentIOService serv = conn.getService();
+				if (serv != s && serv.isConnected()) {
+					used.add(serv.getIdentityHash());
+				}
+			}
+		}
+		int instance = 0;
+		while (used.contains(RendezvousHashing.hash(s.getIdentity(instance)))) {
+			instance++;
+		}
+		s.setIdentity(s.getIdentity(instance));
+	}
+
 	private synchronized boolean removeComponentConnection(String hostname, ComponentConnection conn) {
 		boolean result = false;
 		CopyOnWriteArrayList<ComponentConnection> conns = connections.get(hostname);
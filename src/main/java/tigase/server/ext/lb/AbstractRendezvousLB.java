@@ -0,0 +1,63 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext.lb;
+
+import tigase.server.Packet;
+import tigase.server.ext.ComponentConnection;
+import tigase.server.ext.ComponentIOService;
+import tigase.util.routing.RendezvousHashing;
+
+import java.util.List;
+
+/**
+ * Base class for load balancers assigning packets to connections using rendezvous hashing of the key returned by
+ * {@link #getKeyHash(Packet)}. Adding or dropping a connection moves only keys assigned to that connection, and if
+ * preferred connection is not connected, the next one ranked for the key is used. Connections are ranked by
+ * {@link ComponentIOService#getIdentityHash()}, which does not change when the component reconnects.
+ * <br>
+ * Connection which has more than {@link #LOAD_FACTOR} times the average number of packets waiting to be sent (and more
+ * than {@link #MIN_LOAD}) is skipped, so a slow component instance does not hold up all users assigned to it.
+ */
+public abstract class AbstractRendezvousLB
+		implements LoadBalancerIfc {
+
+	public static final double LOAD_FACTOR = 2.0;
+
+	public static final long MIN_LOAD = 1000;
+
+	@Override
+	public ComponentIOService selectConnection(Packet p, List<ComponentConnection> conns) {
+		ComponentConnection conn = RendezvousHashing.select(getKeyHash(p), conns,
+															AbstractRendezvousLB::getConnectionHash,
+															AbstractRendezvousLB::isConnected,
+															c -> c.getService().waitingToSendSize(), LOAD_FACTOR,
+															MIN_LOAD);
+
+		return conn == null ? null : conn.getService();
+	}
+
+	protected abstract int getKeyHash(Packet p);
+
+	private static long getConnectionHash(ComponentConnection conn) {
+		return conn.getService().getIdentityHash();
+	}
+
+	private static boolean isConnected(ComponentConnection conn) {
+		return conn.getService() != null && conn.getService().isConnected();
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext.lb;
+
+import tigase.server.Packet;
+import tigase.server.ext.ComponentConnection;
+import tigase.server.ext.ComponentIOService;
+import tigase.util.routing.RendezvousHashing;
+import tigase.xmpp.jid.JID;
+
+import java.util.List;
+
+/**
+ * Load balancer sending packets for the same bare JID of the receiver to the same connection (selected using
+ * rendezvous hashing) as long as that connection is not saturated. Packets for a saturated connection are sent to the
+ * connection with the least number of outstanding bytes (and stanzas, if numbers of bytes are equal) which is not
+ * saturated.
+ * <br>
+ * If all connections are saturated, the least loaded one is returned and {@link tigase.server.ext.ComponentProtocol}
+ * rejects the packet. Connections are ranked by {@link ComponentIOService#getIdentityHash()}, which does not change
+ * when the component reconnects.
+ */
+public class LeastOutstandingLB
+		implements LoadBalancerIfc {
+
+	@Override
+	public ComponentIOService selectConnection(Packet p, List<ComponentConnection> conns) {
+		ComponentConnection preferred = RendezvousHashing.select(getKeyHash(p), conns,
+																 LeastOutstandingLB::getConnectionHash,
+																 LeastOutstandingLB::isConnected);
+
+		if (preferred == null) {
+			return null;
+		}
+		if (!preferred.getService().isSaturated()) {
+			return preferred.getService();
+		}
+
+		ComponentIOService result = null;
+		boolean resultSaturated = true;
+
+		for (ComponentConnection conn : conns) {
+			if (!isConnected(conn)) {
+				continue;
+			}
+
+			ComponentIOService serv = conn.getService();
+			boolean saturated = serv.isSaturated();
+
+			if (result == null || (resultSaturated && !saturated) ||
+					(resultSaturated == saturated && isLessLoaded(serv, result))) {
+				result = serv;
+				resultSaturated = saturated;
+			}
+		}
+
+		return result;
+	}
+
+	protected int getKeyHash(Packet p) {
+		JID to = p.getStanzaTo();
+
+		return to == null ? 0 : to.getBareJID().hashCode();
+	}
+
+	private static long getConnectionHash(ComponentConnection conn) {
+		return conn.getService().getIdentityHash();
+	}
+
+	private static boolean isConnected(ComponentConnection conn) {
+		return conn.getService() != null && conn.getService().isConnected();
+	}
+
+	private static boolean isLessLoaded(ComponentIOService serv, ComponentIOService other) {
+		long bytes = serv.getOutstandingBytes();
+		long otherBytes = other.getOutstandingBytes();
+
+		if (bytes != otherBytes) {
+			return bytes < otherBytes;
+		}
+		return serv.getOutstandingStanzas() < other.getOutstandingStanzas();
+	}
+}
@@ -18,26 +18,15 @@
 package tigase.server.ext.lb;
 
 import tigase.server.Packet;
-import tigase.server.ext.ComponentConnection;
-import tigase.server.ext.ComponentIOService;
-
-import java.util.List;
 
 /**
  * @author Artur Hefczyc Created Jul 9, 2011
  */
 public class SenderFullJidLB
-		implements LoadBalancerIfc {
+		extends AbstractRendezvousLB {
 
 	@Override
-	public ComponentIOService selectConnection(Packet p, List<ComponentConnection> conns) {
-		ComponentIOService result = null;
-		int idx = Math.abs(p.getStanzaFrom().hashCode() % conns.size());
-		ComponentConnection conn = conns.get(idx);
-		if (conn.getService() != null && conn.getService().isConnected()) {
-			result = conn.getService();
-		}
-		return result;
+	protected int getKeyHash(Packet p) {
+		return p.getStanzaFrom().hashCode();
 	}
-
 }
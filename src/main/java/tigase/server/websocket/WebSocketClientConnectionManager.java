@@ -31,7 +31,10 @@ import tigase.xmpp.XMPPIOService;
 import tigase.xmpp.impl.StartTLS;
 import tigase.xmpp.jid.BareJID;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -65,6 +68,12 @@ public class WebSocketClientConnectionManager
 		return null;
 	}
 
+	@Override
+	protected ByteBuffer getRejectResponse(Map<String, Object> port_props, SocketChannel sc) {
+		// redirect cannot be sent before HTTP upgrade
+		return null;
+	}
+
 	@Override
 	protected XMPPIOService<Object> getXMPPIOServiceInstance() {
 		return new WebSocketXMPPIOService<Object>(enabledProtocolVersions);
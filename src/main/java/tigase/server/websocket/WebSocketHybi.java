@@ -24,11 +24,13 @@ import tigase.util.Base64;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import static tigase.server.websocket.WebSocketXMPPIOService.State.closing;
 
@@ -54,6 +56,7 @@ public class WebSocketHybi
 					"Access-Control-Allow-Headers: Content-Type\r\n" + "Access-Control-Max-Age: 86400\r\n";
 
 	private static final String WS_ACCEPT_KEY = "Sec-WebSocket-Accept";
+	private static final String WS_EXTENSIONS_KEY = "Sec-WebSocket-Extensions";
 	private static final String WS_KEY_KEY = "Sec-WebSocket-Key";
 
 	private static final String CLOSE_CODE = "close-code";
@@ -61,6 +64,14 @@ public class WebSocketHybi
 	private static byte[] EMPTY = new byte[0];
 	@ConfigField(desc = "Allow for unmasked frames send from client", alias = "ws-allow-unmasked-frames")
 	private boolean allowUnmaskedFromClient = false;
+	@ConfigField(desc = "Compression level used by permessage-deflate extension", alias = "ws-deflate-level")
+	private int deflateLevel = Deflater.BEST_SPEED;
+	@ConfigField(desc = "Minimal size of message compressed using permessage-deflate extension", alias = "ws-deflate-min-size")
+	private int deflateMinSize = 128;
+	@ConfigField(desc = "Reset compression context after each message sent using permessage-deflate extension", alias = "ws-deflate-server-no-context-takeover")
+	private boolean deflateServerNoContextTakeover = false;
+	@ConfigField(desc = "Support for permessage-deflate extension (RFC 7692)", alias = "ws-permessage-deflate")
+	private boolean perMessageDeflate = false;
 
 	@Override
 	public String getId() {
@@ -76,6 +87,33 @@ public class WebSocketHybi
 		return Base64.encode(md.digest());
 	}
 
+	/**
+	 * Unmasks data in place, 8 bytes at a time.
+	 *
+	 * @param buf buffer with masked data
+	 * @param offset position of first byte of masked data
+	 * @param length number of bytes to unmask
+	 * @param maskingKey 4 bytes of masking key
+	 */
+	static void unmask(ByteBuffer buf, int offset, int length, byte[] maskingKey) {
+		int key = ((maskingKey[0] & 0xFF) << 24) | ((maskingKey[1] & 0xFF) << 16) | ((maskingKey[2] & 0xFF) << 8) |
+				(maskingKey[3] & 0xFF);
+		if (key == 0) {
+			return;
+		}
+		long mask = ((key & 0xFFFFFFFFL) << 32) | (key & 0xFFFFFFFFL);
+		ByteBuffer data = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			int pos = offset + i;
+			data.putLong(pos, data.getLong(pos) ^ mask);
+		}
+		for (; i < length; i++) {
+			int pos = offset + i;
+			data.put(pos, (byte) (data.get(pos) ^ maskingKey[i & 3]));
+		}
+	}
+
 	@Override
 	public boolean handshake(WebSocketXMPPIOService service, Map<String, String> headers, byte[] buf)
 			throws NoSuchAlgorithmException, IOException {
@@ -99,6 +137,14 @@ public class WebSocketHybi
 		response.append(WS_ACCEPT_KEY + ": ");
 		response.append(wsAccept);
 		response.append("\r\n");
+		if (perMessageDeflate) {
+			WebSocketPerMessageDeflate deflate = WebSocketPerMessageDeflate.negotiate(
+					headers.get(WS_EXTENSIONS_KEY.toUpperCase()), deflateServerNoContextTakeover, deflateLevel);
+			if (deflate != null) {
+				response.append(WS_EXTENSIONS_KEY).append(": ").append(deflate.getResponse()).append("\r\n");
+				service.perMessageDeflate = deflate;
+			}
+		}
 		response.append("\r\n");
 		service.maskingKey = new byte[4];
 		service.writeRawData(response.toString());
@@ -153,6 +199,17 @@ public class WebSocketHybi
 					return null;
 				}
 
+				// RSV1 bit marks compressed message, only allowed if permessage-deflate was negotiated
+				if ((type & 0x40) == 0x40 && service.perMessageDeflate == null) {
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST,
+								"Socket: {0}, closing connection due to protocol error - compressed frame sent by client {1}",
+								new Object[]{service, String.format("%02X ", type)});
+					}
+					closeConnection(service, PROTOCOL_ERROR);
+					return null;
+				}
+
 				// ignore sign bit
 				service.frameLength = (b2 & 0x7F);
 				if (service.frameLength > 125) {
@@ -169,19 +226,27 @@ public class WebSocketHybi
 			}
 
 			if (buf.remaining() >= service.frameLength) {
-				byte[] data = new byte[(int) service.frameLength];
-
-				buf.get(data);
+				int length = (int) service.frameLength;
 
-				// if content is masked then unmask content
+				// if content is masked then unmask content in place and return view of the payload
 				if (masked) {
-					byte[] maskingKey = service.maskingKey;
-					for (int i = 0; i < data.length; i++) {
-						data[i] = (byte) (data[i] ^ maskingKey[i % 4]);
-					}
+					unmask(buf, buf.position(), length, service.maskingKey);
 				}
-				unmasked = ByteBuffer.wrap(data);
+				unmasked = buf.slice();
+				unmasked.limit(length);
+				buf.position(buf.position() + length);
 				service.frameLength = -1;
+
+				if ((type & 0x08) == 0) {
+					// data frame, continuation frames (opcode 0) belong to the compressed message if first frame was
+					if ((type & 0x0F) != 0) {
+						service.messageCompressed = (type & 0x40) == 0x40;
+					}
+					service.frameCompressed = service.messageCompressed;
+					service.frameFin = (type & 0x80) == 0x80;
+				} else {
+					service.frameCompressed = false;
+				}
 			} else {
 				// not enought data so reset buffer position
 				buf.position(position);
@@ -204,12 +269,16 @@ public class WebSocketHybi
 						log.log(Level.FINEST, "Socket: {0}, sending response on ping frame", new Object[]{service});
 					}
 					type = (byte) (((byte) (type ^ 0x09)) | 0x0A);
+					// payload is a view of the input buffer which will be reused, so it has to be copied
+					ByteBuffer payload = ByteBuffer.allocate(unmasked.remaining());
+					payload.put(unmasked);
+					payload.flip();
 					try {
-						ByteBuffer header = createFrameHeader(type, unmasked.remaining());
+						ByteBuffer header = createFrameHeader(type, payload.remaining());
 
 						service.writeInProgress.lock();
 						service.writeBytes(header);
-						service.writeBytes(unmasked);
+						service.writeBytes(payload);
 					} finally {
 						service.writeInProgress.unlock();
 					}
@@ -230,14 +299,21 @@ public class WebSocketHybi
 
 	@Override
 	public void encodeFrameAndWrite(WebSocketXMPPIOService service, ByteBuffer buf) throws IOException {
+		// set type as finally part (0x80) of message of type text (0x01)
+		byte type = (byte) 0x81;
+		if (service.perMessageDeflate != null && buf.remaining() >= deflateMinSize) {
+			// RSV1 bit marks compressed message
+			type = (byte) 0xC1;
+			buf = service.perMessageDeflate.deflate(buf);
+		}
+
 		int size = buf.remaining();
 
-		// set type as finally part (0x80) of message of type text (0x01)
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Socket: {0}, sending encoded data size = {1}", new Object[]{service, size});
 		}
 
-		ByteBuffer bbuf = createFrameHeader((byte) 0x81, size);
+		ByteBuffer bbuf = createFrameHeader(type, size);
 
 		// send frame header
 		service.writeBytes(bbuf);
@@ -0,0 +1,230 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression state of a single WebSocket connection using <code>permessage-deflate</code> extension.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7692">RFC 7692: Compression Extensions for WebSocket</a>
+ */
+public class WebSocketPerMessageDeflate {
+
+	public static final String EXTENSION_NAME = "permessage-deflate";
+
+	/**
+	 * Maximal size of a single decompressed chunk of data, protects against decompression bombs.
+	 */
+	public static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
+
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+	private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+	// java.util.zip always uses 32KB window
+	private static final int WINDOW_BITS = 15;
+
+	private final boolean clientNoContextTakeover;
+	private final Deflater deflater;
+	private final Inflater inflater = new Inflater(true);
+	private final String response;
+	private final boolean serverNoContextTakeover;
+
+	/**
+	 * Selects first acceptable offer of <code>permessage-deflate</code> extension from the value of
+	 * <code>Sec-WebSocket-Extensions</code> header.
+	 *
+	 * @param extensions value of the header sent by the client
+	 * @param serverNoContextTakeover if <code>true</code> server will reset compression context after each message
+	 * even if client did not request that
+	 * @param level compression level
+	 *
+	 * @return compression state for the connection or <code>null</code> if extension was not offered or none of offers
+	 * was acceptable
+	 */
+	public static WebSocketPerMessageDeflate negotiate(String extensions, boolean serverNoContextTakeover,
+													   int level) {
+		if (extensions == null) {
+			return null;
+		}
+		for (String offer : extensions.split(",")) {
+			String[] params = offer.split(";");
+			if (!EXTENSION_NAME.equalsIgnoreCase(params[0].trim())) {
+				continue;
+			}
+			boolean accepted = true;
+			boolean clientNoContext = false;
+			boolean serverNoContext = serverNoContextTakeover;
+			boolean serverWindowBits = false;
+			for (int i = 1; i < params.length && accepted; i++) {
+				String[] param = params[i].split("=", 2);
+				String name = param[0].trim().toLowerCase();
+				String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+				switch (name) {
+					case SERVER_NO_CONTEXT_TAKEOVER:
+						serverNoContext = true;
+						break;
+					case CLIENT_NO_CONTEXT_TAKEOVER:
+						clientNoContext = true;
+						break;
+					case SERVER_MAX_WINDOW_BITS:
+						// we are not able to use smaller window for compression
+						serverWindowBits = true;
+						accepted = String.valueOf(WINDOW_BITS).equals(value);
+						break;
+					case CLIENT_MAX_WINDOW_BITS:
+						// window used by the client may be smaller than our window, nothing to do
+						break;
+					default:
+						accepted = false;
+						break;
+				}
+			}
+			if (accepted) {
+				StringBuilder response = new StringBuilder(EXTENSION_NAME);
+				if (serverNoContext) {
+					response.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+				}
+				if (clientNoContext) {
+					response.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+				}
+				if (serverWindowBits) {
+					response.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(WINDOW_BITS);
+				}
+				return new WebSocketPerMessageDeflate(response.toString(), serverNoContext, clientNoContext, level);
+			}
+		}
+		return null;
+	}
+
+	private static ByteBuffer grow(ByteBuffer buf, int required) throws DataFormatException {
+		int capacity = Math.max(buf.capacity() * 2, buf.position() + required);
+		if (capacity > MAX_INFLATED_SIZE) {
+			throw new DataFormatException("Decompressed data exceeds " + MAX_INFLATED_SIZE + " bytes");
+		}
+		ByteBuffer result = ByteBuffer.allocate(capacity);
+		buf.flip();
+		result.put(buf);
+		return result;
+	}
+
+	public WebSocketPerMessageDeflate(String response, boolean serverNoContextTakeover,
+									  boolean clientNoContextTakeover, int level) {
+		this.response = response;
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		this.deflater = new Deflater(level, true);
+	}
+
+	/**
+	 * Compresses a whole message. Returned buffer contains payload of the frame (without trailing
+	 * <code>0x00 0x00 0xFF 0xFF</code>).
+	 */
+	public ByteBuffer deflate(ByteBuffer data) {
+		synchronized (deflater) {
+			ByteBuffer out = ByteBuffer.allocate(data.remaining() / 2 + 64);
+			deflater.setInput(data);
+			while (true) {
+				if (!out.hasRemaining()) {
+					ByteBuffer tmp = ByteBuffer.allocate(out.capacity() * 2);
+					out.flip();
+					tmp.put(out);
+					out = tmp;
+				}
+				int space = out.remaining();
+				// with SYNC_FLUSH all data is compressed if there is space left in the output buffer
+				if (deflater.deflate(out, Deflater.SYNC_FLUSH) < space) {
+					break;
+				}
+			}
+			if (serverNoContextTakeover) {
+				deflater.reset();
+			}
+			out.flip();
+			out.limit(out.limit() - TAIL.length);
+			return out;
+		}
+	}
+
+	public void end() {
+		synchronized (deflater) {
+			deflater.end();
+		}
+		synchronized (inflater) {
+			inflater.end();
+		}
+	}
+
+	public String getResponse() {
+		return response;
+	}
+
+	/**
+	 * Decompresses payload of a frame of compressed message appending data to the output buffer.
+	 *
+	 * @param payload payload of the frame
+	 * @param fin <code>true</code> if it is the last frame of the message
+	 * @param out buffer to which data is appended (in write mode)
+	 *
+	 * @return output buffer which may be a new buffer if output did not fit in the passed one
+	 */
+	public ByteBuffer inflate(ByteBuffer payload, boolean fin, ByteBuffer out) throws DataFormatException {
+		synchronized (inflater) {
+			out = inflate(payload, out);
+			if (fin) {
+				out = inflate(ByteBuffer.wrap(TAIL), out);
+				if (clientNoContextTakeover || inflater.finished()) {
+					inflater.reset();
+				}
+			}
+			return out;
+		}
+	}
+
+	public boolean isClientNoContextTakeover() {
+		return clientNoContextTakeover;
+	}
+
+	public boolean isServerNoContextTakeover() {
+		return serverNoContextTakeover;
+	}
+
+	private ByteBuffer inflate(ByteBuffer in, ByteBuffer out) throws DataFormatException {
+		inflater.setInput(in);
+		while (!inflater.finished()) {
+			if (!out.hasRemaining()) {
+				out = grow(out, Math.max(1024, in.remaining() * 4));
+			}
+			int space = out.remaining();
+			int inflated = inflater.inflate(out);
+			// output buffer was not filled, so all available data was decompressed
+			if (inflated < space && inflater.needsInput()) {
+				break;
+			}
+			if (inflated == 0 && !inflater.needsInput() && out.hasRemaining()) {
+				throw new DataFormatException("Unable to decompress data");
+			}
+		}
+		return out;
+	}
+}
@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 
 /**
  * Class implements basic support for WebSocket protocol. It extends XMPPIOService so it can be used instead of
@@ -69,10 +70,18 @@ public class WebSocketXMPPIOService<RefObject>
 
 	/* static variables used by WebSocket protocol */
 
+	// buffers larger than that are not kept between reads
+	private static final int MAX_KEPT_BUFFER_SIZE = 64 * 1024;
+
 	private final WebSocketProtocolIfc[] protocols;
+	protected boolean frameCompressed = false;
+	protected boolean frameFin = true;
 	protected long frameLength = -1;
 	protected byte[] maskingKey = null;
-	private byte[] partialData = null;
+	protected boolean messageCompressed = false;
+	protected WebSocketPerMessageDeflate perMessageDeflate = null;
+	private ByteBuffer frameData = null;
+	private ByteBuffer partialData = null;
 	private WebSocketProtocolIfc protocol = null;
 	private boolean started = false;
 	// internal properties
@@ -88,6 +97,9 @@ public class WebSocketXMPPIOService<RefObject>
 	public void stop() {
 		protocol.closeConnection(this);
 		super.stop(); //To change body of generated methods, choose Tools | Templates.
+		if (perMessageDeflate != null) {
+			perMessageDeflate.end();
+		}
 	}
 
 	public void dumpHeaders(Map<String, String> headers) {
@@ -159,49 +171,29 @@ public class WebSocketXMPPIOService<RefObject>
 		}
 
 		// handling partialy decoded frame
-		if (partialData != null) {
-			ByteBuffer oldtmp = cb;
-			cb = ByteBuffer.allocate(partialData.length + oldtmp.remaining());
-			cb.order(oldtmp.order());
-			cb.put(partialData);
-			cb.put(oldtmp);
-			cb.flip();
-			oldtmp.clear();
-			partialData = null;
+		if (partialData != null && partialData.position() > 0) {
+			partialData = append(partialData, cb);
+			cb.clear();
+			partialData.flip();
+			cb = partialData;
 		}
 
 		if (state != State.handshaking) {
 
 			// data needs to be decoded fully not just first frame!!
-			ByteBuffer tmp = ByteBuffer.allocate(cb.remaining());
-			// here we got buffer overflow
-			ByteBuffer decoded = null;
-			while (cb.hasRemaining() && (decoded = decodeFrame(cb)) != null) {
-				//decoded = decodeFrame(cb);
-				if (decoded != null && decoded.hasRemaining()) {
-					tmp.put(decoded);
-				}
-			}
+			ByteBuffer decoded = decodeFrames(cb);
 
-			// handling data which were not decoded - not complete data
-			if (cb.hasRemaining()) {
-				partialData = new byte[cb.remaining()];
-				cb.get(partialData);
-			}
+			// data has to be decoded before data of not complete frame is moved in the buffer
+			char[] result = started ? decode(decoded) : null;
 
-			// compact buffer after reading all frames
-			cb.compact();
+			// handling data which were not decoded - not complete data
+			keepPartialData(cb);
 
-			if (tmp.capacity() > 0) {
-				tmp.flip();
-			}
-			cb = tmp;
-		}
-		if (started) {
-			return decode(cb);
+			return result;
 		}
 
 		if (!cb.hasRemaining()) {
+			keepPartialData(cb);
 			return null;
 		}
 
@@ -217,10 +209,10 @@ public class WebSocketXMPPIOService<RefObject>
 
 			cb.get(buf, 0, remaining);
 			//pos += read;
-			cb.compact();
 			int pos = remaining;
 			if ((pos > 100) && (((buf[pos - 1] == '\n') && (buf[pos - 1] == buf[pos - 3])) ||
 					((buf[pos - 9] == '\n') && (buf[pos - 9] == buf[pos - 11])))) {
+				keepPartialData(cb);
 				started = true;
 				processWebSocketHandshake(buf);
 				//websocket = true;
@@ -228,7 +220,8 @@ public class WebSocketXMPPIOService<RefObject>
 					state = State.handshaked;
 				}
 			} else {
-				partialData = buf;
+				cb.position(0);
+				keepPartialData(cb);
 			}
 		} catch (Exception ex) {
 			if (log.isLoggable(Level.FINE)) {
@@ -412,6 +405,97 @@ public class WebSocketXMPPIOService<RefObject>
 		return protocol.decodeFrame(this, buf);
 	}
 
+	/**
+	 * Decodes all complete frames from the buffer. Payload of a single uncompressed frame is returned as a view of the
+	 * input buffer, payloads of many frames or compressed frames are gathered in the buffer reused between reads.
+	 */
+	private ByteBuffer decodeFrames(ByteBuffer buf) throws IOException {
+		ByteBuffer single = null;
+		boolean gathered = false;
+		if (frameData != null) {
+			frameData.clear();
+		}
+
+		ByteBuffer decoded = null;
+		while (buf.hasRemaining() && (decoded = decodeFrame(buf)) != null) {
+			if (frameCompressed) {
+				gathered = true;
+				frameData = append(frameData, single);
+				single = null;
+				try {
+					frameData = perMessageDeflate.inflate(decoded, frameFin,
+														  frameData == null ? ByteBuffer.allocate(
+																  decoded.remaining() * 4 + 64) : frameData);
+				} catch (DataFormatException ex) {
+					throw new IOException("Invalid compressed WebSocket frame", ex);
+				}
+			} else if (decoded.hasRemaining()) {
+				if (single == null && !gathered) {
+					single = decoded;
+				} else {
+					gathered = true;
+					frameData = append(frameData, single);
+					frameData = append(frameData, decoded);
+					single = null;
+				}
+			}
+		}
+
+		if (single != null) {
+			return single;
+		}
+		if (!gathered) {
+			return ByteBuffer.allocate(0);
+		}
+		frameData.flip();
+		ByteBuffer result = frameData;
+		if (frameData.capacity() > MAX_KEPT_BUFFER_SIZE) {
+			frameData = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps remaining bytes of not complete frame (or HTTP request) until next read and prepares input buffer for the
+	 * next read.
+	 */
+	private void keepPartialData(ByteBuffer buf) {
+		if (buf == partialData) {
+			partialData.compact();
+			if (partialData.position() == 0 && partialData.capacity() > MAX_KEPT_BUFFER_SIZE) {
+				partialData = null;
+			}
+		} else {
+			if (buf.hasRemaining()) {
+				if (partialData != null) {
+					partialData.clear();
+				}
+				partialData = append(partialData, buf);
+			}
+			// compact buffer after reading all frames
+			buf.compact();
+		}
+	}
+
+	/**
+	 * Appends data to the buffer (in write mode) growing it if needed.
+	 */
+	private static ByteBuffer append(ByteBuffer buf, ByteBuffer data) {
+		if (data == null) {
+			return buf;
+		}
+		if (buf == null) {
+			buf = ByteBuffer.allocate(Math.max(1024, data.remaining()));
+		} else if (buf.remaining() < data.remaining()) {
+			ByteBuffer tmp = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + data.remaining()));
+			buf.flip();
+			tmp.put(buf);
+			buf = tmp;
+		}
+		buf.put(data);
+		return buf;
+	}
+
 	/**
 	 * Decode data from buffer to chars array
 	 */
@@ -46,6 +46,10 @@ import tigase.xmpp.jid.JID;
 
 import javax.net.ssl.TrustManager;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateEncodingException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -64,7 +68,8 @@ import java.util.zip.Deflater;
 @ClusterModeRequired(active = false)
 @ConfigAliases({@ConfigAlias(field = "delayPortListening", alias = "client-port-delay-listening")})
 public class ClientConnectionManager
-		extends ConnectionManager<XMPPIOService<Object>> {
+		extends ConnectionManager<XMPPIOService<Object>>
+		implements DirectDeliveryReceiver {
 
 	protected static final String FORCE_REDIRECT_TO_KEY = "force-redirect-to";
 	private static final Element FEATURE_PIPELINING = new Element("pipelining ", new String[]{"xmlns"},
@@ -120,6 +125,15 @@ public class ClientConnectionManager
 		}
 	}
 
+	@Override
+	public boolean isDirectDeliveryAllowed(Packet packet) {
+		JID to = packet.getPacketTo();
+
+		// all packets for user connections, including commands, so they are queued for the connection in order
+		return (to != null) && (to.getResource() != null) && getName().equals(to.getLocalpart()) &&
+				getDefHostName().getDomain().equals(to.getDomain());
+	}
+
 	@Override
 	public void processPacket(final Packet packet) {
 		if (log.isLoggable(Level.FINEST)) {
@@ -962,6 +976,40 @@ public class ClientConnectionManager
 
 	}
 
+	/**
+	 * Connections rejected on plain ports due to new connections throttling are redirected to other cluster node
+	 * selected by see-other-host strategy for the address of the client, so the client does not need to retry on the
+	 * same overloaded node.
+	 */
+	@Override
+	protected ByteBuffer getRejectResponse(Map<String, Object> port_props, SocketChannel sc) {
+		if (see_other_host_strategy == null ||
+				!SocketType.plain.toString().equals(String.valueOf(port_props.get(PORT_SOCKET_PROP_KEY)))) {
+			return null;
+		}
+		try {
+			InetSocketAddress remote = (InetSocketAddress) sc.getRemoteAddress();
+			if (remote == null) {
+				return null;
+			}
+			BareJID see_other_host = see_other_host_strategy.findHostForJID(
+					BareJID.bareJIDInstanceNS(remote.getAddress().getHostAddress()), getDefHostName());
+			if (see_other_host == null ||
+					!see_other_host_strategy.isRedirectionRequired(getDefHostName(), see_other_host)) {
+				return null;
+			}
+			String data = "<stream:stream" + " xmlns='" + XMLNS + "'" +
+					" xmlns:stream='http://etherx.jabber.org/streams'" + " id='tigase-error-tigase'" + " from='" +
+					getDefHostName() + "'" + " version='1.0' xml:lang='en'>" +
+					see_other_host_strategy.getStreamError("urn:ietf:params:xml:ns:xmpp-streams", see_other_host,
+														   null).toString() + "</stream:stream>";
+			return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+		} catch (Exception ex) {
+			log.log(Level.FINEST, "Could not prepare redirect for rejected connection " + sc, ex);
+			return null;
+		}
+	}
+
 	@Override
 	protected void socketAccepted(XMPPIOService serv, SocketType type) {
 		if (type == SocketType.ssl) {
@@ -20,6 +20,7 @@ package tigase.server.xmppclient;
 import tigase.eventbus.events.ShutdownEvent;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.selector.ClusterModeRequired;
+import tigase.util.routing.RendezvousHashing;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
@@ -48,15 +49,17 @@ public class SeeOtherHostHashed
 
 	@Override
 	public BareJID findHostForJID(BareJID jid, BareJID host) {
-		int hash = Math.abs(jid.hashCode());
-		if (defaultHost != null && !defaultHost.isEmpty() &&
-				connectedNodes.contains(defaultHost.get(hash % defaultHost.size()))) {
-			return defaultHost.get(hash % defaultHost.size());
-		} else if (connectedNodes.size() > 0) {
-			return connectedNodes.get(hash % connectedNodes.size());
-		} else {
-			return host;
+		// rendezvous hashing moves only users assigned to the node which joined or left the cluster
+		List<BareJID> nodes = this.connectedNodes;
+		BareJID result = null;
+		if (defaultHost != null && !defaultHost.isEmpty()) {
+			result = RendezvousHashing.select(jid.hashCode(), defaultHost, SeeOtherHostHashed::getNodeHash,
+											  nodes::contains);
 		}
+		if (result == null) {
+			result = RendezvousHashing.select(jid.hashCode(), nodes, SeeOtherHostHashed::getNodeHash, node -> true);
+		}
+		return result == null ? host : result;
 	}
 
 	@Override
@@ -94,6 +97,10 @@ public class SeeOtherHostHashed
 		}
 	}
 
+	private static long getNodeHash(BareJID node) {
+		return RendezvousHashing.hash(node.toString());
+	}
+
 	private List<BareJID> filterNodes(List<BareJID> list) {
 		Iterator<BareJID> it = list.iterator();
 		while (it.hasNext()) {
@@ -25,6 +25,7 @@ import tigase.net.SocketThread;
 import tigase.server.*;
 import tigase.stats.StatisticsList;
 import tigase.util.common.TimerTask;
+import tigase.util.common.XMPPDateTime;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
@@ -35,7 +36,6 @@ import tigase.xmpp.impl.MessageCarbons;
 import tigase.xmpp.jid.JID;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -84,13 +84,6 @@ public class StreamManagementIOProcessor
 
 	private static final Element[] FEATURES = {new Element("sm", new String[]{"xmlns"}, new String[]{XMLNS})};
 
-	private static final SimpleDateFormat formatter;
-
-	static {
-		formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
-
 	private final ConcurrentHashMap<String, XMPPIOService> services = new ConcurrentHashMap<String, XMPPIOService>();
 	@ConfigField(desc = "Number of sent packets after should ask for confirmation of delivery", alias = ACK_REQUEST_COUNT_KEY)
 	private int ack_request_count = DEF_ACK_REQUEST_COUNT_VAL;
@@ -691,10 +684,7 @@ public class StreamManagementIOProcessor
 			public Packet getPacketWithStamp() {
 				Packet result = packet.copyElementOnly();
 				if (result.getElemName() != Iq.ELEM_NAME && !result.isXMLNSStaticStr(DELAY_PATH, DELAY_XMLNS)) {
-					String stamp = null;
-					synchronized (formatter) {
-						stamp = formatter.format(this.stamp);
-					}
+					String stamp = XMPPDateTime.format(this.stamp);
 					String from = null;
 					if (packet.getStanzaTo() != null) {
 						from = packet.getStanzaTo().getDomain();
@@ -481,9 +481,15 @@ public class CIDConnections {
 	private void checkOpenConnections() {
 		if (outgoingOpenInProgress.compareAndSet(false, true)) {
 			if (log.isLoggable(Level.FINEST)) {
-				log.log(Level.FINEST, "Scheduling task for openning a new connection for: {0}", cid);
+				log.log(Level.FINEST, "Resolving DNS and scheduling task for openning a new connection for: {0}", cid);
 			}
-			connectionsOpenerService.schedule(new Runnable() {
+
+			// using additional domain name mapping to allow usage of intermediate server
+			final String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
+
+			// DNS lookup is executed by resolver threads, so a slow DNS server does not block opener threads
+			resolveServerName(serverName).whenComplete(
+					(dns_entries, error) -> connectionsOpenerService.schedule(new Runnable() {
 				@Override
 				public void run() {
 					boolean result = false;
@@ -492,7 +498,7 @@ public class CIDConnections {
 						if (log.isLoggable(Level.FINEST)) {
 							log.log(Level.FINEST, "Running scheduled task for openning a new connection for: {0}", cid);
 						}
-						result = openOutgoingConnections();
+						result = openOutgoingConnections(serverName, dns_entries, error);
 					} catch (Exception e) {
 						log.log(Level.WARNING, "uncaughtException in the connection opening thread: ", e);
 					} finally {
@@ -501,7 +507,7 @@ public class CIDConnections {
 						outgoingOpenInProgress.set(false);
 					}
 				}
-			}, 0, TimeUnit.MILLISECONDS);
+			}, 0, TimeUnit.MILLISECONDS));
 		} else {
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Outgoing open in progress, skipping for: {0}", cid);
@@ -548,7 +554,28 @@ public class CIDConnections {
 		handler.initNewConnection(port_props);
 	}
 
-	private boolean openOutgoingConnections() {
+	private CompletableFuture<DNSEntry[]> resolveServerName(String serverName) {
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Checking DNS for host: {0} for: {1}", new Object[]{cid.getRemoteHost(), cid});
+		}
+
+		// During TTS automated tests we send ping for 200 non-existen domains. On some
+		// configurations DNS check for 200 non-existen domains takes forever, so here we
+		// have a shortcut to speed the test up.
+		// To be sure we do this only for vhosts without a '.' character which are used
+		// during TTS tests.
+		if (testMode) {
+			if (cid.getRemoteHost().startsWith("vhost-") && !cid.getRemoteHost().contains(".")) {
+				CompletableFuture<DNSEntry[]> result = new CompletableFuture<>();
+				result.completeExceptionally(new UnknownHostException(cid.getRemoteHost()));
+				return result;
+			}
+		}
+
+		return handler.getDNSResolver().resolve(serverName);
+	}
+
+	private boolean openOutgoingConnections(String serverName, DNSEntry[] dns_entries, Throwable error) {
 		boolean result = false;
 
 		try {
@@ -582,27 +609,15 @@ public class CIDConnections {
 
 				return result;
 			}
-			if (log.isLoggable(Level.FINEST)) {
-				log.log(Level.FINEST, "Checking DNS for host: {0} for: {1}", new Object[]{cid.getRemoteHost(), cid});
+			if (error instanceof CompletionException && error.getCause() != null) {
+				error = error.getCause();
 			}
-
-			// During TTS automated tests we send ping for 200 non-existen domains. On some
-			// configurations DNS check for 200 non-existen domains takes forever, so here we
-			// have a shortcut to speed the test up.
-			// To be sure we do this only for vhosts without a '.' character which are used
-			// during TTS tests.
-			if (testMode) {
-				if (cid.getRemoteHost().startsWith("vhost-") && !cid.getRemoteHost().contains(".")) {
-					throw new UnknownHostException(cid.getRemoteHost());
-				}
+			if (error instanceof UnknownHostException) {
+				throw (UnknownHostException) error;
+			} else if (error != null) {
+				throw (UnknownHostException) new UnknownHostException(cid.getRemoteHost()).initCause(error);
 			}
 
-			// using additional domain name mapping to allow usage of intermediate server
-			String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
-
-			// Check DNS entries
-			DNSEntry[] dns_entries = DNSResolverFactory.getInstance().getHostSRV_Entries(serverName);
-
 			// Activate 'missing' connections
 			for (DNSEntry dNSEntry : dns_entries) {
 				for (String ip : dNSEntry.getIps()) {
@@ -51,6 +51,8 @@ public interface S2SConnectionHandlerIfc<IO extends XMPPIOService<?>> {
 
 	CIDConnections.CIDConnectionsOpenerService getConnectionOpenerService();
 
+	S2SDNSResolver getDNSResolver();
+
 	BareJID getDefHostName();
 
 	/**
@@ -108,6 +108,8 @@ public class S2SConnectionManager
 	 * servers to which we should connect.
 	 */
 	@Inject
+	private S2SDNSResolver dnsResolver;
+	@Inject
 	private DomainServerNameMapper domainServerNameMapper;
 	@Inject
 	private List<S2SFilterIfc> filters = Collections.emptyList();
@@ -487,6 +489,11 @@ public class S2SConnectionManager
 		return cidConnectionsOpenerService;
 	}
 
+	@Override
+	public S2SDNSResolver getDNSResolver() {
+		return dnsResolver;
+	}
+
 	@Override
 	public String getDiscoCategoryType() {
 		return "s2s";
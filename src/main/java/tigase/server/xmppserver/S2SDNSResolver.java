@@ -0,0 +1,290 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppserver;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.stats.ComponentStatisticsProvider;
+import tigase.stats.StatisticsList;
+import tigase.util.dns.DNSEntry;
+import tigase.util.dns.DNSResolverFactory;
+
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous resolver of SRV records of remote servers with a cache.
+ * <br>
+ * Results of lookups are cached for the time to live of the returned records (limited by <code>minTtl</code> and
+ * <code>maxTtl</code>), and failed lookups are cached for <code>negativeTtl</code>. Concurrent lookups for the same
+ * domain are coalesced into a single query to the {@link Backend}, and entries which are used close to their expiration
+ * are refreshed in the background, so frequently used domains do not wait for DNS at all.
+ */
+@Bean(name = "dnsResolver", parent = S2SConnectionManager.class, active = true)
+public class S2SDNSResolver
+		implements ComponentStatisticsProvider, UnregisterAware {
+
+	private static final Logger log = Logger.getLogger(S2SDNSResolver.class.getName());
+
+	private final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final ConcurrentHashMap<String, CompletableFuture<DNSEntry[]>> inProgress = new ConcurrentHashMap<>();
+	private final LongAdder latency = new LongAdder();
+	private final LongAdder lookups = new LongAdder();
+	private final LongAccumulator maxLatency = new LongAccumulator(Long::max, 0);
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder negativeHits = new LongAdder();
+	private final LongAdder refreshes = new LongAdder();
+	private Backend backend = domain -> DNSResolverFactory.getInstance().getHostSRV_Entries(domain);
+	@ConfigField(desc = "Maximal time to wait for DNS lookup by blocking callers", alias = "dns-blocking-timeout")
+	private Duration blockingTimeout = Duration.ofSeconds(2);
+	private ExecutorService executor;
+	@ConfigField(desc = "Maximal time for which DNS records are cached", alias = "dns-max-ttl")
+	private Duration maxTtl = Duration.ofHours(1);
+	@ConfigField(desc = "Minimal time for which DNS records are cached", alias = "dns-min-ttl")
+	private Duration minTtl = Duration.ofSeconds(30);
+	@ConfigField(desc = "Time for which failed DNS lookups are cached", alias = "dns-negative-ttl")
+	private Duration negativeTtl = Duration.ofMinutes(1);
+	@ConfigField(desc = "Part of TTL before expiration in which used DNS records are refreshed", alias = "dns-refresh-ahead")
+	private double refreshAhead = 0.2;
+	@ConfigField(desc = "Number of threads used for DNS lookups", alias = "dns-resolver-threads")
+	private int threads = 4;
+
+	public S2SDNSResolver() {
+		setThreads(threads);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public void everyHour() {
+	}
+
+	/**
+	 * Removes expired entries which were not refreshed as they were not used.
+	 */
+	@Override
+	public void everyMinute() {
+		long now = System.currentTimeMillis();
+		Iterator<CacheEntry> it = cache.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().expires <= now) {
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public void everySecond() {
+	}
+
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	public long getHitsCount() {
+		return hits.sum();
+	}
+
+	public long getLookupsCount() {
+		return lookups.sum();
+	}
+
+	public long getNegativeHitsCount() {
+		return negativeHits.sum();
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		long count = lookups.sum();
+		list.add(compName, "DNS cache size", cache.size(), Level.FINE);
+		list.add(compName, "DNS cache hits", hits.sum(), Level.FINE);
+		list.add(compName, "DNS cache negative hits", negativeHits.sum(), Level.FINER);
+		list.add(compName, "DNS cache misses", misses.sum(), Level.FINE);
+		list.add(compName, "DNS coalesced lookups", coalesced.sum(), Level.FINER);
+		list.add(compName, "DNS background refreshes", refreshes.sum(), Level.FINER);
+		list.add(compName, "DNS lookups", count, Level.FINE);
+		list.add(compName, "DNS failed lookups", failures.sum(), Level.FINE);
+		list.add(compName, "Average DNS lookup time [ms]", count == 0 ? 0 : latency.sum() / count / 1000000,
+				 Level.FINE);
+		list.add(compName, "Maximal DNS lookup time [ms]", maxLatency.get() / 1000000, Level.FINER);
+	}
+
+	/**
+	 * Returns SRV records for the domain. Future is completed immediately if records are cached, otherwise lookup is
+	 * executed (or joined if already in progress) by the resolver threads. Future fails with
+	 * <code>UnknownHostException</code> if domain could not be resolved.
+	 */
+	public CompletableFuture<DNSEntry[]> resolve(String domain) {
+		long now = System.currentTimeMillis();
+		CacheEntry entry = cache.get(domain);
+		if (entry != null && entry.expires > now) {
+			if (entry.error != null) {
+				negativeHits.increment();
+				CompletableFuture<DNSEntry[]> result = new CompletableFuture<>();
+				result.completeExceptionally(entry.error);
+				return result;
+			}
+			hits.increment();
+			if (entry.refreshAt <= now && !inProgress.containsKey(domain)) {
+				refreshes.increment();
+				lookup(domain);
+			}
+			return CompletableFuture.completedFuture(entry.entries);
+		}
+		misses.increment();
+		return lookup(domain);
+	}
+
+	/**
+	 * Returns SRV records for the domain waiting for the lookup at most <code>blockingTimeout</code>. Should be used
+	 * only by code which is not able to continue processing asynchronously.
+	 */
+	public DNSEntry[] resolveBlocking(String domain) throws UnknownHostException {
+		try {
+			return resolve(domain).get(blockingTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof UnknownHostException) {
+				throw (UnknownHostException) ex.getCause();
+			}
+			throw (UnknownHostException) new UnknownHostException(domain).initCause(ex.getCause());
+		} catch (TimeoutException ex) {
+			throw new UnknownHostException("DNS lookup timed out for domain: " + domain);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new UnknownHostException("DNS lookup interrupted for domain: " + domain);
+		}
+	}
+
+	/**
+	 * Replaces source of DNS records, ie. to use resolver without access to the network.
+	 */
+	public void setBackend(Backend backend) {
+		this.backend = backend;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		ExecutorService old = this.executor;
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(this.threads, r -> {
+			Thread t = new Thread(r, "s2s-dns-resolver-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		if (old != null) {
+			old.shutdown();
+		}
+	}
+
+	private CompletableFuture<DNSEntry[]> lookup(String domain) {
+		CompletableFuture<DNSEntry[]> future = new CompletableFuture<>();
+		CompletableFuture<DNSEntry[]> existing = inProgress.putIfAbsent(domain, future);
+		if (existing != null) {
+			coalesced.increment();
+			return existing;
+		}
+		try {
+			executor.execute(() -> execute(domain, future));
+		} catch (RejectedExecutionException ex) {
+			inProgress.remove(domain, future);
+			future.completeExceptionally(new UnknownHostException("DNS resolver is stopped"));
+		}
+		return future;
+	}
+
+	private void execute(String domain, CompletableFuture<DNSEntry[]> future) {
+		long start = System.nanoTime();
+		lookups.increment();
+		try {
+			DNSEntry[] entries = backend.getHostSRV_Entries(domain);
+			if (entries == null || entries.length == 0) {
+				throw new UnknownHostException(domain);
+			}
+			cache.put(domain, new CacheEntry(entries, null, getTtl(entries)));
+			inProgress.remove(domain, future);
+			future.complete(entries);
+		} catch (UnknownHostException ex) {
+			failures.increment();
+			cache.put(domain, new CacheEntry(null, ex, negativeTtl.toMillis()));
+			inProgress.remove(domain, future);
+			future.completeExceptionally(ex);
+		} catch (Throwable ex) {
+			failures.increment();
+			log.log(Level.FINE, "DNS lookup failed for domain: " + domain, ex);
+			inProgress.remove(domain, future);
+			future.completeExceptionally(ex);
+		} finally {
+			long time = System.nanoTime() - start;
+			latency.add(time);
+			maxLatency.accumulate(time);
+		}
+	}
+
+	private long getTtl(DNSEntry[] entries) {
+		long ttl = Long.MAX_VALUE;
+		for (DNSEntry entry : entries) {
+			ttl = Math.min(ttl, entry.getTtl());
+		}
+		return Math.min(maxTtl.toMillis(), Math.max(minTtl.toMillis(), ttl));
+	}
+
+	/**
+	 * Source of DNS records used by the resolver. By default records are retrieved using {@link DNSResolverFactory}.
+	 */
+	@FunctionalInterface
+	public interface Backend {
+
+		DNSEntry[] getHostSRV_Entries(String domain) throws UnknownHostException;
+
+	}
+
+	private class CacheEntry {
+
+		private final DNSEntry[] entries;
+		private final UnknownHostException error;
+		private final long expires;
+		private final long refreshAt;
+
+		CacheEntry(DNSEntry[] entries, UnknownHostException error, long ttl) {
+			long now = System.currentTimeMillis();
+			this.entries = entries;
+			this.error = error;
+			this.expires = now + ttl;
+			this.refreshAt = error != null ? expires : expires - (long) (ttl * refreshAhead);
+		}
+	}
+}
@@ -18,14 +18,15 @@
 package tigase.server.xmppserver.proc;
 
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
 import tigase.server.xmppserver.CID;
 import tigase.server.xmppserver.S2SConnectionHandlerIfc;
 import tigase.server.xmppserver.S2SConnectionManager;
+import tigase.server.xmppserver.S2SDNSResolver;
 import tigase.server.xmppserver.S2SIOService;
 import tigase.util.dns.DNSEntry;
-import tigase.util.dns.DNSResolverFactory;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -58,6 +59,8 @@ public class PacketChecker
 	private Map<String, String[]> allowedOtherDomainsMap = new ConcurrentHashMap<String, String[]>();
 	@ConfigField(desc = "Whitelist to allow packets from other domains with same IP")
 	private String[] allowedOtherDomainsWithSameIpWhitelist = null;
+	@Inject
+	private S2SDNSResolver dnsResolver;
 
 	@Override
 	public void init(S2SConnectionHandlerIfc<S2SIOService> handler, Map<String, Object> props) {
@@ -161,7 +164,8 @@ public class PacketChecker
 						Arrays.binarySearch(allowedOtherDomainsWithSameIpWhitelist, domain) >= 0) {
 
 					try {
-						DNSEntry[] entries = DNSResolverFactory.getInstance().getHostSRV_Entries(domain);
+						// cached by the resolver, waits only for a first lookup of the domain
+						DNSEntry[] entries = dnsResolver.resolveBlocking(domain);
 						if (entries != null) {
 							String remoteAddress = serv.getRemoteAddress();
 							for (DNSEntry entry : entries) {
@@ -31,6 +31,7 @@ import tigase.db.AuthRepository;
 import tigase.db.NonAuthUserRepository;
 import tigase.db.TigaseDBException;
 import tigase.db.UserRepository;
+import tigase.disco.ServiceEntity;
 import tigase.disco.XMPPService;
 import tigase.eventbus.EventBus;
 import tigase.eventbus.EventBusFactory;
@@ -44,6 +45,7 @@ import tigase.kernel.beans.selector.ClusterModeRequired;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.net.AdmissionControl;
 import tigase.server.*;
 import tigase.server.script.CommandIfc;
 import tigase.stats.MaxDailyCounterQueue;
@@ -61,6 +63,7 @@ import tigase.vhosts.VHostItemImpl;
 import tigase.xml.Element;
 import tigase.xmpp.*;
 import tigase.xmpp.impl.C2SDeliveryErrorProcessor;
+import tigase.xmpp.impl.CapsCache;
 import tigase.xmpp.impl.PresenceCapabilitiesManager;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
@@ -75,6 +78,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -130,6 +134,12 @@ public class SessionManager
 	private DefaultHandlerProc defHandlerProc = null;
 	private PacketDefaultHandler defPacketHandler = new PacketDefaultHandler();
 	private String defPluginsThreadsPool = "default-threads-pool";
+	private final LongAdder directDeliveries = new LongAdder();
+	@Inject(nullAllowed = true)
+	private Set<DirectDeliveryReceiver> directDeliveryReceivers;
+	private Map<String, DirectDeliveryReceiver> directDeliveryReceiversByName = Collections.emptyMap();
+	@ConfigField(desc = "Deliver packets to local user connections without passing them through the router", alias = "direct-local-delivery")
+	private boolean directLocalDelivery = false;
 	// Can not inject eventBus as it is used before injection is done
 	// TODO - Maybe we should allow autoregistration for event bus so that every
 	// annotated bean instance would be registered to eventbus?
@@ -176,6 +186,8 @@ public class SessionManager
 	private SessionOpenProc sessionOpenProc = null;
 	@ConfigField(desc = "Include CAPS in stream features")
 	private boolean includeCapsInStream = true;
+	@ConfigField(desc = "Maximal number of entity capabilities nodes kept in memory", alias = "caps-cache-size")
+	private int capsCacheSize = CapsCache.DEF_MAX_NODES;
 	@ConfigField(desc = "Skip privacy check", alias = SessionManagerConfig.SKIP_PRIVACY_PROP_KEY)
 	private boolean skipPrivacy = false;
 	private SMResourceConnection smResourceConnection = null;
@@ -204,6 +216,13 @@ public class SessionManager
 		if (packet.getPacketFrom() == null) {
 			packet.setPacketFrom(getComponentId());
 		}
+		if (directLocalDelivery) {
+			DirectDeliveryReceiver receiver = getDirectDeliveryReceiver(packet);
+			if (receiver != null) {
+				directDeliveries.increment();
+				return addOutPacketDirect(packet, receiver);
+			}
+		}
 
 		return super.addOutPacket(packet);
 	}
@@ -212,6 +231,9 @@ public class SessionManager
 			throws ClassNotFoundException, InstantiationException, IllegalAccessException, TigaseDBException {
 		String version;
 
+		// packets keep processors which handled them as indexes of registered identifiers
+		PacketProcessorIds.register(proc.id());
+
 		boolean loaded = false;
 		if (proc instanceof XMPPProcessorIfc) {
 			int threadsNo = proc.concurrentQueuesNo();
@@ -258,6 +280,7 @@ public class SessionManager
 				}
 			}
 			processors.put(proc.id(), (XMPPProcessorIfc) proc);
+			ServiceEntity.discoChanged();
 			log.log(Level.CONFIG, "Added processor: {0} for plugin id: {1}",
 					new Object[]{proc.getClass().getSimpleName(), proc.id()});
 			loaded = true;
@@ -436,6 +459,11 @@ public class SessionManager
 		binds.put("eventBus", eventBus);
 	}
 
+	@Override
+	public boolean isFlightRecorded() {
+		return true;
+	}
+
 	@Override
 	public int processingInThreads() {
 		return Runtime.getRuntime().availableProcessors() * 16;
@@ -486,6 +514,7 @@ public class SessionManager
 		if (pt != null) {
 			p = processors.remove(plug_id);
 			pt.shutdown();
+			ServiceEntity.discoChanged();
 			if (p != null) {
 				allPlugins.remove(p);
 			}
@@ -522,10 +551,13 @@ public class SessionManager
 			addTimerTask(staleConnectionCloser, staleConnectionCloser.getTimeout());
 		}
 		eventBus.registerAll(this);
+		AdmissionControl.getInstance()
+				.addLoadSignal(getName() + " queue", () -> getInQueueSize() / (double) getMaxInQueueSize());
 	}
 
 	@Override
 	public void stop() {
+		AdmissionControl.getInstance().removeLoadSignal(getName() + " queue");
 		eventBus.unregisterAll(this);
 		super.stop();
 		List<String> pluginsToStop = new ArrayList<String>(workerThreads.keySet());
@@ -666,6 +698,9 @@ public class SessionManager
 		list.add(getName(), "Total user sessions", totalUserSessions, Level.FINER);
 		list.add(getName(), "Active user connections", activeUserNumber, Level.FINER);
 		list.add(getName(), "Authentication timouts", authTimeouts, Level.INFO);
+		if (directLocalDelivery) {
+			list.add(getName(), "Direct local deliveries", directDeliveries.sum(), Level.FINE);
+		}
 		if (list.checkLevel(Level.INFO)) {
 			int totalQueuesWait = list.getValue(getName(), "Total queues wait", 0);
 			long totalQueuesOverflow = list.getValue(getName(), "Total queues overflow", 0l);
@@ -702,6 +737,7 @@ public class SessionManager
 
 		list.add(getName(), "Max daily users sessions count last month", maxDailyUsersSessions, Level.INFO);
 		list.add(getName(), "Max users sessions within last week", maxDailyUsersConnectionsWithinLastWeek, Level.INFO);
+		PresenceCapabilitiesManager.getStatistics(getName(), list);
 
 		for (XMPPImplIfc plugin : allPlugins) {
 			plugin.getStatistics(list);
@@ -728,6 +764,11 @@ public class SessionManager
 		TigaseRuntime.getTigaseRuntime().addOnlineJidsReporter(this);
 	}
 
+	public void setCapsCacheSize(int capsCacheSize) {
+		this.capsCacheSize = capsCacheSize;
+		PresenceCapabilitiesManager.setMaxNodes(capsCacheSize);
+	}
+
 	public void setAllPlugins(ConcurrentSkipListSet<XMPPImplIfc> allPlugins) {
 		ConcurrentSkipListSet<XMPPImplIfc> oldPlugins = this.allPlugins;
 		HashSet<XMPPImplIfc> removed = new HashSet<>(oldPlugins);
@@ -746,6 +787,17 @@ public class SessionManager
 		}
 	}
 
+	public void setDirectDeliveryReceivers(Set<DirectDeliveryReceiver> receivers) {
+		Map<String, DirectDeliveryReceiver> byName = new HashMap<>();
+		if (receivers != null) {
+			for (DirectDeliveryReceiver receiver : receivers) {
+				byName.put(receiver.getName(), receiver);
+			}
+		}
+		this.directDeliveryReceivers = receivers;
+		this.directDeliveryReceiversByName = byName;
+	}
+
 	public void setSmThreadsPool(String val) {
 		this.smThreadsPool = val;
 		if (!SM_THREADS_POOL_PROP_VAL.equals(val)) {
@@ -1079,6 +1131,23 @@ public class SessionManager
 		return connection;
 	}
 
+	/**
+	 * Finds local connection manager which accepts the packet for a user connection directly.
+	 *
+	 * @return connection manager or <code>null</code> if packet needs to be put to the output queue
+	 */
+	protected DirectDeliveryReceiver getDirectDeliveryReceiver(Packet packet) {
+		JID to = packet.getPacketTo();
+
+		if ((to == null) || (to.getLocalpart() == null)) {
+			return null;
+		}
+
+		DirectDeliveryReceiver receiver = directDeliveryReceiversByName.get(to.getLocalpart());
+
+		return ((receiver != null) && receiver.isDirectDeliveryAllowed(packet)) ? receiver : null;
+	}
+
 	protected boolean delTrusted(JID jid) {
 		return trusted.remove(jid.getBareJID().toString());
 	}
@@ -2272,10 +2341,11 @@ public class SessionManager
 				if (pt == null) {
 					pt = workerThreads.get(defPluginsThreadsPool);
 				}
+				int procIdx = PacketProcessorIds.getIndex(processor.id());
 				if (pt.addItem(processor, packet, connection)) {
-					packet.processedBy(processor.id());
+					packet.processedBy(procIdx);
 				} else {
-					packet.notProcessedBy(processor.id());
+					packet.notProcessedBy(procIdx);
 					// proc_t.debugQueue();
 					if (log.isLoggable(Level.FINE)) {
 						log.log(Level.FINE, "Can not add packet: {0} to processor: {1} internal queue full.",
@@ -0,0 +1,142 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations (in nanoseconds) used to calculate percentiles of processing times.
+ * <br>
+ * Values are counted in logarithmic buckets, each power of 2 is split into 8 buckets, so reported percentiles are
+ * upper bounds of buckets and are at most 12.5% higher than real values. Recording a value takes an atomic increment
+ * of its bucket, an addition to a <code>LongAdder</code> with the total and, only when a new maximum is seen, a CAS
+ * of the maximum. No locks are taken, so it may be done on every call of a monitored method.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * Returns index of the bucket in which value is counted.
+	 */
+	public static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return value < 0 ? 0 : (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest value counted in the bucket.
+	 */
+	public static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	/**
+	 * Calculates percentile from counts of values in buckets.
+	 *
+	 * @param counts counts returned by {@link #getCounts()} or difference between them
+	 * @param percentile requested percentile, ie. <code>0.99</code>
+	 *
+	 * @return upper bound of the bucket containing the percentile or <code>0</code> if there are no values
+	 */
+	public static long getPercentile(long[] counts, double percentile) {
+		long count = 0;
+		for (long c : counts) {
+			count += c;
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return bucketUpperBound(i);
+			}
+		}
+		return bucketUpperBound(counts.length - 1);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns copy of current counts of values in buckets.
+	 */
+	public long[] getCounts() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = counts.get(i);
+		}
+		return result;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getPercentile(double percentile) {
+		long result = getPercentile(getCounts(), percentile);
+		// upper bound of the bucket may be higher than any recorded value
+		return Math.min(result, getMax());
+	}
+
+	/**
+	 * Returns sum of all recorded values.
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketIndex(value));
+		total.add(value);
+
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+}
@@ -17,22 +17,36 @@
  */
 package tigase.stats;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Generic class used by MD connection pools and repositories to wrap and measure method execution times.
  * <br>
+ * Methods of the wrapped instance are called using method handles bound to the instance when the handler is created,
+ * so calls are not done using reflection. Execution times are measured with nanosecond precision and collected in
+ * histograms, so percentiles of execution times are reported for each method.
+ * <br>
  * Created by andrzej on 15.12.2016.
  */
 public class StatisticsInvocationHandler<S>
 		implements InvocationHandler {
 
+	private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+	private static final Object[] NO_ARGS = new Object[0];
+	private static final Logger log = Logger.getLogger(StatisticsInvocationHandler.class.getName());
+
 	private final S instance;
+	private final ConcurrentHashMap<Method, Invoker> invokers = new ConcurrentHashMap<>();
 	private final Class[] monitoredIfcs;
 	private final String name;
 	private final ConcurrentHashMap<Method, MethodStatistics> statistics = new ConcurrentHashMap<>();
@@ -43,7 +57,9 @@ public class StatisticsInvocationHandler<S>
 		this.monitoredIfcs = monitoredIfcs;
 		for (Class clazz : this.monitoredIfcs) {
 			for (Method m : clazz.getDeclaredMethods()) {
-				statistics.put(m, new MethodStatistics(m));
+				MethodStatistics methodStatistics = new MethodStatistics(m);
+				statistics.put(m, methodStatistics);
+				invokers.put(m, new Invoker(instance, m, methodStatistics));
 			}
 		}
 	}
@@ -67,26 +83,56 @@ public class StatisticsInvocationHandler<S>
 
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		MethodStatistics methodStatistics = statistics.get(method);
-		if (methodStatistics != null) {
-			long start = System.currentTimeMillis();
+		Invoker invoker = invokers.get(method);
+		if (invoker == null) {
+			// methods which are not monitored, ie. methods of Object class
+			invoker = invokers.computeIfAbsent(method, m -> new Invoker(instance, m, null));
+		}
+
+		MethodStatistics methodStatistics = invoker.statistics;
+		if (methodStatistics == null) {
+			return invoker.invoke(args);
+		}
+
+		long start = System.nanoTime();
+		try {
+			return invoker.invoke(args);
+		} catch (Throwable ex) {
+			methodStatistics.executionFailed();
+			throw ex;
+		} finally {
+			methodStatistics.executionCompleted(System.nanoTime() - start);
+		}
+	}
+
+	private static class Invoker {
+
+		private final MethodHandle handle;
+		private final Object instance;
+		private final Method method;
+		private final MethodStatistics statistics;
 
+		private Invoker(Object instance, Method method, MethodStatistics statistics) {
+			this.instance = instance;
+			this.method = method;
+			this.statistics = statistics;
+			MethodHandle handle = null;
 			try {
-				return method.invoke(this.instance, args);
-			} catch (Throwable ex) {
-				methodStatistics.executionFailed();
-				if (ex instanceof UndeclaredThrowableException) {
-					ex = ((UndeclaredThrowableException) ex).getUndeclaredThrowable();
-				}
-				if (ex instanceof InvocationTargetException) {
-					throw ((InvocationTargetException) ex).getTargetException();
-				} else {
-					throw ex;
-				}
-			} finally {
-				methodStatistics.updateExecutionTime(System.currentTimeMillis() - start);
+				handle = MethodHandles.publicLookup()
+						.unreflect(method)
+						.bindTo(instance)
+						.asSpreader(Object[].class, method.getParameterCount())
+						.asType(INVOKER_TYPE);
+			} catch (IllegalAccessException | IllegalArgumentException ex) {
+				log.log(Level.FINEST, "Could not create method handle for " + method + ", using reflection", ex);
+			}
+			this.handle = handle;
+		}
+
+		private Object invoke(Object[] args) throws Throwable {
+			if (handle != null) {
+				return (Object) handle.invokeExact(args == null ? NO_ARGS : args);
 			}
-		} else {
 			try {
 				return method.invoke(this.instance, args);
 			} catch (Throwable ex) {
@@ -104,12 +150,16 @@ public class StatisticsInvocationHandler<S>
 
 	public static class MethodStatistics {
 
+		private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+		private static final String[] PERCENTILES_NAMES = {"p50", "p99", "p999"};
+
+		private final LongAdder exceptions_counter = new LongAdder();
+		private final LatencyHistogram histogram = new LatencyHistogram();
 		private final Method method;
-		private long avgProcessingTime = 0;
-		private long exceptions_counter = 0;
-		private long executions_counter = 0;
 		private long last_hour_counter = 0;
+		private long[] last_minute_counts = null;
 		private long last_minute_counter = 0;
+		private long[] last_minute_percentiles = new long[PERCENTILES.length];
 		private long last_second_counter = 0;
 		private long per_hour = 0;
 		private long per_minute = 0;
@@ -120,16 +170,38 @@ public class StatisticsInvocationHandler<S>
 		}
 
 		public synchronized void everyHour() {
+			long executions_counter = histogram.getCount();
 			per_hour = executions_counter - last_hour_counter;
 			last_hour_counter = executions_counter;
 		}
 
 		public synchronized void everyMinute() {
+			long[] counts = histogram.getCounts();
+			long executions_counter = 0;
+			for (int i = 0; i < counts.length; i++) {
+				executions_counter += counts[i];
+			}
 			per_minute = executions_counter - last_minute_counter;
 			last_minute_counter = executions_counter;
+
+			// percentiles are calculated only from executions during last minute
+			long[] minuteCounts = counts.clone();
+			if (last_minute_counts != null) {
+				for (int i = 0; i < minuteCounts.length; i++) {
+					minuteCounts[i] -= last_minute_counts[i];
+				}
+			}
+			last_minute_counts = counts;
+			long[] percentiles = new long[PERCENTILES.length];
+			long max = histogram.getMax();
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				percentiles[i] = Math.min(LatencyHistogram.getPercentile(minuteCounts, PERCENTILES[i]), max);
+			}
+			last_minute_percentiles = percentiles;
 		}
 
 		public synchronized void everySecond() {
+			long executions_counter = histogram.getCount();
 			per_second = executions_counter - last_second_counter;
 			last_second_counter = executions_counter;
 		}
@@ -141,18 +213,56 @@ public class StatisticsInvocationHandler<S>
 				list.add(compName, prefix + "/" + name + "/Excutions last minute", per_minute, Level.FINEST);
 				list.add(compName, prefix + "/" + name + "/Excutions last second", per_second, Level.FINEST);
 			}
-			list.add(compName, prefix + "/" + name + "/Average processing time", avgProcessingTime, Level.FINE);
-			list.add(compName, prefix + "/" + name + "/Executions", executions_counter, Level.FINE);
-			list.add(compName, prefix + "/" + name + "/Exceptions during execution", exceptions_counter, Level.FINE);
+			if (list.checkLevel(Level.FINE)) {
+				long executions_counter = getExecutions();
+				list.add(compName, prefix + "/" + name + "/Average processing time",
+						 getAverageProcessingTime() / 1000_000, Level.FINE);
+				list.add(compName, prefix + "/" + name + "/Average processing time [us]",
+						 getAverageProcessingTime() / 1000, Level.FINE);
+				long[] percentiles = last_minute_percentiles;
+				for (int i = 0; i < PERCENTILES.length; i++) {
+					list.add(compName, prefix + "/" + name + "/Processing time last minute " + PERCENTILES_NAMES[i] +
+							" [us]", percentiles[i] / 1000, Level.FINE);
+				}
+				list.add(compName, prefix + "/" + name + "/Maximal processing time [us]", histogram.getMax() / 1000,
+						 Level.FINE);
+				list.add(compName, prefix + "/" + name + "/Executions", executions_counter, Level.FINE);
+				list.add(compName, prefix + "/" + name + "/Exceptions during execution", exceptions_counter.sum(),
+						 Level.FINE);
+			}
+		}
+
+		/**
+		 * Returns average execution time in nanoseconds.
+		 */
+		public long getAverageProcessingTime() {
+			long executions = histogram.getCount();
+			return executions == 0 ? 0 : histogram.getTotal() / executions;
+		}
+
+		public long getExecutions() {
+			return histogram.getCount();
+		}
+
+		public long getExceptions() {
+			return exceptions_counter.sum();
+		}
+
+		public LatencyHistogram getHistogram() {
+			return histogram;
 		}
 
-		public void updateExecutionTime(long executionTime) {
-			executions_counter++;
-			avgProcessingTime = (avgProcessingTime + executionTime) / 2;
+		/**
+		 * Records execution of the method.
+		 *
+		 * @param executionTime execution time in nanoseconds
+		 */
+		public void executionCompleted(long executionTime) {
+			histogram.record(executionTime);
 		}
 
 		public void executionFailed() {
-			exceptions_counter++;
+			exceptions_counter.increment();
 		}
 
 	}
@@ -0,0 +1,290 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.common;
+
+import java.text.ParseException;
+import java.util.Date;
+
+/**
+ * Thread safe formatting and parsing of date and time profiles defined in
+ * <a href="https://xmpp.org/extensions/xep-0082.html">XEP-0082: XMPP Date and Time Profiles</a>, to be used instead of
+ * <code>SimpleDateFormat</code> instances shared by processing threads.
+ * <br>
+ * Timestamps are always formatted in UTC as <code>CCYY-MM-DDThh:mm:ss.sssZ</code>. The part up to seconds changes
+ * only once per second, so it is cached and only milliseconds are written for each call. The cache is an immutable
+ * object published through a volatile field, so there are no locks and a call allocates only the resulting string.
+ * <br>
+ * Parsing is hand written and accepts <code>Date</code> (<code>CCYY-MM-DD</code>), <code>DateTime</code>
+ * (<code>CCYY-MM-DDThh:mm:ss[.sss]TZD</code>) and <code>Time</code> (<code>hh:mm:ss[.sss][TZD]</code>) profiles,
+ * where <code>TZD</code> is <code>Z</code> or offset from UTC in <code>+hh:mm</code> or <code>-hh:mm</code> form.
+ * Fractions of a second are truncated to milliseconds.
+ */
+public class XMPPDateTime {
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+	// length of CCYY-MM-DDThh:mm:ss
+	private static final int SECONDS_PREFIX_LEN = 19;
+
+	private static volatile SecondsPrefix cache = new SecondsPrefix(0);
+
+	/**
+	 * Returns time formatted as <code>DateTime</code> profile with milliseconds, ie.
+	 * <code>2019-03-21T10:15:30.123Z</code>.
+	 */
+	public static String format(long millis) {
+		SecondsPrefix prefix = prefix(millis);
+		int ms = (int) Math.floorMod(millis, 1000L);
+		char[] buf = new char[prefix.chars.length + 5];
+		System.arraycopy(prefix.chars, 0, buf, 0, prefix.chars.length);
+		int pos = prefix.chars.length;
+		buf[pos++] = '.';
+		buf[pos++] = (char) ('0' + ms / 100);
+		buf[pos++] = (char) ('0' + ms / 10 % 10);
+		buf[pos++] = (char) ('0' + ms % 10);
+		buf[pos] = 'Z';
+		return new String(buf);
+	}
+
+	public static String format(Date date) {
+		return format(date.getTime());
+	}
+
+	/**
+	 * Returns time formatted as <code>DateTime</code> profile without fractions of a second, ie.
+	 * <code>2019-03-21T10:15:30Z</code>.
+	 */
+	public static String formatSeconds(long millis) {
+		SecondsPrefix prefix = prefix(millis);
+		char[] buf = new char[prefix.chars.length + 1];
+		System.arraycopy(prefix.chars, 0, buf, 0, prefix.chars.length);
+		buf[prefix.chars.length] = 'Z';
+		return new String(buf);
+	}
+
+	/**
+	 * Parses <code>DateTime</code> or <code>Date</code> profile. Date without time is treated as midnight UTC.
+	 */
+	public static Date parse(String value) throws ParseException {
+		return new Date(parseMillis(value));
+	}
+
+	/**
+	 * Parses <code>DateTime</code> or <code>Date</code> profile.
+	 *
+	 * @return number of milliseconds since the epoch
+	 */
+	public static long parseMillis(String value) throws ParseException {
+		if (value == null) {
+			throw new ParseException("Missing date", 0);
+		}
+		int year = digits(value, 0, 4);
+		expect(value, 4, '-');
+		int month = digits(value, 5, 2);
+		expect(value, 7, '-');
+		int day = digits(value, 8, 2);
+		if (month < 1 || month > 12) {
+			throw new ParseException("Invalid month in: " + value, 5);
+		}
+		if (day < 1 || day > daysInMonth(year, month)) {
+			throw new ParseException("Invalid day in: " + value, 8);
+		}
+		long millis = daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+		if (value.length() == 10) {
+			return millis;
+		}
+		expect(value, 10, 'T');
+		return millis + parseTime(value, 11, true);
+	}
+
+	/**
+	 * Parses <code>Time</code> profile. Time without zone designator is treated as UTC.
+	 *
+	 * @return number of milliseconds since midnight UTC, may be negative or exceed a day if time was not in UTC
+	 */
+	public static long parseTime(String value) throws ParseException {
+		if (value == null) {
+			throw new ParseException("Missing time", 0);
+		}
+		return parseTime(value, 0, false);
+	}
+
+	private static long parseTime(String value, int pos, boolean zoneRequired) throws ParseException {
+		int hour = digits(value, pos, 2);
+		expect(value, pos + 2, ':');
+		int minute = digits(value, pos + 3, 2);
+		expect(value, pos + 5, ':');
+		int second = digits(value, pos + 6, 2);
+		if (hour > 23 || minute > 59 || second > 59) {
+			throw new ParseException("Invalid time in: " + value, pos);
+		}
+		pos += 8;
+		int millis = 0;
+		if (pos < value.length() && value.charAt(pos) == '.') {
+			int start = ++pos;
+			while (pos < value.length() && isDigit(value.charAt(pos))) {
+				if (pos - start < 3) {
+					millis = millis * 10 + (value.charAt(pos) - '0');
+				}
+				pos++;
+			}
+			if (pos == start) {
+				throw new ParseException("Missing fraction of a second in: " + value, pos);
+			}
+			for (int i = pos - start; i < 3; i++) {
+				millis *= 10;
+			}
+		}
+		long result = ((hour * 60L + minute) * 60 + second) * 1000 + millis;
+		if (pos == value.length()) {
+			if (zoneRequired) {
+				throw new ParseException("Missing time zone in: " + value, pos);
+			}
+			return result;
+		}
+		char ch = value.charAt(pos);
+		if (ch == 'Z') {
+			pos++;
+		} else if (ch == '+' || ch == '-') {
+			int offsetHour = digits(value, pos + 1, 2);
+			expect(value, pos + 3, ':');
+			int offsetMinute = digits(value, pos + 4, 2);
+			if (offsetHour > 23 || offsetMinute > 59) {
+				throw new ParseException("Invalid time zone in: " + value, pos);
+			}
+			long offset = (offsetHour * 60L + offsetMinute) * 60 * 1000;
+			result += ch == '+' ? -offset : offset;
+			pos += 6;
+		} else {
+			throw new ParseException("Invalid time zone in: " + value, pos);
+		}
+		if (pos != value.length()) {
+			throw new ParseException("Unexpected characters in: " + value, pos);
+		}
+		return result;
+	}
+
+	private static SecondsPrefix prefix(long millis) {
+		long second = Math.floorDiv(millis, 1000L);
+		SecondsPrefix prefix = cache;
+		if (prefix.second != second) {
+			// threads may race here, but each of them publishes a complete and correct prefix
+			prefix = new SecondsPrefix(second);
+			cache = prefix;
+		}
+		return prefix;
+	}
+
+	private static int digits(String value, int pos, int count) throws ParseException {
+		if (value.length() < pos + count) {
+			throw new ParseException("Unexpected end of: " + value, value.length());
+		}
+		int result = 0;
+		for (int i = pos; i < pos + count; i++) {
+			char ch = value.charAt(i);
+			if (!isDigit(ch)) {
+				throw new ParseException("Expected digit in: " + value, i);
+			}
+			result = result * 10 + (ch - '0');
+		}
+		return result;
+	}
+
+	private static void expect(String value, int pos, char expected) throws ParseException {
+		if (value.length() <= pos || value.charAt(pos) != expected) {
+			throw new ParseException("Expected '" + expected + "' in: " + value, pos);
+		}
+	}
+
+	private static boolean isDigit(char ch) {
+		return ch >= '0' && ch <= '9';
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+			case 2:
+				return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	/**
+	 * Returns number of days since the epoch for a date in proleptic Gregorian calendar.
+	 */
+	private static long daysFromCivil(long year, int month, int day) {
+		year -= month <= 2 ? 1 : 0;
+		long era = Math.floorDiv(year, 400);
+		long yoe = year - era * 400;
+		long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static void appendPadded(StringBuilder sb, long value, int width) {
+		String str = Long.toString(value);
+		for (int i = str.length(); i < width; i++) {
+			sb.append('0');
+		}
+		sb.append(str);
+	}
+
+	/**
+	 * Formatted date and time up to seconds, ie. <code>2019-03-21T10:15:30</code>.
+	 */
+	private static final class SecondsPrefix {
+
+		private final char[] chars;
+		private final long second;
+
+		private SecondsPrefix(long second) {
+			this.second = second;
+
+			// conversion of days since the epoch to a date in proleptic Gregorian calendar
+			long days = Math.floorDiv(second, 24 * 60 * 60L);
+			int secondOfDay = (int) (second - days * 24 * 60 * 60L);
+			long z = days + 719468;
+			long era = Math.floorDiv(z, 146097);
+			long doe = z - era * 146097;
+			long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+			long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+			long mp = (5 * doy + 2) / 153;
+			long day = doy - (153 * mp + 2) / 5 + 1;
+			long month = mp < 10 ? mp + 3 : mp - 9;
+			long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+			StringBuilder sb = new StringBuilder(SECONDS_PREFIX_LEN);
+			appendPadded(sb, year, 4);
+			sb.append('-');
+			appendPadded(sb, month, 2);
+			sb.append('-');
+			appendPadded(sb, day, 2);
+			sb.append('T');
+			appendPadded(sb, secondOfDay / 3600, 2);
+			sb.append(':');
+			appendPadded(sb, secondOfDay / 60 % 60, 2);
+			sb.append(':');
+			appendPadded(sb, secondOfDay % 60, 2);
+			chars = sb.toString().toCharArray();
+		}
+	}
+}
@@ -0,0 +1,513 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.log;
+
+import tigase.stats.StatisticsList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.*;
+
+/**
+ * Log handler writing records to rotated files from a separate thread.
+ * <br>
+ * Records are formatted on the logging thread (as only then source class and method can be inferred) and put into a
+ * bounded lock-free ring buffer. Writer thread drains the buffer, encodes records into a single buffer and writes them
+ * to the file channel in batches. When the ring buffer is full, records are either dropped or the logging thread waits
+ * for free space, depending on <code>overflow</code> property.
+ * <br>
+ * Handler is configured with following properties (prefixed with the class name) of the <code>LogManager</code>:
+ * <ul>
+ * <li><code>level</code> - level of records to write (default <code>ALL</code>)</li>
+ * <li><code>filter</code> - name of <code>Filter</code> class (default none)</li>
+ * <li><code>formatter</code> - name of <code>Formatter</code> class (default {@link LogFormatter})</li>
+ * <li><code>encoding</code> - charset used to write records (default <code>UTF-8</code>)</li>
+ * <li><code>pattern</code> - pattern of files names, same as for <code>FileHandler</code> (default
+ * <code>logs/tigase.log</code>), <code>%u</code> is replaced with the first number for which a lock file next to the
+ * log file could be locked, so handlers of different processes do not write to the same file</li>
+ * <li><code>limit</code> - approximate size of a file in bytes after which files are rotated, <code>0</code> for no
+ * limit (default <code>10000000</code>)</li>
+ * <li><code>count</code> - number of files to keep (default <code>5</code>)</li>
+ * <li><code>append</code> - append to existing file on startup (default <code>true</code>)</li>
+ * <li><code>queueSize</code> - capacity of the ring buffer, rounded up to power of 2 (default <code>16384</code>)</li>
+ * <li><code>overflow</code> - <code>DROP</code> or <code>BLOCK</code> (default <code>DROP</code>)</li>
+ * </ul>
+ * {@link #flush()} waits until records published before the call are written to the file.
+ */
+public class AsyncLogHandler
+		extends Handler {
+
+	public enum OverflowPolicy {
+		/** Record is dropped and counted when there is no space in the queue. */
+		DROP,
+		/** Logging thread waits until writer thread frees space in the queue. */
+		BLOCK
+	}
+
+	private static final int BATCH_BUFFER_SIZE = 64 * 1024;
+	private static final long FLUSH_TIMEOUT_NANOS = 5_000_000_000L;
+	private static final long IDLE_PARK_NANOS = 100_000_000L;
+	private static final int MAX_LOCKS = 100;
+	private static final long OVERFLOW_PARK_NANOS = 100_000L;
+
+	private final boolean append;
+	private final int count;
+	private final LongAdder dropped = new LongAdder();
+	private final AtomicLong flushRequested = new AtomicLong();
+	private final long limit;
+	private final OverflowPolicy overflow;
+	private final String pattern;
+	private final RingBuffer queue;
+	private final Thread writer;
+	private final LongAdder written = new LongAdder();
+	private ByteBuffer batch;
+	private FileChannel channel;
+	private volatile boolean closed = false;
+	private CharsetEncoder encoder;
+	private long fileSize = 0;
+	// position in the queue up to which records were written to the file
+	private volatile long flushed = 0;
+	private FileChannel lockChannel;
+	private File lockFile;
+	private int unique = 0;
+	private volatile boolean writerWaiting = false;
+
+	public AsyncLogHandler() {
+		this(LogManager.getLogManager()::getProperty);
+	}
+
+	AsyncLogHandler(Function<String, String> properties) {
+		final String prefix = AsyncLogHandler.class.getName() + ".";
+
+		setLevel(Level.parse(getProperty(properties, prefix + "level", Level.ALL.getName())));
+		String filter = properties.apply(prefix + "filter");
+		if (filter != null) {
+			try {
+				setFilter((Filter) newInstance(filter));
+			} catch (Exception ex) {
+				reportError("Cannot create filter " + filter, ex, ErrorManager.GENERIC_FAILURE);
+			}
+		}
+		String formatter = getProperty(properties, prefix + "formatter", LogFormatter.class.getName());
+		try {
+			setFormatter((Formatter) newInstance(formatter));
+		} catch (Exception ex) {
+			reportError("Cannot create formatter " + formatter, ex, ErrorManager.GENERIC_FAILURE);
+			setFormatter(new LogFormatter(false));
+		}
+		Charset charset = StandardCharsets.UTF_8;
+		String encoding = properties.apply(prefix + "encoding");
+		if (encoding != null) {
+			try {
+				setEncoding(encoding);
+				charset = Charset.forName(encoding);
+			} catch (Exception ex) {
+				reportError("Unsupported encoding " + encoding, ex, ErrorManager.GENERIC_FAILURE);
+			}
+		}
+		encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		pattern = getProperty(properties, prefix + "pattern", "logs/tigase.log");
+		limit = Math.max(0, Long.parseLong(getProperty(properties, prefix + "limit", "10000000")));
+		count = Math.max(1, Integer.parseInt(getProperty(properties, prefix + "count", "5")));
+		append = Boolean.parseBoolean(getProperty(properties, prefix + "append", "true"));
+		queue = new RingBuffer(Integer.parseInt(getProperty(properties, prefix + "queueSize", "16384")));
+		overflow = OverflowPolicy.valueOf(
+				getProperty(properties, prefix + "overflow", OverflowPolicy.DROP.name()).toUpperCase());
+
+		batch = ByteBuffer.allocateDirect(BATCH_BUFFER_SIZE);
+		try {
+			lock();
+			open(append);
+		} catch (IOException ex) {
+			reportError("Cannot open log file " + pattern, ex, ErrorManager.OPEN_FAILURE);
+		}
+
+		writer = new Thread(this::writeLoop, "async-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private static String getProperty(Function<String, String> properties, String name, String defValue) {
+		String value = properties.apply(name);
+		return value == null ? defValue : value.trim();
+	}
+
+	private static Object newInstance(String className) throws Exception {
+		return ClassLoader.getSystemClassLoader().loadClass(className).getDeclaredConstructor().newInstance();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record)) {
+			return;
+		}
+		String msg;
+		try {
+			msg = getFormatter().format(record);
+		} catch (Exception ex) {
+			reportError(null, ex, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		while (!queue.offer(msg)) {
+			if (overflow == OverflowPolicy.DROP || closed) {
+				dropped.increment();
+				return;
+			}
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(this, OVERFLOW_PARK_NANOS);
+		}
+		if (writerWaiting) {
+			writerWaiting = false;
+			LockSupport.unpark(writer);
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (Thread.currentThread() == writer) {
+			return;
+		}
+		long target = queue.tail.get();
+		flushRequested.accumulateAndGet(target, Math::max);
+		LockSupport.unpark(writer);
+		long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+		while (flushed < target && writer.isAlive() && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(this, OVERFLOW_PARK_NANOS);
+		}
+	}
+
+	@Override
+	public void close() throws SecurityException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(5000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getDroppedRecords() {
+		return dropped.sum();
+	}
+
+	public long getWrittenRecords() {
+		return written.sum();
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Log records written", written.sum(), Level.FINE);
+		list.add(compName, "Log records dropped", dropped.sum(), Level.INFO);
+		list.add(compName, "Log records waiting", queue.size(), Level.FINE);
+	}
+
+	private void writeLoop() {
+		try {
+			while (true) {
+				String msg = queue.poll();
+				if (msg != null) {
+					encode(msg);
+					written.increment();
+					long requested = flushRequested.get();
+					if (flushed >= requested || queue.head < requested) {
+						continue;
+					}
+				}
+				writeBatch();
+				flushed = queue.head;
+				if (msg != null) {
+					continue;
+				}
+				if (closed) {
+					if (queue.size() == 0) {
+						break;
+					}
+					continue;
+				}
+				writerWaiting = true;
+				if (queue.size() == 0 && !closed) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				writerWaiting = false;
+			}
+		} finally {
+			writeTail();
+		}
+	}
+
+	private void encode(String msg) {
+		CharBuffer chars = CharBuffer.wrap(msg);
+		while (true) {
+			CoderResult result = encoder.encode(chars, batch, true);
+			if (result.isOverflow()) {
+				writeBatch();
+				continue;
+			}
+			break;
+		}
+		encoder.reset();
+	}
+
+	private void writeBatch() {
+		if (batch.position() == 0) {
+			return;
+		}
+		batch.flip();
+		try {
+			if (channel != null) {
+				while (batch.hasRemaining()) {
+					fileSize += channel.write(batch);
+				}
+			}
+		} catch (IOException ex) {
+			reportError(null, ex, ErrorManager.WRITE_FAILURE);
+		} finally {
+			batch.clear();
+		}
+		if (limit > 0 && fileSize >= limit) {
+			try {
+				rotate();
+			} catch (IOException ex) {
+				reportError("Cannot rotate log files " + pattern, ex, ErrorManager.OPEN_FAILURE);
+			}
+		}
+	}
+
+	private void writeTail() {
+		String tail = getFormatter().getTail(this);
+		if (tail != null && !tail.isEmpty()) {
+			encode(tail);
+		}
+		writeBatch();
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+			}
+			channel = null;
+		}
+		unlock();
+	}
+
+	/**
+	 * Finds the first number for <code>%u</code> in the pattern, for which a lock file can be locked.
+	 */
+	private void lock() throws IOException {
+		for (unique = 0; unique < MAX_LOCKS; unique++) {
+			File file = new File(generate(0).getPath() + ".lck");
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock = null;
+			try {
+				lock = ch.tryLock();
+			} catch (OverlappingFileLockException ex) {
+				// file is locked by other handler of this process
+			}
+			if (lock != null) {
+				lockChannel = ch;
+				lockFile = file;
+				return;
+			}
+			ch.close();
+		}
+		unique = 0;
+		throw new IOException("Cannot lock any of log files " + pattern);
+	}
+
+	private void unlock() {
+		if (lockChannel != null) {
+			try {
+				lockChannel.close();
+			} catch (IOException ex) {
+				reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+			}
+			lockChannel = null;
+			lockFile.delete();
+		}
+	}
+
+	private void open(boolean append) throws IOException {
+		File file = generate(0);
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		channel = append
+				  ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+									 StandardOpenOption.APPEND)
+				  : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+									 StandardOpenOption.TRUNCATE_EXISTING);
+		fileSize = channel.size();
+		String head = getFormatter().getHead(this);
+		if (head != null && !head.isEmpty()) {
+			encode(head);
+		}
+		if (limit > 0 && fileSize >= limit) {
+			rotate();
+		}
+	}
+
+	private void rotate() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		for (int i = count - 2; i >= 0; i--) {
+			File from = generate(i);
+			if (from.exists()) {
+				Files.move(from.toPath(), generate(i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		fileSize = 0;
+		open(false);
+	}
+
+	private File generate(int generation) {
+		StringBuilder sb = new StringBuilder();
+		boolean sawGeneration = false;
+		boolean sawUnique = false;
+		for (int i = 0; i < pattern.length(); i++) {
+			char ch = pattern.charAt(i);
+			if (ch == '%' && i + 1 < pattern.length()) {
+				char next = pattern.charAt(++i);
+				switch (next) {
+					case 't':
+						sb.append(System.getProperty("java.io.tmpdir"));
+						continue;
+					case 'h':
+						sb.append(System.getProperty("user.home"));
+						continue;
+					case 'g':
+						sb.append(generation);
+						sawGeneration = true;
+						continue;
+					case 'u':
+						sb.append(unique);
+						sawUnique = true;
+						continue;
+					case '%':
+						sb.append('%');
+						continue;
+					default:
+						sb.append('%');
+						break;
+				}
+			}
+			sb.append(pattern.charAt(i));
+		}
+		if (count > 1 && !sawGeneration) {
+			sb.append('.').append(generation);
+		}
+		if (unique > 0 && !sawUnique) {
+			sb.append('.').append(unique);
+		}
+		return new File(sb.toString());
+	}
+
+	/**
+	 * Bounded multi-producer single-consumer queue, each slot has a sequence number telling whether it may be written
+	 * by producers or read by the consumer.
+	 */
+	private static final class RingBuffer {
+
+		private final int mask;
+		private final AtomicLongArray sequences;
+		private final AtomicReferenceArray<String> slots;
+		private final AtomicLong tail = new AtomicLong();
+		private volatile long head = 0;
+
+		private RingBuffer(int capacity) {
+			int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+			mask = size - 1;
+			sequences = new AtomicLongArray(size);
+			slots = new AtomicReferenceArray<>(size);
+			for (int i = 0; i < size; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		private boolean offer(String item) {
+			long pos;
+			while (true) {
+				pos = tail.get();
+				long diff = sequences.get((int) pos & mask) - pos;
+				if (diff == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						break;
+					}
+				} else if (diff < 0) {
+					return false;
+				}
+			}
+			int idx = (int) pos & mask;
+			slots.set(idx, item);
+			sequences.set(idx, pos + 1);
+			return true;
+		}
+
+		private String poll() {
+			long pos = head;
+			int idx = (int) pos & mask;
+			if (sequences.get(idx) != pos + 1) {
+				return null;
+			}
+			String item = slots.get(idx);
+			slots.set(idx, null);
+			sequences.set(idx, pos + mask + 1);
+			head = pos + 1;
+			return item;
+		}
+
+		private int size() {
+			return (int) Math.max(0, tail.get() - head);
+		}
+	}
+}
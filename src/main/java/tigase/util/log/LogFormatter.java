@@ -21,9 +21,9 @@ import tigase.util.ui.console.AnsiColor;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Formatter;
@@ -37,12 +37,14 @@ public class LogFormatter
 		extends Formatter {
 
 	public static final Map<Integer, LogWithStackTraceEntry> errors = new ConcurrentSkipListMap<>();
-	final static DateFormat simple = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS");
+	private final static DateTimeFormatter SECONDS_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:")
+			.withZone(ZoneId.systemDefault());
+	// formatted timestamp changes only once per second, so each thread keeps its last prefix
+	private final static ThreadLocal<TimestampCache> timestamps = ThreadLocal.withInitial(TimestampCache::new);
 	private static int DATE_TIME_LEN = 26;
 	private static int LEVEL_OFFSET = 7;
 	private static int METHOD_OFFSET = 37;
 	private static int THREAD_OFFSET = 25;
-	protected Date timestamp = new Date();
 
 	private boolean colorful = !Boolean.getBoolean("disable_logger_color");
 
@@ -54,13 +56,14 @@ public class LogFormatter
 	}
 
 	@Override
-	public synchronized String format(LogRecord record) {
+	public String format(LogRecord record) {
 		StringBuilder sb = new StringBuilder(200);
 		int colorOffset = 0;
 
-		timestamp.setTime(record.getMillis());
 		colorOffset += setColor(sb, AnsiColor.GREEN_BOLD_BRIGHT);
-		sb.append('[').append(simple.format(timestamp)).append(']');
+		sb.append('[');
+		timestamps.get().append(sb, record.getMillis());
+		sb.append(']');
 		colorOffset += setColor(sb, AnsiColor.CYAN);
 		padStringToColumn(sb, record.getLevel().toString(), LEFT, DATE_TIME_LEN + LEVEL_OFFSET + colorOffset, ' ', " [",
 						  "]");
@@ -130,5 +133,27 @@ public class LogFormatter
 		}
 		return sb.toString();
 	}
-}
 
+	private static class TimestampCache {
+
+		private String prefix;
+		private long second = Long.MIN_VALUE;
+
+		private void append(StringBuilder sb, long millis) {
+			long sec = Math.floorDiv(millis, 1000);
+			if (sec != second) {
+				prefix = SECONDS_FORMAT.format(Instant.ofEpochSecond(sec));
+				second = sec;
+			}
+			int ms = (int) Math.floorMod(millis, 1000L);
+			sb.append(prefix);
+			if (ms < 100) {
+				sb.append('0');
+			}
+			if (ms < 10) {
+				sb.append('0');
+			}
+			sb.append(ms);
+		}
+	}
+}
@@ -17,9 +17,12 @@
  */
 package tigase.util.log;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class LogWithStackTraceEntry {
 
-	private long counter = 0;
+	// incremented concurrently by threads formatting records
+	private final AtomicLong counter = new AtomicLong();
 	private String msg = null;
 	private String record = null;
 
@@ -29,7 +32,7 @@ public class LogWithStackTraceEntry {
 	}
 
 	public long getCounter() {
-		return counter;
+		return counter.get();
 	}
 
 	public String getMessage() {
@@ -41,7 +44,7 @@ public class LogWithStackTraceEntry {
 	}
 
 	public long increment() {
-		return ++counter;
+		return counter.incrementAndGet();
 	}
 }
 
@@ -0,0 +1,190 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.routing;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Rendezvous (highest random weight) hashing used to select one of the nodes for a key.
+ * <br>
+ * For each node a score is calculated from the hash of the key and the hash of the node, and the node with the highest
+ * score is selected. Contrary to <code>hash % nodes.size()</code>, when a node is added or removed only keys assigned
+ * to that node change their location (on average <code>1/n</code> of all keys), and when selected node is not available
+ * the key is deterministically assigned to the node with the next highest score.
+ * <br>
+ * Bounded-load variant skips candidates which load exceeds <code>loadFactor</code> times the average load of available
+ * nodes, so a single hot node does not receive all keys ranked to it.
+ */
+public class RendezvousHashing {
+
+	/**
+	 * Returns hash of the string which is stable between JVM instances (in contrast to identity hash codes) so that all
+	 * cluster nodes calculate the same scores.
+	 */
+	public static long hash(String value) {
+		return mix(value.hashCode());
+	}
+
+	/**
+	 * Finalization step of SplitMix64 generator spreading bits of the input over the whole 64-bit result.
+	 */
+	public static long mix(long h) {
+		h += 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	public static long score(long keyHash, long nodeHash) {
+		return mix(keyHash ^ nodeHash);
+	}
+
+	/**
+	 * Selects available node with the highest score for the key.
+	 *
+	 * @param keyHash hash of the key, ie. <code>jid.hashCode()</code>
+	 * @param nodes list of candidates
+	 * @param nodeHash function returning stable hash of the node
+	 * @param available filter for nodes which are able to accept the key
+	 *
+	 * @return selected node or <code>null</code> if no node is available
+	 */
+	public static <T> T select(long keyHash, List<T> nodes, ToLongFunction<? super T> nodeHash,
+							   Predicate<? super T> available) {
+		long key = mix(keyHash);
+		T result = null;
+		long best = 0;
+		for (T node : nodes) {
+			if (!available.test(node)) {
+				continue;
+			}
+			long score = score(key, nodeHash.applyAsLong(node));
+			if (result == null || Long.compareUnsigned(score, best) > 0) {
+				result = node;
+				best = score;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Selects available node with the highest score for the key which load does not exceed <code>loadFactor</code>
+	 * times the average load of available nodes or <code>minLoad</code>, whichever is greater. Using
+	 * <code>minLoad</code> prevents keys from being moved away from the preferred node due to small, transient
+	 * differences in load.
+	 *
+	 * @param keyHash hash of the key, ie. <code>jid.hashCode()</code>
+	 * @param nodes list of candidates
+	 * @param nodeHash function returning stable hash of the node
+	 * @param available filter for nodes which are able to accept the key
+	 * @param load function returning current load of the node
+	 * @param loadFactor allowed load of the node relative to the average, should be greater than 1
+	 * @param minLoad load which is always allowed
+	 *
+	 * @return selected node or <code>null</code> if no node is available
+	 */
+	public static <T> T select(long keyHash, List<T> nodes, ToLongFunction<? super T> nodeHash,
+							   Predicate<? super T> available, ToLongFunction<? super T> load, double loadFactor,
+							   long minLoad) {
+		// first pass calculates average load, second one selects the best node within the limit without sorting
+		int count = 0;
+		long total = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			T node = nodes.get(i);
+			if (available.test(node)) {
+				count++;
+				total += Math.max(0, load.applyAsLong(node));
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+		double limit = Math.max(minLoad, loadFactor * total / count);
+		long key = mix(keyHash);
+		T best = null;
+		long bestScore = 0;
+		T bestInLimit = null;
+		long bestInLimitScore = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			T node = nodes.get(i);
+			if (!available.test(node)) {
+				continue;
+			}
+			long score = score(key, nodeHash.applyAsLong(node));
+			if (best == null || Long.compareUnsigned(score, bestScore) > 0) {
+				best = node;
+				bestScore = score;
+			}
+			if ((bestInLimit == null || Long.compareUnsigned(score, bestInLimitScore) > 0) &&
+					Math.max(0, load.applyAsLong(node)) <= limit) {
+				bestInLimit = node;
+				bestInLimitScore = score;
+			}
+		}
+		return bestInLimit != null ? bestInLimit : best;
+	}
+
+	/**
+	 * Returns available nodes ordered by their score for the key, from the preferred one.
+	 */
+	public static <T> List<T> rank(long keyHash, List<T> nodes, ToLongFunction<? super T> nodeHash,
+								   Predicate<? super T> available) {
+		@SuppressWarnings("unchecked") T[] result = (T[]) new Object[nodes.size()];
+		int count = top(keyHash, nodes, nodeHash, available, result);
+		return Arrays.asList(result).subList(0, count);
+	}
+
+	/**
+	 * Puts up to <code>result.length</code> available nodes with the highest scores for the key into the passed array,
+	 * ordered from the preferred one. Does not allocate any memory, so it may be called for every packet with an array
+	 * reused by the caller.
+	 *
+	 * @return number of nodes put into the array
+	 */
+	public static <T> int top(long keyHash, List<T> nodes, ToLongFunction<? super T> nodeHash,
+							  Predicate<? super T> available, T[] result) {
+		long key = mix(keyHash);
+		int count = 0;
+		for (int n = 0; n < nodes.size(); n++) {
+			T node = nodes.get(n);
+			if (!available.test(node)) {
+				continue;
+			}
+			long score = score(key, nodeHash.applyAsLong(node));
+			// insertion into a short sorted array, scores of kept nodes are recalculated instead of being stored
+			int i = count;
+			while (i > 0 && Long.compareUnsigned(score(key, nodeHash.applyAsLong(result[i - 1])), score) < 0) {
+				if (i < result.length) {
+					result[i] = result[i - 1];
+				}
+				i--;
+			}
+			if (i < result.length) {
+				result[i] = node;
+				if (count < result.length) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+}
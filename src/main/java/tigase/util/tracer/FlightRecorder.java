@@ -0,0 +1,386 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.tracer;
+
+import tigase.server.Packet;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recorder of packets passing through the server.
+ * <br>
+ * Every thread writes fixed size binary records to its own off-heap ring buffer, so recording does not need any
+ * locks and does not create garbage. Each record keeps time, processing stage, component, kind of stanza, number of
+ * characters read from or written to the socket, opaque connection id and a short text with element name and type of
+ * the stanza. Opaque connection id is a salted hash of the connection id, so records of a single connection may be
+ * matched in a dump but the connection id and user address cannot be recovered from it. Real connection id, stanza id
+ * and addresses identify users, so they are recorded only if enabled, same as beginning of the stanza XML. Older
+ * records are overwritten, so buffers always contain the latest history of each thread. Only connection managers and
+ * session manager record packets, so only their threads keep a buffer of <code>slots * slot-size</code> bytes (32KB
+ * by default).
+ * <br>
+ * Buffers are written to a file on demand (ad-hoc command <code>flight-recorder-dump</code> of the message router)
+ * or when processing of a packet fails. Files may be decoded with {@link FlightRecorderDecoder}.
+ * <br>
+ * Recorder is configured with system properties:
+ * <ul>
+ * <li><code>flight-recorder</code> - enables recording (default <code>true</code>)</li>
+ * <li><code>flight-recorder-addresses</code> - record real connection id, stanza id and addresses of the stanza (default
+ * <code>false</code>)</li>
+ * <li><code>flight-recorder-slots</code> - number of records kept per thread (default <code>128</code>)</li>
+ * <li><code>flight-recorder-slot-size</code> - size of a record in bytes (default <code>256</code>)</li>
+ * <li><code>flight-recorder-payload</code> - record beginning of stanza XML instead of its summary, implies
+ * <code>flight-recorder-addresses</code> (default <code>false</code>)</li>
+ * <li><code>flight-recorder-dir</code> - directory for dumps (default <code>logs</code>)</li>
+ * </ul>
+ */
+public class FlightRecorder {
+
+	public enum Stage {
+		SOCKET_READ,
+		SOCKET_WRITE,
+		IN_QUEUE,
+		OUT_QUEUE
+	}
+
+	public static final byte KIND_OTHER = 0;
+	public static final byte KIND_MESSAGE = 1;
+	public static final byte KIND_PRESENCE = 2;
+	public static final byte KIND_IQ = 3;
+
+	static final int MAGIC = 0x54465231;
+	static final int VERSION = 1;
+
+	// record layout
+	static final int TIMESTAMP_OFFSET = 0;
+	static final int SEQUENCE_OFFSET = 8;
+	static final int STAGE_OFFSET = 12;
+	static final int KIND_OFFSET = 13;
+	static final int COMPONENT_OFFSET = 14;
+	static final int SIZE_OFFSET = 16;
+	static final int CONNECTION_OFFSET = 20;
+	static final int MAX_CONNECTION_LEN = 80;
+
+	private static final long ERROR_DUMP_INTERVAL = 60 * 1000;
+	private static final int MAX_FINISHED_RINGS = 32;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final Logger log = Logger.getLogger(FlightRecorder.class.getName());
+
+	private static final List<String> componentNames = new CopyOnWriteArrayList<>();
+	private static final ConcurrentHashMap<String, Short> componentIds = new ConcurrentHashMap<>();
+	private static final String dir = System.getProperty("flight-recorder-dir", "logs");
+	private static final long connectionSalt = new SecureRandom().nextLong();
+	private static final AtomicLong lastErrorDump = new AtomicLong();
+	private static final Queue<Ring> rings = new ConcurrentLinkedQueue<>();
+	private static final int slotSize = Math.max(128, Integer.getInteger("flight-recorder-slot-size", 256));
+	private static final int slots = Math.max(16, Integer.getInteger("flight-recorder-slots", 128));
+	private static final ThreadLocal<Ring> threadRing = ThreadLocal.withInitial(FlightRecorder::newRing);
+	private static volatile boolean addresses = Boolean.getBoolean("flight-recorder-addresses");
+	private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("flight-recorder", "true"));
+	private static volatile boolean payload = Boolean.getBoolean("flight-recorder-payload");
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void configure(boolean enabled, boolean addresses, boolean payload) {
+		FlightRecorder.addresses = addresses;
+		FlightRecorder.payload = payload;
+		FlightRecorder.enabled = enabled;
+	}
+
+	public static void record(Stage stage, String component, JID connectionId, Packet packet) {
+		record(stage, component, connectionId, packet, -1);
+	}
+
+	/**
+	 * Records the packet with the number of characters read from or written to the socket for it.
+	 *
+	 * @param size number of characters or <code>-1</code> if not known
+	 */
+	public static void record(Stage stage, String component, JID connectionId, Packet packet, int size) {
+		if (!enabled) {
+			return;
+		}
+		threadRing.get().record(stage, componentId(component), connectionId, packet, size);
+	}
+
+	/**
+	 * Writes content of all buffers to a new file in the dump directory.
+	 *
+	 * @return created file
+	 */
+	public static File dump() throws IOException {
+		File file = new File(dir, "flight-recorder-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) +
+				".tfr");
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			dump(out);
+		}
+		return file;
+	}
+
+	public static void dump(OutputStream output) throws IOException {
+		DataOutputStream out = new DataOutputStream(output);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		out.writeInt(slotSize);
+		List<String> names = componentNames;
+		out.writeInt(names.size());
+		for (String name : names) {
+			out.writeUTF(name);
+		}
+		byte[] data = new byte[slots * slotSize];
+		Ring[] snapshot = rings.toArray(new Ring[0]);
+		out.writeInt(snapshot.length);
+		for (Ring ring : snapshot) {
+			ByteBuffer buffer = ring.buffer.duplicate();
+			buffer.clear();
+			buffer.get(data);
+			out.writeUTF(ring.threadName);
+			out.writeInt(slots);
+			out.write(data);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Dumps buffers after a failure of packet processing. Dumps are not done more often than once per minute.
+	 */
+	public static void dumpOnError() {
+		if (!enabled) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long last = lastErrorDump.get();
+		if (now - last < ERROR_DUMP_INTERVAL || !lastErrorDump.compareAndSet(last, now)) {
+			return;
+		}
+		try {
+			File file = dump();
+			log.log(Level.WARNING, "Packets flight recorder dumped to {0}", file);
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Could not dump packets flight recorder", ex);
+		}
+	}
+
+	private static short componentId(String component) {
+		if (component == null) {
+			return -1;
+		}
+		Short id = componentIds.get(component);
+		if (id == null) {
+			synchronized (componentNames) {
+				id = componentIds.get(component);
+				if (id == null) {
+					id = (short) componentNames.size();
+					componentNames.add(component);
+					componentIds.put(component, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	private static Ring newRing() {
+		// buffers of finished threads are kept for dumps, but only the latest of them
+		int finished = 0;
+		for (Ring ring : rings) {
+			if (ring.isFinished()) {
+				finished++;
+			}
+		}
+		for (Iterator<Ring> it = rings.iterator(); it.hasNext() && finished > MAX_FINISHED_RINGS; ) {
+			if (it.next().isFinished()) {
+				it.remove();
+				finished--;
+			}
+		}
+		Ring ring = new Ring(Thread.currentThread());
+		rings.offer(ring);
+		return ring;
+	}
+
+	/**
+	 * Salted 64-bit FNV-1a hash of the connection id.
+	 */
+	private static long connectionHash(String connectionId) {
+		long hash = 0xcbf29ce484222325L ^ connectionSalt;
+		for (int i = 0; i < connectionId.length(); i++) {
+			hash ^= connectionId.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static byte kind(String elemName) {
+		switch (elemName) {
+			case "message":
+				return KIND_MESSAGE;
+			case "presence":
+				return KIND_PRESENCE;
+			case "iq":
+				return KIND_IQ;
+			default:
+				return KIND_OTHER;
+		}
+	}
+
+	private static final class Ring {
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(slots * slotSize);
+		private final WeakReference<Thread> thread;
+		private final String threadName;
+		private int next = 0;
+		private int sequence = 0;
+
+		private Ring(Thread thread) {
+			this.thread = new WeakReference<>(thread);
+			this.threadName = thread.getName();
+		}
+
+		private boolean isFinished() {
+			Thread t = thread.get();
+			return t == null || !t.isAlive();
+		}
+
+		private void record(Stage stage, short component, JID connectionId, Packet packet, int size) {
+			final int start = next * slotSize;
+			final int end = start + slotSize;
+			next = (next + 1) % slots;
+
+			// timestamp is written last, record with zero timestamp is skipped by decoder
+			buffer.putLong(start + TIMESTAMP_OFFSET, 0);
+			buffer.putInt(start + SEQUENCE_OFFSET, sequence++);
+			buffer.put(start + STAGE_OFFSET, (byte) stage.ordinal());
+			buffer.put(start + KIND_OFFSET, kind(packet.getElemName()));
+			buffer.putShort(start + COMPONENT_OFFSET, component);
+
+			final boolean payload = FlightRecorder.payload;
+			final boolean addresses = payload || FlightRecorder.addresses;
+			int pos = start + CONNECTION_OFFSET;
+			if (connectionId == null) {
+				pos = putText(pos, pos, null);
+			} else if (addresses) {
+				pos = putText(pos, pos + 2 + MAX_CONNECTION_LEN, connectionId.toString());
+			} else {
+				pos = putHex(pos, connectionHash(connectionId.toString()));
+			}
+
+			if (payload) {
+				// shared stanza is serialized without making a copy of it for this packet
+				String xml = packet.getElementAsString();
+				if (size < 0) {
+					size = xml.length();
+				}
+				putText(pos, end, xml);
+			} else {
+				int textStart = pos;
+				pos += 2;
+				pos = putChars(pos, end, packet.getElemName());
+				StanzaType type = packet.getType();
+				if (type != null) {
+					pos = putChars(pos, end, " type=");
+					pos = putChars(pos, end, type.name());
+				}
+				if (addresses) {
+					pos = putAddresses(pos, end, packet);
+				}
+				buffer.putShort(textStart, (short) (pos - textStart - 2));
+			}
+			buffer.putInt(start + SIZE_OFFSET, size);
+			buffer.putLong(start + TIMESTAMP_OFFSET, System.currentTimeMillis());
+		}
+
+		private int putAddresses(int pos, int end, Packet packet) {
+			String id = packet.getStanzaId();
+			if (id != null) {
+				pos = putChars(pos, end, " id=");
+				pos = putChars(pos, end, id);
+			}
+			JID from = packet.getStanzaFrom();
+			if (from != null) {
+				pos = putChars(pos, end, " from=");
+				pos = putChars(pos, end, from.toString());
+			}
+			JID to = packet.getStanzaTo();
+			if (to != null) {
+				pos = putChars(pos, end, " to=");
+				pos = putChars(pos, end, to.toString());
+			}
+			return pos;
+		}
+
+		/**
+		 * Writes length prefixed hexadecimal representation of the value.
+		 */
+		private int putHex(int pos, long value) {
+			buffer.putShort(pos, (short) 16);
+			pos += 2;
+			for (int shift = 60; shift >= 0; shift -= 4) {
+				buffer.put(pos++, (byte) HEX[(int) (value >>> shift) & 0xf]);
+			}
+			return pos;
+		}
+
+		/**
+		 * Writes length prefixed text truncated to fit before <code>end</code>.
+		 */
+		private int putText(int pos, int end, String text) {
+			int textStart = pos;
+			pos = putChars(pos + 2, end, text);
+			buffer.putShort(textStart, (short) (pos - textStart - 2));
+			return pos;
+		}
+
+		/**
+		 * Writes characters as single bytes, characters outside of US-ASCII are replaced with '?'.
+		 */
+		private int putChars(int pos, int end, String text) {
+			if (text == null) {
+				return pos;
+			}
+			int len = Math.min(text.length(), end - pos);
+			for (int i = 0; i < len; i++) {
+				char ch = text.charAt(i);
+				buffer.put(pos++, ch < 128 ? (byte) ch : (byte) '?');
+			}
+			return pos;
+		}
+	}
+}
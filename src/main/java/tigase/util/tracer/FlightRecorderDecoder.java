@@ -0,0 +1,196 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.tracer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import static tigase.util.tracer.FlightRecorder.*;
+
+/**
+ * Offline decoder of files created by {@link FlightRecorder}. Prints records of all threads ordered by time.
+ * <br>
+ * Usage: <code>java -cp jars/tigase-server.jar tigase.util.tracer.FlightRecorderDecoder file.tfr [filter]</code>,
+ * where optional <code>filter</code> limits output to records containing it in connection id or stanza text.
+ */
+public class FlightRecorderDecoder {
+
+	private static final String[] KINDS = {"other", "message", "presence", "iq"};
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: FlightRecorderDecoder file.tfr [filter]");
+			System.exit(1);
+		}
+		String filter = args.length > 1 ? args[1] : null;
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]))) {
+			for (Record record : decode(in)) {
+				if (filter == null || record.connection.contains(filter) || record.text.contains(filter)) {
+					System.out.println(record.toString(format));
+				}
+			}
+		}
+	}
+
+	public static List<Record> decode(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(input);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a flight recorder file");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported flight recorder file version: " + version);
+		}
+		in.readLong();
+		int slotSize = in.readInt();
+		String[] components = new String[in.readInt()];
+		for (int i = 0; i < components.length; i++) {
+			components[i] = in.readUTF();
+		}
+		List<Record> records = new ArrayList<>();
+		int threads = in.readInt();
+		for (int t = 0; t < threads; t++) {
+			String thread = in.readUTF();
+			byte[] data = new byte[in.readInt() * slotSize];
+			in.readFully(data);
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			for (int start = 0; start < data.length; start += slotSize) {
+				Record record = decodeRecord(buffer, start, slotSize, thread, components);
+				if (record != null) {
+					records.add(record);
+				}
+			}
+		}
+		records.sort(Comparator.comparingLong((Record r) -> r.timestamp)
+							 .thenComparing(r -> r.thread)
+							 .thenComparingInt(r -> r.sequence));
+		return records;
+	}
+
+	private static Record decodeRecord(ByteBuffer buffer, int start, int slotSize, String thread,
+									   String[] components) {
+		long timestamp = buffer.getLong(start + TIMESTAMP_OFFSET);
+		if (timestamp == 0) {
+			return null;
+		}
+		int end = start + slotSize;
+		int stage = buffer.get(start + STAGE_OFFSET);
+		int kind = buffer.get(start + KIND_OFFSET);
+		int component = buffer.getShort(start + COMPONENT_OFFSET);
+		if (stage < 0 || stage >= Stage.values().length) {
+			// partially written record
+			return null;
+		}
+		int pos = start + CONNECTION_OFFSET;
+		int len = buffer.getShort(pos);
+		if (len < 0 || pos + 2 + len > end) {
+			return null;
+		}
+		String connection = new String(buffer.array(), pos + 2, len, StandardCharsets.US_ASCII);
+		pos += 2 + len;
+		len = buffer.getShort(pos);
+		if (len < 0 || pos + 2 + len > end) {
+			return null;
+		}
+		String text = new String(buffer.array(), pos + 2, len, StandardCharsets.US_ASCII);
+
+		Record record = new Record();
+		record.timestamp = timestamp;
+		record.sequence = buffer.getInt(start + SEQUENCE_OFFSET);
+		record.thread = thread;
+		record.stage = Stage.values()[stage];
+		record.kind = kind >= 0 && kind < KINDS.length ? KINDS[kind] : KINDS[0];
+		record.component = component >= 0 && component < components.length ? components[component] : "";
+		record.size = buffer.getInt(start + SIZE_OFFSET);
+		record.connection = connection;
+		record.text = text;
+		return record;
+	}
+
+	public static class Record {
+
+		String component;
+		String connection;
+		String kind;
+		int sequence;
+		int size;
+		Stage stage;
+		String text;
+		String thread;
+		long timestamp;
+
+		public String getComponent() {
+			return component;
+		}
+
+		public String getConnection() {
+			return connection;
+		}
+
+		public String getKind() {
+			return kind;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public Stage getStage() {
+			return stage;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public String getThread() {
+			return thread;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		private String toString(SimpleDateFormat format) {
+			StringBuilder sb = new StringBuilder(128);
+			sb.append(format.format(new Date(timestamp)))
+					.append(" [")
+					.append(thread)
+					.append("] ")
+					.append(stage)
+					.append(' ')
+					.append(component)
+					.append(' ')
+					.append(kind);
+			if (!connection.isEmpty()) {
+				sb.append(" conn=").append(connection);
+			}
+			if (size >= 0) {
+				sb.append(" size=").append(size);
+			}
+			return sb.append(' ').append(text).toString();
+		}
+	}
+}
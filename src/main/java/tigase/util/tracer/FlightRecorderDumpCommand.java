@@ -0,0 +1,76 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.tracer;
+
+import tigase.server.Command;
+import tigase.server.Iq;
+import tigase.server.Packet;
+import tigase.server.script.AbstractScriptCommand;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.PacketErrorTypeException;
+
+import javax.script.Bindings;
+import java.io.File;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ad-hoc command writing content of {@link FlightRecorder} buffers to a file.
+ */
+public class FlightRecorderDumpCommand
+		extends AbstractScriptCommand {
+
+	private static final Logger log = Logger.getLogger(FlightRecorderDumpCommand.class.getCanonicalName());
+
+	public FlightRecorderDumpCommand() {
+		super.init("flight-recorder-dump", "Dump packets flight recorder", "Diagnostics");
+	}
+
+	@Override
+	public Bindings getBindings() {
+		return null;
+	}
+
+	@Override
+	public void runCommand(Iq packet, Bindings binds, Queue<Packet> results) {
+		try {
+			try {
+				Packet result = packet.commandResult(Command.DataType.result);
+				if (FlightRecorder.isEnabled()) {
+					File file = FlightRecorder.dump();
+					Command.addTextField(result, "Note", "Flight recorder dumped to " + file.getAbsolutePath());
+				} else {
+					Command.addTextField(result, "Note", "Flight recorder is disabled");
+				}
+				results.offer(result);
+			} catch (Throwable ex) {
+				if (log.isLoggable(Level.WARNING)) {
+					log.log(Level.WARNING, "Execution of command " + getCommandId() + " failed! " + ex.getMessage(),
+							ex);
+				}
+				results.offer(Authorization.INTERNAL_SERVER_ERROR.getResponseMessage(packet, "Execution of command " +
+						getCommandId() + " failed: " + ex.getMessage(), false));
+			}
+		} catch (PacketErrorTypeException ex) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Packet already of type 'error'");
+			}
+		}
+	}
+}
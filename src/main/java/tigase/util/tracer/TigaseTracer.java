@@ -33,7 +33,9 @@ import java.util.logging.Logger;
  * Created: Jun 30, 2009 5:18:10 PM
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
+ * @deprecated replaced by {@link FlightRecorder} which records all packets at low cost
 */
+@Deprecated
 public class TigaseTracer {
 
 	public static final String TRACER_IPS_PROP_KEY = "--tracer-ips";
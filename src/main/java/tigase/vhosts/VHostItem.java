@@ -19,6 +19,7 @@ package tigase.vhosts;
 
 import tigase.annotations.TigaseDeprecated;
 import tigase.db.comp.RepositoryItem;
+import tigase.vhosts.filter.CompiledDomainList;
 import tigase.vhosts.filter.DomainFilterPolicy;
 import tigase.xmpp.jid.JID;
 
@@ -45,6 +46,14 @@ public interface VHostItem
 
 	String[] getDomainFilterDomains();
 
+	/**
+	 * Returns list of domains from {@link #getDomainFilterDomains()} compiled for fast lookups. Implementations should
+	 * cache compiled list until the list of domains is changed.
+	 */
+	default CompiledDomainList getDomainFilterDomainsCompiled() {
+		return CompiledDomainList.compile(getDomainFilterDomains());
+	}
+
 	<T extends VHostItemExtension> T getExtension(Class<T> clazz);
 
 	<T extends VHostItemExtension> Set<T> getExtensions();
@@ -25,6 +25,7 @@ import tigase.server.Packet;
 import tigase.util.StringUtilities;
 import tigase.util.repository.DataTypes;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.vhosts.filter.CompiledDomainList;
 import tigase.vhosts.filter.DomainFilterPolicy;
 import tigase.xml.Element;
 import tigase.xml.XMLUtils;
@@ -147,6 +148,7 @@ public class VHostItemImpl
 	private Map<String, Object> oldData = new ConcurrentHashMap<String, Object>();
 	private DomainFilterPolicy domainFilter = DOMAIN_FILTER_POLICY_PROP_DEF;
 	private String[] domainFilterDomains = null;
+	private volatile CompiledDomainList domainFilterDomainsCompiled = null;
 	private boolean enabled = true;
 	private Long maxUsersNumber = VHOST_MAX_USERS_PROP_DEF;
 	private JID messageForward = JID.jidInstanceNS(VHOST_MESSAGE_FORWARD_PROP_DEF);
@@ -995,6 +997,13 @@ public class VHostItemImpl
 		return domainFilterDomains;
 	}
 
+	@Override
+	public CompiledDomainList getDomainFilterDomainsCompiled() {
+		CompiledDomainList compiled = CompiledDomainList.compile(domainFilterDomains, domainFilterDomainsCompiled);
+		domainFilterDomainsCompiled = compiled;
+		return compiled;
+	}
+
 	/**
 	 * This method allow specify list of domains that will be used for packet filtering when DomainFilteringPolicy is
 	 * set to either LIST or BLACKLIST.
@@ -1415,6 +1424,7 @@ public class VHostItemImpl
 		private String[] comps;
 		private DomainFilterPolicy domainFilter = DOMAIN_FILTER_POLICY_PROP_DEF;
 		private String[] domainFilterDomains = null;
+		private volatile CompiledDomainList domainFilterDomainsCompiled = null;
 		private Long maxUsersNumber = VHOST_MAX_USERS_PROP_DEF;
 		private JID messageForward = JID.jidInstanceNS(VHOST_MESSAGE_FORWARD_PROP_DEF);
 		private String otherDomainParams = null;
@@ -1539,6 +1549,13 @@ public class VHostItemImpl
 			return domainFilterDomains;
 		}
 
+		@Override
+		public CompiledDomainList getDomainFilterDomainsCompiled() {
+			CompiledDomainList compiled = CompiledDomainList.compile(domainFilterDomains, domainFilterDomainsCompiled);
+			domainFilterDomainsCompiled = compiled;
+			return compiled;
+		}
+
 		@Override
 		public <T extends VHostItemExtension> T getExtension(Class<T> clazz) {
 			return (T) extensions.computeIfAbsent(clazz, cls -> {
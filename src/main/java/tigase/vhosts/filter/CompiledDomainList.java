@@ -0,0 +1,130 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts.filter;
+
+import tigase.xmpp.jid.JID;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * List of domains (or custom rules) of {@link DomainFilterPolicy} prepared for checking packets without iterating
+ * over the whole list. Instances are immutable and remember the array from which they were compiled, so cached
+ * instance may be reused for as long as the source array is not replaced.
+ */
+public final class CompiledDomainList {
+
+	public static final CompiledDomainList EMPTY = new CompiledDomainList(new String[0]);
+
+	private static final Logger log = Logger.getLogger(CompiledDomainList.class.getName());
+
+	private final Set<String> domains;
+	private final String[] source;
+	// custom rules are parsed on first use as only CUSTOM policy requires them
+	private volatile Set<Rule> rules = null;
+	private volatile boolean rulesParsed = false;
+
+	/**
+	 * Compiles list of domains.
+	 *
+	 * @param domains list of domains or custom rules, may be <code>null</code>
+	 *
+	 * @return compiled list of domains
+	 */
+	public static CompiledDomainList compile(String[] domains) {
+		if (domains == null) {
+			return EMPTY;
+		}
+		return new CompiledDomainList(domains);
+	}
+
+	/**
+	 * Returns cached instance if it was compiled from the same array of domains, otherwise compiles domains again.
+	 *
+	 * @param domains current list of domains
+	 * @param cached previously compiled list, may be <code>null</code>
+	 *
+	 * @return compiled list of domains
+	 */
+	public static CompiledDomainList compile(String[] domains, CompiledDomainList cached) {
+		if (cached != null && cached.isCompiledFrom(domains)) {
+			return cached;
+		}
+		return compile(domains);
+	}
+
+	private CompiledDomainList(String[] source) {
+		this.source = source;
+		if (source.length == 0) {
+			this.domains = Collections.emptySet();
+		} else {
+			Set<String> set = new HashSet<>(source.length * 2);
+			Collections.addAll(set, source);
+			this.domains = Collections.unmodifiableSet(set);
+		}
+	}
+
+	/**
+	 * Checks if the domain is on the list.
+	 */
+	public boolean contains(String domain) {
+		return domain != null && domains.contains(domain);
+	}
+
+	public String[] getDomains() {
+		return source;
+	}
+
+	/**
+	 * Checks if communication between JIDs is allowed by custom rules. Rules which could not be parsed allow any
+	 * communication, the same as {@link CustomDomainFilter#isAllowed(JID, JID, String[])}.
+	 */
+	public boolean isAllowed(JID source, JID destination) {
+		if (!rulesParsed) {
+			try {
+				rules = CustomDomainFilter.parseRules(this.source);
+			} catch (ParseException e) {
+				log.log(Level.WARNING, "Error while parsing rules: " + Arrays.toString(this.source), e);
+				rules = null;
+			}
+			rulesParsed = true;
+		}
+		return CustomDomainFilter.isAllowed(source, destination, rules);
+	}
+
+	/**
+	 * Checks if this instance was compiled from the passed array.
+	 */
+	public boolean isCompiledFrom(String[] domains) {
+		return source == domains || (domains == null && this == EMPTY);
+	}
+
+	public int size() {
+		return domains.size();
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(source);
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+/**
+ * Cache of strings used by {@link XMPPDomBuilderHandler} for element names, namespace prefixes and namespaces. The
+ * same few names are parsed over and over again, so string found in the cache is returned without creating a new
+ * <code>String</code> from parser buffer. Strings are never interned, as names and namespaces come from remote
+ * entities and interning them would keep every unique value in the JVM string table. Returned strings have to be
+ * compared with <code>equals()</code>.
+ * <br>
+ * Cache is direct mapped and has a fixed size, so a flood of unique names only replaces cached entries and does not
+ * make the cache grow. Cache is shared by all parsers; races between threads may only cause a cache miss, as cached
+ * <code>String</code> instances are immutable.
+ */
+final class ParserStringCache {
+
+	private static final int SIZE = 4096;
+	// longer strings are not worth caching, it is unlikely to parse them again
+	private static final int MAX_LENGTH = 128;
+
+	private static final String[] entries = new String[SIZE];
+
+	static String get(CharSequence chars) {
+		return get(chars, 0, chars.length());
+	}
+
+	/**
+	 * Returns string with characters from <code>start</code> (inclusive) to <code>end</code> (exclusive).
+	 */
+	static String get(CharSequence chars, int start, int end) {
+		if (end - start > MAX_LENGTH) {
+			return chars.subSequence(start, end).toString();
+		}
+
+		// same as String.hashCode(), so it is compared with hash cached by String first
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+
+		int idx = (hash ^ (hash >>> 16)) & (SIZE - 1);
+		String cached = entries[idx];
+		if (cached != null && cached.hashCode() == hash && matches(cached, chars, start, end)) {
+			return cached;
+		}
+
+		String result = chars.subSequence(start, end).toString();
+		entries[idx] = result;
+		return result;
+	}
+
+	/**
+	 * Checks if characters from <code>start</code> of the sequence are the same as characters of the prefix.
+	 */
+	static boolean startsWith(CharSequence chars, String prefix) {
+		int len = prefix.length();
+		if (chars.length() < len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (chars.charAt(i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(String cached, CharSequence chars, int start, int end) {
+		if (cached.length() != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (cached.charAt(i - start) != chars.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private ParserStringCache() {
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed key of the temporary session data kept by {@link XMPPResourceConnection} and {@link XMPPSession}.
+ * <br>
+ * Each registered slot gets its own index in a compact array of values kept by every session, so access to the value
+ * does not require hash table lookup. Slots should be registered once, as <code>static final</code> fields of
+ * the plugin:
+ * <pre>
+ * private static final SessionDataSlot&lt;Set&lt;JID&gt;&gt; DIRECT_PRESENCE_SLOT = SessionDataSlot.register(
+ * 		DIRECT_PRESENCE, Set.class);
+ * </pre>
+ * Value of the slot is accessible with <code>String</code> key equal to the name of the slot as well, so code
+ * using string keys works without any changes.
+ */
+public final class SessionDataSlot<T> {
+
+	private static final ConcurrentHashMap<String, SessionDataSlot<?>> slots = new ConcurrentHashMap<>();
+	private static volatile int slotsCount = 0;
+
+	private final int index;
+	private final String name;
+	private final Class<?> type;
+
+	/**
+	 * Returns slot registered with the name or <code>null</code> if there is no such slot.
+	 */
+	public static SessionDataSlot<?> getSlot(String name) {
+		return slots.get(name);
+	}
+
+	/**
+	 * Returns number of registered slots.
+	 */
+	public static int getSlotsCount() {
+		return slotsCount;
+	}
+
+	/**
+	 * Registers slot for session data stored under the passed name. If slot with the same name was already registered
+	 * then it is returned.
+	 *
+	 * @param name name of the slot, it is also a key under which value is available for methods using
+	 * <code>String</code> keys
+	 * @param type class of values stored in the slot
+	 *
+	 * @throws IllegalArgumentException if slot with the same name was registered for values of a different class
+	 */
+	@SuppressWarnings("unchecked")
+	public static synchronized <T> SessionDataSlot<T> register(String name, Class<? super T> type) {
+		SessionDataSlot<?> slot = slots.get(name);
+		if (slot == null) {
+			slot = new SessionDataSlot<T>(slotsCount, name, type);
+			slots.put(name, slot);
+			slotsCount = slotsCount + 1;
+		} else if (slot.type != type) {
+			throw new IllegalArgumentException(
+					"Session data slot " + name + " is already registered for " + slot.type.getName());
+		}
+		return (SessionDataSlot<T>) slot;
+	}
+
+	private SessionDataSlot(int index, String name, Class<?> type) {
+		this.index = index;
+		this.name = name;
+		this.type = type;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	@Override
+	public String toString() {
+		return "SessionDataSlot[name=" + name + ", index=" + index + ", type=" + type.getName() + "]";
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Thread-safe storage of temporary session data.
+ * <br>
+ * Values of {@link SessionDataSlot slots} registered before the storage was created are kept in an array indexed by
+ * the slot index. Values stored under keys for which no slot is registered (and values of slots registered after
+ * the storage was created) are kept in a map created only when the first of such values is stored, so idle sessions
+ * do not pay for a hash table.
+ * <br>
+ * As in <code>ConcurrentHashMap</code>, <code>null</code> values are not stored, so putting <code>null</code> removes
+ * the value.
+ */
+public class SessionDataStore {
+
+	private final AtomicReferenceArray<Object> values;
+	private volatile ConcurrentHashMap<String, Object> dynamicValues = null;
+
+	public SessionDataStore() {
+		values = new AtomicReferenceArray<>(SessionDataSlot.getSlotsCount());
+	}
+
+	/**
+	 * Returns value of the slot or, if it is not set, sets value created by the passed factory and returns it. Factory
+	 * is called at most once, but under concurrent access value set by other thread may be returned instead.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T computeIfAbsent(SessionDataSlot<T> slot, Function<? super SessionDataSlot<T>, ? extends T> factory) {
+		int index = slot.getIndex();
+		if (index >= values.length()) {
+			return (T) getDynamicValues().computeIfAbsent(slot.getName(), key -> factory.apply(slot));
+		}
+		T value = null;
+		while (true) {
+			Object current = values.get(index);
+			if (current != null) {
+				return (T) current;
+			}
+			if (value == null) {
+				value = factory.apply(slot);
+				if (value == null) {
+					return null;
+				}
+			}
+			if (values.compareAndSet(index, null, value)) {
+				return value;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public Object computeIfAbsent(String key, Function<String, Object> factory) {
+		SessionDataSlot<?> slot = SessionDataSlot.getSlot(key);
+		if (slot != null) {
+			return computeIfAbsent((SessionDataSlot<Object>) slot, s -> factory.apply(key));
+		}
+		return getDynamicValues().computeIfAbsent(key, factory);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T get(SessionDataSlot<T> slot) {
+		int index = slot.getIndex();
+		if (index < values.length()) {
+			return (T) values.get(index);
+		}
+		return (T) get(dynamicValues, slot.getName());
+	}
+
+	public Object get(String key) {
+		SessionDataSlot<?> slot = SessionDataSlot.getSlot(key);
+		if (slot != null) {
+			return get(slot);
+		}
+		return get(dynamicValues, key);
+	}
+
+	/**
+	 * Sets value of the slot.
+	 *
+	 * @param value value to store, <code>null</code> removes current value
+	 *
+	 * @return previous value
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T put(SessionDataSlot<T> slot, T value) {
+		int index = slot.getIndex();
+		if (index < values.length()) {
+			return (T) values.getAndSet(index, value);
+		}
+		if (value == null) {
+			return (T) remove(dynamicValues, slot.getName());
+		}
+		return (T) getDynamicValues().put(slot.getName(), value);
+	}
+
+	@SuppressWarnings("unchecked")
+	public Object put(String key, Object value) {
+		SessionDataSlot<?> slot = SessionDataSlot.getSlot(key);
+		if (slot != null) {
+			return put((SessionDataSlot<Object>) slot, value);
+		}
+		if (value == null) {
+			return remove(dynamicValues, key);
+		}
+		return getDynamicValues().put(key, value);
+	}
+
+	/**
+	 * Sets value of the slot only if there is no value already.
+	 *
+	 * @return previous value or <code>null</code> if passed value was set
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T putIfAbsent(SessionDataSlot<T> slot, T value) {
+		int index = slot.getIndex();
+		if (index >= values.length()) {
+			return (T) getDynamicValues().putIfAbsent(slot.getName(), value);
+		}
+		while (true) {
+			if (values.compareAndSet(index, null, value)) {
+				return null;
+			}
+			Object current = values.get(index);
+			if (current != null) {
+				return (T) current;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public Object putIfAbsent(String key, Object value) {
+		SessionDataSlot<?> slot = SessionDataSlot.getSlot(key);
+		if (slot != null) {
+			return putIfAbsent((SessionDataSlot<Object>) slot, value);
+		}
+		return getDynamicValues().putIfAbsent(key, value);
+	}
+
+	public <T> T remove(SessionDataSlot<T> slot) {
+		return put(slot, null);
+	}
+
+	public Object remove(String key) {
+		return put(key, null);
+	}
+
+	private static Object get(ConcurrentHashMap<String, Object> map, String key) {
+		return map == null ? null : map.get(key);
+	}
+
+	private static Object remove(ConcurrentHashMap<String, Object> map, String key) {
+		return map == null ? null : map.remove(key);
+	}
+
+	private ConcurrentHashMap<String, Object> getDynamicValues() {
+		ConcurrentHashMap<String, Object> map = dynamicValues;
+		if (map == null) {
+			synchronized (this) {
+				map = dynamicValues;
+				if (map == null) {
+					map = new ConcurrentHashMap<>(4, 0.9f);
+					dynamicValues = map;
+				}
+			}
+		}
+		return map;
+	}
+}
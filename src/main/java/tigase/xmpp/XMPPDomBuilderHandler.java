@@ -44,6 +44,7 @@ public class XMPPDomBuilderHandler<RefObject>
 	private static final Logger log = Logger.getLogger(XMPPDomBuilderHandler.class.getName());
 
 	private static final String ELEM_STREAM_STREAM = "stream:stream";
+	private static final String XMLNS_PREFIX = "xmlns:";
 	private static ElementFactory defaultFactory = new DefaultElementFactory();
 
 	private ArrayDeque<Element> all_roots = new ArrayDeque<>(1);
@@ -56,7 +57,7 @@ public class XMPPDomBuilderHandler<RefObject>
 	 */
 	private int elements_number_limit_count = 0;
 	private boolean error = false;
-	private Map<String, String> namespaces = new TreeMap<>();
+	private Map<String, String> namespaces = new HashMap<>();
 	private Object parserState = null;
 	private XMPPIOService<RefObject> service = null;
 	private boolean streamClosed = false;
@@ -92,9 +93,9 @@ public class XMPPDomBuilderHandler<RefObject>
 			log.finest("End element name: " + name);
 		}
 
-		String tmp_name = name.toString();
+		String tmp_name = ParserStringCache.get(name);
 
-		if (tmp_name.equals(ELEM_STREAM_STREAM)) {
+		if (ELEM_STREAM_STREAM.equals(tmp_name)) {
 			// we should not call xmppStreamClosed() as we still may have received 
 			// some packets which may not be processed correctly if we close stream now!
 			//service.xmppStreamClosed();
@@ -111,21 +112,16 @@ public class XMPPDomBuilderHandler<RefObject>
 		String tmp_xmlns = null;
 
 		if (idx > 0) {
-			String tmp_name_prefix = tmp_name.substring(0, idx);
-			if (tmp_name_prefix != null) {
-				for (String pref : namespaces.keySet()) {
-					if (tmp_name_prefix.equals(pref)) {
-						tmp_xmlns = namespaces.get(pref);
-						tmp_name = tmp_name.substring(pref.length() + 1, tmp_name.length());
-
-						if (log.isLoggable(Level.FINEST)) {
-							log.finest("new_xmlns = " + tmp_xmlns);
-						}
-					}    // end of if (tmp_name.startsWith(xmlns))
-				}      // end of for (String xmlns: namespaces.keys())
+			tmp_xmlns = namespaces.get(ParserStringCache.get(name, 0, idx));
+			if (tmp_xmlns != null) {
+				tmp_name = ParserStringCache.get(name, idx + 1, name.length());
+
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest("new_xmlns = " + tmp_xmlns);
+				}
 			}
 		}
-		if (elem.getName() != tmp_name.intern() || (tmp_xmlns != null && !tmp_xmlns.equals(elem.getXMLNS()))) {
+		if (!tmp_name.equals(elem.getName()) || (tmp_xmlns != null && !tmp_xmlns.equals(elem.getXMLNS()))) {
 			return false;
 		}
 
@@ -203,12 +199,9 @@ public class XMPPDomBuilderHandler<RefObject>
 					break;
 				}
 
-				if (attr_names[i].toString().startsWith("xmlns:")) {
-
-					// TODO should use a StringCache instead of intern() to avoid potential
-					// DOS by exhausting permgen
-					namespaces.put(attr_names[i].substring("xmlns:".length(), attr_names[i].length()).intern(),
-								   attr_values[i].toString());
+				if (ParserStringCache.startsWith(attr_names[i], XMLNS_PREFIX)) {
+					namespaces.put(ParserStringCache.get(attr_names[i], XMLNS_PREFIX.length(), attr_names[i].length()),
+								   ParserStringCache.get(attr_values[i]));
 
 					if (log.isLoggable(Level.FINEST)) {
 						log.finest("Namespace found: " + attr_values[i].toString());
@@ -217,9 +210,9 @@ public class XMPPDomBuilderHandler<RefObject>
 			}      // end of for (String att_name : attnames)
 		}        // end of if (attr_names != null)
 
-		String tmp_name = name.toString();
+		String tmp_name = ParserStringCache.get(name);
 
-		if (tmp_name.equals(ELEM_STREAM_STREAM)) {
+		if (ELEM_STREAM_STREAM.equals(tmp_name)) {
 			streamClosed = false;
 			Map<String, String> attribs = new HashMap<String, String>();
 
@@ -244,7 +237,7 @@ public class XMPPDomBuilderHandler<RefObject>
 		int idx = tmp_name.indexOf(':');
 
 		if (idx > 0) {
-			tmp_name_prefix = tmp_name.substring(0, idx);
+			tmp_name_prefix = ParserStringCache.get(name, 0, idx);
 
 			if (log.isLoggable(Level.FINEST)) {
 				log.finest("Found prefixed element name, prefix: " + tmp_name_prefix);
@@ -252,17 +245,15 @@ public class XMPPDomBuilderHandler<RefObject>
 		}
 
 		if (tmp_name_prefix != null) {
-			for (String pref : namespaces.keySet()) {
-				if (tmp_name_prefix.equals(pref)) {
-					new_xmlns = namespaces.get(pref);
-					tmp_name = tmp_name.substring(pref.length() + 1, tmp_name.length());
-					prefix = pref;
+			new_xmlns = namespaces.get(tmp_name_prefix);
+			if (new_xmlns != null) {
+				tmp_name = ParserStringCache.get(name, idx + 1, name.length());
+				prefix = tmp_name_prefix;
 
-					if (log.isLoggable(Level.FINEST)) {
-						log.finest("new_xmlns = " + new_xmlns);
-					}
-				}    // end of if (tmp_name.startsWith(xmlns))
-			}      // end of for (String xmlns: namespaces.keys())
+				if (log.isLoggable(Level.FINEST)) {
+					log.finest("new_xmlns = " + new_xmlns);
+				}
+			}
 		}
 
 		Element elem = newElement(tmp_name, null, attr_names, attr_values);
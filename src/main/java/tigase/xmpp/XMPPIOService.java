@@ -23,6 +23,7 @@ import tigase.server.Packet;
 import tigase.server.xmppclient.XMPPIOProcessor;
 import tigase.util.StringUtilities;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.util.tracer.FlightRecorder;
 import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
@@ -75,6 +76,10 @@ public class XMPPIOService<RefObject>
 	private XMPPDomBuilderHandler<RefObject> domHandler = null;
 	private boolean firstPacket = true;
 	private String jid = null;
+	/**
+	 * Number of characters returned by the last read from the socket, recorded with stanzas parsed from them.
+	 */
+	private int lastReadSize = -1;
 	/**
 	 * This variable keeps the time of last received XMPP packet, it is used to help detect dead connections.
 	 */
@@ -141,6 +146,7 @@ public class XMPPIOService<RefObject>
 		}
 		++packetsSent;
 		++totalPacketsSent;
+		packetQueued(packet);
 		waitingPackets.offer(packet);
 	}
 
@@ -236,13 +242,17 @@ public class XMPPIOService<RefObject>
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "Sending packet: {1} [{0}]", new Object[]{toString(), packet});
 			}
-			writeRawData(packet.getElement().toString());
+			String data = packet.getElementAsString();
+			writeRawData(data);
+			FlightRecorder.record(FlightRecorder.Stage.SOCKET_WRITE, getListenerName(), getConnectionId(), packet,
+								  data.length());
 
 			// and after sending it we should remove it to minimalize chances of lost packets
 			waitingPackets.poll();
+			packetWritten(packet, data.length());
 
 			if (log.isLoggable(Level.FINEST)) {
-				log.log(Level.FINEST, "SENT: {1} [{0}]", new Object[]{toString(), packet.getElement().toString()});
+				log.log(Level.FINEST, "SENT: {1} [{0}]", new Object[]{toString(), data});
 			}
 		}    // end of while (packet = waitingPackets.poll() != null)
 
@@ -461,6 +471,7 @@ public class XMPPIOService<RefObject>
 			char[] data = readData();
 
 			while (isConnected() && (data != null) && (data.length > 0)) {
+				lastReadSize = data.length;
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "READ:{1} [{0}]", new Object[]{toString(), new String(data)});
 				}
@@ -529,6 +540,24 @@ public class XMPPIOService<RefObject>
 		}
 	}
 
+	/**
+	 * Called when the packet is added to the queue of packets waiting to be sent.
+	 *
+	 * @param packet added to the queue
+	 */
+	protected void packetQueued(Packet packet) {
+	}
+
+	/**
+	 * Called when the packet is removed from the queue of packets waiting to be sent after its data were passed to the
+	 * socket.
+	 *
+	 * @param packet removed from the queue
+	 * @param length number of characters passed to the socket
+	 */
+	protected void packetWritten(Packet packet, int length) {
+	}
+
 	@Override
 	protected int receivedPackets() {
 		return receivedPackets.size();
@@ -669,6 +698,8 @@ public class XMPPIOService<RefObject>
 				// System.out.print(elem.toString());
 				Packet pack = Packet.packetInstance(elem);
 
+				FlightRecorder.record(FlightRecorder.Stage.SOCKET_READ, getListenerName(), getConnectionId(), pack,
+									  lastReadSize);
 				addReceivedPacket(pack);
 				if (sendAck) {
 					sendAck(pack);
@@ -679,6 +710,10 @@ public class XMPPIOService<RefObject>
 		}    // end of while ((elem = elems.poll()) != null)
 	}
 
+	private String getListenerName() {
+		return (serviceListener instanceof ConnectionManager) ? ((ConnectionManager) serviceListener).getName() : null;
+	}
+
 	/**
 	 * This method sets the time of last received XMPP packet, it is used to help detect dead connections.
 	 */
@@ -34,7 +34,6 @@ import tigase.xmpp.jid.JID;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -69,6 +68,8 @@ public class XMPPResourceConnection
 	 */
 	public static final String PRESENCE_KEY = "user-presence";
 
+	public static final SessionDataSlot<Element> PRESENCE_SLOT = SessionDataSlot.register(PRESENCE_KEY, Element.class);
+
 	private static final Logger log = Logger.getLogger(XMPPResourceConnection.class.getName());
 
 	private long authenticationTime = 0;
@@ -97,9 +98,9 @@ public class XMPPResourceConnection
 	private String resource = null;
 
 	/**
-	 * Session temporary data. All data stored in this <code>Map</code> disappear when session finishes.
+	 * Session temporary data. All data stored in this storage disappear when session finishes.
 	 */
-	private Map<String, Object> sessionData = null;
+	private final SessionDataStore sessionData;
 
 	/**
 	 * <code>sessionId</code> keeps XMPP stream session ID given at connection initialization time.
@@ -118,7 +119,7 @@ public class XMPPResourceConnection
 		this.loginHandler = loginHandler;
 		this.creationTime = currTime;
 		this.lastAccessed = currTime;
-		sessionData = new ConcurrentHashMap<String, Object>(4, 0.9f);
+		sessionData = new SessionDataStore();
 	}
 
 	public void authorizeJID(BareJID jid, boolean anonymous) throws TigaseStringprepException {
@@ -171,6 +172,26 @@ public class XMPPResourceConnection
 		return sessionData.computeIfAbsent(key, valueFactory);
 	}
 
+	/**
+	 * Typed variant of {@link #computeCommonSessionDataIfAbsent(String, Function)}.
+	 */
+	public <T> T computeCommonSessionDataIfAbsent(SessionDataSlot<T> slot,
+												  Function<? super SessionDataSlot<T>, ? extends T> valueFactory) {
+		if (parentSession != null) {
+			return parentSession.computeCommonSessionDataIfAbsent(slot, valueFactory);
+		}
+		return valueFactory.apply(slot);
+	}
+
+	/**
+	 * Typed variant of {@link #computeSessionDataIfAbsent(String, Function)}.
+	 */
+	public <T> T computeSessionDataIfAbsent(SessionDataSlot<T> slot,
+											Function<? super SessionDataSlot<T>, ? extends T> valueFactory) {
+		setLastAccessed(System.currentTimeMillis());
+		return sessionData.computeIfAbsent(slot, valueFactory);
+	}
+
 	/**
 	 * Returns full user JID for this session without throwing the <code>NotAuthorizedException</code> exception if
 	 * session is not authorized yet and therefore user name and resource is not known yet. Please note this method is
@@ -219,6 +240,12 @@ public class XMPPResourceConnection
 		return null;
 	}
 
+	public <T> void putCommonSessionData(SessionDataSlot<T> slot, T value) {
+		if (parentSession != null) {
+			parentSession.putCommonSessionData(slot, value);
+		}
+	}
+
 	/**
 	 * Saves given session data. Data are saved to temporary storage only and are accessible during this session life
 	 * only and only from this session instance.<br> Any <code>Object</code> can be stored and retrieved through
@@ -237,6 +264,17 @@ public class XMPPResourceConnection
 		sessionData.put(key, value);
 	}
 
+	/**
+	 * Typed variant of {@link #putSessionData(String, Object)}.
+	 *
+	 * @param slot slot of the stored data
+	 * @param value data stored in session, <code>null</code> removes data
+	 */
+	public final <T> void putSessionData(final SessionDataSlot<T> slot, final T value) {
+		setLastAccessed(System.currentTimeMillis());
+		sessionData.put(slot, value);
+	}
+
 	/**
 	 * Method sets passed value under passed {@code key} in {@code sessionData} but only if there is no value for this
 	 * {@code key} already
@@ -247,6 +285,11 @@ public class XMPPResourceConnection
 		return sessionData.putIfAbsent(key, value);
 	}
 
+	public <T> T putSessionDataIfAbsent(SessionDataSlot<T> slot, T value) {
+		setLastAccessed(System.currentTimeMillis());
+		return sessionData.putIfAbsent(slot, value);
+	}
+
 	@Override
 	public void queryAuth(Map<String, Object> authProps) throws TigaseDBException {
 		super.queryAuth(authProps);
@@ -256,6 +299,10 @@ public class XMPPResourceConnection
 		return (parentSession == null) ? null : parentSession.removeCommonSessionData(key);
 	}
 
+	public <T> T removeCommonSessionData(SessionDataSlot<T> slot) {
+		return (parentSession == null) ? null : parentSession.removeCommonSessionData(slot);
+	}
+
 	public void removeParentSession(final XMPPSession parent) {
 		synchronized (this) {
 			parentSession = null;
@@ -267,6 +314,11 @@ public class XMPPResourceConnection
 		sessionData.remove(key);
 	}
 
+	public final void removeSessionData(final SessionDataSlot<?> slot) {
+		setLastAccessed(System.currentTimeMillis());
+		sessionData.remove(slot);
+	}
+
 	public void streamClosed() {
 		synchronized (this) {
 			if (parentSession != null) {
@@ -331,6 +383,10 @@ public class XMPPResourceConnection
 		return (parentSession == null) ? null : parentSession.getCommonSessionData(key);
 	}
 
+	public <T> T getCommonSessionData(SessionDataSlot<T> slot) {
+		return (parentSession == null) ? null : parentSession.getCommonSessionData(slot);
+	}
+
 	/**
 	 * Gets the value of connectionId
 	 *
@@ -457,11 +513,11 @@ public class XMPPResourceConnection
 	 * @return an <code>Element</code> with last presence status received from the user.
 	 */
 	public Element getPresence() {
-		return (Element) getSessionData(PRESENCE_KEY);
+		return getSessionData(PRESENCE_SLOT);
 	}
 
 	public void setPresence(Element packet) {
-		putSessionData(PRESENCE_KEY, packet);
+		putSessionData(PRESENCE_SLOT, packet);
 
 		// Parse resource priority:
 		String pr_str = packet.getCDataStaticStr(Presence.PRESENCE_PRIORITY_PATH);
@@ -485,7 +541,7 @@ public class XMPPResourceConnection
 			if (getPriority() != 0 && !"unavailable".equals(packet.getAttributeStaticStr("type"))) {
 				packet.addChild(new Element("priority", String.valueOf(getPriority())));
 			}
-			putSessionData(PRESENCE_KEY, packet);
+			putSessionData(PRESENCE_SLOT, packet);
 		}
 		loginHandler.handlePresenceSet(this);
 	}
@@ -548,6 +604,17 @@ public class XMPPResourceConnection
 		return sessionData.get(key);
 	}
 
+	/**
+	 * Typed variant of {@link #getSessionData(String)}.
+	 *
+	 * @see #putSessionData(SessionDataSlot, Object)
+	 */
+	public final <T> T getSessionData(final SessionDataSlot<T> slot) {
+		setLastAccessed(System.currentTimeMillis());
+
+		return sessionData.get(slot);
+	}
+
 	/**
 	 * Gets the value of sessionId
 	 *
@@ -44,6 +44,7 @@ public class CAPS
 	public static final String XMLNS = "http://jabber.org/protocol/caps";
 	private static final String[][] ELEMENTS = {{Presence.ELEM_NAME}, Iq.IQ_QUERY_PATH};
 	private static final String ID = "caps";
+	private static final SessionDataSlot<Map<JID, String[]>> RESOURCES_SLOT = SessionDataSlot.register(ID, Map.class);
 	private static final Logger log = Logger.getLogger(CAPS.class.getCanonicalName());
 	private static final String XMLNS_DISCO = "http://jabber.org/protocol/disco#info";
 	private static final String[] XMLNSS = {"jabber:client", XMLNS_DISCO};
@@ -52,7 +53,7 @@ public class CAPS
 
 	public static Set<JID> getJidsWithFeature(XMPPResourceConnection session, String feature) {
 		Set<JID> jids = new HashSet<JID>();
-		Map<JID, String[]> resources = (Map<JID, String[]>) session.getCommonSessionData(ID);
+		Map<JID, String[]> resources = session.getCommonSessionData(RESOURCES_SLOT);
 
 		if (resources != null) {
 			List<JID> available = new ArrayList<JID>(resources.keySet());
@@ -109,11 +110,11 @@ public class CAPS
 			try {
 				if (packet.getElemName() == Presence.ELEM_NAME) {
 					JID to = packet.getStanzaTo();
-					Map<JID, String[]> resources = (Map<JID, String[]>) session.getCommonSessionData(ID);
+					Map<JID, String[]> resources = session.getCommonSessionData(RESOURCES_SLOT);
 
 					if (resources == null) {
 						resources = new ConcurrentHashMap<JID, String[]>();
-						session.putCommonSessionData(ID, resources);
+						session.putCommonSessionData(RESOURCES_SLOT, resources);
 					}
 					if ((packet.getType() == null) || (packet.getType() == StanzaType.available)) {
 						Element c = packet.getElement().getChild("c");
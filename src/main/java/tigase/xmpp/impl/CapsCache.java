@@ -0,0 +1,417 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import tigase.stats.StatisticsList;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Bounded store of entity capabilities nodes and features announced by them.
+ * <br>
+ * Lookups are lock free, modifications are serialized as they happen only when a new caps node is discovered. When
+ * the store is full, least recently used node is evicted using CLOCK (second chance) algorithm. Nodes of the server
+ * itself are pinned and not evicted until a newer generation of them is stored, ie. after service discovery
+ * information of the server changed.
+ * <br>
+ * Sessions keep names of caps nodes returned by {@link #canonicalNode(String)}. Features of an evicted node are kept
+ * as long as any session keeps its name, and the node is restored on the next lookup, so nodes used by online
+ * sessions are not lost and do not need to be queried again.
+ * <br>
+ * Identical feature sets announced by different nodes are stored only once and shared by reference, names of
+ * features are shared between feature sets. Nodes supporting a feature are kept as a bitmap of node slots.
+ */
+public class CapsCache {
+
+	public static final int DEF_MAX_NODES = 10000;
+
+	private static final String[] EMPTY = new String[0];
+
+	private final ArrayDeque<Node> clock = new ArrayDeque<>();
+	private final LongAdder evictions = new LongAdder();
+	// features of evicted nodes, kept as long as the name of the node is used
+	private final WeakHashMap<String, String[]> evicted = new WeakHashMap<>();
+	private final ConcurrentHashMap<String, Feature> features = new ConcurrentHashMap<>();
+	private final HashMap<FeatureSet, FeatureSet> featureSets = new HashMap<>();
+	private final BitSet usedSlots = new BitSet();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final WeakHashMap<String, WeakReference<String>> names = new WeakHashMap<>();
+	private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+	private final LongSupplier pinGeneration;
+	private final Set<Node> pinned = new HashSet<>();
+	private final String pinnedPrefix;
+	private final LongAdder restores = new LongAdder();
+	private long currentPinGeneration = Long.MIN_VALUE;
+	private int maxNodes;
+	private volatile Node[] slots = new Node[64];
+
+	public CapsCache(int maxNodes, String pinnedPrefix) {
+		this(maxNodes, pinnedPrefix, () -> 0);
+	}
+
+	/**
+	 * @param maxNodes maximal number of nodes
+	 * @param pinnedPrefix prefix of names of nodes which should not be evicted or <code>null</code>
+	 * @param pinGeneration supplier of current generation of pinned nodes, pinned nodes stored with older generation
+	 * are unpinned when a node is stored with a newer one
+	 */
+	public CapsCache(int maxNodes, String pinnedPrefix, LongSupplier pinGeneration) {
+		this.maxNodes = maxNodes;
+		this.pinnedPrefix = pinnedPrefix;
+		this.pinGeneration = pinGeneration;
+	}
+
+	public String[] get(String node) {
+		Node n = lookup(node);
+		return n == null ? null : n.features.features;
+	}
+
+	public boolean contains(String node) {
+		return lookup(node) != null;
+	}
+
+	/**
+	 * Returns instance of caps node name kept by the cache, so that sessions of clients announcing the same caps do
+	 * not keep own copies of it. Sessions should keep the returned instance, as features of evicted nodes are kept
+	 * only as long as it is in use.
+	 *
+	 * @param node name of caps node
+	 *
+	 * @return shared instance of the name
+	 */
+	public String canonicalNode(String node) {
+		Node n = nodes.get(node);
+		if (n != null) {
+			return n.node;
+		}
+		synchronized (this) {
+			return name(node);
+		}
+	}
+
+	public Set<String> getNodesWithFeature(String feature) {
+		Feature f = features.get(feature);
+		if (f == null) {
+			return Collections.emptySet();
+		}
+		BitSet bitmap = f.nodes;
+		Node[] slots = this.slots;
+		Set<String> result = new HashSet<>(bitmap.cardinality() * 2);
+		for (int i = bitmap.nextSetBit(0); i >= 0 && i < slots.length; i = bitmap.nextSetBit(i + 1)) {
+			Node n = slots[i];
+			// slot could be reused by other node since bitmap was read
+			if (n != null && Arrays.binarySearch(n.features.features, feature) >= 0) {
+				if (!n.referenced) {
+					n.referenced = true;
+				}
+				result.add(n.node);
+			}
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	public synchronized int getMaxNodes() {
+		return maxNodes;
+	}
+
+	public synchronized void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+		while (nodes.size() > maxNodes) {
+			if (!evictOne()) {
+				break;
+			}
+		}
+	}
+
+	public synchronized void put(String node, String[] nodeFeatures) {
+		boolean pin = pinnedPrefix != null && node.startsWith(pinnedPrefix);
+		long generation = 0;
+		if (pin) {
+			generation = pinGeneration.getAsLong();
+			if (generation > currentPinGeneration) {
+				unpinOlderThan(generation);
+				currentPinGeneration = generation;
+			}
+		}
+		FeatureSet featureSet = intern(nodeFeatures == null ? EMPTY : nodeFeatures);
+		Node old = nodes.get(node);
+		if (old != null) {
+			if (old.features == featureSet) {
+				release(featureSet);
+				old.referenced = true;
+				if (pin) {
+					pin(old, generation);
+				}
+				return;
+			}
+			remove(old);
+		} else {
+			while (nodes.size() >= maxNodes) {
+				if (!evictOne()) {
+					break;
+				}
+			}
+		}
+		evicted.remove(node);
+
+		int slot = usedSlots.nextClearBit(0);
+		usedSlots.set(slot);
+		Node n = new Node(name(node), featureSet, slot);
+		if (pin) {
+			pin(n, generation);
+		}
+		if (slot >= slots.length) {
+			slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
+		}
+		slots[slot] = n;
+		for (String feature : featureSet.features) {
+			Feature f = features.get(feature);
+			BitSet bitmap = (BitSet) f.nodes.clone();
+			bitmap.set(slot);
+			f.nodes = bitmap;
+		}
+		nodes.put(node, n);
+		clock.offer(n);
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Caps cache nodes", nodes.size(), Level.FINE);
+		list.add(compName, "Caps cache feature sets", getFeatureSetsCount(), Level.FINER);
+		list.add(compName, "Caps cache features", features.size(), Level.FINER);
+		list.add(compName, "Caps cache hits", hits.sum(), Level.FINE);
+		list.add(compName, "Caps cache misses", misses.sum(), Level.FINE);
+		list.add(compName, "Caps cache evictions", evictions.sum(), Level.FINE);
+		list.add(compName, "Caps cache restored nodes", restores.sum(), Level.FINE);
+	}
+
+	synchronized int getFeatureSetsCount() {
+		return featureSets.size();
+	}
+
+	private boolean evictOne() {
+		for (int i = clock.size(); i > 0; i--) {
+			Node n = clock.poll();
+			if (nodes.get(n.node) != n) {
+				// node was already removed or replaced
+				continue;
+			}
+			if (n.pinned || n.referenced) {
+				n.referenced = false;
+				clock.offer(n);
+				continue;
+			}
+			remove(n);
+			evicted.put(n.node, n.features.features);
+			evictions.increment();
+			return true;
+		}
+		// second pass, all nodes were referenced during the first one
+		for (int i = clock.size(); i > 0; i--) {
+			Node n = clock.poll();
+			if (nodes.get(n.node) != n) {
+				continue;
+			}
+			if (n.pinned) {
+				clock.offer(n);
+				continue;
+			}
+			remove(n);
+			evicted.put(n.node, n.features.features);
+			evictions.increment();
+			return true;
+		}
+		return false;
+	}
+
+	private FeatureSet intern(String[] nodeFeatures) {
+		String[] sorted = new String[nodeFeatures.length];
+		int count = 0;
+		for (String feature : nodeFeatures) {
+			if (feature != null) {
+				sorted[count++] = feature;
+			}
+		}
+		if (count < sorted.length) {
+			sorted = Arrays.copyOf(sorted, count);
+		}
+		Arrays.sort(sorted);
+		FeatureSet key = new FeatureSet(sorted);
+		FeatureSet featureSet = featureSets.get(key);
+		if (featureSet == null) {
+			for (int i = 0; i < sorted.length; i++) {
+				Feature f = features.get(sorted[i]);
+				if (f == null) {
+					f = new Feature(sorted[i]);
+					features.put(f.name, f);
+				}
+				f.refs++;
+				sorted[i] = f.name;
+			}
+			featureSet = key;
+			featureSets.put(featureSet, featureSet);
+		}
+		featureSet.refs++;
+		return featureSet;
+	}
+
+	private Node lookup(String node) {
+		Node n = nodes.get(node);
+		if (n == null) {
+			n = restore(node);
+		}
+		if (n == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		if (!n.referenced) {
+			n.referenced = true;
+		}
+		return n;
+	}
+
+	private String name(String node) {
+		WeakReference<String> ref = names.get(node);
+		String name = ref == null ? null : ref.get();
+		if (name == null) {
+			name = node;
+			names.put(name, new WeakReference<>(name));
+		}
+		return name;
+	}
+
+	private void pin(Node n, long generation) {
+		n.pinned = true;
+		n.pinGeneration = generation;
+		pinned.add(n);
+	}
+
+	private void unpinOlderThan(long generation) {
+		for (Iterator<Node> it = pinned.iterator(); it.hasNext(); ) {
+			Node n = it.next();
+			if (n.pinGeneration < generation) {
+				// node could be still in use, so it gets a second chance before eviction
+				n.pinned = false;
+				n.referenced = true;
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized Node restore(String node) {
+		Node n = nodes.get(node);
+		if (n != null) {
+			return n;
+		}
+		String[] nodeFeatures = evicted.remove(node);
+		if (nodeFeatures == null) {
+			return null;
+		}
+		put(node, nodeFeatures);
+		restores.increment();
+		return nodes.get(node);
+	}
+
+	private void release(FeatureSet featureSet) {
+		if (--featureSet.refs > 0) {
+			return;
+		}
+		featureSets.remove(featureSet);
+		for (String feature : featureSet.features) {
+			Feature f = features.get(feature);
+			if (--f.refs == 0) {
+				features.remove(feature);
+			}
+		}
+	}
+
+	private void remove(Node n) {
+		nodes.remove(n.node, n);
+		for (String feature : n.features.features) {
+			Feature f = features.get(feature);
+			BitSet bitmap = (BitSet) f.nodes.clone();
+			bitmap.clear(n.slot);
+			f.nodes = bitmap;
+		}
+		slots[n.slot] = null;
+		usedSlots.clear(n.slot);
+		pinned.remove(n);
+		release(n.features);
+	}
+
+	private static class Feature {
+
+		private final String name;
+		private volatile BitSet nodes = new BitSet();
+		// number of feature sets containing this feature
+		private int refs = 0;
+
+		private Feature(String name) {
+			this.name = name;
+		}
+	}
+
+	private static class FeatureSet {
+
+		private final String[] features;
+		private final int hash;
+		// number of nodes sharing this feature set
+		private int refs = 0;
+
+		private FeatureSet(String[] features) {
+			this.features = features;
+			this.hash = Arrays.hashCode(features);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof FeatureSet && Arrays.equals(features, ((FeatureSet) obj).features);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static class Node {
+
+		private final FeatureSet features;
+		private final String node;
+		private final int slot;
+		private long pinGeneration;
+		private boolean pinned = false;
+		private volatile boolean referenced = false;
+
+		private Node(String node, FeatureSet features, int slot) {
+			this.node = node;
+			this.features = features;
+			this.slot = slot;
+		}
+	}
+}
@@ -25,7 +25,7 @@ import tigase.server.xmppsession.SessionManager;
 import tigase.util.StringUtilities;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.vhosts.VHostItem;
-import tigase.vhosts.filter.CustomDomainFilter;
+import tigase.vhosts.filter.CompiledDomainList;
 import tigase.vhosts.filter.DomainFilterPolicy;
 import tigase.xmpp.*;
 
@@ -50,6 +50,9 @@ public class DomainFilter
 
 	/** constant domain list key name */
 	public static final String ALLOWED_DOMAINS_LIST_KEY = "allowed-domains-list";
+
+	/** key under which compiled domain list is cached in the session */
+	public static final String ALLOWED_DOMAINS_LIST_COMPILED_KEY = "allowed-domains-list-compiled";
 	/** id of the plugin */
 	protected static final String ID = "domain-filter";
 
@@ -139,7 +142,7 @@ public class DomainFilter
 						break;
 
 					case CUSTOM:
-						String[] customRules = getDomainsList(session);
+						CompiledDomainList customRules = getDomainsListCompiled(session);
 
 						if ((outDomain == null) || outDomain.equals(local_hostname) ||
 								(res.getType() != null && res.getType().equals(StanzaType.error)) ||
@@ -149,8 +152,7 @@ public class DomainFilter
 							break;
 						}
 
-						boolean isAlowed = CustomDomainFilter.isAllowed(res.getStanzaFrom(), res.getStanzaTo(),
-																		customRules);
+						boolean isAlowed = customRules.isAllowed(res.getStanzaFrom(), res.getStanzaTo());
 
 						if (!isAlowed) {
 							removePacket(it, res, errors,
@@ -158,37 +160,24 @@ public class DomainFilter
 							if (log.isLoggable(Level.FINEST)) {
 								log.log(Level.FINEST,
 										"CUSTOM filtering rules for domain {0}, blocking packet (filter): {1}, rules: {2}",
-										new Object[]{outDomain, res, Arrays.asList(customRules)});
+										new Object[]{outDomain, res, customRules});
 							}
 						} else {
 							if (log.isLoggable(Level.FINEST)) {
 								log.log(Level.FINEST,
 										"CUSTOM filtering rules for domain {0}, packet not blocked (filter): {1}, rules: {2}",
-										new Object[]{outDomain, res, Arrays.asList(customRules)});
+										new Object[]{outDomain, res, customRules});
 							}
 						}
 
 						break;
 
 					case BLACKLIST:
-						String[] blacklistedDomains = getDomainsList(session);
-						boolean blacklist_match = false;
-
 						if ((outDomain == null) || outDomain.equals(local_hostname)) {
 							// don't filter system packets, breaks things
 							break;
 						}
-						for (String domain : blacklistedDomains) {
-
-							// Intentionally comparing domains by reference instead of value
-							// domain is processed through the String.intern() method
-							if (domain == outDomain) {
-								blacklist_match = true;
-
-								break;
-							}
-						}
-						if (blacklist_match) {
+						if (getDomainsListCompiled(session).contains(outDomain)) {
 							removePacket(it, res, errors,
 										 "You attempted to communicate with the blacklisted domain - FORBIDDEN");
 							if (log.isLoggable(Level.FINEST)) {
@@ -206,24 +195,11 @@ public class DomainFilter
 
 					case LIST:
 
-						String[] allowedDomains = getDomainsList(session);
-						boolean found = false;
-
 						if ((outDomain == null) || outDomain.equals(local_hostname)) {
 							// don't filter system packets, breaks things
 							break;
 						}
-						for (String domain : allowedDomains) {
-
-							// Intentionally comparing domains by reference instead of value
-							// domain is processed through the String.intern() method
-							if (domain == outDomain) {
-								found = true;
-
-								break;
-							}
-						}
-						if (!found) {
+						if (!getDomainsListCompiled(session).contains(outDomain)) {
 							removePacket(it, res, errors, "You can only communicate within selected list of domains.");
 							if (log.isLoggable(Level.FINEST)) {
 								log.log(Level.FINEST, "LIST Domain only {1}, blocking packet (filter): {0}",
@@ -343,7 +319,7 @@ public class DomainFilter
 					break;
 
 				case CUSTOM:
-					String[] customRules = getDomainsList(session);
+					CompiledDomainList customRules = getDomainsListCompiled(session);
 
 					if ((outDomain == null) || outDomain.equals(local_hostname) ||
 							(packet.getType() == StanzaType.error) ||
@@ -354,8 +330,7 @@ public class DomainFilter
 						break;
 					}
 
-					boolean isAlowed = CustomDomainFilter.isAllowed(packet.getStanzaFrom(), packet.getStanzaTo(),
-																	customRules);
+					boolean isAlowed = customRules.isAllowed(packet.getStanzaFrom(), packet.getStanzaTo());
 
 					if (!isAlowed) {
 						removePacket(null, packet, results,
@@ -375,24 +350,11 @@ public class DomainFilter
 					break;
 
 				case BLACKLIST:
-					String[] disallowedDomains = getDomainsList(session);
-					boolean blacklist_match = false;
 					if ((outDomain == null) || outDomain.equals(local_hostname)) {
 						// don't filter system packets, breaks things
 						break;
 					}
-
-					for (String domain : disallowedDomains) {
-
-						// Intentionally comparing domains by reference instead of value
-						// domain is processed through the String.intern() method
-						if (domain == outDomain) {
-							blacklist_match = true;
-
-							break;
-						}
-					}
-					if (blacklist_match) {
+					if (getDomainsListCompiled(session).contains(outDomain)) {
 						removePacket(null, packet, results,
 									 "You attempted to communicate with the blacklisted domain - FORBIDDEN");
 						stop = true;
@@ -410,24 +372,11 @@ public class DomainFilter
 					break;
 
 				case LIST:
-					String[] allowedDomains = getDomainsList(session);
-					boolean found = false;
-
 					if ((outDomain == null) || outDomain.equals(local_hostname)) {
 						// don't filter system packets, breaks things
 						break;
 					}
-					for (String domain : allowedDomains) {
-
-						// Intentionally comparing domains by reference instead of value
-						// domain is processed through the String.intern() method
-						if (domain == outDomain) {
-							found = true;
-
-							break;
-						}
-					}
-					if (!found) {
+					if (!getDomainsListCompiled(session).contains(outDomain)) {
 						removePacket(null, packet, results,
 									 "You can only communicate within selected list of domains.");
 						stop = true;
@@ -564,6 +513,40 @@ public class DomainFilter
 		return domainsList;
 	}
 
+	/**
+	 * Method returns list of domains retrieved by {@link #getDomainsList(XMPPResourceConnection)} compiled for fast
+	 * lookups. Compiled list is cached in the user session and list compiled for the VHost is shared by all sessions
+	 * using it, so domains are compiled again only after the list changes.
+	 *
+	 * @param session user session
+	 *
+	 * @return compiled list of domains to be whitelisted/blacklisted or custom filtering rules
+	 *
+	 */
+	public CompiledDomainList getDomainsListCompiled(XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		String[] domainsList = getDomainsList(session);
+		CompiledDomainList compiled = (CompiledDomainList) session.getCommonSessionData(
+				ALLOWED_DOMAINS_LIST_COMPILED_KEY);
+
+		if (compiled == null || !compiled.isCompiledFrom(domainsList)) {
+			VHostItem domain = session.getDomain();
+
+			if (domainsList == domain.getDomainFilterDomains()) {
+				compiled = domain.getDomainFilterDomainsCompiled();
+			} else {
+				compiled = CompiledDomainList.compile(domainsList);
+			}
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Compiled list of {0} domains for VHost: {1}",
+						new Object[]{compiled.size(), domain.getKey()});
+			}
+			session.putCommonSessionData(ALLOWED_DOMAINS_LIST_COMPILED_KEY, compiled);
+		}
+
+		return compiled;
+	}
+
 	/**
 	 * Helper method removing packets from processing queue and generating appropriate error packet to be send back to
 	 * client
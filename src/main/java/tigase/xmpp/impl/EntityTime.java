@@ -22,6 +22,7 @@ import tigase.kernel.beans.Bean;
 import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.xmppsession.SessionManager;
+import tigase.util.common.XMPPDateTime;
 import tigase.xml.Element;
 import tigase.xmpp.*;
 import tigase.xmpp.impl.annotation.DiscoFeatures;
@@ -63,9 +64,7 @@ public class EntityTime
 	}
 
 	private static String getUtcTime() {
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
-		return sdf.format(new Date());
+		return XMPPDateTime.formatSeconds(System.currentTimeMillis());
 	}
 
 	@Override
@@ -97,7 +97,7 @@ public class MessageAmp
 				return;
 			}
 
-			Element amp = packet.getElement().getChild("amp");
+			Element amp = packet.getElemChild("amp");
 
 			if ((amp == null) || (amp.getXMLNS() != XMLNS)
 //					 "Individual action definitions MAY provide their own requirements." regarding
@@ -164,7 +164,7 @@ public class MessageAmp
 		if (processed) {
 			packet.processedBy(ID);
 		} else if (packet.getElemName() == Message.ELEM_NAME) {
-			Element amp = packet.getElement().getChild("amp", XMLNS);
+			Element amp = packet.getElemChild("amp", XMLNS);
 			if (amp == null
 //					 "Individual action definitions MAY provide their own requirements." regarding
 //						"status" attribute requirement!!! applies to "alert" and "notify"
@@ -248,7 +248,7 @@ public class MessageAmp
 				}
 				break;
 			case "message":
-				Element amp = packet.getElement().getChild("amp", XMLNS);
+				Element amp = packet.getElemChild("amp", XMLNS);
 
 				if ((amp == null)
 //					 "Individual action definitions MAY provide their own requirements." regarding
@@ -61,15 +61,20 @@ public class MessageCarbons
 
 	private static final String ENABLED_KEY = XMLNS + "-enabled";
 
+	private static final SessionDataSlot<Boolean> ENABLED_SLOT = SessionDataSlot.register(ENABLED_KEY, Boolean.class);
+
 	private static final String ENABLED_RESOURCES_KEY = XMLNS + "-resources";
 
+	private static final SessionDataSlot<ConcurrentHashMap<JID, Boolean>> ENABLED_RESOURCES_SLOT = SessionDataSlot.register(
+			ENABLED_RESOURCES_KEY, ConcurrentHashMap.class);
+
 	private static final String ENABLE_ELEM_NAME = "enable";
 	private static final String DISABLE_ELEM_NAME = "disable";
 
 	private static final String[] MESSAGE_HINTS_NO_COPY = {Message.ELEM_NAME, "no-copy"};
 	private static final String MESSAGE_HINTS_XMLNS = "urn:xmpp:hints";
 
-	private static final Function<String, Object> RESOURCES_MAP_FACTORY = (k) -> {
+	private static final Function<Object, ConcurrentHashMap<JID, Boolean>> RESOURCES_MAP_FACTORY = (k) -> {
 		return new ConcurrentHashMap<JID, Boolean>();
 	};
 
@@ -86,7 +91,7 @@ public class MessageCarbons
 	 * Returns true if session is enabled for receiving carbon copy messages
 	 */
 	private static boolean isEnabled(XMPPResourceConnection session) throws NotAuthorizedException {
-		Boolean value = (Boolean) session.getSessionData(ENABLED_KEY);
+		Boolean value = session.getSessionData(ENABLED_SLOT);
 		return (value != null && value);
 	}
 
@@ -160,8 +165,8 @@ public class MessageCarbons
 
 		if (packet.getElemName() == Iq.ELEM_NAME) {
 
-			boolean enable = packet.getElement().getChild(ENABLE_ELEM_NAME, XMLNS) != null;
-			boolean disable = packet.getElement().getChild(DISABLE_ELEM_NAME, XMLNS) != null;
+			boolean enable = packet.getElemChild(ENABLE_ELEM_NAME, XMLNS) != null;
+			boolean disable = packet.getElemChild(DISABLE_ELEM_NAME, XMLNS) != null;
 
 			// we can only enable or disable but we cannot do both
 			if ((enable && disable) || (!enable && !disable)) {
@@ -180,7 +185,7 @@ public class MessageCarbons
 				return;
 			}
 
-			Map<JID, Boolean> resources = (Map<JID, Boolean>) session.getCommonSessionData(ENABLED_RESOURCES_KEY);
+			Map<JID, Boolean> resources = session.getCommonSessionData(ENABLED_RESOURCES_SLOT);
 			if (resources == null || resources.isEmpty()) {
 				// no session has enabled message carbons
 				return;
@@ -199,8 +204,8 @@ public class MessageCarbons
 				// but we need to fork only messsages with type chat so no need to check it
 				//if (isErrorDeliveringForkedMessage(packet, session))
 				//	return;
-				if (packet.getElement().getChild("received", XMLNS) != null ||
-						packet.getElement().getChild("sent", XMLNS) != null) {
+				if (packet.getElemChild("received", XMLNS) != null ||
+						packet.getElemChild("sent", XMLNS) != null) {
 					return;
 				}
 
@@ -333,8 +338,8 @@ public class MessageCarbons
 	@HandleEvent
 	protected void stateChanged(MessageCarbonsStateChangedEvent event) {
 		XMPPSession session = event.getSession();
-		ConcurrentHashMap<JID, Boolean> resources = (ConcurrentHashMap<JID, Boolean>) session.computeCommonSessionDataIfAbsent(
-				ENABLED_RESOURCES_KEY, RESOURCES_MAP_FACTORY);
+		ConcurrentHashMap<JID, Boolean> resources = session.computeCommonSessionDataIfAbsent(ENABLED_RESOURCES_SLOT,
+																							 RESOURCES_MAP_FACTORY);
 
 		for (JID jid : event.getEnabledJids()) {
 			resources.put(jid, true);
@@ -356,8 +361,8 @@ public class MessageCarbons
 			log.log(Level.FINEST, "session = {0} processing presence = {1}", new Object[]{session, packet.toString()});
 		}
 
-		ConcurrentHashMap<JID, Boolean> resources = (ConcurrentHashMap<JID, Boolean>) session.computeCommonSessionDataIfAbsent(
-				ENABLED_RESOURCES_KEY, RESOURCES_MAP_FACTORY);
+		ConcurrentHashMap<JID, Boolean> resources = session.computeCommonSessionDataIfAbsent(ENABLED_RESOURCES_SLOT,
+																							 RESOURCES_MAP_FACTORY);
 
 		StanzaType type = packet.getType();
 		if (type == null || type == StanzaType.available) {
@@ -411,7 +416,7 @@ public class MessageCarbons
 	 * Add/Remove session JID to set of JIDs with enabled carbon copy protocol
 	 */
 	private void setEnabled(XMPPResourceConnection session, boolean value) throws NotAuthorizedException {
-		session.putSessionData(ENABLED_KEY, value);
+		session.putSessionData(ENABLED_SLOT, value);
 
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "session = {0}" + " enabling " + XMLNS, session);
@@ -23,12 +23,12 @@ import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.xmppsession.SessionManager;
+import tigase.util.common.XMPPDateTime;
 import tigase.xml.Element;
 import tigase.xmpp.*;
 import tigase.xmpp.impl.annotation.*;
 import tigase.xmpp.jid.JID;
 
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -60,27 +60,27 @@ public class MobileV3
 	private static final String MAX_QUEUE_SIZE_KEY = "max-queue-size";
 	private static final String PRESENCE_QUEUE_KEY = ID + "-presence-queue";
 	private static final String PACKET_QUEUE_KEY = ID + "-packet-queue";
+	// session data slots
+	private static final SessionDataSlot<Boolean> ENABLED_SLOT = SessionDataSlot.register(XMLNS, Boolean.class);
+	private static final SessionDataSlot<Map<JID, Packet>> PRESENCE_QUEUE_SLOT = SessionDataSlot.register(
+			PRESENCE_QUEUE_KEY, Map.class);
+	private static final SessionDataSlot<Queue<Packet>> PACKET_QUEUE_SLOT = SessionDataSlot.register(PACKET_QUEUE_KEY,
+																									  Queue.class);
 	private static final String DELAY_ELEM_NAME = "delay";
 	private static final String DELAY_XMLNS = "urn:xmpp:delay";
 	private static final String MESSAGE_ELEM_NAME = "message";
 	//private static final ThreadLocal<Queue> prependResultsThreadQueue = new ThreadLocal<Queue>();
 	private static final ThreadLocal<StateHolder> threadState = new ThreadLocal<StateHolder>();
-	private SimpleDateFormat formatter;
 
 	@ConfigField(desc = "Max queue size", alias = MAX_QUEUE_SIZE_KEY)
 	private int maxQueueSize = DEF_MAX_QUEUE_SIZE_VAL;
 
-	{
-		this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		this.formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
-
 	/**
 	 * Check if queuing is enabled
 	 *
 	 */
 	protected static boolean isQueueEnabled(XMPPResourceConnection session) {
-		Boolean enabled = (Boolean) session.getSessionData(XMLNS);
+		Boolean enabled = session.getSessionData(ENABLED_SLOT);
 
 		return (enabled != null) && enabled;
 	}
@@ -112,16 +112,16 @@ public class MobileV3
 					// if value is true queuing will be enabled
 					boolean value = (valueStr != null) && ("true".equals(valueStr) || "1".equals(valueStr));
 
-					if (session.getSessionData(PRESENCE_QUEUE_KEY) == null) {
+					if (session.getSessionData(PRESENCE_QUEUE_SLOT) == null) {
 
 						// session.putSessionData(QUEUE_KEY, new
 						// LinkedBlockingQueue<Packet>());
-						session.putSessionData(PRESENCE_QUEUE_KEY, new ConcurrentHashMap<JID, Packet>());
+						session.putSessionData(PRESENCE_QUEUE_SLOT, new ConcurrentHashMap<JID, Packet>());
 					}
-					if (session.getSessionData(PACKET_QUEUE_KEY) == null) {
-						session.putSessionData(PACKET_QUEUE_KEY, new ArrayDeque<Packet>());
+					if (session.getSessionData(PACKET_QUEUE_SLOT) == null) {
+						session.putSessionData(PACKET_QUEUE_SLOT, new ArrayDeque<Packet>());
 					}
-					session.putSessionData(XMLNS, value);
+					session.putSessionData(ENABLED_SLOT, value);
 					results.offer(packet.okResult((Element) null, 0));
 
 					break;
@@ -197,8 +197,8 @@ public class MobileV3
 				continue;
 			}
 
-			Map<JID, Packet> presenceQueue = (Map<JID, Packet>) session.getSessionData(PRESENCE_QUEUE_KEY);
-			Queue<Packet> packetQueue = (Queue<Packet>) session.getSessionData(PACKET_QUEUE_KEY);
+			Map<JID, Packet> presenceQueue = session.getSessionData(PRESENCE_QUEUE_SLOT);
+			Queue<Packet> packetQueue = session.getSessionData(PACKET_QUEUE_SLOT);
 
 			//QueueState state = QueueState.need_flush;
 			if (!isQueueEnabled(session)) {
@@ -291,8 +291,7 @@ public class MobileV3
 						XMPPSession parentSession = sessionFromSM.getParentSession();
 						session = (parentSession == null) ? null : parentSession.getResourceForConnectionId(e.getKey());
 						if (session != null) {
-							Map<JID, Packet> presenceQueue = (Map<JID, Packet>) session.getSessionData(
-									PRESENCE_QUEUE_KEY);
+							Map<JID, Packet> presenceQueue = session.getSessionData(PRESENCE_QUEUE_SLOT);
 							synchronized (presenceQueue) {
 								JID connId = session.getConnectionId();
 								for (Packet p : presenceQueue.values()) {
@@ -316,7 +315,7 @@ public class MobileV3
 									  : parentSession.getResourceForConnectionId(e.getKey());
 						}
 						if (session != null) {
-							Queue<Packet> packetQueue = (Queue<Packet>) session.getSessionData(PACKET_QUEUE_KEY);
+							Queue<Packet> packetQueue = session.getSessionData(PACKET_QUEUE_SLOT);
 							synchronized (packetQueue) {
 								JID connId = session.getConnectionId();
 								Packet p = null;
@@ -424,10 +423,7 @@ public class MobileV3
 	}
 
 	private Element createDelayElem(XMPPResourceConnection session) {
-		String timestamp = null;
-		synchronized (formatter) {
-			timestamp = formatter.format(new Date());
-		}
+		String timestamp = XMPPDateTime.format(System.currentTimeMillis());
 
 		try {
 			return new Element(DELAY_ELEM_NAME, new String[]{"xmlns", "from", "stamp"},
@@ -29,6 +29,7 @@ import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.amp.db.MsgRepository;
 import tigase.server.xmppsession.SessionManager;
+import tigase.util.common.XMPPDateTime;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.DomBuilderHandler;
@@ -38,7 +39,6 @@ import tigase.xml.SingletonFactory;
 import tigase.xmpp.*;
 import tigase.xmpp.jid.JID;
 
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -110,10 +110,6 @@ public class OfflineMessages
 	/** Field holds the default hostname of the machine. */
 	private static String defHost = DNSResolverFactory.getInstance().getDefaultHost();
 
-	/**
-	 * Field holds class for formatting and parsing dates in a locale-sensitive manner
-	 */
-	private final SimpleDateFormat formatter;
 	@Inject
 	private MessageDeliveryLogic message;
 	@Inject(nullAllowed = true)
@@ -125,11 +121,6 @@ public class OfflineMessages
 	@ConfigField(desc = "Store offline messages with mathing paths", alias = MSG_OFFLINE_STORAGE_PATHS)
 	private ElementMatcher[] offlineStorageMatchers = new ElementMatcher[0];
 
-	{
-		this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		this.formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
-
 	@Override
 	public String id() {
 		return ID;
@@ -366,10 +357,7 @@ public class OfflineMessages
 
 			C2SDeliveryErrorProcessor.filterErrorElement(pac.getElement());
 
-			String stamp = null;
-			synchronized (formatter) {
-				stamp = formatter.format(new Date());
-			}
+			String stamp = XMPPDateTime.format(System.currentTimeMillis());
 
 
 			String from = pac.getStanzaTo().getDomain();
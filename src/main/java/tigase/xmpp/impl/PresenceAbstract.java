@@ -21,6 +21,7 @@ import tigase.db.TigaseDBException;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
+import tigase.server.SharedPayload;
 import tigase.sys.TigaseRuntime;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.Element;
@@ -105,6 +106,23 @@ public abstract class PresenceAbstract
 		return RosterFactory.getRosterImplementation(true);
 	}
 
+	private static Element createPresence(StanzaType t, JID from) {
+		Element presence = new Element(PRESENCE_ELEMENT_NAME);
+
+		if (t != null) {
+			presence.setAttribute("type", t.toString());
+		}    // end of if (t != null)
+		else {
+			presence.setAttribute("type", StanzaType.unavailable.toString());
+		}    // end of if (t != null) else
+		if (null != from) {
+			presence.setAttribute("from", from.toString());
+		}
+		presence.setXMLNS(XMLNS);
+
+		return presence;
+	}
+
 	protected static Element prepareProbe(XMPPResourceConnection session) throws NotAuthorizedException {
 		Element presProbe = new Element(PRESENCE_ELEMENT_NAME);
 		presProbe.setXMLNS(XMLNS);
@@ -186,17 +204,7 @@ public abstract class PresenceAbstract
 		Packet result = null;
 
 		if (pres == null) {
-			presence = new Element(PRESENCE_ELEMENT_NAME);
-			if (t != null) {
-				presence.setAttribute("type", t.toString());
-			}    // end of if (t != null)
-			else {
-				presence.setAttribute("type", StanzaType.unavailable.toString());
-			}    // end of if (t != null) else
-			if (null != from) {
-				presence.setAttribute("from", from.toString());
-			}
-			presence.setXMLNS(XMLNS);
+			presence = createPresence(t, from);
 		} else {
 			presence = pres.clone();
 		}      // end of if (pres == null) else
@@ -216,6 +224,54 @@ public abstract class PresenceAbstract
 		return result;
 	}
 
+	/**
+	 * Sends shared Presence stanza to the provided address as well as returns created result {@link Packet} object.
+	 * Stanza is not copied, so this method should be used when the same presence is sent to many recipients.
+	 *
+	 * @param to is a <code>JID</code> instance with stanza destination address.
+	 * @param results this a collection with packets which have been generated as input packet processing results.
+	 * @param pres shared Presence stanza created by {@link #preparePresence(StanzaType, JID, Element)}, may be
+	 * <code>null</code> in which case nothing is sent.
+	 *
+	 * @return an instance of {@link Packet} holding Presence stanza or <code>null</code> if nothing was sent.
+	 */
+	public static Packet sendPresence(JID to, Queue<Packet> results, SharedPayload pres) {
+		if (pres == null) {
+			return null;
+		}
+
+		Packet result = Packet.packetInstance(pres, to);
+
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Sending presence info: {0}", result);
+		}
+		results.offer(result);
+
+		return result;
+	}
+
+	/**
+	 * Prepares Presence stanza which may be sent to many recipients by {@link #sendPresence(JID, Queue,
+	 * SharedPayload)}. Stanza is created from provided parameters the same way as by {@link #sendPresence(StanzaType,
+	 * JID, JID, Queue, Element)}.
+	 *
+	 * @param t specifies type of the presence to be send.
+	 * @param from is a <code>JID</code> instance with stanza source address.
+	 * @param pres an Object of type {@link Element} holding Presence stanza to be sent.
+	 *
+	 * @return shared Presence stanza or <code>null</code> if stanza source address is not valid.
+	 */
+	public static SharedPayload preparePresence(StanzaType t, JID from, Element pres) {
+		Element presence = (pres == null) ? createPresence(t, from) : pres;
+
+		try {
+			return new SharedPayload(presence);
+		} catch (TigaseStringprepException ex) {
+			log.log(Level.FINE, "Packet stringprep addressing problem, skipping presence send: {0}", presence);
+			return null;
+		}
+	}
+
 	/**
 	 * Sends Presence stanza from provided parameters without returning created result {@link Packet} object. In case of
 	 * missing {@code  pres} parameter a Presence stanza will be created with provided {@link StanzaType} type {@code
@@ -451,6 +507,9 @@ public abstract class PresenceAbstract
 		// Probe is always broadcasted with initial presence
 		Element presInit = session.getPresence();
 		Element presProbe = prepareProbe(session);
+		// the same stanzas are sent to all buddies
+		SharedPayload sharedInit = preparePresence(null, null, presInit);
+		SharedPayload sharedProbe = preparePresence(null, null, presProbe);
 
 		JID[] buddies = roster_util.getBuddies(session, SUB_BOTH);
 
@@ -466,11 +525,11 @@ public abstract class PresenceAbstract
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending presence probe to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presProbe);
+					sendPresence(buddy, results, sharedProbe);
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending intial presence to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presInit);
+					sendPresence(buddy, results, sharedInit);
 					roster_util.setPresenceSent(session, buddy, true);
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
@@ -495,7 +554,7 @@ public abstract class PresenceAbstract
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending probe to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presProbe);
+					sendPresence(buddy, results, sharedProbe);
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Skipping sending presence probe to: " + buddy);
@@ -520,7 +579,7 @@ public abstract class PresenceAbstract
 					if (log.isLoggable(Level.FINEST)) {
 						log.log(Level.FINEST, session.getBareJID() + " | Sending initial presence to: " + buddy);
 					}
-					sendPresence(null, null, buddy, results, presInit);
+					sendPresence(buddy, results, sharedInit);
 					roster_util.setPresenceSent(session, buddy, true);
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
@@ -17,10 +17,12 @@
  */
 package tigase.xmpp.impl;
 
+import tigase.disco.ServiceEntity;
 import tigase.disco.ServiceIdentity;
 import tigase.server.DataForm;
 import tigase.server.Iq;
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
 import tigase.util.Base64;
 import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
@@ -39,10 +41,9 @@ public class PresenceCapabilitiesManager {
 	public static final String CAPS_NODE = "https://tigase.net/tigase-xmpp-server";
 	public final static String HASH_ALGORITHM = "SHA-1";
 	public final static String charsetName = "UTF-8";
-	// Map<capsNode,Set<feature>>
-	private static final Map<String, String[]> nodeFeatures = new ConcurrentHashMap<String, String[]>(250);
-	private static final ConcurrentMap<String, Set<String>> featureNodes = new ConcurrentHashMap<String, Set<String>>(
-			250);
+	// nodes of the server are pinned until service discovery information of the server changes
+	private static final CapsCache nodeFeatures = new CapsCache(CapsCache.DEF_MAX_NODES, CAPS_NODE + "#",
+																ServiceEntity::getDiscoVersion);
 	private static final List<PresenceCapabilitiesListener> handlers = new CopyOnWriteArrayList<PresenceCapabilitiesListener>();
 	private static long idCounter = 0;
 	private static Logger log = Logger.getLogger(PresenceCapabilitiesManager.class.getName());
@@ -126,12 +127,25 @@ public class PresenceCapabilitiesManager {
 	}
 
 	public static Set<String> getNodesWithFeature(String feature) {
-		Set<String> nodes = featureNodes.get(feature);
-		if (nodes == null) {
-			return Collections.emptySet();
-		} else {
-			return Collections.unmodifiableSet(nodes);
-		}
+		return nodeFeatures.getNodesWithFeature(feature);
+	}
+
+	public static int getMaxNodes() {
+		return nodeFeatures.getMaxNodes();
+	}
+
+	/**
+	 * Sets maximal number of caps nodes kept in memory. Least recently used nodes are removed when the limit is
+	 * exceeded.
+	 *
+	 * @param maxNodes maximal number of caps nodes
+	 */
+	public static void setMaxNodes(int maxNodes) {
+		nodeFeatures.setMaxNodes(maxNodes);
+	}
+
+	public static void getStatistics(String compName, StatisticsList list) {
+		nodeFeatures.getStatistics(compName, list);
 	}
 
 	public static void handlePresence(JID owner, JID from, String[] capsNodes, Queue<Packet> results) {
@@ -149,7 +163,7 @@ public class PresenceCapabilitiesManager {
 	public static void prepareCapsQueries(JID compJid, JID to, String[] caps_nodes, Queue<Packet> results) {
 		if (caps_nodes != null) {
 			for (String caps_node : caps_nodes) {
-				if (!nodeFeatures.containsKey(caps_node)) {
+				if (!nodeFeatures.contains(caps_node)) {
 					results.offer(prepareCapsQuery(to, compJid, caps_node));
 				}
 			}
@@ -159,7 +173,7 @@ public class PresenceCapabilitiesManager {
 	public static void prepareCapsQueriesEl(JID compJid, JID to, String[] caps_nodes, Queue<Element> results) {
 		if (caps_nodes != null) {
 			for (String caps_node : caps_nodes) {
-				if (!nodeFeatures.containsKey(caps_node)) {
+				if (!nodeFeatures.contains(caps_node)) {
 					results.offer(prepareCapsQueryEl(to, compJid, caps_node));
 				}
 			}
@@ -234,10 +248,10 @@ public class PresenceCapabilitiesManager {
 
 			String caps_node = c.getAttributeStaticStr("node") + "#" + c.getAttributeStaticStr("ver");
 
-			caps_nodes.add(caps_node);
+			caps_nodes.add(nodeFeatures.canonicalNode(caps_node));
 			if ((c.getAttributeStaticStr("hash") == null) && (c.getAttributeStaticStr("ext") != null)) {
 				for (String e : c.getAttributeStaticStr("ext").split(" ")) {
-					caps_nodes.add(c.getAttributeStaticStr("node") + "#" + e);
+					caps_nodes.add(nodeFeatures.canonicalNode(c.getAttributeStaticStr("node") + "#" + e));
 				}
 			}
 		} else {
@@ -255,7 +269,7 @@ public class PresenceCapabilitiesManager {
 			String caps_node = c.getAttributeStaticStr("node") + "#" + c.getAttributeStaticStr("ver");
 
 			// String[] nFeatures = nodeFeatures.get(caps_node);
-			if (!nodeFeatures.containsKey(caps_node)) {
+			if (!nodeFeatures.contains(caps_node)) {
 				Set<String> caps_nodes = new HashSet<String>();
 
 				caps_nodes.add(caps_node);
@@ -265,7 +279,7 @@ public class PresenceCapabilitiesManager {
 					}
 				}
 				for (String node : caps_nodes) {
-					if (!nodeFeatures.containsKey(node)) {
+					if (!nodeFeatures.contains(node)) {
 						results.offer(prepareCapsQuery(p.getFrom(), compJid, node));
 					}
 				}
@@ -282,21 +296,9 @@ public class PresenceCapabilitiesManager {
 	public static void setNodeFeatures(String capsNode, String[] features) {
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "setting features for node = {0}, features = {1}",
-					new Object[]{capsNode, Arrays.asList(features)});
+					new Object[]{capsNode, Arrays.toString(features)});
 		}
-		Arrays.sort(features);
 		nodeFeatures.put(capsNode, features);
-		for (String feature : features) {
-			Set<String> caps = featureNodes.get(feature);
-			if (caps == null) {
-				Set<String> tmp = new CopyOnWriteArraySet<String>();
-				caps = featureNodes.putIfAbsent(feature, tmp);
-				if (caps == null) {
-					caps = tmp;
-				}
-			}
-			caps.add(capsNode);
-		}
 	}
 
 	public static void unregisterPresenceHandler(PresenceCapabilitiesListener handler) {
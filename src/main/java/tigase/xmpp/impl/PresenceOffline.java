@@ -33,6 +33,7 @@ import tigase.server.Packet;
 import tigase.server.xmppsession.SessionManager;
 import tigase.sys.TigaseRuntime;
 import tigase.util.cache.LRUConcurrentCache;
+import tigase.util.common.XMPPDateTime;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
@@ -52,7 +53,6 @@ import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -77,7 +77,6 @@ public class PresenceOffline
 	private final static String LAST_OFFLINE_PRESENCE_KEY = "last-offline-presence";
 	private final static String DELAY_STAMP_KEY = "delay-stamp";
 	private final EventBus eventBus = EventBusFactory.getInstance();
-	private final SimpleDateFormat formatter;
 	private final SimpleParser parser = SingletonFactory.getParserInstance();
 	private final String presenceSessionEventName = "start-stop";
 	@ConfigField(desc = "Add delay stamp to offline presences", alias = DELAY_STAMP_KEY)
@@ -89,11 +88,6 @@ public class PresenceOffline
 	@Inject
 	private UserRepository userRepository = null;
 
-	{
-		this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		this.formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
-
 	@Override
 	public void initialize() {
 		eventBus.registerAll(this);
@@ -273,11 +267,7 @@ public class PresenceOffline
 				}
 
 				if (delayStamp) {
-					String stamp = null;
-
-					synchronized (formatter) {
-						stamp = formatter.format(new Date());
-					}
+					String stamp = XMPPDateTime.format(System.currentTimeMillis());
 
 					if (stamp != null) {
 						Element x = new Element("delay", new String[]{"stamp", "xmlns"},
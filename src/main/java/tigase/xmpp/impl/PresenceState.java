@@ -25,6 +25,7 @@ import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.Priority;
+import tigase.server.SharedPayload;
 import tigase.server.xmppsession.SessionManager;
 import tigase.stats.StatisticsList;
 import tigase.xml.Element;
@@ -61,6 +62,9 @@ public class PresenceState
 	 */
 	public static final String DIRECT_PRESENCE = "direct-presences";
 
+	public static final SessionDataSlot<Set<JID>> DIRECT_PRESENCE_SLOT = SessionDataSlot.register(DIRECT_PRESENCE,
+																								  Set.class);
+
 	public static final String ENABLE_ROSTER_LAZY_LOADING_KEY = "enable-roster-lazy-loading";
 
 	public static final String EXTENDED_PRESENCE_PROCESSORS_KEY = "extended-presence-processors";
@@ -69,6 +73,12 @@ public class PresenceState
 
 	public static final String OFFLINE_RES_SENT = "offline-res-sent";
 
+	private static final SessionDataSlot<String> OFFLINE_BUD_SENT_SLOT = SessionDataSlot.register(OFFLINE_BUD_SENT,
+																								  String.class);
+
+	private static final SessionDataSlot<String> OFFLINE_RES_SENT_SLOT = SessionDataSlot.register(OFFLINE_RES_SENT,
+																								  String.class);
+
 	public static final String OFFLINE_ROSTER_LAST_SEEN_PROP_KEY = "offline-roster-last-seen";
 
 	/**
@@ -101,13 +111,12 @@ public class PresenceState
 	 * @param session user session which keeps all the user session data and also gives an access to the user's
 	 * repository data.
 	 */
-	@SuppressWarnings({"unchecked"})
 	public static void addDirectPresenceJID(JID jid, XMPPResourceConnection session) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCE_SLOT);
 
 		if (direct_presences == null) {
 			direct_presences = new LinkedHashSet<JID>(10);
-			session.putSessionData(DIRECT_PRESENCE, direct_presences);
+			session.putSessionData(DIRECT_PRESENCE_SLOT, direct_presences);
 		}    // end of if (direct_presences == null)
 		if (direct_presences.size() < MAX_DIRECT_PRESENCES_NO) {
 			direct_presences.add(jid);
@@ -128,20 +137,23 @@ public class PresenceState
 	 * @param pres an Object of type {@link Element} holding Presence stanza to be sent.
 	 *
 	 */
-	@SuppressWarnings({"unchecked"})
 	protected static void broadcastDirectPresences(StanzaType t, XMPPResourceConnection session, Queue<Packet> results,
 												   Element pres) throws NotAuthorizedException, TigaseDBException {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCE_SLOT);
 
 		if ((direct_presences != null) && (t != null) && (t == StanzaType.unavailable)) {
+			SharedPayload shared = preparePresence(t, session.getJID(), pres);
+
 			for (JID buddy : direct_presences) {
 				if (log.isLoggable(Level.FINEST)) {
 					log.log(Level.FINEST, "Updating direct presence for: {0}", buddy);
 				}
 
-				Packet pack = sendPresence(t, session.getJID(), buddy, results, pres);
+				Packet pack = sendPresence(buddy, results, shared);
 
-				pack.setPriority(Priority.LOW);
+				if (pack != null) {
+					pack.setPriority(Priority.LOW);
+				}
 			}    // end of for (String buddy: buddies)
 		}      // end of if (direct_presence != null)
 	}
@@ -163,10 +175,10 @@ public class PresenceState
 			throws NotAuthorizedException, TigaseDBException {
 
 		// Preventing sending offline notifications more than once
-		if (session.getSessionData(OFFLINE_BUD_SENT) != null) {
+		if (session.getSessionData(OFFLINE_BUD_SENT_SLOT) != null) {
 			return;
 		}
-		session.putSessionData(OFFLINE_BUD_SENT, OFFLINE_BUD_SENT);
+		session.putSessionData(OFFLINE_BUD_SENT_SLOT, OFFLINE_BUD_SENT);
 
 		Element pres = session.getPresence();
 
@@ -185,9 +197,8 @@ public class PresenceState
 	 * @param session user session which keeps all the user session data and also gives an access to the user's
 	 * repository data.
 	 */
-	@SuppressWarnings({"unchecked"})
 	public static void removeDirectPresenceJID(JID jid, XMPPResourceConnection session) {
-		Set<JID> direct_presences = (Set<JID>) session.getSessionData(DIRECT_PRESENCE);
+		Set<JID> direct_presences = session.getSessionData(DIRECT_PRESENCE_SLOT);
 
 		if (direct_presences != null) {
 			direct_presences.remove(jid);
@@ -243,10 +254,12 @@ public class PresenceState
 
 			Priority pack_priority = Priority.PRESENCE;
 			int pres_cnt = 0;
+			// the same stanza is sent to all buddies
+			SharedPayload shared = preparePresence(t, session.getJID(), pres);
 
 			for (JID buddy : buddies) {
 				if (requiresPresenceSending(roster, buddy, session, false)) {
-					Packet pack = sendPresence(t, session.getJID(), buddy, results, pres);
+					Packet pack = sendPresence(buddy, results, shared);
 
 					if (pres_cnt == HIGH_PRIORITY_PRESENCES_NO) {
 						++pres_cnt;
@@ -282,10 +295,10 @@ public class PresenceState
 			throws NotAuthorizedException {
 
 		// Preventing sending offline notifications more than once
-		if (session.getSessionData(OFFLINE_RES_SENT) != null) {
+		if (session.getSessionData(OFFLINE_RES_SENT_SLOT) != null) {
 			return;
 		}
-		session.putSessionData(OFFLINE_RES_SENT, OFFLINE_RES_SENT);
+		session.putSessionData(OFFLINE_RES_SENT_SLOT, OFFLINE_RES_SENT);
 		for (XMPPResourceConnection conn : session.getActiveSessions()) {
 			try {
 				if (log.isLoggable(Level.FINER)) {
@@ -835,8 +848,8 @@ public class PresenceState
 				// if it is already loaded then continue processing
 				// Special actions on the first availability presence
 				if ((packet.getType() == null) || (packet.getType() == StanzaType.available)) {
-					session.removeSessionData(OFFLINE_BUD_SENT);
-					session.removeSessionData(OFFLINE_RES_SENT);
+					session.removeSessionData(OFFLINE_BUD_SENT_SLOT);
+					session.removeSessionData(OFFLINE_RES_SENT_SLOT);
 					if (first) {
 						try {
 							sendRosterOfflinePresence(session, results);
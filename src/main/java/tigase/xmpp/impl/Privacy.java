@@ -23,6 +23,7 @@ import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.SessionDataSlot;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.impl.roster.RosterFactory;
 
@@ -72,6 +73,12 @@ public class Privacy {
 
 	public static final String PRIVACY_LIST_LOADED = "privacy-lists-loaded";
 
+	private static final SessionDataSlot<PrivacyList> DEFAULT_SLOT = SessionDataSlot.register(DEFAULT,
+																							  PrivacyList.class);
+
+	private static final SessionDataSlot<String> PRIVACY_LIST_LOADED_SLOT = SessionDataSlot.register(
+			PRIVACY_LIST_LOADED, String.class);
+
 	private static Logger log = Logger.getLogger(Privacy.class.getName());
 
 	public static void addList(XMPPResourceConnection session, Element list)
@@ -141,14 +148,14 @@ public class Privacy {
 
 	public static PrivacyList getDefaultList(XMPPResourceConnection session)
 			throws NotAuthorizedException, TigaseDBException {
-		PrivacyList sessionDefaultList = (PrivacyList) session.getCommonSessionData(DEFAULT);
-		if (session.getCommonSessionData(PRIVACY_LIST_LOADED) == null) {
+		PrivacyList sessionDefaultList = session.getCommonSessionData(DEFAULT_SLOT);
+		if (session.getCommonSessionData(PRIVACY_LIST_LOADED_SLOT) == null) {
 			sessionDefaultList = PrivacyList.create(session, RosterFactory.getRosterImplementation(true),
 													getDefaultListElement(session));
 			if (null != sessionDefaultList) {
-				session.putCommonSessionData(DEFAULT, sessionDefaultList);
+				session.putCommonSessionData(DEFAULT_SLOT, sessionDefaultList);
 			}
-			session.putCommonSessionData(PRIVACY_LIST_LOADED, PRIVACY_LIST_LOADED);
+			session.putCommonSessionData(PRIVACY_LIST_LOADED_SLOT, PRIVACY_LIST_LOADED);
 		}
 		return sessionDefaultList;
 	}
@@ -286,12 +293,12 @@ public class Privacy {
 			throws NotAuthorizedException, TigaseDBException {
 		if ((list != null) && (list.getAttributeStaticStr(NAME) != null)) {
 			session.setData(PRIVACY, DEFAULT, list.getAttributeStaticStr(NAME));
-			session.putCommonSessionData(DEFAULT,
+			session.putCommonSessionData(DEFAULT_SLOT,
 										 PrivacyList.create(session, RosterFactory.getRosterImplementation(true),
 															list));
 		} else {
 			session.removeData(PRIVACY, DEFAULT);
-			session.removeCommonSessionData(DEFAULT);
+			session.removeCommonSessionData(DEFAULT_SLOT);
 		}
 	}
 
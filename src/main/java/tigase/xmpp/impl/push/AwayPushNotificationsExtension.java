@@ -32,6 +32,7 @@ import tigase.server.xmppsession.SessionManagerHandler;
 import tigase.server.xmppsession.UserPresenceChangedEvent;
 import tigase.xml.Element;
 import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.SessionDataSlot;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.XMPPException;
 import tigase.xmpp.XMPPResourceConnection;
@@ -54,6 +55,9 @@ public class AwayPushNotificationsExtension implements PushNotificationsExtensio
 
 	private static final String PRESENCE_PREV_KEY = ID + "#presence-prev";
 
+	private static final SessionDataSlot<Packet> PRESENCE_PREV_SLOT = SessionDataSlot.register(PRESENCE_PREV_KEY,
+																							   Packet.class);
+
 	private static final Element[] DISCO_FEATURES = new Element[]{
 			new Element("feature", new String[]{"var"}, new String[]{"tigase:push:away:0"})};
 
@@ -92,8 +96,8 @@ public class AwayPushNotificationsExtension implements PushNotificationsExtensio
 			return;
 		}
 
-		Packet oldPresence = (Packet) conn.getSessionData(PRESENCE_PREV_KEY);
-		conn.putSessionData(PRESENCE_PREV_KEY, event.getPresence());
+		Packet oldPresence = conn.getSessionData(PRESENCE_PREV_SLOT);
+		conn.putSessionData(PRESENCE_PREV_SLOT, event.getPresence());
 		if (oldPresence != null) {
 			String show = event.getPresence().getElemCDataStaticStr(Presence.PRESENCE_SHOW_PATH);
 			if (show != null && !"chat".equals(show)) {
@@ -48,11 +48,10 @@ public class AnonymousRoster
 	public void init(String par) {
 	}
 
-	@SuppressWarnings({"unchecked"})
 	@Override
 	public JID[] getBuddies(XMPPResourceConnection session) throws NotAuthorizedException {
 		if (session.isAnonymous()) {
-			Set<JID> direct_presences = (Set<JID>) session.getSessionData(PresenceState.DIRECT_PRESENCE);
+			Set<JID> direct_presences = session.getSessionData(PresenceState.DIRECT_PRESENCE_SLOT);
 			if (direct_presences != null) {
 				JID[] result = new JID[direct_presences.size()];
 				int i = 0;
@@ -19,6 +19,7 @@ package tigase.xmpp.impl.roster;
 
 import tigase.db.TigaseDBException;
 import tigase.server.PolicyViolationException;
+import tigase.util.common.XMPPDateTime;
 import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
 import tigase.xml.SimpleParser;
@@ -29,7 +30,6 @@ import tigase.xmpp.XMPPSession;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
@@ -49,13 +49,6 @@ public class RosterFlat
 	private static final Logger log = Logger.getLogger(RosterFlat.class.getName());
 	private static final SimpleParser parser = SingletonFactory.getParserInstance();
 
-	private final SimpleDateFormat formatter;
-
-	{
-		this.formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		this.formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-	}
-
 	public static boolean addBuddy(RosterElement relem, Map<BareJID, RosterElement> roster) {
 		if (roster.size() < maxRosterSize) {
 			roster.put(relem.getJid().getBareJID(), relem);
@@ -504,10 +497,7 @@ public class RosterFlat
 		RosterElement rel = getRosterElement(session, buddy);
 
 		if (rel != null && rel.getLastSeen() > RosterElement.INITIAL_LAST_SEEN_VAL) {
-			String stamp;
-			synchronized (formatter) {
-				stamp = formatter.format(new Date(rel.getLastSeen()));
-			}
+			String stamp = XMPPDateTime.format(rel.getLastSeen());
 
 			return new Element("delay", new String[]{"stamp", "xmlns"}, new String[]{stamp, "urn:xmpp:delay"});
 		}
@@ -0,0 +1,377 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.ClusterControllerIfc;
+import tigase.cluster.api.ClusterElement;
+import tigase.cluster.api.CommandListener;
+import tigase.cluster.api.SessionManagerClusteredIfc;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.XMPPSession;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cluster of session managers running in a single JVM. Cluster packets are passed between nodes as elements (as they
+ * would be sent over the network), each node processes them on its own thread after optional delay simulating network
+ * latency.
+ */
+class InMemoryCluster {
+
+	static final String DOMAIN = "example.com";
+
+	final LongAdder controlMessages = new LongAdder();
+	final LongAdder deliveries = new LongAdder();
+	final List<Throwable> errors = new CopyOnWriteArrayList<>();
+	final LongAdder forwards = new LongAdder();
+	final List<Node> nodes = new ArrayList<>();
+	final LongAdder offline = new LongAdder();
+	private final long hopDelayNanos;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final LongAdder latency = new LongAdder();
+	private final AtomicLong nextId = new AtomicLong();
+	private final ConcurrentHashMap<String, Long> sentTimes = new ConcurrentHashMap<>();
+
+	InMemoryCluster(int size, Supplier<? extends DefaultClusteringStrategyAbstract<ConnectionRecord>> strategyFactory,
+					long hopDelayNanos) {
+		this.hopDelayNanos = hopDelayNanos;
+		for (int i = 0; i < size; i++) {
+			nodes.add(new Node(JID.jidInstanceNS("sess-man", "node" + i + ".cluster", null), strategyFactory.get()));
+		}
+		for (Node node : nodes) {
+			for (Node other : nodes) {
+				if (node != other) {
+					node.execute(() -> node.connect(other.id));
+				}
+			}
+		}
+		await();
+	}
+
+	void addSession(int node, JID userJid) {
+		Node n = nodes.get(node);
+		n.execute(() -> {
+			n.sessions.computeIfAbsent(userJid.getBareJID(), jid -> ConcurrentHashMap.newKeySet()).add(userJid);
+			if (n.strategy instanceof SessionDirectoryClusteringStrategy) {
+				ConnectionRecord rec = new ConnectionRecord();
+				rec.setRecordFields(n.id, userJid, "session-" + nextId.incrementAndGet(),
+									JID.jidInstanceNS("c2s", n.id.getDomain(), userJid.toString()));
+				((SessionDirectoryClusteringStrategy<ConnectionRecord>) n.strategy).localSessionAdded(rec);
+			}
+		});
+	}
+
+	void await() {
+		long timeout = System.currentTimeMillis() + 60000;
+		while (inFlight.get() > 0) {
+			if (System.currentTimeMillis() > timeout) {
+				throw new IllegalStateException("Cluster did not process all packets");
+			}
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
+	void disconnect(int node) {
+		Node removed = nodes.get(node);
+		removed.stopped = true;
+		for (Node n : nodes) {
+			if (n != removed && !n.stopped) {
+				n.execute(() -> n.disconnect(removed.id));
+			}
+		}
+		await();
+	}
+
+	long getAverageLatencyMicros() {
+		long count = deliveries.sum();
+		return count == 0 ? 0 : latency.sum() / count / 1000;
+	}
+
+	String sendMessage(int node, JID from, JID to) {
+		String id = "msg-" + nextId.incrementAndGet();
+		Element message = new Element("message", new String[]{"from", "to", "type", "id", "xmlns"},
+									  new String[]{from.toString(), to.toString(), "chat", id, "jabber:client"});
+		message.addChild(new Element("body", "Hello"));
+		sentTimes.put(id, System.nanoTime());
+		Node n = nodes.get(node);
+		n.execute(() -> n.process(Packet.packetInstance(message)));
+		return id;
+	}
+
+	void shutdown() {
+		for (Node node : nodes) {
+			node.executor.shutdownNow();
+		}
+	}
+
+	class Node
+			implements ClusterControllerIfc, SessionManagerClusteredIfc {
+
+		final List<JID> connected = new CopyOnWriteArrayList<>();
+		final List<Packet> delivered = new CopyOnWriteArrayList<>();
+		final JID id;
+		final List<Packet> offlinePackets = new CopyOnWriteArrayList<>();
+		final ConcurrentHashMap<BareJID, Set<JID>> sessions = new ConcurrentHashMap<>();
+		final DefaultClusteringStrategyAbstract<ConnectionRecord> strategy;
+		private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		private final Map<String, CommandListener> listeners = new ConcurrentHashMap<>();
+		private final XMPPResourceConnection session = new XMPPResourceConnection(null, null, null, null);
+		private volatile boolean stopped = false;
+
+		Node(JID id, DefaultClusteringStrategyAbstract<ConnectionRecord> strategy) {
+			this.id = id;
+			this.strategy = strategy;
+			strategy.sm = this;
+			strategy.setClusterController(this);
+		}
+
+		@Override
+		public boolean fastAddOutPacket(Packet packet) {
+			return true;
+		}
+
+		@Override
+		public JID getComponentId() {
+			return id;
+		}
+
+		@Override
+		public List<JID> getNodesConnected() {
+			return connected;
+		}
+
+		@Override
+		public XMPPResourceConnection getXMPPResourceConnection(Packet packet) {
+			JID to = packet.getStanzaTo();
+			Set<JID> resources = to == null ? null : sessions.get(to.getBareJID());
+			return resources == null || resources.isEmpty() ? null : session;
+		}
+
+		@Override
+		public ConcurrentHashMap<JID, XMPPResourceConnection> getXMPPResourceConnections() {
+			return new ConcurrentHashMap<>();
+		}
+
+		@Override
+		public ConcurrentHashMap<BareJID, XMPPSession> getXMPPSessions() {
+			return new ConcurrentHashMap<>();
+		}
+
+		@Override
+		public void handleClusterPacket(Element packet) {
+			try {
+				if (stopped) {
+					return;
+				}
+				ClusterElement clel = new ClusterElement(packet);
+				CommandListener listener = listeners.get(clel.getMethodName());
+				clel.addVisitedNode(JID.jidInstanceNS(packet.getAttributeStaticStr(Packet.TO_ATT)));
+				listener.executeCommand(clel.getFirstNode(), clel.getVisitedNodes(), clel.getAllMethodParams(),
+										clel.getDataPackets());
+			} catch (ClusterCommandException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		public void handleDomainChange(String domain, XMPPResourceConnection conn) {
+		}
+
+		@Override
+		public void handleLogin(BareJID userId, XMPPResourceConnection conn) {
+		}
+
+		@Override
+		public void handleLogout(BareJID userId, XMPPResourceConnection conn) {
+		}
+
+		@Override
+		public void handlePresenceSet(XMPPResourceConnection conn) {
+		}
+
+		@Override
+		public void handleResourceBind(XMPPResourceConnection conn) {
+		}
+
+		@Override
+		public boolean hasXMPPResourceConnectionForConnectionJid(JID connJid) {
+			return false;
+		}
+
+		@Override
+		public boolean isLocalDomain(String domain, boolean includeComponents) {
+			return DOMAIN.equals(domain);
+		}
+
+		@Override
+		public void nodeConnected(String addr) {
+		}
+
+		@Override
+		public void nodeDisconnected(String addr) {
+		}
+
+		@Override
+		public void processPacket(Packet packet, XMPPResourceConnection conn) {
+			if (conn != null) {
+				delivered.add(packet);
+				Long sent = sentTimes.remove(packet.getStanzaId());
+				if (sent != null) {
+					deliveries.increment();
+					latency.add(System.nanoTime() - sent);
+				}
+			} else {
+				offlinePackets.add(packet);
+				offline.increment();
+			}
+		}
+
+		@Override
+		public void processPresenceUpdate(XMPPSession session, Element element) {
+		}
+
+		@Override
+		public void removeCommandListener(CommandListener listener) {
+			listeners.remove(listener.getName(), listener);
+		}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data, Queue<Element> packets, JID fromNode,
+								Set<JID> visitedNodes, JID... toNodes) {
+			for (JID to : toNodes) {
+				Node target = null;
+				for (Node node : nodes) {
+					if (node.id.equals(to) && !node.stopped) {
+						target = node;
+					}
+				}
+				if (target == null) {
+					continue;
+				}
+				if (DefaultClusteringStrategyAbstract.PACKET_FORWARD_CMD.equals(command)) {
+					forwards.increment();
+				} else {
+					controlMessages.increment();
+				}
+				ClusterElement clel = ClusterElement.createClusterMethodCall(fromNode, to, StanzaType.set, command,
+																			 data);
+				clel.addVisitedNodes(visitedNodes);
+				clel.addDataPackets(packets);
+				Element elem = clel.getClusterElement("cl-" + nextId.incrementAndGet()).clone();
+				Node node = target;
+				node.execute(() -> node.handleClusterPacket(elem));
+			}
+		}
+
+		@Override
+		public void sendToNodes(String command, Queue<Element> packets, JID fromNode, Set<JID> visitedNodes,
+								JID... toNodes) {
+			sendToNodes(command, null, packets, fromNode, visitedNodes, toNodes);
+		}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data, JID fromNode, Set<JID> visitedNodes,
+								JID... toNodes) {
+			sendToNodes(command, data, (Queue<Element>) null, fromNode, visitedNodes, toNodes);
+		}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data, JID fromNode, JID... toNodes) {
+			sendToNodes(command, data, (Queue<Element>) null, fromNode, null, toNodes);
+		}
+
+		@Override
+		public void sendToNodes(String command, JID fromNode, JID... toNodes) {
+			sendToNodes(command, null, (Queue<Element>) null, fromNode, null, toNodes);
+		}
+
+		@Override
+		public void sendToNodes(String command, Element packet, JID fromNode, Set<JID> visitedNodes,
+								JID... toNodes) {
+			sendToNodes(command, null, packet, fromNode, visitedNodes, toNodes);
+		}
+
+		@Override
+		public void sendToNodes(String command, Map<String, String> data, Element packet, JID fromNode,
+								Set<JID> visitedNodes, JID... toNodes) {
+			Queue<Element> packets = new ArrayDeque<>();
+			packets.offer(packet);
+			sendToNodes(command, data, packets, fromNode, visitedNodes, toNodes);
+		}
+
+		@Override
+		public void setCommandListener(CommandListener listener) {
+			listeners.put(listener.getName(), listener);
+		}
+
+		void connect(JID node) {
+			connected.add(node);
+			connected.sort(Comparator.naturalOrder());
+			strategy.nodeConnected(node);
+		}
+
+		void disconnect(JID node) {
+			connected.remove(node);
+			strategy.nodeDisconnected(node);
+		}
+
+		/**
+		 * Processing of a packet by <code>SessionManagerClustered</code>.
+		 */
+		void process(Packet packet) {
+			XMPPResourceConnection conn = getXMPPResourceConnection(packet);
+			boolean clusterOK = strategy.processPacket(packet, conn);
+			if (conn != null || !clusterOK) {
+				processPacket(packet, conn);
+			}
+		}
+
+		private void execute(Runnable task) {
+			inFlight.incrementAndGet();
+			Runnable wrapped = () -> {
+				try {
+					task.run();
+				} catch (Throwable ex) {
+					errors.add(ex);
+				} finally {
+					inFlight.decrementAndGet();
+				}
+			};
+			if (hopDelayNanos > 0) {
+				executor.schedule(wrapped, hopDelayNanos, TimeUnit.NANOSECONDS);
+			} else {
+				executor.execute(wrapped);
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+import tigase.xmpp.jid.JID;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares number of cluster hops and delivery latency of messages between users connected to different nodes of a
+ * cluster running in a single JVM for <code>DefaultClusteringStrategy</code> and
+ * <code>SessionDirectoryClusteringStrategy</code>. Each hop between nodes is delayed to simulate network latency.
+ */
+@Category(SlowTest.class)
+public class SessionDirectoryBenchmarkTest {
+
+	private static final long HOP_DELAY_NANOS = 200_000;
+	private static final int MESSAGES = 5000;
+	private static final int USERS = 2000;
+
+	@Test
+	public void testClusterSizes() {
+		for (int nodes : new int[]{2, 4, 8}) {
+			benchmark("DefaultClusteringStrategy", nodes, DefaultClusteringStrategy::new);
+			benchmark("SessionDirectoryClusteringStrategy", nodes, SessionDirectoryClusteringStrategy::new);
+		}
+	}
+
+	private void benchmark(String name, int nodes, Supplier<DefaultClusteringStrategyAbstract<ConnectionRecord>> factory) {
+		InMemoryCluster cluster = new InMemoryCluster(nodes, factory, HOP_DELAY_NANOS);
+		try {
+			Random random = new Random(1);
+			for (int i = 0; i < USERS; i++) {
+				cluster.addSession(random.nextInt(nodes), user(i));
+			}
+			cluster.await();
+			long control = cluster.controlMessages.sum();
+
+			for (int i = 0; i < MESSAGES; i++) {
+				cluster.sendMessage(random.nextInt(nodes), user(random.nextInt(USERS)), user(random.nextInt(USERS)));
+				if (i % 100 == 99) {
+					cluster.await();
+				}
+			}
+			cluster.await();
+			assertTrue(cluster.errors.toString(), cluster.errors.isEmpty());
+			System.out.println(String.format(
+					"%-36s nodes: %d, delivered: %d, offline: %d, hops per message: %.2f, control messages: %d, " +
+							"average latency: %dus", name, nodes, cluster.deliveries.sum(), cluster.offline.sum(),
+					cluster.forwards.sum() / (double) MESSAGES, cluster.controlMessages.sum() - control,
+					cluster.getAverageLatencyMicros()));
+		} finally {
+			cluster.shutdown();
+		}
+	}
+
+	private JID user(int i) {
+		return JID.jidInstanceNS("user" + i, InMemoryCluster.DOMAIN, "res");
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionDirectoryClusteringStrategyTest {
+
+	private static final int NODES = 8;
+
+	private InMemoryCluster cluster;
+	private JID sender = JID.jidInstanceNS("sender", InMemoryCluster.DOMAIN, "res");
+	private JID user = JID.jidInstanceNS("user", InMemoryCluster.DOMAIN, "mobile");
+
+	@Before
+	public void setUp() {
+		cluster = new InMemoryCluster(NODES, SessionDirectoryClusteringStrategy::new, 0);
+	}
+
+	@After
+	public void tearDown() {
+		cluster.shutdown();
+		assertTrue(cluster.errors.toString(), cluster.errors.isEmpty());
+	}
+
+	@Test
+	public void testDeliveryUsingDirectory() {
+		List<Integer> holders = getDirectoryNodes(user.getBareJID());
+		int sessionNode = firstNodeNotIn(holders);
+		int origin = firstNodeNotIn(holders, sessionNode);
+		cluster.addSession(sessionNode, user);
+		cluster.await();
+
+		// first packet is delivered by the directory node
+		long forwards = cluster.forwards.sum();
+		cluster.sendMessage(origin, sender, user.copyWithoutResource());
+		cluster.await();
+		assertEquals(1, cluster.nodes.get(sessionNode).delivered.size());
+		assertEquals(2, cluster.forwards.sum() - forwards);
+
+		// following packets are sent directly using near-cache
+		forwards = cluster.forwards.sum();
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(2, cluster.nodes.get(sessionNode).delivered.size());
+		assertEquals(1, cluster.forwards.sum() - forwards);
+		assertEquals(0, cluster.offline.sum());
+	}
+
+	@Test
+	public void testDeliveryFromDirectoryNode() {
+		List<Integer> holders = getDirectoryNodes(user.getBareJID());
+		int sessionNode = firstNodeNotIn(holders);
+		cluster.addSession(sessionNode, user);
+		cluster.await();
+
+		long forwards = cluster.forwards.sum();
+		cluster.sendMessage(holders.get(0), sender, user);
+		cluster.sendMessage(holders.get(1), sender, user);
+		cluster.await();
+		assertEquals(2, cluster.nodes.get(sessionNode).delivered.size());
+		assertEquals(2, cluster.forwards.sum() - forwards);
+	}
+
+	@Test
+	public void testOfflineUser() {
+		List<Integer> holders = getDirectoryNodes(user.getBareJID());
+		int origin = firstNodeNotIn(holders);
+
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(1, cluster.nodes.get(origin).offlinePackets.size());
+		assertEquals(1, cluster.offline.sum());
+
+		// user is known to be offline, packet is not sent to other nodes
+		long forwards = cluster.forwards.sum();
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(2, cluster.nodes.get(origin).offlinePackets.size());
+		assertEquals(forwards, cluster.forwards.sum());
+
+		// but after user logs in, near-cache is invalidated
+		int sessionNode = firstNodeNotIn(holders, origin);
+		cluster.addSession(sessionNode, user);
+		cluster.await();
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(1, cluster.nodes.get(sessionNode).delivered.size());
+		assertEquals(2, cluster.offline.sum());
+	}
+
+	@Test
+	public void testMultipleSessions() {
+		List<Integer> holders = getDirectoryNodes(user.getBareJID());
+		int sessionNode1 = firstNodeNotIn(holders);
+		int sessionNode2 = firstNodeNotIn(holders, sessionNode1);
+		int origin = firstNodeNotIn(holders, sessionNode1, sessionNode2);
+		cluster.addSession(sessionNode1, user);
+		cluster.await();
+
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(1, cluster.nodes.get(sessionNode1).delivered.size());
+
+		JID other = JID.jidInstanceNS(user.getBareJID(), "desktop");
+		cluster.addSession(sessionNode2, other);
+		cluster.await();
+
+		cluster.sendMessage(origin, sender, user.copyWithoutResource());
+		cluster.await();
+		assertEquals(2, cluster.nodes.get(sessionNode1).delivered.size());
+		assertEquals(1, cluster.nodes.get(sessionNode2).delivered.size());
+
+		// packet to full JID is sent only to node with this resource
+		cluster.sendMessage(origin, sender, other);
+		cluster.await();
+		assertEquals(2, cluster.nodes.get(sessionNode1).delivered.size());
+		assertEquals(2, cluster.nodes.get(sessionNode2).delivered.size());
+		assertEquals(0, cluster.offline.sum());
+	}
+
+	@Test
+	public void testDirectoryNodeDisconnected() {
+		List<Integer> holders = getDirectoryNodes(user.getBareJID());
+		int sessionNode = firstNodeNotIn(holders);
+		int origin = firstNodeNotIn(holders, sessionNode);
+		cluster.addSession(sessionNode, user);
+		cluster.await();
+
+		cluster.disconnect(holders.get(0));
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(1, cluster.nodes.get(sessionNode).delivered.size());
+
+		// new replica received records and is able to replace the second of original nodes
+		cluster.disconnect(holders.get(1));
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(2, cluster.nodes.get(sessionNode).delivered.size());
+		assertEquals(0, cluster.offline.sum());
+	}
+
+	@Test
+	public void testSessionNodeDisconnected() {
+		List<Integer> holders = getDirectoryNodes(user.getBareJID());
+		int sessionNode = firstNodeNotIn(holders);
+		int origin = firstNodeNotIn(holders, sessionNode);
+		cluster.addSession(sessionNode, user);
+		cluster.await();
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+
+		cluster.disconnect(sessionNode);
+		cluster.sendMessage(origin, sender, user);
+		cluster.await();
+		assertEquals(1, cluster.nodes.get(origin).offlinePackets.size());
+	}
+
+	private int firstNodeNotIn(List<Integer> excluded, Integer... others) {
+		for (int i = 0; i < NODES; i++) {
+			if (!excluded.contains(i) && !java.util.Arrays.asList(others).contains(i)) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("Not enough nodes");
+	}
+
+	private List<Integer> getDirectoryNodes(BareJID userId) {
+		List<JID> ids = new ArrayList<>();
+		for (InMemoryCluster.Node node : cluster.nodes) {
+			ids.add(node.id);
+		}
+		SessionDirectoryClusteringStrategy<?> strategy = (SessionDirectoryClusteringStrategy<?>) cluster.nodes.get(
+				0).strategy;
+		List<Integer> result = new ArrayList<>();
+		for (JID node : strategy.getDirectoryNodes(userId, ids)) {
+			result.add(ids.indexOf(node));
+		}
+		return result;
+	}
+}
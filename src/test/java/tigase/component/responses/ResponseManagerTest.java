@@ -0,0 +1,117 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.component.responses;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ResponseManagerTest {
+
+	private static Packet iq(String from, String to, String type, String id) throws TigaseStringprepException {
+		Element iq = new Element("iq", new String[]{"from", "to", "type"}, new String[]{from, to, type});
+		if (id != null) {
+			iq.setAttribute("id", id);
+		}
+		return Packet.packetInstance(iq);
+	}
+
+	@Test
+	public void testResponse() throws Exception {
+		ResponseManager manager = new ResponseManager();
+		Callback callback = new Callback();
+		String id = manager.registerResponseHandler(iq("pubsub.example.com", "user@example.com/res", "get", null),
+													10000L, callback);
+		assertNotNull(id);
+		assertEquals(1, manager.getPendingCount());
+
+		assertNull(manager.getResponseHandler(iq("other@example.com/res", "pubsub.example.com", "result", id)));
+		assertNull(manager.getResponseHandler(iq("user@example.com/res", "pubsub.example.com", "get", id)));
+
+		Runnable handler = manager.getResponseHandler(
+				iq("user@example.com/res", "pubsub.example.com", "result", id));
+		assertNotNull(handler);
+		handler.run();
+		assertEquals(1, callback.success.get());
+		assertEquals(0, manager.getPendingCount());
+		assertEquals(1, manager.getResponsesCount());
+		assertNull(manager.getResponseHandler(iq("user@example.com/res", "pubsub.example.com", "result", id)));
+	}
+
+	@Test
+	public void testUniqueIds() throws Exception {
+		ResponseManager manager = new ResponseManager();
+		Set<String> ids = new HashSet<>();
+		for (int i = 0; i < 1000; i++) {
+			ids.add(manager.registerResponseHandler(iq("pubsub.example.com", "user@example.com", "set", null), null,
+													null));
+		}
+		assertEquals(1000, ids.size());
+		assertEquals(0, manager.getPendingCount());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		ResponseManager manager = new ResponseManager();
+		Callback expiring = new Callback();
+		Callback waiting = new Callback();
+		manager.registerResponseHandler(iq("pubsub.example.com", "user@example.com", "get", "1"), 0L, expiring);
+		manager.registerResponseHandler(iq("pubsub.example.com", "user@example.com", "get", "2"), 600000L, waiting);
+
+		manager.checkTimeouts();
+		Thread.sleep(2 * ResponseManager.TICK + 100);
+		manager.checkTimeouts();
+
+		assertEquals(1, expiring.timeout.get());
+		assertEquals(0, waiting.timeout.get());
+		assertEquals(1, manager.getTimeoutsCount());
+		assertEquals(1, manager.getPendingCount());
+		assertNull(manager.getResponseHandler(iq("user@example.com", "pubsub.example.com", "result", "1")));
+		assertNotNull(manager.getResponseHandler(iq("user@example.com", "pubsub.example.com", "result", "2")));
+	}
+
+	private static class Callback
+			implements AsyncCallback {
+
+		private final AtomicInteger error = new AtomicInteger();
+		private final AtomicInteger success = new AtomicInteger();
+		private final AtomicInteger timeout = new AtomicInteger();
+
+		@Override
+		public void onError(Packet responseStanza, String errorCondition) {
+			error.incrementAndGet();
+		}
+
+		@Override
+		public void onSuccess(Packet responseStanza) {
+			success.incrementAndGet();
+		}
+
+		@Override
+		public void onTimeout() {
+			timeout.incrementAndGet();
+		}
+	}
+}
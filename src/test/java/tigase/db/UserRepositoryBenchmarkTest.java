@@ -0,0 +1,157 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.db.embedded.EmbeddedDataSource;
+import tigase.db.embedded.EmbeddedRepository;
+import tigase.db.jdbc.JDBCRepository;
+import tigase.db.xml.XMLRepository;
+import tigase.tests.SlowTest;
+import tigase.xmpp.jid.BareJID;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares performance of <code>EmbeddedRepository</code>, <code>XMLRepository</code> and <code>JDBCRepository</code>
+ * (only if <code>testDbUri</code> points to Derby database) for typical workloads: creating accounts with rosters,
+ * logging in and updating rosters by many threads.
+ */
+@Category(SlowTest.class)
+public class UserRepositoryBenchmarkTest {
+
+	private static final int ROSTER_SIZE = 50;
+	private static final int THREADS = 8;
+	private static final int USERS = 5000;
+
+	private static String roster(int user) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < ROSTER_SIZE; i++) {
+			sb.append("<contact jid=\"buddy-").append((user + i) % USERS).append("@example.com\" subs=\"both\"/>");
+		}
+		return sb.toString();
+	}
+
+	private static BareJID user(int i) {
+		return BareJID.bareJIDInstanceNS("user-" + i, "example.com");
+	}
+
+	@Test
+	public void testEmbeddedRepository() throws Exception {
+		File file = File.createTempFile("embedded-benchmark", ".db");
+		file.delete();
+		EmbeddedDataSource dataSource = new EmbeddedDataSource();
+		dataSource.initialize("embedded://" + file.getPath());
+		EmbeddedRepository repo = new EmbeddedRepository();
+		repo.setDataSource(dataSource);
+		try {
+			benchmark("EmbeddedRepository", repo);
+		} finally {
+			dataSource.getStore().close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testXMLRepository() throws Exception {
+		XMLRepository repo = new XMLRepository();
+		repo.initRepository("memory://xmlBenchmarkRepo", new HashMap<>());
+		benchmark("XMLRepository", repo);
+	}
+
+	@Test
+	public void testJDBCRepositoryOnDerby() throws Exception {
+		String uri = AbstractDataSourceTestCase.uri;
+		Assume.assumeTrue("Ignored due to not passed Derby DB URI!", uri != null && uri.startsWith("jdbc:derby:"));
+		AbstractDataSourceTestCase.loadSchema(Schema.SERVER_SCHEMA_ID, JDBCRepository.CURRENT_DB_SCHEMA_VER,
+											  new HashSet<>());
+		DataRepository dataSource = (DataRepository) DataSourceHelper.getDefaultClass(DataSource.class, uri)
+				.newInstance();
+		dataSource.initRepository(uri, new HashMap<>());
+		JDBCRepository repo = new JDBCRepository();
+		repo.setDataSource(dataSource);
+		try {
+			benchmark("JDBCRepository (Derby)", repo);
+		} finally {
+			for (int i = 0; i < USERS; i++) {
+				repo.removeUser(user(i));
+			}
+		}
+	}
+
+	private void benchmark(String name, UserRepository repo) throws Exception {
+		long load = run(i -> {
+			repo.addUser(user(i));
+			repo.setData(user(i), "roster", "roster", roster(i));
+			repo.setData(user(i), "password", "secret-" + i);
+		});
+		long login = run(i -> {
+			repo.userExists(user(i));
+			repo.getData(user(i), "password");
+			repo.getData(user(i), "accountStatus");
+			repo.setData(user(i), "last-login", String.valueOf(System.currentTimeMillis()));
+		});
+		long roster = run(i -> {
+			String value = repo.getData(user(i), "roster", "roster");
+			repo.setData(user(i), "roster", "roster", value + "<contact jid=\"new@example.com\"/>");
+			repo.getDataList(user(i), "roster", "roster");
+		});
+		System.out.println(
+				String.format("%-24s users: %d, threads: %d, load: %dms, login: %dms, roster: %dms", name, USERS,
+							  THREADS, load, login, roster));
+	}
+
+	private long run(UserTask task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			long start = System.currentTimeMillis();
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				final int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int i = thread; i < USERS; i += THREADS) {
+						task.run(i);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			return System.currentTimeMillis() - start;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@FunctionalInterface
+	private interface UserTask {
+
+		void run(int user) throws Exception;
+
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+import tigase.xmpp.jid.BareJID;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class EmbeddedRepositoryTest {
+
+	private EmbeddedDataSource dataSource;
+	private File file;
+	private EmbeddedRepository repo;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("embedded-repository", ".db");
+		file.delete();
+		open();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		dataSource.getStore().close();
+		file.delete();
+		new File(file.getPath() + ".compact").delete();
+	}
+
+	@Test
+	public void testDataModel() throws Exception {
+		BareJID user = BareJID.bareJIDInstanceNS("user", "domain");
+		repo.addUser(user);
+		try {
+			repo.addUser(user);
+			fail("User should already exist");
+		} catch (UserExistsException ex) {
+			// expected
+		}
+
+		repo.setData(user, "key", "value");
+		repo.setData(user, "node1/node2/node3", "key", "value3");
+		repo.setDataList(user, "list", "items", new String[]{"1", "2"});
+		repo.addDataList(user, "list", "items", new String[]{"3"});
+
+		assertEquals("value", repo.getData(user, "key"));
+		assertEquals("def", repo.getData(user, null, "missing", "def"));
+		assertEquals("value3", repo.getData(user, "node1/node2/node3", "key"));
+		assertArrayEquals(new String[]{"1", "2", "3"}, repo.getDataList(user, "list", "items"));
+		assertEquals(new HashSet<>(Arrays.asList("node1", "list")),
+					 new HashSet<>(Arrays.asList(repo.getSubnodes(user))));
+		assertArrayEquals(new String[]{"node2"}, repo.getSubnodes(user, "node1"));
+		assertArrayEquals(new String[]{"key"}, repo.getKeys(user));
+		assertEquals(Collections.singletonMap("key", "value3"), repo.getDataMap(user, "node1/node2/node3"));
+
+		repo.removeSubnode(user, "node1");
+		assertNull(repo.getData(user, "node1/node2/node3", "key"));
+		repo.removeData(user, "key");
+		assertNull(repo.getData(user, "key"));
+
+		repo.removeUser(user);
+		assertFalse(repo.userExists(user));
+		try {
+			repo.getData(user, "key");
+			fail("User should not exist");
+		} catch (UserNotFoundException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		BareJID user1 = BareJID.bareJIDInstanceNS("user1", "domain");
+		BareJID user2 = BareJID.bareJIDInstanceNS("user2", "domain");
+		repo.addUser(user1);
+		repo.addUser(user2);
+		repo.setData(user1, "roster", "roster", "<contact jid='user2@domain'/>");
+		repo.setData(user1, "roster", "roster", "<contact jid='user3@domain'/>");
+		repo.setData(user2, "privacy", "default", "list");
+		repo.removeUser(user2);
+		dataSource.getStore().close();
+
+		open();
+		assertEquals(1, repo.getUsersCount());
+		assertEquals("<contact jid='user3@domain'/>", repo.getData(user1, "roster", "roster"));
+		assertFalse(repo.userExists(user2));
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		MappedStore store = dataSource.getStore();
+		BareJID user = BareJID.bareJIDInstanceNS("user", "domain");
+		repo.addUser(user);
+		for (int i = 0; i < 1000; i++) {
+			repo.setData(user, "roster", "roster", "roster-version-" + i);
+		}
+		assertTrue(store.getGarbageBytes() > 0);
+		int size = store.getFileSize();
+
+		store.compact();
+		assertEquals(0, store.getGarbageBytes());
+		assertTrue(store.getFileSize() < size);
+		assertEquals("roster-version-999", repo.getData(user, "roster", "roster"));
+
+		repo.setData(user, "roster", "roster", "after-compaction");
+		store.close();
+		open();
+		assertEquals("after-compaction", repo.getData(user, "roster", "roster"));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 500; i++) {
+					BareJID user = BareJID.bareJIDInstanceNS("user-" + thread + "-" + i, "domain");
+					repo.addUser(user);
+					repo.setData(user, "roster", "roster", "value-" + i);
+					assertEquals("value-" + i, repo.getData(user, "roster", "roster"));
+					if (i % 100 == 0) {
+						dataSource.getStore().compact();
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		assertEquals(8 * 500, repo.getUsersCount());
+	}
+
+	private void open() throws Exception {
+		dataSource = new EmbeddedDataSource();
+		dataSource.initialize("embedded://" + file.getPath());
+		repo = new EmbeddedRepository();
+		repo.setDataSource(dataSource);
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTest {
+
+	@Test
+	public void testCoalescingAndOverlay() {
+		List<Map<String, String>> batches = new ArrayList<>();
+		WriteBehindQueue<String, String> queue = new WriteBehindQueue<>("test", batch -> batches.add(
+				new HashMap<>(batch)), 100, 60 * 1000);
+		try {
+			queue.put("a", "1");
+			queue.put("a", "2");
+			queue.put("b", "3");
+
+			assertEquals("2", queue.get("a"));
+			assertEquals(2, queue.getPendingCount());
+			assertEquals(1, queue.getCoalescedCount());
+			assertTrue(batches.isEmpty());
+
+			queue.flush();
+
+			assertEquals(1, batches.size());
+			assertEquals("2", batches.get(0).get("a"));
+			assertEquals("3", batches.get(0).get("b"));
+			assertNull(queue.get("a"));
+			assertEquals(0, queue.getPendingCount());
+			assertEquals(2, queue.getFlushedCount());
+		} finally {
+			queue.stop();
+		}
+	}
+
+	@Test
+	public void testFilteredFlushAndRemove() {
+		List<Map<String, String>> batches = new ArrayList<>();
+		WriteBehindQueue<String, String> queue = new WriteBehindQueue<>("test", batch -> batches.add(
+				new HashMap<>(batch)), 100, 60 * 1000);
+		try {
+			queue.put("user1/roster", "r1");
+			queue.put("user2/roster", "r2");
+			queue.put("user2/private", "p2");
+
+			queue.flush(key -> key.startsWith("user1/"));
+			assertEquals(1, batches.size());
+			assertEquals(1, batches.get(0).size());
+			assertEquals("r1", batches.get(0).get("user1/roster"));
+
+			queue.removeIf(key -> key.startsWith("user2/"));
+			assertEquals(0, queue.getPendingCount());
+		} finally {
+			queue.stop();
+		}
+		assertEquals(1, batches.size());
+	}
+
+	@Test
+	public void testFlushOnBatchSize() throws InterruptedException {
+		List<Map<String, String>> batches = new ArrayList<>();
+		WriteBehindQueue<String, String> queue = new WriteBehindQueue<>("test", batch -> {
+			synchronized (batches) {
+				batches.add(new HashMap<>(batch));
+				batches.notifyAll();
+			}
+		}, 10, 60 * 1000);
+		try {
+			for (int i = 0; i < 10; i++) {
+				queue.put("key-" + i, "value-" + i);
+			}
+			synchronized (batches) {
+				long end = System.currentTimeMillis() + 5000;
+				while (batches.isEmpty() && System.currentTimeMillis() < end) {
+					batches.wait(100);
+				}
+			}
+			assertFalse(batches.isEmpty());
+			assertEquals(10, batches.get(0).size());
+		} finally {
+			queue.stop();
+		}
+	}
+
+	@Test
+	public void testFailedBatchIsRetried() {
+		AtomicInteger calls = new AtomicInteger();
+		List<Map<String, String>> batches = new ArrayList<>();
+		WriteBehindQueue<String, String> queue = new WriteBehindQueue<>("test", batch -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new java.sql.SQLException("test");
+			}
+			batches.add(new HashMap<>(batch));
+		}, 100, 60 * 1000);
+		try {
+			queue.put("a", "1");
+			queue.flush();
+			assertEquals(1, queue.getFailedCount());
+			assertEquals(1, queue.getPendingCount());
+			assertEquals("1", queue.get("a"));
+
+			queue.flush();
+			assertEquals(1, batches.size());
+			assertEquals("1", batches.get(0).get("a"));
+			assertEquals(0, queue.getPendingCount());
+			assertEquals(1, queue.getFlushedCount());
+			assertEquals(0, queue.getDroppedCount());
+		} finally {
+			queue.stop();
+		}
+	}
+
+	@Test
+	public void testEntryDroppedAfterMaxAttempts() {
+		WriteBehindQueue<String, String> queue = new WriteBehindQueue<>("test", batch -> {
+			throw new java.sql.SQLException("test");
+		}, 100, 60 * 1000, 3);
+		try {
+			queue.put("a", "1");
+			queue.flush();
+			queue.flush();
+			assertEquals(1, queue.getPendingCount());
+			queue.flush();
+			assertEquals(3, queue.getFailedCount());
+			assertEquals(1, queue.getDroppedCount());
+			assertEquals(0, queue.getPendingCount());
+		} finally {
+			queue.stop();
+		}
+	}
+
+	@Test
+	public void testRemoveWaitsForBatchInFlight() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> events = Collections.synchronizedList(new ArrayList<>());
+		WriteBehindQueue<String, String> queue = new WriteBehindQueue<>("test", batch -> {
+			writing.countDown();
+			release.await();
+			events.add("written");
+		}, 100, 60 * 1000);
+		try {
+			queue.put("a", "1");
+			Thread flusher = new Thread(queue::flush);
+			flusher.start();
+			assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+			Thread remover = new Thread(() -> {
+				queue.remove("a");
+				events.add("removed");
+			});
+			remover.start();
+			remover.join(200);
+			assertTrue("remove should wait for the batch being written", remover.isAlive());
+
+			release.countDown();
+			flusher.join(5000);
+			remover.join(5000);
+			assertEquals(Arrays.asList("written", "removed"), events);
+			assertEquals(0, queue.getPendingCount());
+		} finally {
+			release.countDown();
+			queue.stop();
+		}
+	}
+}
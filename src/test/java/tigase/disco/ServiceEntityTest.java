@@ -0,0 +1,79 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.disco;
+
+import org.junit.Test;
+import tigase.component.DSLBeanConfigurator;
+import tigase.kernel.DefaultTypesConverter;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ServiceEntityTest {
+
+	@Test
+	public void testDiscoVersionChangesWhenEntityChanges() {
+		ServiceEntity entity = new ServiceEntity("test", null, "Test");
+
+		long version = ServiceEntity.getDiscoVersion();
+		entity.addFeatures("urn:test:1");
+		assertTrue(ServiceEntity.getDiscoVersion() > version);
+
+		version = ServiceEntity.getDiscoVersion();
+		entity.addIdentities(new ServiceIdentity("component", "generic", "Test"));
+		assertTrue(ServiceEntity.getDiscoVersion() > version);
+
+		ServiceEntity item = new ServiceEntity("item@test", null, "Item");
+		version = ServiceEntity.getDiscoVersion();
+		entity.addItems(item);
+		assertTrue(ServiceEntity.getDiscoVersion() > version);
+
+		version = ServiceEntity.getDiscoVersion();
+		entity.removeItems(item);
+		assertTrue(ServiceEntity.getDiscoVersion() > version);
+	}
+
+	@Test
+	public void testDiscoVersionChangesWhenBeanIsReconfigured() {
+		Kernel kernel = new Kernel("test");
+		kernel.registerBean(DefaultTypesConverter.class).exec();
+		kernel.registerBean(DSLBeanConfigurator.class).exec();
+		kernel.registerBean("plugin").asClass(ConfigurablePlugin.class).setActive(true).exec();
+		DSLBeanConfigurator configurator = kernel.getInstance(DSLBeanConfigurator.class);
+		ConfigurablePlugin plugin = kernel.getInstance(ConfigurablePlugin.class);
+
+		long version = ServiceEntity.getDiscoVersion();
+		Map<String, Object> values = new HashMap<>();
+		values.put("feature", "urn:test:2");
+		configurator.configure(kernel.getDependencyManager().getBeanConfig("plugin"), plugin, values);
+
+		assertEquals("urn:test:2", plugin.feature);
+		assertTrue(ServiceEntity.getDiscoVersion() > version);
+	}
+
+	public static class ConfigurablePlugin {
+
+		@ConfigField(desc = "Advertised feature")
+		private String feature = "urn:test:1";
+
+	}
+}
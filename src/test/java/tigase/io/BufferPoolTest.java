@@ -0,0 +1,74 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+	@Test
+	public void testBorrowAndRelease() {
+		BufferPool pool = new BufferPool("test", false, 2);
+
+		ByteBuffer buffer = pool.borrow(16709);
+		assertEquals(17 * 1024, buffer.capacity());
+		assertEquals(buffer.capacity(), buffer.remaining());
+
+		buffer.put((byte) 1);
+		pool.release(buffer);
+
+		ByteBuffer reused = pool.borrow(17000);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(reused.capacity(), reused.limit());
+	}
+
+	@Test
+	public void testLimitOfFreeBuffers() {
+		BufferPool pool = new BufferPool("test", false, 1);
+
+		ByteBuffer first = pool.borrow(1024);
+		ByteBuffer second = pool.borrow(1024);
+		assertNotSame(first, second);
+
+		pool.release(first);
+		pool.release(second);
+
+		assertSame(first, pool.borrow(1024));
+		assertNotSame(second, pool.borrow(1024));
+	}
+
+	@Test
+	public void testForeignBuffersAreNotPooled() {
+		BufferPool pool = new BufferPool("test", false, 10);
+
+		ByteBuffer pooled = pool.borrow(1024);
+		ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+		pool.release(direct);
+		pool.release(ByteBuffer.allocate(1000));
+
+		ByteBuffer borrowed = pool.borrow(1024);
+		assertNotSame(direct, borrowed);
+		assertFalse(borrowed.isDirect());
+		pool.release(pooled);
+	}
+}
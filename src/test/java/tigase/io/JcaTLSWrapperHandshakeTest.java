@@ -0,0 +1,217 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.cert.CertificateEntry;
+
+import javax.net.ssl.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static tigase.cert.CertificateUtil.createKeyPair;
+import static tigase.cert.CertificateUtil.createSelfSignedCertificate;
+
+public class JcaTLSWrapperHandshakeTest {
+
+	private static final String DOMAIN = "example.com";
+	private static final String EXECUTOR_THREAD = "tls-handshake-test";
+
+	private SSLContext clientContext;
+	private ExecutorService executor;
+	private SSLContext serverContext;
+
+	@Before
+	public void setup() throws Exception {
+		CertificateEntry entry = createSelfSignedCertificate("test@mail.com", DOMAIN, "OU", "O", "City", "State",
+															 "Country", () -> createKeyPair(2048, "secret"));
+		KeyStore keys = KeyStore.getInstance("JKS");
+		keys.load(null, new char[0]);
+		keys.setKeyEntry(DOMAIN, entry.getPrivateKey(), new char[0], entry.getCertChain());
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+		kmf.init(keys, new char[0]);
+
+		serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(kmf.getKeyManagers(), null, null);
+		clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, new TrustManager[]{new TrustAllManager()}, null);
+
+		executor = Executors.newSingleThreadExecutor(r -> new Thread(r, EXECUTOR_THREAD));
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testHandshakeTasksExecutedByExecutor() throws Exception {
+		TLSHandshakeStatistics statistics = new TLSHandshakeStatistics();
+		RecordingHandler clientHandler = new RecordingHandler();
+		RecordingHandler serverHandler = new RecordingHandler();
+		JcaTLSWrapper client = new JcaTLSWrapper(clientContext, clientHandler, DOMAIN, 5222, true, false, false, null,
+												 null, executor, statistics);
+		JcaTLSWrapper server = new JcaTLSWrapper(serverContext, serverHandler, null, 0, false, false, false, null,
+												 null, executor, statistics);
+
+		handshake(client, clientHandler, server, serverHandler);
+
+		int scheduled = clientHandler.scheduled.get() + serverHandler.scheduled.get();
+		assertTrue("no delegated tasks were passed to the executor", scheduled > 0);
+		assertEquals(clientHandler.scheduled.get(), clientHandler.completed.get());
+		assertEquals(serverHandler.scheduled.get(), serverHandler.completed.get());
+		assertEquals(Collections.singleton(EXECUTOR_THREAD), clientHandler.completedBy);
+		assertEquals(Collections.singleton(EXECUTOR_THREAD), serverHandler.completedBy);
+		assertFalse(client.isTaskPending());
+		assertFalse(server.isTaskPending());
+		assertEquals(2, statistics.getFullHandshakes());
+
+		assertEquals("hello", transfer(client, server, "hello"));
+	}
+
+	@Test
+	public void testHandshakeTasksExecutedInlineWhenExecutorRejects() throws Exception {
+		RecordingHandler clientHandler = new RecordingHandler();
+		RecordingHandler serverHandler = new RecordingHandler();
+		JcaTLSWrapper client = new JcaTLSWrapper(clientContext, clientHandler, DOMAIN, 5222, true, false, false, null,
+												 null, executor, null);
+		JcaTLSWrapper server = new JcaTLSWrapper(serverContext, serverHandler, null, 0, false, false, false, null,
+												 null, r -> {
+			throw new RejectedExecutionException("queue full");
+		}, new TLSHandshakeStatistics());
+
+		handshake(client, clientHandler, server, serverHandler);
+
+		// handler was told that tasks were scheduled, so it has to be told that they were completed
+		assertTrue(serverHandler.scheduled.get() > 0);
+		assertEquals(serverHandler.scheduled.get(), serverHandler.completed.get());
+		assertEquals(Collections.singleton(Thread.currentThread().getName()), serverHandler.completedBy);
+		assertFalse(server.isTaskPending());
+
+		assertEquals("hello", transfer(client, server, "hello"));
+	}
+
+	private void handshake(JcaTLSWrapper client, RecordingHandler clientHandler, JcaTLSWrapper server,
+						   RecordingHandler serverHandler) throws Exception {
+		ByteBuffer clientToServer = ByteBuffer.allocate(client.getNetBuffSize() * 4);
+		ByteBuffer serverToClient = ByteBuffer.allocate(server.getNetBuffSize() * 4);
+
+		client.wrap(ByteBuffer.allocate(0), clientToServer);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (clientHandler.handshakes.get() == 0 || serverHandler.handshakes.get() == 0) {
+			assertTrue("handshake not completed in time", System.currentTimeMillis() < deadline);
+			boolean progress = step(server, clientToServer, serverToClient);
+			progress |= step(client, serverToClient, clientToServer);
+			if (!progress) {
+				Thread.sleep(1);
+			}
+		}
+	}
+
+	private boolean step(JcaTLSWrapper wrapper, ByteBuffer in, ByteBuffer out) throws Exception {
+		if (wrapper.isTaskPending()) {
+			// connection data cannot be processed until the executor completes the tasks
+			return false;
+		}
+		switch (wrapper.getHandshakeStatus()) {
+			case NEED_WRAP:
+				wrapper.wrap(ByteBuffer.allocate(0), out);
+				return true;
+			case NEED_TASK:
+				fail("delegated tasks left for the I/O thread");
+				return false;
+			default:
+				in.flip();
+				int remaining = in.remaining();
+				if (remaining > 0) {
+					wrapper.unwrap(in, ByteBuffer.allocate(wrapper.getAppBuffSize()));
+				}
+				boolean consumed = in.remaining() < remaining;
+				in.compact();
+				return consumed;
+		}
+	}
+
+	private String transfer(JcaTLSWrapper from, JcaTLSWrapper to, String data) throws Exception {
+		ByteBuffer net = ByteBuffer.allocate(from.getNetBuffSize());
+		from.wrap(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)), net);
+		net.flip();
+		ByteBuffer app = to.unwrap(net, ByteBuffer.allocate(to.getAppBuffSize()));
+		app.flip();
+		return StandardCharsets.UTF_8.decode(app).toString();
+	}
+
+	private static class RecordingHandler
+			implements TLSEventHandler {
+
+		private final AtomicInteger completed = new AtomicInteger();
+		private final Set<String> completedBy = ConcurrentHashMap.newKeySet();
+		private final AtomicInteger handshakes = new AtomicInteger();
+		private final AtomicInteger scheduled = new AtomicInteger();
+
+		@Override
+		public void handshakeCompleted(TLSWrapper wrapper) {
+			handshakes.incrementAndGet();
+		}
+
+		@Override
+		public void handshakeTasksScheduled(TLSWrapper wrapper) {
+			scheduled.incrementAndGet();
+		}
+
+		@Override
+		public void handshakeTasksCompleted(TLSWrapper wrapper) {
+			completedBy.add(Thread.currentThread().getName());
+			completed.incrementAndGet();
+		}
+
+		@Override
+		public int getSocketInputSize() {
+			return 64 * 1024;
+		}
+	}
+
+	private static class TrustAllManager
+			implements X509TrustManager {
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	@Test
+	public void testCalculateFactor() {
+		assertEquals(1, AdmissionControl.calculateFactor(0.2, 0.6, 0.9, 0.1), 0.0001);
+		assertEquals(1, AdmissionControl.calculateFactor(0.6, 0.6, 0.9, 0.1), 0.0001);
+		assertEquals(0.55, AdmissionControl.calculateFactor(0.75, 0.6, 0.9, 0.1), 0.0001);
+		assertEquals(0.1, AdmissionControl.calculateFactor(0.9, 0.6, 0.9, 0.1), 0.0001);
+		assertEquals(0.1, AdmissionControl.calculateFactor(1.5, 0.6, 0.9, 0.1), 0.0001);
+	}
+
+	@Test
+	public void testHighestSignalIsUsed() {
+		AdmissionControl control = new AdmissionControl(0.6, 0.9, 0.1);
+		control.addLoadSignal("cpu", () -> 0.1);
+		control.addLoadSignal("queue", () -> 1.0);
+
+		double previous = 1;
+		for (int i = 0; i < 10; i++) {
+			double factor = control.update();
+			assertTrue(factor <= previous);
+			previous = factor;
+		}
+		assertEquals(0.1, control.getFactor(), 0.0001);
+
+		// after load goes down, factor recovers
+		control.removeLoadSignal("queue");
+		for (int i = 0; i < 10; i++) {
+			control.update();
+		}
+		assertEquals(1, control.getFactor(), 0.0001);
+	}
+
+	@Test
+	public void testFailingSignalIsIgnored() {
+		AdmissionControl control = new AdmissionControl(0.6, 0.9, 0.1);
+		control.addLoadSignal("broken", () -> {
+			throw new IllegalStateException();
+		});
+		assertEquals(1, control.update(), 0.0001);
+	}
+
+	@Test
+	public void testTokenBucket() {
+		ConnectionOpenThread.PortThrottlingData data = new ConnectionOpenThread.PortThrottlingData(10);
+		long now = System.nanoTime();
+
+		// burst of up to one second worth of connections is allowed
+		int accepted = 0;
+		for (int i = 0; i < 20; i++) {
+			if (data.tryAcquire(now, 1)) {
+				accepted++;
+			}
+		}
+		assertEquals(10, accepted);
+		assertEquals(10, data.getRejected());
+
+		// tokens are refilled at the configured rate
+		assertFalse(data.tryAcquire(now + SECOND / 20, 1));
+		assertTrue(data.tryAcquire(now + SECOND / 10, 1));
+
+		// and at the reduced rate when admission factor is lower
+		now += 10 * SECOND;
+		accepted = 0;
+		for (int i = 0; i < 20; i++) {
+			if (data.tryAcquire(now, 0.5)) {
+				accepted++;
+			}
+		}
+		assertEquals(5, accepted);
+		assertFalse(data.tryAcquire(now + SECOND / 10, 0.5));
+		assertTrue(data.tryAcquire(now + SECOND / 5, 0.5));
+
+		data.nextSecond();
+		assertEquals(data.getAccepted(), data.getLastSecondAccepted());
+		data.nextSecond();
+		assertEquals(0, data.getLastSecondAccepted());
+	}
+
+	@Test
+	public void testMinimalRateAllowsSingleConnection() {
+		ConnectionOpenThread.PortThrottlingData data = new ConnectionOpenThread.PortThrottlingData(10);
+		long now = System.nanoTime() + SECOND;
+
+		assertTrue(data.tryAcquire(now, 0.01));
+		assertFalse(data.tryAcquire(now, 0.01));
+		assertTrue(data.tryAcquire(now + 10 * SECOND, 0.01));
+	}
+}
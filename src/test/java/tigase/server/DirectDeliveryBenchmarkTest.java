@@ -0,0 +1,172 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+import tigase.util.workqueue.PriorityQueueAbstract;
+import tigase.util.workqueue.PriorityQueueRelaxed;
+import tigase.xmpp.jid.JID;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares delivery of a message from the session manager to the local connection manager by passing it through
+ * output queue of the session manager, <code>MessageRouter</code> queue and input queue of the connection manager
+ * (each with its own thread, as it is done by <code>AbstractMessageReceiver</code>) with direct delivery, where the
+ * thread of the session manager puts the message to the input queue of the connection manager. Reports latency of a
+ * single message and CPU time used by all threads per message in a burst.
+ */
+@Category(SlowTest.class)
+public class DirectDeliveryBenchmarkTest {
+
+	private static final int BURST = 200_000;
+	private static final int PING_PONG = 20_000;
+
+	@Test
+	public void testRoutedVsDirect() throws Exception {
+		JID from = JID.jidInstance("user1@example.com/res1");
+		JID to = JID.jidInstance("user2@example.com/res2");
+		Packet message = Message.getMessage(from, to, null, "Hello, how are you?", null, null, "id-1");
+
+		// warm up
+		benchmark("routed", message, true);
+		benchmark("direct", message, false);
+
+		benchmark("routed", message, true);
+		benchmark("direct", message, false);
+	}
+
+	private void benchmark(String name, Packet message, boolean routed) throws InterruptedException {
+		Pipeline pipeline = new Pipeline(routed);
+
+		// latency of a single message on idle server
+		long latency = 0;
+		for (int i = 0; i < PING_PONG; i++) {
+			CountDownLatch written = new CountDownLatch(1);
+			pipeline.onWrite = p -> written.countDown();
+			long start = System.nanoTime();
+			pipeline.send(message.copyElementOnly());
+			written.await();
+			latency += System.nanoTime() - start;
+		}
+
+		// CPU time used by all threads for a burst of messages
+		CountDownLatch written = new CountDownLatch(BURST);
+		pipeline.onWrite = p -> written.countDown();
+		long cpu = pipeline.cpuTime();
+		for (int i = 0; i < BURST; i++) {
+			pipeline.send(message.copyElementOnly());
+		}
+		written.await();
+		cpu = pipeline.cpuTime() - cpu;
+		pipeline.stop();
+
+		assertEquals(PING_PONG + BURST, pipeline.written.get());
+		System.out.println(String.format("%s: latency %7.1fus/message, CPU %6.2fus/message", name,
+										 latency / (PING_PONG * 1000.0), cpu / (BURST * 1000.0)));
+	}
+
+	private static class Pipeline {
+
+		private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		private final PriorityQueueAbstract<Packet> first;
+		private final List<Thread> threads = new ArrayList<>();
+		private final AtomicLong written = new AtomicLong();
+		private volatile Consumer<Packet> onWrite;
+
+		private Pipeline(boolean routed) {
+			PriorityQueueAbstract<Packet> c2sIn = queue();
+			if (routed) {
+				// SM out queue -> MR queue -> c2s in queue -> socket
+				PriorityQueueAbstract<Packet> mrIn = queue();
+				first = queue();
+				startThread(first, p -> put(mrIn, p));
+				startThread(mrIn, p -> put(c2sIn, p));
+			} else {
+				// c2s in queue -> socket
+				first = c2sIn;
+			}
+			startThread(c2sIn, this::write);
+			threads.add(Thread.currentThread());
+		}
+
+		private static PriorityQueueAbstract<Packet> queue() {
+			return PriorityQueueAbstract.getPriorityQueue(Priority.values().length, 100_000,
+														  PriorityQueueRelaxed.class);
+		}
+
+		private static void put(PriorityQueueAbstract<Packet> queue, Packet packet) {
+			try {
+				queue.put(packet, packet.getPriority().ordinal());
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		private long cpuTime() {
+			long result = 0;
+			for (Thread thread : threads) {
+				result += bean.getThreadCpuTime(thread.getId());
+			}
+			return result;
+		}
+
+		private void send(Packet packet) {
+			put(first, packet);
+		}
+
+		private void startThread(PriorityQueueAbstract<Packet> queue, Consumer<Packet> next) {
+			Thread thread = new Thread(() -> {
+				try {
+					while (true) {
+						next.accept(queue.take());
+					}
+				} catch (InterruptedException ex) {
+					// stopped
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+			threads.add(thread);
+		}
+
+		private void stop() {
+			for (Thread thread : threads) {
+				if (thread != Thread.currentThread()) {
+					thread.interrupt();
+				}
+			}
+		}
+
+		private void write(Packet packet) {
+			packet.getElementAsString();
+			written.incrementAndGet();
+			onWrite.accept(packet);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.disco.ServiceEntity;
+import tigase.vhosts.VHostItem;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageRouterDiscoInfoCacheTest {
+
+	private static final String DOMAIN = "example.com";
+
+	private TestComponent component;
+	private TestMessageRouter router;
+	private JID user;
+
+	@Before
+	public void setup() throws Exception {
+		router = new TestMessageRouter();
+		router.setName("message-router");
+		router.updateServiceEntity();
+		component = new TestComponent();
+		component.setName("test");
+		router.addComponent(component);
+		user = JID.jidInstance("user@" + DOMAIN + "/resource");
+	}
+
+	@Test
+	public void testCachedDiscoInfoIsReturned() {
+		Element first = router.getDiscoInfo(JID.jidInstanceNS(DOMAIN), user, null);
+		assertTrue(hasFeature(first, "urn:test:1"));
+
+		// change not announced by a new disco version is not visible
+		component.feature = "urn:test:2";
+		Element second = router.getDiscoInfo(JID.jidInstanceNS(DOMAIN), user, null);
+		assertTrue(hasFeature(second, "urn:test:1"));
+		assertFalse(hasFeature(second, "urn:test:2"));
+
+		// each caller gets its own copy
+		assertNotSame(first, second);
+		first.addChild(new Element("feature", new String[]{"var"}, new String[]{"urn:test:modified"}));
+		assertFalse(hasFeature(router.getDiscoInfo(JID.jidInstanceNS(DOMAIN), user, null), "urn:test:modified"));
+	}
+
+	@Test
+	public void testCacheIsInvalidatedWhenDiscoVersionChanges() {
+		Element first = router.getDiscoInfo(JID.jidInstanceNS(DOMAIN), user, null);
+		String firstVer = router.getServiceEntityCaps(user).get().getAttributeStaticStr("ver");
+		assertTrue(hasFeature(first, "urn:test:1"));
+
+		component.feature = "urn:test:2";
+		ServiceEntity.discoChanged();
+
+		Element second = router.getDiscoInfo(JID.jidInstanceNS(DOMAIN), user, null);
+		assertTrue(hasFeature(second, "urn:test:2"));
+		assertFalse(hasFeature(second, "urn:test:1"));
+		assertNotEquals(firstVer, router.getServiceEntityCaps(user).get().getAttributeStaticStr("ver"));
+	}
+
+	private static boolean hasFeature(Element discoInfo, String feature) {
+		return discoInfo.findChild(
+				child -> "feature".equals(child.getName()) && feature.equals(child.getAttributeStaticStr("var"))) != null;
+	}
+
+	private static class TestComponent
+			extends BasicComponent {
+
+		private volatile String feature = "urn:test:1";
+
+		@Override
+		public List<Element> getDiscoFeatures(JID from) {
+			return Collections.singletonList(new Element("feature", new String[]{"var"}, new String[]{feature}));
+		}
+	}
+
+	private static class TestMessageRouter
+			extends MessageRouter {
+
+		@Override
+		public Element getDiscoExtensionsForm(String domain) {
+			return null;
+		}
+
+		@Override
+		public VHostItem getVHostItem(String domain) {
+			return null;
+		}
+
+		@Override
+		public boolean isLocalDomain(String domain) {
+			return DOMAIN.equals(domain);
+		}
+	}
+}
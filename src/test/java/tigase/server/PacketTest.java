@@ -25,7 +25,11 @@ import tigase.xml.Element;
 import tigase.xmpp.StanzaType;
 import tigase.xmpp.jid.JID;
 
-import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
 
 /**
  * @author Wojciech Kapcia
@@ -115,6 +119,122 @@ public class PacketTest {
 
 	}
 
+	@Test
+	public void testSharedPayload() throws TigaseStringprepException {
+		JID from = JID.jidInstance("user1@example.com/res1");
+		JID to1 = JID.jidInstance("user2@example.com");
+		JID to2 = JID.jidInstance("user3@example.com");
+
+		Element presence = new Element("presence", new String[]{"from", "to", "xmlns"},
+									   new String[]{from.toString(), "user4@example.com", Packet.CLIENT_XMLNS});
+		presence.addChild(new Element("show", "away"));
+		SharedPayload payload = new SharedPayload(presence);
+
+		// stanza passed to the payload is copied without 'to' attribute
+		assertNotSame(presence, payload.getElement());
+		assertNull(payload.getElement().getAttributeStaticStr("to"));
+		assertEquals(from, payload.getStanzaFrom());
+
+		Packet packet1 = Packet.packetInstance(payload, to1);
+		Packet packet2 = Packet.packetInstance(payload, to2);
+		assertTrue(packet1 instanceof Presence);
+		assertEquals(from, packet1.getStanzaFrom());
+		assertEquals(to1, packet1.getStanzaTo());
+		assertEquals(to1.toString(), packet1.getAttributeStaticStr("to"));
+		assertEquals("away", packet1.getElemCDataStaticStr(new String[]{"presence", "show"}));
+
+		String serialized = packet1.getElementAsString();
+		assertTrue(serialized, serialized.startsWith("<presence to=\"user2@example.com\""));
+		assertEquals(payload.toString(), serialized.replace(" to=\"user2@example.com\"", ""));
+
+		// copy is created only for the packet which stanza is accessed
+		Element el = packet1.getElement();
+		assertNotSame(payload.getElement(), el);
+		assertEquals(to1.toString(), el.getAttributeStaticStr("to"));
+		el.addChild(new Element("status", "test"));
+		assertNull(payload.getElement().getChild("status"));
+		assertNull(packet2.getElemChild("status"));
+		assertTrue(packet1.getElementAsString().contains("<status>test</status>"));
+
+		// copy of the packet still shares stanza and may be readdressed
+		Packet copy = packet2.copyElementOnly();
+		copy.initVars(copy.getStanzaFrom(), to1);
+		assertEquals(to1, copy.getStanzaTo());
+		assertEquals(to2, packet2.getStanzaTo());
+		assertEquals(to1.toString(), copy.getElement().getAttributeStaticStr("to"));
+		assertEquals(to2.toString(), packet2.getElement().getAttributeStaticStr("to"));
+		assertEquals(from.toString(), packet2.getElement().getAttributeStaticStr("from"));
+	}
+
+	@Test
+	public void testProcessedBy() throws TigaseStringprepException {
+		Packet packet = Packet.packetInstance(new Element("message", new String[]{"from", "to", "xmlns"},
+														  new String[]{"user1@example.com/res1",
+																	   "user2@example.com/res2",
+																	   Packet.CLIENT_XMLNS}));
+		assertFalse(packet.wasProcessed());
+		assertFalse(packet.wasSkipped());
+		assertFalse(packet.wasProcessedBy("test-processor-1"));
+		assertTrue(packet.getProcessorsIds().isEmpty());
+
+		packet.processedBy("test-processor-1");
+		int index = PacketProcessorIds.register("test-processor-2");
+		packet.processedBy(index);
+		packet.notProcessedBy("test-processor-3");
+
+		assertTrue(packet.wasProcessed());
+		assertTrue(packet.wasSkipped());
+		assertTrue(packet.wasProcessedBy("test-processor-1"));
+		assertTrue(packet.wasProcessedBy(index));
+		assertFalse(packet.wasProcessedBy("test-processor-3"));
+		assertFalse(packet.wasProcessedBy("test-not-registered"));
+		assertEquals(-1, PacketProcessorIds.indexOf("test-not-registered"));
+		assertEquals(new HashSet<>(Arrays.asList("test-processor-1", "test-processor-2")),
+					 packet.getProcessorsIds());
+		assertEquals(Collections.singleton("test-processor-3"), packet.getSkippedProcessorsIds());
+
+		// identifiers beyond first 64 bits
+		for (int i = 0; i < 70; i++) {
+			PacketProcessorIds.register("test-processor-bulk-" + i);
+		}
+		packet.processedBy("test-processor-bulk-69");
+		assertTrue(packet.wasProcessedBy("test-processor-bulk-69"));
+		assertFalse(packet.wasProcessedBy("test-processor-bulk-68"));
+		assertEquals(3, packet.getProcessorsIds().size());
+	}
+
+	@Test
+	public void testProcessedByConcurrently() throws Exception {
+		int[] indexes = new int[200];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = PacketProcessorIds.register("test-processor-concurrent-" + i);
+		}
+		for (int round = 0; round < 100; round++) {
+			Packet packet = Packet.packetInstance(new Element("message", new String[]{"from", "to", "xmlns"},
+															  new String[]{"user1@example.com/res1",
+																		   "user2@example.com/res2",
+																		   Packet.CLIENT_XMLNS}));
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				int first = t;
+				threads[t] = new Thread(() -> {
+					for (int i = first; i < indexes.length; i += threads.length) {
+						packet.processedBy(indexes[i]);
+					}
+				});
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			for (int index : indexes) {
+				assertTrue(packet.wasProcessedBy(index));
+			}
+		}
+	}
+
 	@Test
 	public void testPacketSecure() throws TigaseStringprepException {
 		JID jid1 = JID.jidInstance("user1@example.com/res1");
@@ -0,0 +1,119 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures memory allocated per packet for tracking processors which handled the packet. Tracking with two
+ * <code>LinkedHashSet</code> instances (as it was done by <code>Packet</code> before) is compared with the bitset
+ * of indexes from {@link PacketProcessorIds}. Each packet is marked as processed by 3 processors, as it is usual for
+ * a message handled by the session manager.
+ */
+@Category(SlowTest.class)
+public class ProcessorTrackingBenchmarkTest {
+
+	private static final int PACKETS = 1_000_000;
+	private static final String[] PROCESSORS = {"message", "amp", "message-carbons"};
+
+	@Test
+	public void testAllocationPerPacket() throws TigaseStringprepException {
+		Element message = new Element("message", new String[]{"from", "to", "xmlns"},
+									  new String[]{"user1@example.com/res1", "user2@example.com/res2",
+												   Packet.CLIENT_XMLNS});
+		message.addChild(new Element("body", "Hello"));
+		Packet packet = Packet.packetInstance(message);
+		for (String id : PROCESSORS) {
+			PacketProcessorIds.register(id);
+		}
+
+		// warm up
+		for (int i = 0; i < 3; i++) {
+			sets();
+			bitset(packet, false);
+			bitset(packet, true);
+		}
+
+		long bytes = allocatedBytes();
+		sets();
+		long setsBytes = allocatedBytes() - bytes;
+
+		// packets have to be copied to be marked, so allocation of copies is not counted
+		bytes = allocatedBytes();
+		bitset(packet, false);
+		long copyBytes = allocatedBytes() - bytes;
+
+		bytes = allocatedBytes();
+		bitset(packet, true);
+		long bitsetBytes = allocatedBytes() - bytes - copyBytes;
+
+		System.out.println(String.format("processor tracking: LinkedHashSet: %d B/packet, bitset: %d B/packet",
+										 setsBytes / PACKETS, bitsetBytes / PACKETS));
+	}
+
+	private void sets() {
+		int processed = 0;
+		for (int i = 0; i < PACKETS; i++) {
+			Set<String> processorsIds = new LinkedHashSet<String>(4, 0.9f);
+			Set<String> skippedProcessorsIds = new LinkedHashSet<String>(4, 0.9f);
+			for (String id : PROCESSORS) {
+				processorsIds.add(id);
+			}
+			if (processorsIds.size() > 0 && skippedProcessorsIds.size() == 0 && processorsIds.contains("amp")) {
+				processed++;
+			}
+		}
+		assertTrue(processed == PACKETS);
+	}
+
+	private void bitset(Packet packet, boolean track) {
+		int processed = 0;
+		for (int i = 0; i < PACKETS; i++) {
+			Packet copy = packet.copyElementOnly();
+			if (track) {
+				for (String id : PROCESSORS) {
+					copy.processedBy(id);
+				}
+			}
+			if (copy.wasProcessed() == track && !copy.wasSkipped() && copy.wasProcessedBy("amp") == track) {
+				processed++;
+			}
+		}
+		assertTrue(processed == PACKETS);
+	}
+
+	private long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		// allocation counter is not available on this JVM
+		return 0;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares memory allocated while broadcasting presence by cloning stanza for every recipient (as it was done by
+ * <code>PresenceState</code> before) with broadcasting a {@link SharedPayload}. Both variants include writing of the
+ * stanza to the connection as a <code>String</code>.
+ */
+@Category(SlowTest.class)
+public class SharedPayloadBenchmarkTest {
+
+	private static final int ROUNDS = 20;
+
+	@Test
+	public void testBroadcastSizes() throws TigaseStringprepException {
+		Element presence = new Element("presence", new String[]{"from", "xmlns"},
+									   new String[]{"user@example.com/mobile-1234", Packet.CLIENT_XMLNS});
+		presence.addChild(new Element("show", "away"));
+		presence.addChild(new Element("status", "In a meeting until 3pm"));
+		presence.addChild(new Element("priority", "5"));
+		presence.addChild(new Element("c", new String[]{"xmlns", "hash", "node", "ver"},
+									  new String[]{"http://jabber.org/protocol/caps", "sha-1",
+												   "http://tigase.org/client", "QgayPKawpkPSDYmwT/WM94uAlu0="}));
+
+		for (int size : new int[]{10, 1000, 10000}) {
+			benchmark(presence, size);
+		}
+	}
+
+	private void benchmark(Element presence, int size) throws TigaseStringprepException {
+		JID[] buddies = new JID[size];
+		for (int i = 0; i < size; i++) {
+			buddies[i] = JID.jidInstance("buddy" + i, "example.com");
+		}
+
+		// warm up
+		for (int i = 0; i < 5; i++) {
+			assertEquals(cloned(presence, buddies), shared(presence, buddies));
+		}
+
+		long clonedBytes = 0;
+		long sharedBytes = 0;
+		long clonedTime = 0;
+		long sharedTime = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			cloned(presence, buddies);
+			clonedTime += System.nanoTime() - start;
+			clonedBytes += allocatedBytes() - bytes;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			shared(presence, buddies);
+			sharedTime += System.nanoTime() - start;
+			sharedBytes += allocatedBytes() - bytes;
+		}
+
+		long count = (long) ROUNDS * size;
+		System.out.println(String.format(
+				"recipients: %5d, cloned: %6d B/recipient %7.1fns/recipient, shared: %6d B/recipient %7.1fns/recipient",
+				size, clonedBytes / count, clonedTime / (double) count, sharedBytes / count,
+				sharedTime / (double) count));
+	}
+
+	private long cloned(Element presence, JID[] buddies) throws TigaseStringprepException {
+		long written = 0;
+		for (JID buddy : buddies) {
+			Element el = presence.clone();
+			el.setAttribute("to", buddy.toString());
+			Packet packet = Packet.packetInstance(el);
+			written += packet.getElement().toString().length();
+		}
+		return written;
+	}
+
+	private long shared(Element presence, JID[] buddies) throws TigaseStringprepException {
+		long written = 0;
+		SharedPayload payload = new SharedPayload(presence);
+		for (JID buddy : buddies) {
+			Packet packet = Packet.packetInstance(payload, buddy);
+			written += packet.getElementAsString().length();
+		}
+		return written;
+	}
+
+	private long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		// allocation counter is not available on this JVM
+		return 0;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.amp;
+
+import org.junit.Test;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import static org.junit.Assert.*;
+
+public class JidHashSetTest {
+
+	@Test
+	public void testAddAndContains() throws TigaseStringprepException {
+		JidHashSet set = new JidHashSet();
+		BareJID user = BareJID.bareJIDInstance("user@example.com");
+		JID res1 = JID.jidInstance("user@example.com/res1");
+
+		assertFalse(set.contains(user));
+		assertTrue(set.add(user));
+		assertFalse(set.add(user));
+		assertTrue(set.contains(user));
+		assertTrue(set.contains(JID.jidInstance(user)));
+		assertFalse(set.contains(res1));
+
+		assertTrue(set.add(res1));
+		assertTrue(set.contains(res1));
+		assertFalse(set.contains(JID.jidInstance("user@example.com/res2")));
+		assertEquals(2, set.size());
+	}
+
+	@Test
+	public void testGrowth() {
+		JidHashSet set = new JidHashSet();
+		int count = 100000;
+		for (int i = 0; i < count; i++) {
+			assertTrue(set.add(BareJID.bareJIDInstanceNS("user-" + i, "example.com")));
+		}
+		assertEquals(count, set.size());
+		for (int i = 0; i < count; i++) {
+			assertTrue(set.contains(BareJID.bareJIDInstanceNS("user-" + i, "example.com")));
+			assertFalse(set.contains(BareJID.bareJIDInstanceNS("other-" + i, "example.com")));
+		}
+	}
+
+	@Test
+	public void testHashIsStable() {
+		assertEquals(JidHashSet.hash("user@example.com"), JidHashSet.hash(new String("user@example.com")));
+		assertNotEquals(JidHashSet.hash("user@example.com"), JidHashSet.hash("user@example.org"));
+	}
+}
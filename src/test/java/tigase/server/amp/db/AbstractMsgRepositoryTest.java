@@ -180,6 +180,43 @@ public abstract class AbstractMsgRepositoryTest<DS extends DataSource, T>
 		}
 	}
 	
+	@Test
+	public void testBatchRemovalOfExpiredMessages()
+			throws UserNotFoundException, NotAuthorizedException, TigaseStringprepException {
+		Date expired = new Date(System.currentTimeMillis() - 60 * 1000);
+		Date notExpired = new Date(System.currentTimeMillis() + 60 * 60 * 1000);
+
+		Set<String> ids = new HashSet<>();
+		for (int i = 0; i < 7; i++) {
+			Packet message = Message.getMessage(sender, recipient, StanzaType.chat, generateRandomBody(), null, null,
+												UUID.randomUUID().toString());
+			assertTrue(repo.storeMessage(sender, recipient, i < 5 ? expired : notExpired, message.getElement(),
+										 null));
+			if (i < 5) {
+				ids.add(message.getStanzaId());
+			}
+		}
+
+		// other tests may leave expired messages of other users in the repository
+		List<Element> removed = new ArrayList<>();
+		List<Element> batch;
+		while (!(batch = repo.removeExpiredMessages(new Date(), 3)).isEmpty()) {
+			assertTrue(batch.size() <= 3);
+			removed.addAll(batch);
+		}
+
+		Set<String> removedIds = removed.stream()
+				.filter(el -> recipient.toString().equals(el.getAttributeStaticStr("to")))
+				.map(el -> el.getAttributeStaticStr("id"))
+				.collect(Collectors.toSet());
+		assertEquals(ids, removedIds);
+
+		Map<Enum, Long> count = repo.getMessagesCount(recipient);
+		assertEquals(2, count.get(MsgRepository.MSG_TYPES.message).longValue());
+
+		repo.loadMessagesToJID(recipientSession, true);
+	}
+
 	protected abstract <T> T getMsgId(String msgIdStr);
 
 	@Override
@@ -0,0 +1,133 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.amp.db;
+
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import tigase.db.DBInitException;
+import tigase.db.DataRepository;
+import tigase.db.MsgRepositoryIfc;
+import tigase.db.Schema;
+import tigase.server.Message;
+import tigase.tests.SlowTest;
+import tigase.xml.Element;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.impl.AbstractProcessorWithDataSourceAwareTestCase;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares throughput of removing expired offline messages from Derby database one by one (as done by
+ * <code>getMessageExpired()</code>) and in batches (as done by <code>removeExpiredMessages()</code>).
+ */
+@Category(SlowTest.class)
+public class MsgRepositoryExpiryBenchmarkTest
+		extends AbstractProcessorWithDataSourceAwareTestCase<DataRepository, MsgRepository> {
+
+	private static final int BATCH_SIZE = 1000;
+	private static final int MESSAGES_PER_USER = 50;
+	private static final int USERS = 100;
+
+	@ClassRule
+	public static TestRule rule = new TestRule() {
+		@Override
+		public Statement apply(Statement stmnt, Description d) {
+			if (uri == null || !uri.startsWith("jdbc:derby:")) {
+				return new Statement() {
+					@Override
+					public void evaluate() throws Throwable {
+						Assume.assumeTrue("Ignored due to not passed Derby DB URI!", false);
+					}
+				};
+			}
+			return stmnt;
+		}
+	};
+
+	@BeforeClass
+	public static void loadSchema() throws DBInitException {
+		loadSchema(Schema.SERVER_SCHEMA_ID, "8.2.0", Collections.emptySet());
+	}
+
+	@Test
+	public void testExpiryThroughput() throws Exception {
+		JID sender = JID.jidInstance("sender-" + UUID.randomUUID(), "example.com", "resource-1");
+		List<JID> recipients = new ArrayList<>();
+		for (int i = 0; i < USERS; i++) {
+			JID recipient = JID.jidInstance("recipient-" + UUID.randomUUID(), "example.com", "resource-1");
+			getUserRepository().addUser(recipient.getBareJID());
+			recipients.add(recipient);
+		}
+		int messages = USERS * MESSAGES_PER_USER;
+
+		storeExpiredMessages(sender, recipients);
+		long start = System.currentTimeMillis();
+		int removed = 0;
+		while (repo.getMessageExpired(System.currentTimeMillis(), true) != null) {
+			removed++;
+		}
+		long single = System.currentTimeMillis() - start;
+		assertTrue(removed >= messages);
+
+		storeExpiredMessages(sender, recipients);
+		start = System.currentTimeMillis();
+		removed = 0;
+		List<Element> batch;
+		while (!(batch = repo.removeExpiredMessages(new Date(), BATCH_SIZE)).isEmpty()) {
+			removed += batch.size();
+		}
+		long batched = System.currentTimeMillis() - start;
+		assertTrue(removed >= messages);
+
+		System.out.println(
+				String.format("%-24s messages: %d, one by one: %dms (%d msg/s), batches of %d: %dms (%d msg/s)",
+							  "JDBCMsgRepository (Derby)", messages, single, messages * 1000L / Math.max(1, single),
+							  BATCH_SIZE, batched, messages * 1000L / Math.max(1, batched)));
+	}
+
+	@Override
+	protected Class getDataSourceAwareIfc() {
+		return MsgRepositoryIfc.class;
+	}
+
+	@Override
+	protected MsgRepository prepareDataSourceAware() throws Exception {
+		MsgRepository repository = super.prepareDataSourceAware();
+		ReentrantLock lock = new ReentrantLock();
+		repository.setCondition(lock, lock.newCondition());
+		return repository;
+	}
+
+	private void storeExpiredMessages(JID sender, List<JID> recipients) throws Exception {
+		Date expired = new Date(System.currentTimeMillis() - 60 * 1000);
+		for (int i = 0; i < MESSAGES_PER_USER; i++) {
+			for (JID recipient : recipients) {
+				Element msg = Message.getMessage(sender, recipient, StanzaType.chat, "Body " + i, null, null,
+												 UUID.randomUUID().toString()).getElement();
+				assertTrue(repo.storeMessage(sender, recipient, expired, msg, null));
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ComponentIOServiceTest {
+
+	@Test
+	public void testSaturationByStanzas() {
+		TestComponentIOService serv = new TestComponentIOService("127.0.0.1:5270:accept");
+		serv.setWatermarks(10, 4, Long.MAX_VALUE, Long.MAX_VALUE);
+
+		serv.queued(9);
+		assertFalse(serv.isSaturated());
+		serv.queued(1);
+		assertTrue(serv.isSaturated());
+		assertEquals(10, serv.getOutstandingStanzas());
+
+		// stays saturated until the low watermark is reached
+		serv.written(5, 100, true);
+		assertTrue(serv.isSaturated());
+		serv.written(1, 100, true);
+		assertFalse(serv.isSaturated());
+		serv.queued(5);
+		assertFalse(serv.isSaturated());
+	}
+
+	@Test
+	public void testSaturationByBytes() {
+		TestComponentIOService serv = new TestComponentIOService("127.0.0.1:5270:accept");
+		serv.setWatermarks(Integer.MAX_VALUE, Integer.MAX_VALUE, 1000, 200);
+
+		serv.queued(10);
+		serv.written(10, 100, true);
+		assertEquals(1000, serv.getOutstandingBytes());
+		assertTrue(serv.isSaturated());
+
+		serv.sent(700);
+		assertEquals(300, serv.getOutstandingBytes());
+		assertTrue(serv.isSaturated());
+		serv.sent(100);
+		assertFalse(serv.isSaturated());
+
+		// estimation is reset when the socket has nothing more to send
+		serv.queued(1);
+		serv.written(1, 100, false);
+		assertEquals(0, serv.getOutstandingBytes());
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext;
+
+import org.junit.Test;
+import tigase.server.Message;
+import tigase.server.Packet;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ComponentProtocolTest {
+
+	@Test
+	public void testPacketForSaturatedConnectionIsQueuedAfterWait() throws Exception {
+		TestComponentIOService serv = new TestComponentIOService("127.0.0.1:5270:accept");
+		serv.setWatermarks(2, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+		TestComponentProtocol protocol = new TestComponentProtocol(serv);
+		setField(protocol, "saturationWait", 50L);
+
+		serv.queued(2);
+		long start = System.currentTimeMillis();
+		Packet packet = message("msg-1");
+		protocol.processPacket(packet);
+		assertTrue(System.currentTimeMillis() - start >= 50);
+		assertEquals(1, protocol.written.size());
+		assertSame(packet, protocol.written.get(0));
+		assertSame(serv, protocol.writtenTo.get(0));
+		assertEquals(0, protocol.out.size());
+	}
+
+	@Test
+	public void testPacketWaitsForConnectionToDrain() throws Exception {
+		TestComponentIOService saturated = new TestComponentIOService("127.0.0.1:5270:accept");
+		saturated.setWatermarks(2, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+		saturated.queued(2);
+		TestComponentIOService drained = new TestComponentIOService("127.0.0.2:5270:accept");
+		TestComponentProtocol protocol = new TestComponentProtocol(saturated, saturated, drained);
+		setField(protocol, "saturationWait", 10000L);
+
+		protocol.processPacket(message("msg-1"));
+		assertEquals(1, protocol.written.size());
+		assertSame(drained, protocol.writtenTo.get(0));
+		assertEquals(0, protocol.out.size());
+	}
+
+	@Test
+	public void testPacketForSaturatedConnectionIsRejected() throws Exception {
+		TestComponentIOService serv = new TestComponentIOService("127.0.0.1:5270:accept");
+		serv.setWatermarks(2, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+		TestComponentProtocol protocol = new TestComponentProtocol(serv);
+		setField(protocol, "saturationReject", true);
+
+		Packet first = message("msg-1");
+		protocol.processPacket(first);
+		assertEquals(1, protocol.written.size());
+		assertSame(first, protocol.written.get(0));
+
+		serv.queued(2);
+		protocol.processPacket(message("msg-2"));
+		assertEquals(1, protocol.written.size());
+		assertEquals(1, protocol.out.size());
+		Packet error = protocol.out.get(0);
+		assertEquals(StanzaType.error, error.getType());
+		assertEquals("msg-2", error.getStanzaId());
+		assertEquals(JID.jidInstance("sender@example.com/res"), error.getStanzaTo());
+
+		// rejected error is not answered with another error
+		protocol.processPacket(error);
+		assertEquals(1, protocol.out.size());
+
+		serv.written(1, 10, true);
+		protocol.processPacket(message("msg-3"));
+		assertEquals(2, protocol.written.size());
+	}
+
+	private static Packet message(String id) throws Exception {
+		return Message.getMessage(JID.jidInstance("sender@example.com/res"), JID.jidInstance("pubsub.example.com"),
+								  StanzaType.normal, "body", null, null, id);
+	}
+
+	private static void setField(ComponentProtocol protocol, String name, Object value) throws Exception {
+		Field field = ComponentProtocol.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(protocol, value);
+	}
+
+	private static class TestComponentProtocol
+			extends ComponentProtocol {
+
+		private final List<Packet> out = new ArrayList<>();
+		// connections returned by subsequent selections, the last one is returned afterwards
+		private final Deque<ComponentIOService> servs;
+		private final List<Packet> written = new ArrayList<>();
+		private final List<ComponentIOService> writtenTo = new ArrayList<>();
+
+		private TestComponentProtocol(ComponentIOService... servs) {
+			this.servs = new ArrayDeque<>(Arrays.asList(servs));
+		}
+
+		@Override
+		public boolean writePacketToSocket(ComponentIOService ios, Packet p) {
+			written.add(p);
+			writtenTo.add(ios);
+			return true;
+		}
+
+		@Override
+		protected boolean addOutPacket(Packet packet) {
+			out.add(packet);
+			return true;
+		}
+
+		@Override
+		protected ComponentIOService getXMPPIOService(Packet p) {
+			return servs.size() > 1 ? servs.poll() : servs.peek();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext;
+
+import tigase.server.Packet;
+
+/**
+ * Component connection without a socket, with outstanding data set by tests.
+ */
+public class TestComponentIOService
+		extends ComponentIOService {
+
+	private long bytesSent = 0;
+	private boolean connected = true;
+	private boolean waitingToSend = false;
+
+	public TestComponentIOService(String identity) {
+		setIdentity(identity);
+	}
+
+	public void queued(int stanzas) {
+		for (int i = 0; i < stanzas; i++) {
+			packetQueued(null);
+		}
+	}
+
+	public void written(int stanzas, int length, boolean waitingToSend) {
+		this.waitingToSend = waitingToSend;
+		for (int i = 0; i < stanzas; i++) {
+			packetWritten(null, length);
+		}
+	}
+
+	public void sent(long bytes) {
+		bytesSent += bytes;
+	}
+
+	public void setConnected(boolean connected) {
+		this.connected = connected;
+	}
+
+	@Override
+	public long getTotalBytesSent() {
+		return bytesSent;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public boolean waitingToSend() {
+		return waitingToSend;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.ext.lb;
+
+import org.junit.Test;
+import tigase.server.Message;
+import tigase.server.Packet;
+import tigase.server.ext.ComponentConnection;
+import tigase.server.ext.ComponentIOService;
+import tigase.server.ext.TestComponentIOService;
+import tigase.xml.Element;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class LeastOutstandingLBTest {
+
+	private final LeastOutstandingLB lb = new LeastOutstandingLB();
+
+	@Test
+	public void testAffinityUsesIdentity() throws Exception {
+		List<ComponentConnection> conns = connections(4);
+		Packet packet = packet("user@example.com");
+		ComponentIOService selected = lb.selectConnection(packet, conns);
+
+		// component reconnected, so connections have new unique ids but the same identities
+		List<ComponentConnection> reconnected = connections(4);
+		int idx = conns.indexOf(find(conns, selected));
+		assertSame(reconnected.get(idx).getService(), lb.selectConnection(packet, reconnected));
+	}
+
+	@Test
+	public void testSaturatedConnectionIsSkipped() throws Exception {
+		List<ComponentConnection> conns = connections(3);
+		Packet packet = packet("user@example.com");
+		TestComponentIOService preferred = (TestComponentIOService) lb.selectConnection(packet, conns);
+
+		preferred.queued(10);
+		assertSame(preferred, lb.selectConnection(packet, conns));
+		preferred.queued(1000);
+		ComponentIOService selected = lb.selectConnection(packet, conns);
+		assertNotSame(preferred, selected);
+
+		// when all are saturated, the one with the least outstanding data is used
+		TestComponentIOService least = null;
+		for (ComponentConnection conn : conns) {
+			TestComponentIOService serv = (TestComponentIOService) conn.getService();
+			if (serv != preferred) {
+				serv.queued(least == null ? 1001 : 1002);
+				least = least == null ? serv : least;
+			}
+		}
+		assertSame(least, lb.selectConnection(packet, conns));
+	}
+
+	@Test
+	public void testPacketWithoutStanzaTo() throws Exception {
+		List<ComponentConnection> conns = connections(2);
+		Packet packet = Packet.packetInstance(new Element("message", new String[]{"from"},
+														  new String[]{"user@example.com/res"}));
+
+		assertNotNull(lb.selectConnection(packet, conns));
+	}
+
+	private static ComponentConnection find(List<ComponentConnection> conns, ComponentIOService serv) {
+		for (ComponentConnection conn : conns) {
+			if (conn.getService() == serv) {
+				return conn;
+			}
+		}
+		return null;
+	}
+
+	private static List<ComponentConnection> connections(int count) {
+		List<ComponentConnection> conns = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			TestComponentIOService serv = new TestComponentIOService("10.0.0." + i + ":5270:accept");
+			serv.setWatermarks(1000, 100, Long.MAX_VALUE, Long.MAX_VALUE);
+			conns.add(new ComponentConnection("pubsub.example.com", serv));
+		}
+		return conns;
+	}
+
+	private static Packet packet(String to) throws Exception {
+		return Message.getMessage(JID.jidInstance("sender@example.com/res"), JID.jidInstance(to), StanzaType.chat,
+								  "body", null, null, "lb-1");
+	}
+}
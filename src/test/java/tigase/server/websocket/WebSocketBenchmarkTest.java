@@ -0,0 +1,156 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.websocket;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares decoding of masked frames using byte-by-byte unmasking into a new array (previous implementation) with
+ * in-place unmasking of 8 bytes at a time, and number of bytes sent over the wire with and without
+ * <code>permessage-deflate</code> extension for a typical stream of XMPP stanzas.
+ */
+@Category(SlowTest.class)
+public class WebSocketBenchmarkTest {
+
+	private static final int FRAMES = 1000;
+	private static final int ROUNDS = 200;
+
+	private static String stanza(int i) {
+		return "<message xmlns='jabber:client' from='user" + (i % 50) + "@example.com/web' to='contact" + (i % 20) +
+				"@example.com' type='chat' id='msg-" + i + "'><body>Message number " + i +
+				" sent over WebSocket</body><active xmlns='http://jabber.org/protocol/chatstates'/>" +
+				"<request xmlns='urn:xmpp:receipts'/></message>";
+	}
+
+	@Test
+	public void testDecodingThroughput() throws Exception {
+		Random random = new Random(1);
+		ByteBuffer frames = ByteBuffer.allocate(FRAMES * 1100);
+		int payload = 0;
+		for (int i = 0; i < FRAMES; i++) {
+			byte[] data = new byte[100 + random.nextInt(900)];
+			random.nextBytes(data);
+			byte[] key = new byte[4];
+			random.nextBytes(key);
+			frames.put((byte) 0x81);
+			if (data.length > 125) {
+				frames.put((byte) (0x80 | 126)).putShort((short) data.length);
+			} else {
+				frames.put((byte) (0x80 | data.length));
+			}
+			frames.put(key);
+			for (int j = 0; j < data.length; j++) {
+				data[j] = (byte) (data[j] ^ key[j % 4]);
+			}
+			frames.put(data);
+			payload += data.length;
+		}
+		frames.flip();
+		byte[] input = new byte[frames.remaining()];
+		frames.get(input);
+
+		WebSocketHybi hybi = new WebSocketHybi();
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(new WebSocketProtocolIfc[]{hybi});
+		io.maskingKey = new byte[4];
+
+		for (int warmup = 0; warmup < 2; warmup++) {
+			long legacy = 0, current = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				ByteBuffer buf = ByteBuffer.wrap(input.clone());
+				long start = System.nanoTime();
+				ByteBuffer out = ByteBuffer.allocate(buf.remaining());
+				while (buf.hasRemaining()) {
+					out.put(legacyDecodeFrame(buf));
+				}
+				legacy += System.nanoTime() - start;
+
+				buf = ByteBuffer.wrap(input.clone());
+				start = System.nanoTime();
+				ByteBuffer decoded;
+				while (buf.hasRemaining() && (decoded = hybi.decodeFrame(io, buf)) != null) {
+					decoded.position(decoded.limit());
+				}
+				current += System.nanoTime() - start;
+			}
+			if (warmup > 0) {
+				long bytes = (long) payload * ROUNDS;
+				System.out.println(String.format(
+						"WebSocket decoding of %d frames, legacy: %.1f MB/s, in-place word-wise: %.1f MB/s", FRAMES,
+						bytes * 1000.0 / legacy, bytes * 1000.0 / current));
+			}
+		}
+	}
+
+	@Test
+	public void testBytesOnWire() throws IOException {
+		report("no compression", null);
+		report("permessage-deflate", WebSocketPerMessageDeflate.negotiate("permessage-deflate", false, 1));
+		report("permessage-deflate, no context takeover",
+			   WebSocketPerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover", false, 1));
+	}
+
+	private void report(String name, WebSocketPerMessageDeflate deflate) throws IOException {
+		final long[] written = new long[1];
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{new WebSocketHybi()}) {
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				written[0] += data.remaining();
+				data.position(data.limit());
+			}
+		};
+		io.perMessageDeflate = deflate;
+		WebSocketHybi hybi = new WebSocketHybi();
+		long raw = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES * 10; i++) {
+			byte[] data = stanza(i).getBytes();
+			raw += data.length;
+			hybi.encodeFrameAndWrite(io, ByteBuffer.wrap(data));
+		}
+		long time = System.nanoTime() - start;
+		System.out.println(
+				String.format("WebSocket %-40s stanzas: %d, payload: %d B, on wire: %d B (%.1f%%), time: %d ms",
+							  name, FRAMES * 10, raw, written[0], written[0] * 100.0 / raw, time / 1000000));
+	}
+
+	/**
+	 * Decoding of a single masked text frame as it was done before in-place unmasking.
+	 */
+	private static ByteBuffer legacyDecodeFrame(ByteBuffer buf) {
+		buf.get();
+		int length = buf.get() & 0x7F;
+		if (length == 126) {
+			length = buf.getShort() & 0xFFFF;
+		}
+		byte[] maskingKey = new byte[4];
+		buf.get(maskingKey);
+		byte[] data = new byte[length];
+		buf.get(data);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (data[i] ^ maskingKey[i % 4]);
+		}
+		return ByteBuffer.wrap(data);
+	}
+}
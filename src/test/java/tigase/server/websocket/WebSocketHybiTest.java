@@ -70,7 +70,7 @@ public class WebSocketHybiTest
 		ByteBuffer tmp1 = maskFrame(tmp);
 		ByteBuffer decoded = impl.decodeFrame(io, tmp1);
 		Assert.assertArrayEquals("Data before encoding do not match data after decoding", input.getBytes(),
-								 decoded.array());
+								 bytes(decoded));
 	}
 
 	@Test
@@ -164,10 +164,10 @@ public class WebSocketHybiTest
 		io.maskingKey = new byte[4];
 		ByteBuffer decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of first frame before encoding do not match data after decoding",
-								 input1.getBytes(), decoded.array());
+								 input1.getBytes(), bytes(decoded));
 		decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of second frame before encoding do not match data after decoding",
-								 input2.getBytes(), decoded.array());
+								 input2.getBytes(), bytes(decoded));
 	}
 
 	@Test
@@ -198,17 +198,117 @@ public class WebSocketHybiTest
 		ByteBuffer decoded = impl.decodeFrame(io, tmp);
 		Assert.assertNotNull(decoded);
 		Assert.assertArrayEquals("Data of first frame before encoding do not match data after decoding", new byte[0],
-								 decoded.array());
+								 bytes(decoded));
 		tmp2.flip();
 		Assert.assertNotEquals("PONG frame not sent!", 0, tmp2.remaining());
 		assertEquals("PONG frame not sent!", (byte) 0x8A, tmp2.get(0));
 
 		decoded = impl.decodeFrame(io, tmp);
 		Assert.assertArrayEquals("Data of second frame before encoding do not match data after decoding",
-								 input2.getBytes(), decoded.array());
+								 input2.getBytes(), bytes(decoded));
 
 	}
 
+	@Test
+	public void testUnmask() {
+		byte[] key = {0x12, 0x34, 0x56, (byte) 0x9A};
+		for (int length = 0; length < 40; length++) {
+			for (int offset = 0; offset < 9; offset++) {
+				byte[] data = new byte[offset + length + 3];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = (byte) (i * 31);
+				}
+				byte[] expected = data.clone();
+				for (int i = 0; i < length; i++) {
+					expected[offset + i] = (byte) (expected[offset + i] ^ key[i % 4]);
+				}
+				WebSocketHybi.unmask(ByteBuffer.wrap(data), offset, length, key);
+				Assert.assertArrayEquals(expected, data);
+			}
+		}
+	}
+
+	@Test
+	public void testPerMessageDeflateNegotiation() {
+		assertNull(WebSocketPerMessageDeflate.negotiate(null, false, 1));
+		assertNull(WebSocketPerMessageDeflate.negotiate("x-webkit-deflate-frame", false, 1));
+		assertEquals("permessage-deflate", WebSocketPerMessageDeflate.negotiate(
+				"permessage-deflate; client_max_window_bits", false, 1).getResponse());
+		assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+					 WebSocketPerMessageDeflate.negotiate(
+							 "permessage-deflate; server_no_context_takeover; client_no_context_takeover", false, 1)
+							 .getResponse());
+		// first offer is not acceptable as we are not able to use smaller window
+		assertEquals("permessage-deflate; server_no_context_takeover", WebSocketPerMessageDeflate.negotiate(
+				"permessage-deflate; server_max_window_bits=10, permessage-deflate", true, 1).getResponse());
+		assertNull(WebSocketPerMessageDeflate.negotiate("permessage-deflate; unknown_param", false, 1));
+	}
+
+	@Test
+	public void testCompressedFrames() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			sb.append("<message to='user@example.com' id='").append(i).append("'><body>Hello</body></message>");
+		}
+		String input = sb.toString();
+		final ByteBuffer tmp = ByteBuffer.allocate(4096);
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{new WebSocketHybi()}) {
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				tmp.put(data);
+			}
+
+		};
+		io.maskingKey = new byte[4];
+		io.perMessageDeflate = WebSocketPerMessageDeflate.negotiate("permessage-deflate", false, 1);
+
+		// two messages compressed with shared context
+		for (int i = 0; i < 2; i++) {
+			tmp.clear();
+			impl.encodeFrameAndWrite(io, ByteBuffer.wrap(input.getBytes()));
+			tmp.flip();
+			assertEquals("Frame should have RSV1 bit set", (byte) 0xC1, tmp.get(0));
+			Assert.assertTrue("Frame is not compressed", tmp.remaining() < input.length() / 2);
+
+			ByteBuffer frame = ByteBuffer.allocate(tmp.remaining() + 4);
+			frame.put(tmp.get()).put((byte) (tmp.get() | 0x80));
+			if ((frame.get(1) & 0x7F) == 126) {
+				frame.putShort(tmp.getShort());
+			}
+			frame.put(new byte[]{0, 0, 0, 0});
+			frame.put(tmp);
+			frame.flip();
+
+			ByteBuffer decoded = impl.decodeFrame(io, frame);
+			Assert.assertTrue(io.frameCompressed);
+			Assert.assertTrue(io.frameFin);
+			ByteBuffer inflated = io.perMessageDeflate.inflate(decoded, io.frameFin, ByteBuffer.allocate(16));
+			inflated.flip();
+			assertEquals(input, new String(bytes(inflated)));
+		}
+	}
+
+	@Test
+	public void testFragmentedCompressedMessage() throws Exception {
+		String input = "<presence from='user@example.com/res'><status>Available</status></presence>";
+		WebSocketPerMessageDeflate server = WebSocketPerMessageDeflate.negotiate("permessage-deflate", false, 6);
+		WebSocketPerMessageDeflate client = WebSocketPerMessageDeflate.negotiate("permessage-deflate", false, 6);
+		for (int i = 0; i < 3; i++) {
+			ByteBuffer compressed = client.deflate(ByteBuffer.wrap(input.getBytes()));
+			ByteBuffer first = compressed.duplicate();
+			first.limit(compressed.position() + compressed.remaining() / 2);
+			ByteBuffer second = compressed.duplicate();
+			second.position(first.limit());
+
+			ByteBuffer out = server.inflate(first, false, ByteBuffer.allocate(8));
+			out = server.inflate(second, true, out);
+			out.flip();
+			assertEquals(input, new String(bytes(out)));
+		}
+	}
+
 	@Override
 	protected void setUp() throws Exception {
 		impl = new WebSocketHybi();
@@ -219,6 +319,12 @@ public class WebSocketHybiTest
 		impl = null;
 	}
 
+	private static byte[] bytes(ByteBuffer buf) {
+		byte[] result = new byte[buf.remaining()];
+		buf.duplicate().get(result);
+		return result;
+	}
+
 	private ByteBuffer maskFrame(ByteBuffer data) {
 		ByteBuffer tmp = ByteBuffer.allocate(1024);
 		byte[] header = new byte[2];
@@ -0,0 +1,115 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.util.dns.DNSEntry;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class S2SDNSResolverTest {
+
+	private final AtomicInteger queries = new AtomicInteger();
+	private CountDownLatch release;
+	private S2SDNSResolver resolver;
+
+	@Before
+	public void setUp() {
+		release = new CountDownLatch(0);
+		resolver = new S2SDNSResolver();
+		resolver.setBackend(domain -> {
+			queries.incrementAndGet();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			if (domain.startsWith("missing")) {
+				throw new UnknownHostException(domain);
+			}
+			return new DNSEntry[]{new DNSEntry(domain, "192.0.2.1")};
+		});
+	}
+
+	@After
+	public void tearDown() {
+		resolver.beforeUnregister();
+	}
+
+	@Test
+	public void testPositiveCaching() throws Exception {
+		DNSEntry[] entries = resolver.resolveBlocking("example.com");
+		assertEquals("192.0.2.1", entries[0].getIp());
+		assertSame(entries, resolver.resolve("example.com").get());
+		assertEquals(1, queries.get());
+		assertEquals(1, resolver.getHitsCount());
+		assertEquals(1, resolver.getCacheSize());
+	}
+
+	@Test
+	public void testNegativeCaching() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			try {
+				resolver.resolveBlocking("missing.example.com");
+				fail("Domain should not be resolved");
+			} catch (UnknownHostException ex) {
+				// expected
+			}
+		}
+		assertEquals(1, queries.get());
+		assertEquals(2, resolver.getNegativeHitsCount());
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		release = new CountDownLatch(1);
+		List<CompletableFuture<DNSEntry[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(resolver.resolve("slow.example.com"));
+		}
+		// lookup in progress does not block callers
+		assertFalse(futures.get(0).isDone());
+		release.countDown();
+		for (CompletableFuture<DNSEntry[]> future : futures) {
+			assertEquals("192.0.2.1", future.get(5, TimeUnit.SECONDS)[0].getIp());
+		}
+		assertEquals(1, queries.get());
+		assertEquals(9, resolver.getCoalescedCount());
+	}
+
+	@Test
+	public void testAsyncFailure() throws Exception {
+		try {
+			resolver.resolve("missing.example.com").get(5, TimeUnit.SECONDS);
+			fail("Domain should not be resolved");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof UnknownHostException);
+		}
+	}
+}
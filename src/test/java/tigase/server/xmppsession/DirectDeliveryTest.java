@@ -0,0 +1,119 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.server.Command;
+import tigase.server.Message;
+import tigase.server.Packet;
+import tigase.server.filters.PacketFiltersBean;
+import tigase.server.xmppclient.ClientConnectionManager;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that with direct local delivery enabled all packets which session manager sends to a user connection,
+ * including commands, are passed to the input queue of the connection manager in the order in which they were sent.
+ */
+public class DirectDeliveryTest {
+
+	private RecordingConnectionManager c2s;
+	private JID connId;
+	private SessionManager sm;
+	private JID userJid;
+
+	@Before
+	public void setUp() throws Exception {
+		c2s = new RecordingConnectionManager();
+		c2s.setName("c2s");
+		sm = new SessionManager();
+		sm.setName("sess-man");
+		sm.setOutgoing_filters(new PacketFiltersBean.OutgoingPacketFiltersBean());
+		Field field = SessionManager.class.getDeclaredField("directLocalDelivery");
+		field.setAccessible(true);
+		field.setBoolean(sm, true);
+		sm.setDirectDeliveryReceivers(Collections.singleton(c2s));
+
+		connId = JID.jidInstanceNS(c2s.getName(), c2s.getDefHostName().getDomain(), "127.0.0.1_5222_127.0.0.1_40000");
+		userJid = JID.jidInstanceNS("user@example.com/res");
+	}
+
+	@Test
+	public void testPacketsAndCommandsKeepOrder() {
+		List<Packet> sent = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			sent.add(message("msg-" + i));
+		}
+		sent.add(Command.STREAM_CLOSED.getPacket(sm.getComponentId(), connId, StanzaType.set, "cmd-1"));
+		sent.add(message("msg-10"));
+		sent.add(Command.CLOSE.getPacket(sm.getComponentId(), connId, StanzaType.set, "cmd-2"));
+		sent.add(message("msg-11"));
+
+		for (Packet packet : sent) {
+			assertTrue(sm.addOutPacket(packet));
+		}
+
+		assertEquals(sent, c2s.received);
+		// all packets for the connection are processed by the same input queue thread
+		int hash = c2s.hashCodeForPacket(sent.get(0));
+		for (Packet packet : c2s.received) {
+			assertEquals(packet.toString(), hash, c2s.hashCodeForPacket(packet));
+		}
+	}
+
+	@Test
+	public void testPacketsForOtherDestinationsAreRouted() {
+		Packet packet = message("msg-1");
+		packet.setPacketTo(JID.jidInstanceNS("muc", c2s.getDefHostName().getDomain(), null));
+		assertNull(sm.getDirectDeliveryReceiver(packet));
+
+		packet.setPacketTo(JID.jidInstanceNS("c2s", "other-node.example.com", connId.getResource()));
+		assertNull(sm.getDirectDeliveryReceiver(packet));
+
+		packet.setPacketTo(connId);
+		assertSame(c2s, sm.getDirectDeliveryReceiver(packet));
+	}
+
+	private Packet message(String id) {
+		Packet packet = Message.getMessage(JID.jidInstanceNS("sender@example.com/res"), userJid, StanzaType.chat,
+										   "Body of " + id, null, null, id);
+		packet.setPacketFrom(sm.getComponentId());
+		packet.setPacketTo(connId);
+		return packet;
+	}
+
+	private static class RecordingConnectionManager
+			extends ClientConnectionManager {
+
+		private final List<Packet> received = new ArrayList<>();
+
+		@Override
+		public boolean addPacket(Packet packet) {
+			received.add(packet);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBucketsAreContinuous() {
+		long value = 0;
+		for (int i = 0; i < 488; i++) {
+			assertEquals(i, LatencyHistogram.bucketIndex(value));
+			long upper = LatencyHistogram.bucketUpperBound(i);
+			assertEquals(i, LatencyHistogram.bucketIndex(upper));
+			if (upper == Long.MAX_VALUE) {
+				break;
+			}
+			value = upper + 1;
+		}
+		assertEquals(487, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+		assertEquals(0, LatencyHistogram.bucketIndex(-5));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1_000_000, histogram.getMax());
+		assertEquals(500_500_000, histogram.getTotal());
+		assertWithinBucket(500_000, histogram.getPercentile(0.5));
+		assertWithinBucket(990_000, histogram.getPercentile(0.99));
+		assertEquals(1_000_000, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testPercentileOfCountsDifference() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			histogram.record(random.nextInt(1000));
+		}
+		long[] before = histogram.getCounts();
+		for (int i = 0; i < 100; i++) {
+			histogram.record(5_000_000);
+		}
+		long[] after = histogram.getCounts();
+		for (int i = 0; i < after.length; i++) {
+			after[i] -= before[i];
+		}
+
+		assertWithinBucket(5_000_000, LatencyHistogram.getPercentile(after, 0.5));
+		assertEquals(0, LatencyHistogram.getPercentile(new long[after.length], 0.99));
+	}
+
+	private static void assertWithinBucket(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.logging.Level;
+
+import static org.junit.Assert.*;
+
+public class StatisticsInvocationHandlerTest {
+
+	@Test
+	public void testInvocation() throws Exception {
+		TestRepositoryImpl impl = new TestRepositoryImpl();
+		StatisticsInvocationHandler<TestRepository> handler = new StatisticsInvocationHandler<>("test", impl,
+																								 TestRepository.class);
+		TestRepository proxy = (TestRepository) Proxy.newProxyInstance(TestRepository.class.getClassLoader(),
+																	   new Class[]{TestRepository.class}, handler);
+
+		assertEquals("value-1", proxy.getValue("value", 1));
+		assertEquals(3, proxy.count());
+		proxy.store(null);
+		assertEquals(1, impl.stored);
+		assertEquals(impl.toString(), proxy.toString());
+
+		try {
+			proxy.fail();
+			fail("exception should be thrown");
+		} catch (IOException ex) {
+			assertEquals("failed", ex.getMessage());
+		}
+
+		handler.everyMinute();
+		StatisticsList list = new StatisticsList(Level.FINEST);
+		handler.getStatistics("comp", "repo", list);
+		assertEquals(1, list.getValue("comp", "repo/test/getValue/Executions", 0L));
+		assertEquals(1, list.getValue("comp", "repo/test/fail/Executions", 0L));
+		assertEquals(1, list.getValue("comp", "repo/test/fail/Exceptions during execution", 0L));
+		assertEquals(0, list.getValue("comp", "repo/test/count/Exceptions during execution", 0L));
+		assertTrue(list.getValue("comp", "repo/test/store/Processing time last minute p99 [us]", -1L) >= 0);
+	}
+
+	public interface TestRepository {
+
+		int count();
+
+		void fail() throws IOException;
+
+		String getValue(String prefix, int idx);
+
+		void store(Object value);
+
+	}
+
+	public static class TestRepositoryImpl
+			implements TestRepository {
+
+		private int stored = 0;
+
+		@Override
+		public int count() {
+			return 3;
+		}
+
+		@Override
+		public void fail() throws IOException {
+			throw new IOException("failed");
+		}
+
+		@Override
+		public String getValue(String prefix, int idx) {
+			return prefix + "-" + idx;
+		}
+
+		@Override
+		public void store(Object value) {
+			stored++;
+		}
+	}
+}
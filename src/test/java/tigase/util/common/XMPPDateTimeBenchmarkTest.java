@@ -0,0 +1,118 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.common;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+
+/**
+ * Compares throughput of formatting and parsing timestamps by many threads using a <code>SimpleDateFormat</code>
+ * shared in <code>synchronized</code> blocks (as it was done by processors adding <code>delay</code> elements) with
+ * {@link XMPPDateTime}.
+ */
+@Category(SlowTest.class)
+public class XMPPDateTimeBenchmarkTest {
+
+	private static final int OPERATIONS = 500000;
+	private static final int ROUNDS = 5;
+
+	private final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+	{
+		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int t : new int[]{1, threads}) {
+				benchmark(executor, t, "format", "synchronized", this::formatSynchronized);
+				benchmark(executor, t, "format", "XMPPDateTime", XMPPDateTime::format);
+				benchmark(executor, t, "parse", "synchronized", this::parseSynchronized);
+				benchmark(executor, t, "parse", "XMPPDateTime", this::parseCodec);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void benchmark(ExecutorService executor, int threads, String operation, String name,
+						   LongFunction<Object> function) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			Future<?>[] futures = new Future[threads];
+			long start = System.nanoTime();
+			for (int i = 0; i < threads; i++) {
+				futures[i] = executor.submit(() -> {
+					long base = System.currentTimeMillis();
+					int sink = 0;
+					for (int j = 0; j < OPERATIONS; j++) {
+						// timestamps of packets processed within a few seconds
+						sink += function.apply(base + j / 100).hashCode();
+					}
+					return sink;
+				});
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		double opsPerSecond = (double) OPERATIONS * threads * 1000_000_000L / best;
+		System.out.println(String.format("%-6s %-12s threads: %2d, %,12.0f ops/s", operation, name, threads,
+										 opsPerSecond));
+	}
+
+	private String formatSynchronized(long time) {
+		synchronized (formatter) {
+			return formatter.format(new Date(time));
+		}
+	}
+
+	private Date parseSynchronized(long time) {
+		String value = XMPPDateTime.format(time);
+		try {
+			synchronized (formatter) {
+				return formatter.parse(value);
+			}
+		} catch (ParseException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private Date parseCodec(long time) {
+		String value = XMPPDateTime.format(time);
+		try {
+			return XMPPDateTime.parse(value);
+		} catch (ParseException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.common;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class XMPPDateTimeTest {
+
+	@Test
+	public void testFormat() {
+		SimpleDateFormat millisFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		millisFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		SimpleDateFormat secondsFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		secondsFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		assertEquals("1970-01-01T00:00:00.000Z", XMPPDateTime.format(0));
+		assertEquals("1969-12-31T23:59:59.999Z", XMPPDateTime.format(-1));
+		assertEquals("2000-02-29T12:34:56.007Z", XMPPDateTime.format(951827696007L));
+
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			long time = (long) (random.nextDouble() * 253402300799999L);
+			assertEquals(millisFormat.format(new Date(time)), XMPPDateTime.format(time));
+			assertEquals(secondsFormat.format(new Date(time)), XMPPDateTime.formatSeconds(time));
+		}
+	}
+
+	@Test
+	public void testParseDateTime() throws ParseException {
+		assertEquals(951827696007L, XMPPDateTime.parseMillis("2000-02-29T12:34:56.007Z"));
+		assertEquals(951827696000L, XMPPDateTime.parseMillis("2000-02-29T12:34:56Z"));
+		assertEquals(951827696100L, XMPPDateTime.parseMillis("2000-02-29T12:34:56.1Z"));
+		assertEquals(951827696123L, XMPPDateTime.parseMillis("2000-02-29T12:34:56.123456Z"));
+		assertEquals(951827696000L, XMPPDateTime.parseMillis("2000-02-29T14:34:56+02:00"));
+		assertEquals(951827696000L, XMPPDateTime.parseMillis("2000-02-29T07:04:56-05:30"));
+		assertEquals(951782400000L, XMPPDateTime.parseMillis("2000-02-29"));
+		assertEquals(new Date(951827696007L), XMPPDateTime.parse("2000-02-29T12:34:56.007Z"));
+
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			long time = (long) (random.nextDouble() * 253402300799999L);
+			assertEquals(time, XMPPDateTime.parseMillis(XMPPDateTime.format(time)));
+		}
+	}
+
+	@Test
+	public void testParseTime() throws ParseException {
+		assertEquals(16 * 3600 * 1000L, XMPPDateTime.parseTime("16:00:00"));
+		assertEquals(16 * 3600 * 1000L + 500, XMPPDateTime.parseTime("16:00:00.5Z"));
+		assertEquals(15 * 3600 * 1000L, XMPPDateTime.parseTime("16:00:00+01:00"));
+	}
+
+	@Test
+	public void testParseInvalid() {
+		String[] values = {"", "2019", "2019-3-21", "2019-13-01", "2019-02-29", "2019-03-21T10:15:30",
+						   "2019-03-21T24:00:00Z", "2019-03-21T10:15:30.Z", "2019-03-21T10:15:30Zx",
+						   "2019-03-21T10:15:30+0200", "2019-03-21 10:15:30Z"};
+		for (String value : values) {
+			try {
+				XMPPDateTime.parseMillis(value);
+				fail("Value should be rejected: " + value);
+			} catch (ParseException ex) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.*;
+
+public class AsyncLogHandlerTest {
+
+	private static final String PREFIX = AsyncLogHandler.class.getName() + ".";
+
+	private File dir;
+	private Map<String, String> properties;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("async-log").toFile();
+		properties = new HashMap<>();
+		properties.put(PREFIX + "formatter", LineFormatter.class.getName());
+		properties.put(PREFIX + "pattern", new File(dir, "test%g.log").getPath());
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testFlush() throws IOException {
+		AsyncLogHandler handler = new AsyncLogHandler(properties::get);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				handler.publish(new LogRecord(Level.INFO, "record-" + i));
+			}
+			handler.flush();
+			List<String> lines = readLines("test0.log");
+			assertEquals(1000, lines.size());
+			assertEquals("record-999", lines.get(999));
+		} finally {
+			handler.close();
+		}
+	}
+
+	@Test
+	public void testOverflowDrop() throws IOException {
+		properties.put(PREFIX + "queueSize", "2");
+		properties.put(PREFIX + "overflow", "DROP");
+		AsyncLogHandler handler = new AsyncLogHandler(properties::get);
+		try {
+			for (int i = 0; i < 100000; i++) {
+				handler.publish(new LogRecord(Level.INFO, "record-" + i));
+			}
+			handler.flush();
+			assertEquals(100000, handler.getWrittenRecords() + handler.getDroppedRecords());
+			assertEquals(handler.getWrittenRecords(), readLines("test0.log").size());
+		} finally {
+			handler.close();
+		}
+	}
+
+	@Test
+	public void testOverflowBlock() throws IOException {
+		properties.put(PREFIX + "queueSize", "2");
+		properties.put(PREFIX + "overflow", "BLOCK");
+		AsyncLogHandler handler = new AsyncLogHandler(properties::get);
+		try {
+			for (int i = 0; i < 10000; i++) {
+				handler.publish(new LogRecord(Level.INFO, "record-" + i));
+			}
+			handler.flush();
+			assertEquals(0, handler.getDroppedRecords());
+			assertEquals(10000, handler.getWrittenRecords());
+			assertEquals(10000, readLines("test0.log").size());
+		} finally {
+			handler.close();
+		}
+	}
+
+	@Test
+	public void testRotation() throws IOException {
+		properties.put(PREFIX + "limit", "1000");
+		properties.put(PREFIX + "count", "3");
+		AsyncLogHandler handler = new AsyncLogHandler(properties::get);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				handler.publish(new LogRecord(Level.INFO, "record-" + i));
+				if (i % 50 == 0) {
+					handler.flush();
+				}
+			}
+			handler.flush();
+		} finally {
+			handler.close();
+		}
+		assertTrue(new File(dir, "test0.log").exists());
+		assertTrue(new File(dir, "test1.log").exists());
+		assertTrue(new File(dir, "test2.log").exists());
+		assertFalse(new File(dir, "test3.log").exists());
+		// generations are shifted on rotation, so the newest records are in the first not empty file
+		List<String> lines = readLines("test0.log");
+		if (lines.isEmpty()) {
+			lines = readLines("test1.log");
+		}
+		assertEquals("record-999", lines.get(lines.size() - 1));
+		assertTrue(new File(dir, "test1.log").length() >= 1000);
+	}
+
+	@Test
+	public void testUniqueFileNames() throws IOException {
+		properties.put(PREFIX + "pattern", new File(dir, "test%u.log").getPath());
+		properties.put(PREFIX + "count", "1");
+		AsyncLogHandler first = new AsyncLogHandler(properties::get);
+		AsyncLogHandler second = new AsyncLogHandler(properties::get);
+		try {
+			first.publish(new LogRecord(Level.INFO, "first"));
+			second.publish(new LogRecord(Level.INFO, "second"));
+			first.flush();
+			second.flush();
+			assertEquals("first", readLines("test0.log").get(0));
+			assertEquals("second", readLines("test1.log").get(0));
+			assertTrue(new File(dir, "test1.log.lck").exists());
+		} finally {
+			first.close();
+			second.close();
+		}
+		assertFalse(new File(dir, "test0.log.lck").exists());
+		assertFalse(new File(dir, "test1.log.lck").exists());
+	}
+
+	private List<String> readLines(String name) throws IOException {
+		return Files.readAllLines(new File(dir, name).toPath(), StandardCharsets.UTF_8);
+	}
+
+	public static class LineFormatter
+			extends Formatter {
+
+		@Override
+		public String format(LogRecord record) {
+			return record.getMessage() + "\n";
+		}
+	}
+}
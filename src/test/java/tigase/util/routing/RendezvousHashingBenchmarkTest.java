@@ -0,0 +1,74 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.routing;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simulates membership changes of a cluster and reports fraction of users which would be redirected to another node
+ * when node is selected using <code>hash % nodes.size()</code> and using rendezvous hashing.
+ */
+@Category(SlowTest.class)
+public class RendezvousHashingBenchmarkTest {
+
+	private static final int KEYS = 1000000;
+
+	@Test
+	public void testMovedKeys() {
+		for (int size = 2; size <= 16; size *= 2) {
+			List<String> nodes = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				nodes.add("node-" + i + ".example.com");
+			}
+			List<String> joined = new ArrayList<>(nodes);
+			joined.add("node-" + size + ".example.com");
+			List<String> left = new ArrayList<>(nodes);
+			left.remove(size / 2);
+
+			long start = System.currentTimeMillis();
+			int moduloJoin = 0, moduloLeave = 0, rendezvousJoin = 0, rendezvousLeave = 0;
+			for (int i = 0; i < KEYS; i++) {
+				int hash = ("user-" + i + "@example.com").hashCode();
+				String modulo = modulo(hash, nodes);
+				moduloJoin += modulo.equals(modulo(hash, joined)) ? 0 : 1;
+				moduloLeave += modulo.equals(modulo(hash, left)) ? 0 : 1;
+				String rendezvous = rendezvous(hash, nodes);
+				rendezvousJoin += rendezvous.equals(rendezvous(hash, joined)) ? 0 : 1;
+				rendezvousLeave += rendezvous.equals(rendezvous(hash, left)) ? 0 : 1;
+			}
+			System.out.println(String.format(
+					"nodes: %2d, keys moved on join - modulo: %5.1f%%, rendezvous: %5.1f%%; on leave - modulo: " +
+							"%5.1f%%, rendezvous: %5.1f%%, time: %dms", size, 100.0 * moduloJoin / KEYS,
+					100.0 * rendezvousJoin / KEYS, 100.0 * moduloLeave / KEYS, 100.0 * rendezvousLeave / KEYS,
+					System.currentTimeMillis() - start));
+		}
+	}
+
+	private static String modulo(int hash, List<String> nodes) {
+		return nodes.get(Math.abs(hash % nodes.size()));
+	}
+
+	private static String rendezvous(int hash, List<String> nodes) {
+		return RendezvousHashing.select(hash, nodes, RendezvousHashing::hash, node -> true);
+	}
+}
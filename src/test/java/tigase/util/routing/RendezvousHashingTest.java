@@ -0,0 +1,129 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.routing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RendezvousHashingTest {
+
+	private static final int KEYS = 10000;
+
+	private static List<String> nodes(int count) {
+		List<String> nodes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			nodes.add("node-" + i + ".example.com");
+		}
+		return nodes;
+	}
+
+	private static String select(String key, List<String> nodes) {
+		return RendezvousHashing.select(key.hashCode(), nodes, RendezvousHashing::hash, node -> true);
+	}
+
+	@Test
+	public void testDistribution() {
+		List<String> nodes = nodes(5);
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			counts.merge(select("user-" + i + "@example.com", nodes), 1, Integer::sum);
+		}
+		assertEquals(5, counts.size());
+		for (int count : counts.values()) {
+			assertTrue("Unbalanced distribution: " + counts, Math.abs(count - KEYS / 5) < KEYS / 25);
+		}
+	}
+
+	@Test
+	public void testMinimalDisruption() {
+		List<String> nodes = nodes(5);
+		List<String> grown = nodes(6);
+		for (int i = 0; i < KEYS; i++) {
+			String key = "user-" + i + "@example.com";
+			String before = select(key, nodes);
+			String after = select(key, grown);
+			assertTrue(before.equals(after) || after.equals(grown.get(5)));
+
+			List<String> shrunk = new ArrayList<>(nodes);
+			shrunk.remove(2);
+			if (!before.equals(nodes.get(2))) {
+				assertEquals(before, select(key, shrunk));
+			}
+		}
+	}
+
+	@Test
+	public void testFailover() {
+		List<String> nodes = nodes(4);
+		String key = "user@example.com";
+		List<String> ranked = RendezvousHashing.rank(key.hashCode(), nodes, RendezvousHashing::hash, node -> true);
+		assertEquals(4, ranked.size());
+		assertEquals(ranked.get(0), select(key, nodes));
+		assertEquals(ranked.get(1), RendezvousHashing.select(key.hashCode(), nodes, RendezvousHashing::hash,
+															 node -> !node.equals(ranked.get(0))));
+		assertNull(RendezvousHashing.select(key.hashCode(), nodes, RendezvousHashing::hash, node -> false));
+	}
+
+	@Test
+	public void testBoundedLoad() {
+		List<String> nodes = nodes(3);
+		String key = "user@example.com";
+		List<String> ranked = RendezvousHashing.rank(key.hashCode(), nodes, RendezvousHashing::hash, node -> true);
+		Map<String, Long> loads = new HashMap<>();
+		loads.put(ranked.get(0), 5000L);
+		loads.put(ranked.get(1), 10L);
+		loads.put(ranked.get(2), 0L);
+
+		assertEquals(ranked.get(1),
+					 RendezvousHashing.select(key.hashCode(), nodes, RendezvousHashing::hash, node -> true,
+											  loads::get, 1.5, 100));
+		// small differences in load are below minimal load and do not affect selection
+		loads.put(ranked.get(0), 50L);
+		assertEquals(ranked.get(0),
+					 RendezvousHashing.select(key.hashCode(), nodes, RendezvousHashing::hash, node -> true,
+											  loads::get, 1.5, 100));
+		assertEquals(Arrays.asList(ranked.get(0)),
+					 RendezvousHashing.rank(key.hashCode(), nodes, RendezvousHashing::hash,
+											node -> node.equals(ranked.get(0))));
+	}
+
+	@Test
+	public void testTop() {
+		List<String> nodes = nodes(6);
+		for (int k = 0; k < 100; k++) {
+			String key = "user-" + k + "@example.com";
+			List<String> ranked = RendezvousHashing.rank(key.hashCode(), nodes, RendezvousHashing::hash,
+														 node -> !node.startsWith("node-3"));
+			assertEquals(5, ranked.size());
+			String[] top = new String[2];
+			assertEquals(2, RendezvousHashing.top(key.hashCode(), nodes, RendezvousHashing::hash,
+												  node -> !node.startsWith("node-3"), top));
+			assertEquals(ranked.subList(0, 2), Arrays.asList(top));
+		}
+		String[] top = new String[3];
+		assertEquals(1, RendezvousHashing.top(1, nodes(1), RendezvousHashing::hash, node -> true, top));
+		assertEquals(0, RendezvousHashing.top(1, nodes, RendezvousHashing::hash, node -> false, top));
+	}
+}
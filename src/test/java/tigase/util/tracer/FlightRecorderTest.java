@@ -0,0 +1,132 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.tracer;
+
+import org.junit.After;
+import org.junit.Test;
+import tigase.server.Message;
+import tigase.server.Packet;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderTest {
+
+	@After
+	public void tearDown() {
+		FlightRecorder.configure(true, false, false);
+	}
+
+	@Test
+	public void testDumpAndDecode() throws Exception {
+		FlightRecorder.configure(true, true, false);
+		JID from = JID.jidInstance("user@example.com/res");
+		JID to = JID.jidInstance("other@example.com");
+		JID connectionId = JID.jidInstance("c2s@example.com/127.0.0.1_5222_127.0.0.1_40000");
+		Packet packet = Message.getMessage(from, to, StanzaType.chat, "body", null, null, "flight-test-1");
+
+		FlightRecorder.record(FlightRecorder.Stage.SOCKET_READ, "c2s", connectionId, packet);
+		FlightRecorder.record(FlightRecorder.Stage.IN_QUEUE, "sess-man", connectionId, packet);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FlightRecorder.dump(out);
+
+		List<FlightRecorderDecoder.Record> records = FlightRecorderDecoder.decode(
+				new ByteArrayInputStream(out.toByteArray()))
+				.stream()
+				.filter(r -> r.getText().contains("id=flight-test-1"))
+				.collect(Collectors.toList());
+
+		assertEquals(2, records.size());
+		assertEquals(FlightRecorder.Stage.SOCKET_READ, records.get(0).getStage());
+		assertEquals("c2s", records.get(0).getComponent());
+		assertEquals(FlightRecorder.Stage.IN_QUEUE, records.get(1).getStage());
+		assertEquals("sess-man", records.get(1).getComponent());
+		assertEquals("message", records.get(1).getKind());
+		assertEquals(connectionId.toString(), records.get(1).getConnection());
+		assertTrue(records.get(1).getText().contains("from=user@example.com/res"));
+	}
+
+	@Test
+	public void testAddressesNotRecordedByDefault() throws Exception {
+		FlightRecorder.configure(true, false, false);
+		JID from = JID.jidInstance("user@example.com/res");
+		JID to = JID.jidInstance("other@example.com");
+		JID connectionId = JID.jidInstance("c2s@example.com/127.0.0.1_5222_127.0.0.1_40001");
+		JID otherConnectionId = JID.jidInstance("c2s@example.com/127.0.0.1_5222_127.0.0.1_40002");
+		Packet packet = Message.getMessage(from, to, StanzaType.headline, "body", null, null, "flight-test-2");
+
+		FlightRecorder.record(FlightRecorder.Stage.SOCKET_READ, "c2s-default", connectionId, packet);
+		FlightRecorder.record(FlightRecorder.Stage.SOCKET_WRITE, "c2s-default", connectionId, packet);
+		FlightRecorder.record(FlightRecorder.Stage.SOCKET_WRITE, "c2s-default", otherConnectionId, packet);
+
+		List<FlightRecorderDecoder.Record> records = decode("c2s-default");
+		assertEquals(3, records.size());
+		assertEquals("message type=headline", records.get(0).getText());
+		assertFalse(records.get(0).getText().contains("flight-test-2"));
+		String connection = records.get(0).getConnection();
+		assertEquals(16, connection.length());
+		assertFalse(connection.contains("127.0.0.1"));
+		assertEquals(connection, records.get(1).getConnection());
+		assertNotEquals(connection, records.get(2).getConnection());
+	}
+
+	@Test
+	public void testSizeRecorded() throws Exception {
+		JID from = JID.jidInstance("user@example.com/res");
+		JID connectionId = JID.jidInstance("c2s@example.com/127.0.0.1_5222_127.0.0.1_40003");
+		Packet packet = Message.getMessage(from, from, StanzaType.chat, "body", null, null, "flight-test-4");
+
+		FlightRecorder.record(FlightRecorder.Stage.SOCKET_WRITE, "c2s-size", connectionId, packet, 123);
+		FlightRecorder.record(FlightRecorder.Stage.OUT_QUEUE, "c2s-size", connectionId, packet);
+
+		List<FlightRecorderDecoder.Record> records = decode("c2s-size");
+		assertEquals(2, records.size());
+		assertEquals(123, records.get(0).getSize());
+		assertEquals(-1, records.get(1).getSize());
+	}
+
+	@Test
+	public void testNotRecordedWhenDisabled() throws Exception {
+		FlightRecorder.configure(false, false, false);
+		JID from = JID.jidInstance("user@example.com/res");
+		Packet packet = Message.getMessage(from, from, StanzaType.chat, "body", null, null, "flight-test-3");
+
+		FlightRecorder.record(FlightRecorder.Stage.SOCKET_READ, "c2s-disabled", null, packet);
+
+		assertTrue(decode("c2s-disabled").isEmpty());
+	}
+
+	private static List<FlightRecorderDecoder.Record> decode(String component) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FlightRecorder.dump(out);
+		return FlightRecorderDecoder.decode(new ByteArrayInputStream(out.toByteArray()))
+				.stream()
+				.filter(r -> component.equals(r.getComponent()))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts.filter;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares checking a domain against whitelist by iterating over the array of interned domains (as it was done by
+ * <code>DomainFilter</code> before) with lookup in <code>CompiledDomainList</code>.
+ */
+@Category(SlowTest.class)
+public class CompiledDomainListBenchmarkTest {
+
+	// number of lookups is reduced for long lists to keep time of the linear search reasonable
+	private static final long WORK = 200_000_000L;
+
+	@Test
+	public void testListSizes() {
+		for (int size : new int[]{10, 1000, 10000}) {
+			benchmark(size);
+		}
+	}
+
+	private void benchmark(int size) {
+		String[] domains = new String[size];
+		for (int i = 0; i < size; i++) {
+			domains[i] = ("partner" + i + ".example.com").intern();
+		}
+		// half of checked domains is on the list
+		Random random = new Random(1);
+		String[] checked = new String[1024];
+		for (int i = 0; i < checked.length; i++) {
+			int idx = random.nextInt(size * 2);
+			checked[i] = ("partner" + idx + ".example.com").intern();
+		}
+		CompiledDomainList compiled = CompiledDomainList.compile(domains);
+		int lookups = (int) Math.min(5_000_000, WORK / size);
+
+		// warm up
+		long linearFound = linear(domains, checked, lookups / 10);
+		long compiledFound = compiled(compiled, checked, lookups / 10);
+		assertEquals(linearFound, compiledFound);
+
+		long start = System.nanoTime();
+		linearFound = linear(domains, checked, lookups);
+		long linearTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		compiledFound = compiled(compiled, checked, lookups);
+		long compiledTime = System.nanoTime() - start;
+		assertEquals(linearFound, compiledFound);
+
+		System.out.println(String.format("domains: %5d, linear: %8.1fns/lookup, compiled: %6.1fns/lookup", size,
+										 linearTime / (double) lookups, compiledTime / (double) lookups));
+	}
+
+	private long compiled(CompiledDomainList compiled, String[] checked, int lookups) {
+		long found = 0;
+		for (int i = 0; i < lookups; i++) {
+			if (compiled.contains(checked[i & (checked.length - 1)])) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	private long linear(String[] domains, String[] checked, int lookups) {
+		long found = 0;
+		for (int i = 0; i < lookups; i++) {
+			String outDomain = checked[i & (checked.length - 1)];
+			for (String domain : domains) {
+				if (domain == outDomain) {
+					found++;
+					break;
+				}
+			}
+		}
+		return found;
+	}
+}
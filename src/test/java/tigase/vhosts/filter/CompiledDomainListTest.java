@@ -0,0 +1,81 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.vhosts.filter;
+
+import org.junit.Test;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xmpp.jid.JID;
+
+import static org.junit.Assert.*;
+
+public class CompiledDomainListTest {
+
+	@Test
+	public void testContains() {
+		String[] domains = {"domain1", "domain2"};
+		CompiledDomainList compiled = CompiledDomainList.compile(domains);
+
+		assertTrue(compiled.contains("domain1"));
+		// domains do not have to be interned
+		assertTrue(compiled.contains(new String("domain2")));
+		assertFalse(compiled.contains("domain3"));
+		assertFalse(compiled.contains("sub.domain1"));
+		assertFalse(compiled.contains(null));
+		assertEquals(2, compiled.size());
+	}
+
+	@Test
+	public void testEmpty() {
+		assertSame(CompiledDomainList.EMPTY, CompiledDomainList.compile(null));
+		assertFalse(CompiledDomainList.compile(null).contains("domain1"));
+		assertFalse(CompiledDomainList.compile(new String[0]).contains("domain1"));
+	}
+
+	@Test
+	public void testCachedInstanceReused() {
+		String[] domains = {"domain1", "domain2"};
+		CompiledDomainList compiled = CompiledDomainList.compile(domains, null);
+
+		assertSame(compiled, CompiledDomainList.compile(domains, compiled));
+		assertSame(CompiledDomainList.EMPTY, CompiledDomainList.compile(null, CompiledDomainList.EMPTY));
+
+		String[] changed = {"domain3"};
+		CompiledDomainList recompiled = CompiledDomainList.compile(changed, compiled);
+		assertNotSame(compiled, recompiled);
+		assertTrue(recompiled.isCompiledFrom(changed));
+		assertTrue(recompiled.contains("domain3"));
+		assertFalse(recompiled.contains("domain1"));
+	}
+
+	@Test
+	public void testCustomRules() throws TigaseStringprepException {
+		CompiledDomainList compiled = CompiledDomainList.compile(
+				new String[]{"4|deny|all", "1|allow|self", "3|allow|jid|pubsub@test.com"});
+		JID user1 = JID.jidInstance("user1", "domain1", "resource1");
+		JID user2 = JID.jidInstance("user2", "domain1", "resource1");
+		JID pubsub = JID.jidInstance("pubsub", "test.com");
+
+		assertTrue(compiled.isAllowed(user1, user1.copyWithResource("resource2")));
+		assertTrue(compiled.isAllowed(user1, pubsub));
+		assertFalse(compiled.isAllowed(user1, user2));
+
+		// invalid rules do not block communication
+		CompiledDomainList invalid = CompiledDomainList.compile(new String[]{"|||18|||deny,self::::"});
+		assertTrue(invalid.isAllowed(user1, user2));
+	}
+}
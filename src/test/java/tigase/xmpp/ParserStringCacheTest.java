@@ -0,0 +1,59 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParserStringCacheTest {
+
+	@Test
+	public void testGet() {
+		StringBuilder name = new StringBuilder("stream:features");
+
+		assertEquals("stream:features", ParserStringCache.get(name));
+		assertEquals("stream", ParserStringCache.get(name, 0, 6));
+		assertEquals("features", ParserStringCache.get(name, 7, name.length()));
+		// cached value is returned for different buffer with the same content
+		assertSame(ParserStringCache.get(name), ParserStringCache.get(new StringBuilder("stream:features")));
+		assertEquals("", ParserStringCache.get(new StringBuilder()));
+
+		StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			longName.append('a');
+		}
+		assertEquals(longName.toString(), ParserStringCache.get(longName));
+	}
+
+	@Test
+	public void testCollisions() {
+		// "Aa" and "BB" have the same hash code, so they are stored in the same entry
+		assertEquals("Aa", ParserStringCache.get(new StringBuilder("Aa")));
+		assertEquals("BB", ParserStringCache.get(new StringBuilder("BB")));
+		assertEquals("Aa", ParserStringCache.get(new StringBuilder("Aa")));
+	}
+
+	@Test
+	public void testStartsWith() {
+		assertTrue(ParserStringCache.startsWith(new StringBuilder("xmlns:stream"), "xmlns:"));
+		assertTrue(ParserStringCache.startsWith(new StringBuilder("xmlns:"), "xmlns:"));
+		assertFalse(ParserStringCache.startsWith(new StringBuilder("xmlns"), "xmlns:"));
+		assertFalse(ParserStringCache.startsWith(new StringBuilder("xml:lang"), "xmlns:"));
+	}
+}
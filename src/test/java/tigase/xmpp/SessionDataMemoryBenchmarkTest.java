@@ -0,0 +1,100 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares heap used by temporary data of idle sessions kept in <code>ConcurrentHashMap</code> (as it was done by
+ * <code>XMPPResourceConnection</code> before) with heap used by {@link SessionDataStore}. Each idle session keeps
+ * a few values (ie. last presence, message carbons state and markers set by presence processing). Values are shared by
+ * all sessions, so only the cost of the storage itself is measured.
+ */
+@Category(SlowTest.class)
+public class SessionDataMemoryBenchmarkTest {
+
+	private static final int SESSIONS = 1_000_000;
+
+	private static final String[] KEYS = {"test-bench-presence", "test-bench-carbons", "test-bench-bud-sent",
+										  "test-bench-res-sent"};
+	private static final Object VALUE = new Object();
+
+	@Test
+	public void testHeapPerIdleSession() {
+		for (String key : KEYS) {
+			SessionDataSlot.register(key, Object.class);
+		}
+
+		long mapBytes = measure(() -> {
+			Map<String, Object> data = new ConcurrentHashMap<>(4, 0.9f);
+			for (String key : KEYS) {
+				data.put(key, VALUE);
+			}
+			return data;
+		});
+		long storeBytes = measure(() -> {
+			SessionDataStore data = new SessionDataStore();
+			for (String key : KEYS) {
+				data.put(key, VALUE);
+			}
+			assertEquals(VALUE, data.get(KEYS[0]));
+			return data;
+		});
+
+		System.out.println(String.format(
+				"sessions: %d, registered slots: %d, ConcurrentHashMap: %d B/session, SessionDataStore: %d B/session",
+				SESSIONS, SessionDataSlot.getSlotsCount(), mapBytes / SESSIONS, storeBytes / SESSIONS));
+	}
+
+	private long measure(Supplier<Object> factory) {
+		Object[] sessions = new Object[SESSIONS];
+		long before = usedMemory();
+		for (int i = 0; i < SESSIONS; i++) {
+			sessions[i] = factory.get();
+		}
+		long after = usedMemory();
+		assertEquals(SESSIONS, countNotNull(sessions));
+		return after - before;
+	}
+
+	private static int countNotNull(Object[] sessions) {
+		int count = 0;
+		for (Object session : sessions) {
+			if (session != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
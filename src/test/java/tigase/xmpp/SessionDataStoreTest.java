@@ -0,0 +1,121 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SessionDataStoreTest {
+
+	private static final SessionDataSlot<String> STRING_SLOT = SessionDataSlot.register("test-string-slot",
+																						String.class);
+	private static final SessionDataSlot<Map<String, Integer>> MAP_SLOT = SessionDataSlot.register("test-map-slot",
+																									Map.class);
+
+	@Test
+	public void testRegister() {
+		assertSame(STRING_SLOT, SessionDataSlot.register("test-string-slot", String.class));
+		assertSame(STRING_SLOT, SessionDataSlot.getSlot("test-string-slot"));
+		assertNotEquals(STRING_SLOT.getIndex(), MAP_SLOT.getIndex());
+		assertNull(SessionDataSlot.getSlot("test-not-registered"));
+		try {
+			SessionDataSlot.register("test-string-slot", Integer.class);
+			fail("slot registered for different class");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSlotAndStringKey() {
+		SessionDataStore store = new SessionDataStore();
+		assertNull(store.get(STRING_SLOT));
+
+		store.put(STRING_SLOT, "value");
+		assertEquals("value", store.get(STRING_SLOT));
+		assertEquals("value", store.get("test-string-slot"));
+
+		assertEquals("value", store.put("test-string-slot", "other"));
+		assertEquals("other", store.get(STRING_SLOT));
+
+		assertEquals("other", store.putIfAbsent(STRING_SLOT, "ignored"));
+		assertEquals("other", store.remove(STRING_SLOT));
+		assertNull(store.get("test-string-slot"));
+		assertNull(store.putIfAbsent(STRING_SLOT, "first"));
+		assertEquals("first", store.get(STRING_SLOT));
+
+		store.put(STRING_SLOT, null);
+		assertNull(store.get(STRING_SLOT));
+	}
+
+	@Test
+	public void testDynamicKey() {
+		SessionDataStore store = new SessionDataStore();
+		assertNull(store.get("test-dynamic"));
+		assertNull(store.remove("test-dynamic"));
+
+		store.put("test-dynamic", 5);
+		assertEquals(5, store.get("test-dynamic"));
+		assertEquals(5, store.putIfAbsent("test-dynamic", 6));
+		assertEquals(5, store.computeIfAbsent("test-dynamic", key -> 7));
+		assertEquals(5, store.remove("test-dynamic"));
+		assertEquals(8, store.computeIfAbsent("test-dynamic", key -> 8));
+	}
+
+	@Test
+	public void testComputeIfAbsent() {
+		SessionDataStore store = new SessionDataStore();
+		AtomicInteger calls = new AtomicInteger();
+
+		Map<String, Integer> map = store.computeIfAbsent(MAP_SLOT, slot -> {
+			calls.incrementAndGet();
+			return new ConcurrentHashMap<>();
+		});
+		assertSame(map, store.computeIfAbsent(MAP_SLOT, slot -> {
+			calls.incrementAndGet();
+			return new ConcurrentHashMap<>();
+		}));
+		assertSame(map, store.computeIfAbsent("test-map-slot", key -> new ConcurrentHashMap<>()));
+		assertEquals(1, calls.get());
+
+		assertNull(store.computeIfAbsent(STRING_SLOT, slot -> null));
+		assertNull(store.get(STRING_SLOT));
+	}
+
+	@Test
+	public void testSlotRegisteredAfterStoreCreation() {
+		SessionDataStore store = new SessionDataStore();
+		store.put("test-late-slot", "before");
+
+		SessionDataSlot<String> late = SessionDataSlot.register("test-late-slot", String.class);
+		assertEquals("before", store.get(late));
+		store.put(late, "after");
+		assertEquals("after", store.get("test-late-slot"));
+		assertEquals("after", store.remove(late));
+		assertNull(store.get("test-late-slot"));
+
+		SessionDataStore newStore = new SessionDataStore();
+		newStore.put(late, "new");
+		assertEquals("new", newStore.get("test-late-slot"));
+	}
+}
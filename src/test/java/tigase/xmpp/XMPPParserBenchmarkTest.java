@@ -0,0 +1,105 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.SlowTest;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Measures throughput of parsing stanzas received from the client connection with {@link XMPPDomBuilderHandler} and
+ * bytes allocated per parsed stanza for typical message, presence and iq traffic.
+ */
+@Category(SlowTest.class)
+public class XMPPParserBenchmarkTest {
+
+	private static final int STANZAS = 500_000;
+
+	private static final String MESSAGE =
+			"<message xmlns=\"jabber:client\" to=\"juliet@example.com/balcony\" type=\"chat\" id=\"msg-12345\">" +
+					"<body>Wherefore art thou, Romeo?</body>" + "<active xmlns=\"http://jabber.org/protocol/chatstates\"/>" +
+					"<request xmlns=\"urn:xmpp:receipts\"/>" + "</message>";
+	private static final String PRESENCE = "<presence xmlns=\"jabber:client\">" + "<show>away</show>" +
+			"<status>In a meeting until 3pm</status>" + "<priority>5</priority>" +
+			"<c xmlns=\"http://jabber.org/protocol/caps\" hash=\"sha-1\" node=\"http://tigase.org/client\" " +
+			"ver=\"QgayPKawpkPSDYmwT/WM94uAlu0=\"/>" + "</presence>";
+	private static final String IQ =
+			"<iq xmlns=\"jabber:client\" type=\"get\" id=\"disco-1\" to=\"example.com\">" +
+					"<query xmlns=\"http://jabber.org/protocol/disco#info\"/>" + "</iq>";
+
+	@Test
+	public void testParse() {
+		XMPPIOService ioserv = new XMPPIOService() {
+			@Override
+			protected void xmppStreamOpened(Map attribs) {
+			}
+		};
+		XMPPDomBuilderHandler<Object> handler = new XMPPDomBuilderHandler<>(ioserv);
+		handler.setElementsLimit(1000);
+		SimpleParser parser = SingletonFactory.getParserInstance();
+
+		for (int i = 0; i < 3; i++) {
+			parse(parser, handler, "message", MESSAGE, false);
+			parse(parser, handler, "presence", PRESENCE, false);
+			parse(parser, handler, "iq", IQ, false);
+		}
+
+		parse(parser, handler, "message", MESSAGE, true);
+		parse(parser, handler, "presence", PRESENCE, true);
+		parse(parser, handler, "iq", IQ, true);
+	}
+
+	private void parse(SimpleParser parser, XMPPDomBuilderHandler<Object> handler, String name, String stanza,
+					   boolean report) {
+		char[] data = stanza.toCharArray();
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < STANZAS; i++) {
+			parser.parse(handler, data, 0, data.length);
+			Element elem = handler.getParsedElements().poll();
+			assertEquals(name, elem.getName());
+		}
+		long time = System.nanoTime() - start;
+		bytes = allocatedBytes() - bytes;
+		assertFalse(handler.parseError());
+
+		if (report) {
+			System.out.println(String.format("%-8s: %9.0f stanzas/s, %5d B/stanza", name, STANZAS * 1e9 / time,
+											 bytes / STANZAS));
+		}
+	}
+
+	private long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		// allocation counter is not available on this JVM
+		return 0;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class CapsCacheTest {
+
+	@Test
+	public void testFeatureSetsAreShared() {
+		CapsCache cache = new CapsCache(10, null);
+		cache.put("client#1", new String[]{"urn:b", "urn:a"});
+		cache.put("client#2", new String[]{"urn:a", "urn:b"});
+
+		assertSame(cache.get("client#1"), cache.get("client#2"));
+		assertArrayEquals(new String[]{"urn:a", "urn:b"}, cache.get("client#1"));
+		assertEquals(1, cache.getFeatureSetsCount());
+	}
+
+	@Test
+	public void testNodesWithFeature() {
+		CapsCache cache = new CapsCache(10, null);
+		cache.put("client#1", new String[]{"urn:a", "urn:b"});
+		cache.put("client#2", new String[]{"urn:b"});
+
+		Set<String> nodes = cache.getNodesWithFeature("urn:b");
+		assertEquals(2, nodes.size());
+		assertTrue(nodes.contains("client#1"));
+		assertTrue(nodes.contains("client#2"));
+		assertEquals(Collections.singleton("client#1"), cache.getNodesWithFeature("urn:a"));
+		assertTrue(cache.getNodesWithFeature("urn:c").isEmpty());
+
+		cache.put("client#1", new String[]{"urn:c"});
+		assertTrue(cache.getNodesWithFeature("urn:a").isEmpty());
+		assertEquals(Collections.singleton("client#1"), cache.getNodesWithFeature("urn:c"));
+	}
+
+	@Test
+	public void testEviction() {
+		CapsCache cache = new CapsCache(2, "server#");
+		cache.put("server#1", new String[]{"urn:s"});
+		cache.put("client#1", new String[]{"urn:a"});
+		cache.put("client#2", new String[]{"urn:b"});
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.contains("server#1"));
+		assertTrue(cache.getNodesWithFeature("urn:a").isEmpty());
+
+		// recently used node is kept
+		cache.setMaxNodes(3);
+		cache.put("client#3", new String[]{"urn:c"});
+		assertTrue(cache.contains("client#2"));
+		cache.put("client#4", new String[]{"urn:d"});
+		assertTrue(cache.contains("client#2"));
+		assertTrue(cache.getNodesWithFeature("urn:c").isEmpty());
+		assertTrue(cache.contains("server#1"));
+	}
+
+	@Test
+	public void testNodesWithFeatureAreMarkedAsUsed() {
+		CapsCache cache = new CapsCache(2, null);
+		cache.put("client#1", new String[]{"urn:a"});
+		cache.put("client#2", new String[]{"urn:b"});
+
+		assertEquals(Collections.singleton("client#1"), cache.getNodesWithFeature("urn:a"));
+		cache.put("client#3", new String[]{"urn:c"});
+
+		assertEquals(Collections.singleton("client#1"), cache.getNodesWithFeature("urn:a"));
+		assertTrue(cache.getNodesWithFeature("urn:b").isEmpty());
+	}
+
+	@Test
+	public void testEvictedNodeUsedBySessionIsRestored() {
+		CapsCache cache = new CapsCache(1, null);
+		// name of the node kept by a session
+		String node = cache.canonicalNode(new String("client#1"));
+		cache.put(new String("client#1"), new String[]{"urn:a"});
+		assertSame(node, cache.canonicalNode("client#1"));
+
+		cache.put("client#2", new String[]{"urn:b"});
+		assertEquals(1, cache.size());
+		assertTrue(cache.getNodesWithFeature("urn:a").isEmpty());
+
+		// node is restored instead of being queried again
+		assertArrayEquals(new String[]{"urn:a"}, cache.get(node));
+		assertEquals(Collections.singleton("client#1"), cache.getNodesWithFeature("urn:a"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testOldServerNodesAreUnpinned() {
+		AtomicLong generation = new AtomicLong();
+		CapsCache cache = new CapsCache(2, "server#", generation::get);
+		cache.put("server#1", new String[]{"urn:s1"});
+		cache.put("server#2", new String[]{"urn:s2"});
+		cache.put("client#1", new String[]{"urn:a"});
+		assertEquals(2, cache.getNodesWithFeature("urn:s1").size() + cache.getNodesWithFeature("urn:s2").size());
+
+		// server node stored again with the current generation stays pinned
+		generation.incrementAndGet();
+		cache.put("server#2", new String[]{"urn:s2"});
+		cache.put("client#2", new String[]{"urn:b"});
+		cache.put("client#3", new String[]{"urn:c"});
+
+		assertTrue(cache.getNodesWithFeature("urn:s1").isEmpty());
+		assertEquals(Collections.singleton("server#2"), cache.getNodesWithFeature("urn:s2"));
+	}
+}
@@ -26,6 +26,7 @@ import tigase.db.TigaseDBException;
 import tigase.server.Packet;
 import tigase.util.stringprep.TigaseStringprepException;
 import tigase.vhosts.VHostItemImpl;
+import tigase.vhosts.filter.CompiledDomainList;
 import tigase.vhosts.filter.DomainFilterPolicy;
 import tigase.xmpp.NotAuthorizedException;
 import tigase.xmpp.StanzaType;
@@ -362,6 +363,41 @@ public class DomainFilterTest
 
 	}
 
+	@Test
+	public void testCompiledDomainsList()
+			throws NotAuthorizedException, TigaseStringprepException, TigaseDBException {
+		String[] whitelistDomains = new String[]{"domain1", externalDomainUser.getDomain()};
+
+		session = getSession(connId1, recp1, DomainFilterPolicy.LIST, whitelistDomains);
+		VHostItemImpl vhost = (VHostItemImpl) session.getDomain();
+
+		// list compiled for VHost is shared by sessions
+		CompiledDomainList compiled = domainFilter.getDomainsListCompiled(session);
+		Assert.assertSame(vhost.getDomainFilterDomainsCompiled(), compiled);
+		Assert.assertSame(compiled, domainFilter.getDomainsListCompiled(session));
+
+		// list is compiled again after it was changed
+		vhost.setDomainFilterDomains(new String[]{"domain1", localDomainUser.getDomain()});
+		session.removeCommonSessionData(ALLOWED_DOMAINS_LIST_KEY);
+		processPacket(session, localDomainUser);
+		Assert.assertTrue("WHITELIST policy, message to domain added to whitelist", results.isEmpty());
+		processPacket(session, externalDomainUser);
+		Assert.assertTrue("WHITELIST policy, message to domain removed from whitelist",
+						  results.pop().getType().equals(StanzaType.error));
+
+		// domains from user repository are not interned
+		session.removeCommonSessionData(ALLOWED_DOMAINS_LIST_KEY);
+		session.setData(null, ALLOWED_DOMAINS_LIST_KEY, "domain1;" + externalDomainUser.getDomain());
+		processPacket(session, externalDomainUser);
+		Assert.assertTrue("WHITELIST policy, message to domain whitelisted by user", results.isEmpty());
+		processPacket(session, localDomainUser);
+		Assert.assertTrue("WHITELIST policy, message to domain not whitelisted by user",
+						  results.pop().getType().equals(StanzaType.error));
+		session.removeData(null, ALLOWED_DOMAINS_LIST_KEY);
+
+		session.logout();
+	}
+
 	private void filterPacket(XMPPResourceConnection session, JID reciever) throws TigaseStringprepException {
 		p = Packet.packetInstance("message", recp1.toString(), reciever.toString(), StanzaType.chat);
 		p.setPacketFrom(connId1);